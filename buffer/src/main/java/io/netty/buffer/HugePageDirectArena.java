@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.buffer;
+
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link PoolArena.DirectArena} whose chunks are mapped from files in a directory on which a
+ * <a href="https://www.kernel.org/doc/Documentation/vm/hugetlbpage.txt">hugetlbfs</a> is mounted, so they are
+ * backed by huge pages and need far fewer TLB entries than chunks backed by regular pages. Each file is deleted right
+ * after it was mapped, so its memory is released once the chunk is destroyed.
+ * <p>
+ * If the directory is not a hugetlbfs mount, which {@link #isHugetlbfsMount(File)} checks, the arena allocates all
+ * chunks like a {@link PoolArena.DirectArena}. If a chunk can not be mapped, for example because there are no free
+ * huge pages left, it does the same until {@link #MAP_RETRY_INTERVAL_NANOS} passed, and then tries to map chunks
+ * again.
+ */
+final class HugePageDirectArena extends PoolArena.DirectArena {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(HugePageDirectArena.class);
+
+    // Time after which a chunk is mapped again once mapping a chunk failed.
+    static final long MAP_RETRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final String PROC_MOUNTS = "/proc/mounts";
+
+    private final File directory;
+    private final int hugePageSize;
+    private final boolean hugetlbfs;
+    private final long mapRetryIntervalNanos;
+    private volatile boolean mapFailed;
+    private volatile long mapRetryNanos;
+
+    HugePageDirectArena(PooledByteBufAllocator parent, int pageSize, int maxOrder, int pageShifts, int chunkSize,
+                        int directMemoryCacheAlignment, int numLockStripes, boolean useSizeClasses, File directory,
+                        int hugePageSize, boolean hugetlbfs, long mapRetryIntervalNanos) {
+        super(parent, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment, numLockStripes,
+              useSizeClasses);
+        if (hugePageSize <= 0 || (hugePageSize & hugePageSize - 1) != 0) {
+            throw new IllegalArgumentException("hugePageSize: " + hugePageSize + " (expected: power of 2)");
+        }
+        this.directory = directory;
+        this.hugePageSize = hugePageSize;
+        this.hugetlbfs = hugetlbfs;
+        this.mapRetryIntervalNanos = mapRetryIntervalNanos;
+    }
+
+    /**
+     * Returns {@code true} if new chunks are mapped from huge pages, {@code false} while the arena allocates them
+     * from regular direct memory.
+     */
+    boolean hugePagesAvailable() {
+        return hugetlbfs && (!mapFailed || System.nanoTime() - mapRetryNanos >= 0);
+    }
+
+    @Override
+    protected PoolChunk<ByteBuffer> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize) {
+        if (hugePagesAvailable()) {
+            try {
+                // Mappings of hugetlbfs files are aligned to the huge page size, which covers any cache alignment.
+                ByteBuffer memory = map(chunkSize);
+                if (mapFailed) {
+                    mapFailed = false;
+                    logger.info("Mapping chunks from huge pages in {} again", directory);
+                }
+                return new PoolChunk<ByteBuffer>(this, memory, pageSize, maxOrder, pageShifts, chunkSize, 0);
+            } catch (IOException e) {
+                if (!mapFailed) {
+                    logger.info("Failed to map a chunk from huge pages in {}, falling back to regular direct memory",
+                                directory, e);
+                }
+                mapRetryNanos = System.nanoTime() + mapRetryIntervalNanos;
+                mapFailed = true;
+            }
+        }
+        // Always allocate with a cleaner, so destroyChunk(...) can free mapped and regular chunks alike.
+        ByteBuffer memory = ByteBuffer.allocateDirect(chunkSize + directMemoryCacheAlignment);
+        return new PoolChunk<ByteBuffer>(this, memory, pageSize, maxOrder, pageShifts, chunkSize,
+                                         directMemoryCacheAlignment == 0 ? 0 : offsetCacheLine(memory));
+    }
+
+    private ByteBuffer map(int chunkSize) throws IOException {
+        // hugetlbfs only supports files whose size is a multiple of the huge page size.
+        long size = ((long) chunkSize + hugePageSize - 1) & -hugePageSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("chunkSize " + chunkSize + " exceeds the largest mapping when rounded up to "
+                                  + hugePageSize + " bytes");
+        }
+        File file = File.createTempFile("netty-chunk-", ".tmp", directory);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                // The mapping stays valid after the channel was closed and the file was deleted.
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            if (!file.delete()) {
+                logger.debug("Failed to delete {}", file);
+            }
+        }
+    }
+
+    @Override
+    protected void destroyChunk(PoolChunk<ByteBuffer> chunk) {
+        if (chunk.unpooled) {
+            super.destroyChunk(chunk);
+        } else {
+            // Unmaps the memory of mapped chunks.
+            PlatformDependent.freeDirectBuffer(chunk.memory);
+        }
+    }
+
+    /**
+     * Returns {@code true} if {@code directory} is on a hugetlbfs mount according to {@code /proc/mounts}.
+     */
+    static boolean isHugetlbfsMount(File directory) {
+        try {
+            BufferedReader mounts =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(PROC_MOUNTS), "UTF-8"));
+            try {
+                return isHugetlbfsMount(directory.getCanonicalPath(), mounts);
+            } finally {
+                mounts.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to read the mounts of {} from {}", directory, PROC_MOUNTS, e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the mount with the longest mount point that contains {@code path} is a hugetlbfs
+     * mount, given the mounts in the format of {@code /proc/mounts}.
+     */
+    static boolean isHugetlbfsMount(String path, BufferedReader mounts) throws IOException {
+        String type = null;
+        int longest = -1;
+        String line;
+        while ((line = mounts.readLine()) != null) {
+            String[] fields = line.split(" ");
+            if (fields.length < 3) {
+                continue;
+            }
+            // Spaces in mount points are escaped as \040.
+            String mountPoint = fields[1].replace("\\040", " ");
+            if (mountPoint.length() > longest && contains(mountPoint, path)) {
+                longest = mountPoint.length();
+                type = fields[2];
+            }
+        }
+        return "hugetlbfs".equals(type);
+    }
+
+    private static boolean contains(String mountPoint, String path) {
+        if ("/".equals(mountPoint)) {
+            return path.startsWith(mountPoint);
+        }
+        return path.startsWith(mountPoint) &&
+               (path.length() == mountPoint.length() || path.charAt(mountPoint.length()) == '/');
+    }
+}
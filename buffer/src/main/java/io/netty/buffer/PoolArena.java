@@ -16,6 +16,7 @@
 
 package io.netty.buffer;
 
+import io.netty.util.concurrent.GlobalEventExecutor;
 import io.netty.util.internal.LongCounter;
 import io.netty.util.internal.PlatformDependent;
 import io.netty.util.internal.StringUtil;
@@ -23,8 +24,13 @@ import io.netty.util.internal.StringUtil;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static java.lang.Math.max;
 
@@ -49,41 +55,54 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     final int numSmallSubpagePools;
     final int directMemoryCacheAlignment;
     final int directMemoryCacheAlignmentMask;
+    // Only set if capacities are rounded up to size classes instead of powers of two.
+    final SizeClasses sizeClasses;
     private final PoolSubpage<T>[] tinySubpagePools;
     private final PoolSubpage<T>[] smallSubpagePools;
 
-    private final PoolChunkList<T> q050;
-    private final PoolChunkList<T> q025;
-    private final PoolChunkList<T> q000;
-    private final PoolChunkList<T> qInit;
-    private final PoolChunkList<T> q075;
-    private final PoolChunkList<T> q100;
+    // Normal allocations are served from the chunk lists of one of the stripes, each guarded by its own lock.
+    private final Stripe<T>[] stripes;
 
     private final List<PoolChunkListMetric> chunkListMetrics;
 
-    // Metrics for allocations and deallocations
-    private long allocationsNormal;
-    // We need to use the LongCounter here as this is not guarded via synchronized block.
+    // Metrics for allocations and deallocations, LongCounters so neither allocations nor metric reads take a lock.
+    private final LongCounter allocationsNormal = PlatformDependent.newLongCounter();
     private final LongCounter allocationsTiny = PlatformDependent.newLongCounter();
     private final LongCounter allocationsSmall = PlatformDependent.newLongCounter();
     private final LongCounter allocationsHuge = PlatformDependent.newLongCounter();
     private final LongCounter activeBytesHuge = PlatformDependent.newLongCounter();
 
-    private long deallocationsTiny;
-    private long deallocationsSmall;
-    private long deallocationsNormal;
-
-    // We need to use the LongCounter here as this is not guarded via synchronized block.
+    private final LongCounter deallocationsTiny = PlatformDependent.newLongCounter();
+    private final LongCounter deallocationsSmall = PlatformDependent.newLongCounter();
+    private final LongCounter deallocationsNormal = PlatformDependent.newLongCounter();
     private final LongCounter deallocationsHuge = PlatformDependent.newLongCounter();
 
     // Number of thread caches backed by this arena.
     final AtomicInteger numThreadCaches = new AtomicInteger();
+    // Bytes held by the thread caches of this arena, which stay allocated from the chunks of the arena.
+    final LongCounter numThreadCacheBytes = PlatformDependent.newLongCounter();
+
+    // Empty chunks in qInit are never destroyed on free, so they are released by a task after some delay.
+    private final long chunkReleaseDelayNanos;
+    private final int maxEmptyChunks;
+    private final AtomicBoolean chunkReleaseScheduled = new AtomicBoolean();
+    private final Runnable chunkReleaseTask = new Runnable() {
+        @Override
+        public void run() {
+            chunkReleaseScheduled.set(false);
+            if (releaseEmptyChunks(System.nanoTime() - chunkReleaseDelayNanos, maxEmptyChunks) > maxEmptyChunks) {
+                // Some chunks did not stay empty for long enough yet.
+                scheduleChunkRelease();
+            }
+        }
+    };
 
     // TODO: Test if adding padding helps under contention
     //private long pad0, pad1, pad2, pad3, pad4, pad5, pad6, pad7;
 
     protected PoolArena(PooledByteBufAllocator parent, int pageSize,
-          int maxOrder, int pageShifts, int chunkSize, int cacheAlignment) {
+          int maxOrder, int pageShifts, int chunkSize, int cacheAlignment, int numLockStripes,
+          boolean useSizeClasses) {
         this.parent = parent;
         this.pageSize = pageSize;
         this.maxOrder = maxOrder;
@@ -92,41 +111,45 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         directMemoryCacheAlignment = cacheAlignment;
         directMemoryCacheAlignmentMask = cacheAlignment - 1;
         subpageOverflowMask = ~(pageSize - 1);
+        sizeClasses = useSizeClasses ? new SizeClasses(pageSize, pageShifts, chunkSize, cacheAlignment) : null;
         tinySubpagePools = newSubpagePoolArray(numTinySubpagePools);
         for (int i = 0; i < tinySubpagePools.length; i ++) {
             tinySubpagePools[i] = newSubpagePoolHead(pageSize);
         }
 
-        numSmallSubpagePools = pageShifts - 9;
+        numSmallSubpagePools = sizeClasses != null ? sizeClasses.numSmallClasses() : pageShifts - 9;
         smallSubpagePools = newSubpagePoolArray(numSmallSubpagePools);
         for (int i = 0; i < smallSubpagePools.length; i ++) {
             smallSubpagePools[i] = newSubpagePoolHead(pageSize);
         }
 
-        q100 = new PoolChunkList<T>(this, null, 100, Integer.MAX_VALUE, chunkSize);
-        q075 = new PoolChunkList<T>(this, q100, 75, 100, chunkSize);
-        q050 = new PoolChunkList<T>(this, q075, 50, 100, chunkSize);
-        q025 = new PoolChunkList<T>(this, q050, 25, 75, chunkSize);
-        q000 = new PoolChunkList<T>(this, q025, 1, 50, chunkSize);
-        qInit = new PoolChunkList<T>(this, q000, Integer.MIN_VALUE, 25, chunkSize);
+        chunkReleaseDelayNanos = TimeUnit.MILLISECONDS.toNanos(PooledByteBufAllocator.defaultChunkReleaseDelayMillis());
+        maxEmptyChunks = PooledByteBufAllocator.defaultMaxEmptyChunks();
 
-        q100.prevList(q075);
-        q075.prevList(q050);
-        q050.prevList(q025);
-        q025.prevList(q000);
-        q000.prevList(null);
-        qInit.prevList(qInit);
+        if (numLockStripes <= 0) {
+            throw new IllegalArgumentException("numLockStripes: " + numLockStripes + " (expected: > 0)");
+        }
+        stripes = newStripeArray(numLockStripes);
+        for (int i = 0; i < stripes.length; i ++) {
+            stripes[i] = new Stripe<T>(chunkSize);
+        }
 
         List<PoolChunkListMetric> metrics = new ArrayList<PoolChunkListMetric>(6);
-        metrics.add(qInit);
-        metrics.add(q000);
-        metrics.add(q025);
-        metrics.add(q050);
-        metrics.add(q075);
-        metrics.add(q100);
+        if (stripes.length == 1) {
+            metrics.addAll(stripes[0].chunkLists);
+        } else {
+            for (int i = 0; i < 6; i ++) {
+                metrics.add(new StripedChunkListMetric(stripes, i));
+            }
+        }
         chunkListMetrics = Collections.unmodifiableList(metrics);
     }
 
+    @SuppressWarnings("unchecked")
+    private static <T> Stripe<T>[] newStripeArray(int size) {
+        return new Stripe[size];
+    }
+
     private PoolSubpage<T> newSubpagePoolHead(int pageSize) {
         PoolSubpage<T> head = new PoolSubpage<T>(pageSize);
         head.prev = head;
@@ -161,9 +184,16 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         return tableIdx;
     }
 
-    // capacity < pageSize
+    /**
+     * Returns the index of the pool of small subpages and the cache for the given capacity.
+     */
+    int smallSubpageIdx(int normCapacity) {
+        return sizeClasses != null ? sizeClasses.smallIdx(normCapacity) : smallIdx(normCapacity);
+    }
+
+    // capacity < pageSize, or not a multiple of pageSize if size classes are used
     boolean isTinyOrSmall(int normCapacity) {
-        return (normCapacity & subpageOverflowMask) == 0;
+        return sizeClasses != null ? sizeClasses.isSubpage(normCapacity) : (normCapacity & subpageOverflowMask) == 0;
     }
 
     // normCapacity < 512
@@ -189,7 +219,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
                     // was able to allocate out of the cache so move on
                     return;
                 }
-                tableIdx = smallIdx(normCapacity);
+                tableIdx = smallSubpageIdx(normCapacity);
                 table = smallSubpagePools;
             }
 
@@ -210,9 +240,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
                     return;
                 }
             }
-            synchronized (this) {
-                allocateNormal(buf, reqCapacity, normCapacity);
-            }
+            allocateNormal(buf, reqCapacity, normCapacity);
 
             incTinySmallAllocation(tiny);
             return;
@@ -222,30 +250,65 @@ abstract class PoolArena<T> implements PoolArenaMetric {
                 // was able to allocate out of the cache so move on
                 return;
             }
-            synchronized (this) {
-                allocateNormal(buf, reqCapacity, normCapacity);
-                ++allocationsNormal;
-            }
+            allocateNormal(buf, reqCapacity, normCapacity);
+            allocationsNormal.increment();
         } else {
             // Huge allocations are never served via the cache so just call allocateHuge
             allocateHuge(buf, reqCapacity);
         }
     }
 
-    // Method must be called inside synchronized(this) { ... } block
     private void allocateNormal(PooledByteBuf<T> buf, int reqCapacity, int normCapacity) {
-        if (q050.allocate(buf, reqCapacity, normCapacity) || q025.allocate(buf, reqCapacity, normCapacity) ||
-            q000.allocate(buf, reqCapacity, normCapacity) || qInit.allocate(buf, reqCapacity, normCapacity) ||
-            q075.allocate(buf, reqCapacity, normCapacity)) {
-            return;
+        Stripe<T> stripe = lockStripe();
+        try {
+            if (stripe.q050.allocate(buf, reqCapacity, normCapacity) ||
+                stripe.q025.allocate(buf, reqCapacity, normCapacity) ||
+                stripe.q000.allocate(buf, reqCapacity, normCapacity) ||
+                stripe.qInit.allocate(buf, reqCapacity, normCapacity) ||
+                stripe.q075.allocate(buf, reqCapacity, normCapacity)) {
+                return;
+            }
+
+            // Add a new chunk.
+            PoolChunk<T> c = newChunk(pageSize, maxOrder, pageShifts, chunkSize);
+            long handle = c.allocate(normCapacity);
+            assert handle > 0;
+            c.initBuf(buf, handle, reqCapacity);
+            stripe.qInit.add(c);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Locks and returns a stripe to allocate from. The stripe of the current thread is preferred, but if another
+     * thread holds its lock any other stripe that is not locked is used instead, so threads do not queue up behind
+     * each other as long as there are free stripes.
+     */
+    private Stripe<T> lockStripe() {
+        final Stripe<T>[] stripes = this.stripes;
+        if (stripes.length == 1) {
+            Stripe<T> stripe = stripes[0];
+            stripe.lock();
+            return stripe;
+        }
+        int index = (int) (Thread.currentThread().getId() % stripes.length);
+        for (int i = 0; i < stripes.length; i ++) {
+            Stripe<T> stripe = stripes[(index + i) % stripes.length];
+            if (stripe.tryLock()) {
+                return stripe;
+            }
         }
+        Stripe<T> stripe = stripes[index];
+        stripe.lock();
+        return stripe;
+    }
 
-        // Add a new chunk.
-        PoolChunk<T> c = newChunk(pageSize, maxOrder, pageShifts, chunkSize);
-        long handle = c.allocate(normCapacity);
-        assert handle > 0;
-        c.initBuf(buf, handle, reqCapacity);
-        qInit.add(c);
+    /**
+     * Returns the lock used for chunks that do not belong to a stripe.
+     */
+    final Lock defaultLock() {
+        return stripes[0];
     }
 
     private void incTinySmallAllocation(boolean tiny) {
@@ -288,27 +351,65 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     }
 
     void freeChunk(PoolChunk<T> chunk, long handle, SizeClass sizeClass) {
+        switch (sizeClass) {
+        case Normal:
+            deallocationsNormal.increment();
+            break;
+        case Small:
+            deallocationsSmall.increment();
+            break;
+        case Tiny:
+            deallocationsTiny.increment();
+            break;
+        default:
+            throw new Error();
+        }
         final boolean destroyChunk;
-        synchronized (this) {
-            switch (sizeClass) {
-            case Normal:
-                ++deallocationsNormal;
-                break;
-            case Small:
-                ++deallocationsSmall;
-                break;
-            case Tiny:
-                ++deallocationsTiny;
-                break;
-            default:
-                throw new Error();
-            }
+        final boolean empty;
+        // A chunk never leaves the chunk lists of its stripe, so the lock can be obtained before it is acquired.
+        Lock lock = chunk.lock();
+        lock.lock();
+        try {
             destroyChunk = !chunk.parent.free(chunk, handle);
+            empty = !destroyChunk && chunk.isEmpty();
+        } finally {
+            lock.unlock();
         }
         if (destroyChunk) {
             // destroyChunk not need to be called while holding the synchronized lock.
             destroyChunk(chunk);
+        } else if (empty && chunkReleaseDelayNanos > 0) {
+            scheduleChunkRelease();
+        }
+    }
+
+    private void scheduleChunkRelease() {
+        if (chunkReleaseScheduled.compareAndSet(false, true)) {
+            GlobalEventExecutor.INSTANCE.schedule(chunkReleaseTask, chunkReleaseDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Destroys the chunks that are empty since {@code releaseNanoTime} or earlier, but keeps up to
+     * {@code maxEmptyChunks} empty chunks to serve the next allocations. Returns the number of empty chunks that are
+     * left in the arena.
+     */
+    int releaseEmptyChunks(long releaseNanoTime, int maxEmptyChunks) {
+        List<PoolChunk<T>> released = new ArrayList<PoolChunk<T>>();
+        int numEmpty = 0;
+        for (Stripe<T> stripe: stripes) {
+            stripe.lock();
+            try {
+                // Only chunks in qInit stay around when they become empty, all others are destroyed right away.
+                numEmpty += stripe.qInit.releaseEmpty(max(0, maxEmptyChunks - numEmpty), releaseNanoTime, released);
+            } finally {
+                stripe.unlock();
+            }
+        }
+        for (PoolChunk<T> chunk: released) {
+            destroyChunk(chunk);
         }
+        return numEmpty;
     }
 
     PoolSubpage<T> findSubpagePoolHead(int elemSize) {
@@ -318,12 +419,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
             tableIdx = elemSize >>> 4;
             table = tinySubpagePools;
         } else {
-            tableIdx = 0;
-            elemSize >>>= 10;
-            while (elemSize != 0) {
-                elemSize >>>= 1;
-                tableIdx ++;
-            }
+            tableIdx = smallSubpageIdx(elemSize);
             table = smallSubpagePools;
         }
 
@@ -340,6 +436,10 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         }
 
         if (!isTiny(reqCapacity)) { // >= 512
+            if (sizeClasses != null) {
+                return sizeClasses.normalize(reqCapacity);
+            }
+
             // Doubled
 
             int normalizedCapacity = reqCapacity;
@@ -474,11 +574,8 @@ abstract class PoolArena<T> implements PoolArenaMetric {
 
     @Override
     public long numAllocations() {
-        final long allocsNormal;
-        synchronized (this) {
-            allocsNormal = allocationsNormal;
-        }
-        return allocationsTiny.value() + allocationsSmall.value() + allocsNormal + allocationsHuge.value();
+        return allocationsTiny.value() + allocationsSmall.value() + allocationsNormal.value() +
+                allocationsHuge.value();
     }
 
     @Override
@@ -492,32 +589,29 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     }
 
     @Override
-    public synchronized long numNormalAllocations() {
-        return allocationsNormal;
+    public long numNormalAllocations() {
+        return allocationsNormal.value();
     }
 
     @Override
     public long numDeallocations() {
-        final long deallocs;
-        synchronized (this) {
-            deallocs = deallocationsTiny + deallocationsSmall + deallocationsNormal;
-        }
-        return deallocs + deallocationsHuge.value();
+        return deallocationsTiny.value() + deallocationsSmall.value() + deallocationsNormal.value() +
+                deallocationsHuge.value();
     }
 
     @Override
-    public synchronized long numTinyDeallocations() {
-        return deallocationsTiny;
+    public long numTinyDeallocations() {
+        return deallocationsTiny.value();
     }
 
     @Override
-    public synchronized long numSmallDeallocations() {
-        return deallocationsSmall;
+    public long numSmallDeallocations() {
+        return deallocationsSmall.value();
     }
 
     @Override
-    public synchronized long numNormalDeallocations() {
-        return deallocationsNormal;
+    public long numNormalDeallocations() {
+        return deallocationsNormal.value();
     }
 
     @Override
@@ -534,9 +628,8 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     public  long numActiveAllocations() {
         long val = allocationsTiny.value() + allocationsSmall.value() + allocationsHuge.value()
                 - deallocationsHuge.value();
-        synchronized (this) {
-            val += allocationsNormal - (deallocationsTiny + deallocationsSmall + deallocationsNormal);
-        }
+        val += allocationsNormal.value() - (deallocationsTiny.value() + deallocationsSmall.value() +
+                deallocationsNormal.value());
         return max(val, 0);
     }
 
@@ -552,10 +645,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
 
     @Override
     public long numActiveNormalAllocations() {
-        final long val;
-        synchronized (this) {
-            val = allocationsNormal - deallocationsNormal;
-        }
+        final long val = allocationsNormal.value() - deallocationsNormal.value();
         return max(val, 0);
     }
 
@@ -564,14 +654,42 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         return max(numHugeAllocations() - numHugeDeallocations(), 0);
     }
 
+    @Override
+    public long numCommittedBytes() {
+        return numActiveBytes();
+    }
+
+    @Override
+    public long numUsedBytes() {
+        long val = activeBytesHuge.value();
+        for (Stripe<T> stripe: stripes) {
+            stripe.lock();
+            try {
+                for (PoolChunkList<T> list: stripe.chunkLists) {
+                    for (PoolChunkMetric m: list) {
+                        val += ((PoolChunk<?>) m).usedBytes();
+                    }
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return max(0, val);
+    }
+
     @Override
     public long numActiveBytes() {
         long val = activeBytesHuge.value();
-        synchronized (this) {
-            for (int i = 0; i < chunkListMetrics.size(); i++) {
-                for (PoolChunkMetric m: chunkListMetrics.get(i)) {
-                    val += m.chunkSize();
+        for (Stripe<T> stripe: stripes) {
+            stripe.lock();
+            try {
+                for (PoolChunkList<T> list: stripe.chunkLists) {
+                    for (PoolChunkMetric m: list) {
+                        val += m.chunkSize();
+                    }
                 }
+            } finally {
+                stripe.unlock();
             }
         }
         return max(0, val);
@@ -584,33 +702,35 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     protected abstract void destroyChunk(PoolChunk<T> chunk);
 
     @Override
-    public synchronized String toString() {
-        StringBuilder buf = new StringBuilder()
-            .append("Chunk(s) at 0~25%:")
-            .append(StringUtil.NEWLINE)
-            .append(qInit)
-            .append(StringUtil.NEWLINE)
-            .append("Chunk(s) at 0~50%:")
-            .append(StringUtil.NEWLINE)
-            .append(q000)
-            .append(StringUtil.NEWLINE)
-            .append("Chunk(s) at 25~75%:")
-            .append(StringUtil.NEWLINE)
-            .append(q025)
-            .append(StringUtil.NEWLINE)
-            .append("Chunk(s) at 50~100%:")
-            .append(StringUtil.NEWLINE)
-            .append(q050)
-            .append(StringUtil.NEWLINE)
-            .append("Chunk(s) at 75~100%:")
-            .append(StringUtil.NEWLINE)
-            .append(q075)
-            .append(StringUtil.NEWLINE)
-            .append("Chunk(s) at 100%:")
-            .append(StringUtil.NEWLINE)
-            .append(q100)
-            .append(StringUtil.NEWLINE)
-            .append("tiny subpages:");
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (Stripe<T> stripe: stripes) {
+            buf.append("Chunk(s) at 0~25%:")
+               .append(StringUtil.NEWLINE)
+               .append(stripe.qInit)
+               .append(StringUtil.NEWLINE)
+               .append("Chunk(s) at 0~50%:")
+               .append(StringUtil.NEWLINE)
+               .append(stripe.q000)
+               .append(StringUtil.NEWLINE)
+               .append("Chunk(s) at 25~75%:")
+               .append(StringUtil.NEWLINE)
+               .append(stripe.q025)
+               .append(StringUtil.NEWLINE)
+               .append("Chunk(s) at 50~100%:")
+               .append(StringUtil.NEWLINE)
+               .append(stripe.q050)
+               .append(StringUtil.NEWLINE)
+               .append("Chunk(s) at 75~100%:")
+               .append(StringUtil.NEWLINE)
+               .append(stripe.q075)
+               .append(StringUtil.NEWLINE)
+               .append("Chunk(s) at 100%:")
+               .append(StringUtil.NEWLINE)
+               .append(stripe.q100)
+               .append(StringUtil.NEWLINE);
+        }
+        buf.append("tiny subpages:");
         appendPoolSubPages(buf, tinySubpagePools);
         buf.append(StringUtil.NEWLINE)
            .append("small subpages:");
@@ -648,7 +768,10 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         } finally {
             destroyPoolSubPages(smallSubpagePools);
             destroyPoolSubPages(tinySubpagePools);
-            destroyPoolChunkLists(qInit, q000, q025, q050, q075, q100);
+            for (Stripe<T> stripe: stripes) {
+                destroyPoolChunkLists(stripe.qInit, stripe.q000, stripe.q025, stripe.q050, stripe.q075,
+                        stripe.q100);
+            }
         }
     }
 
@@ -664,12 +787,89 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         }
     }
 
+    /**
+     * The chunk lists of one stripe of the arena, guarded by the lock of the stripe. A chunk stays in the chunk lists
+     * of the stripe it was created in until it is destroyed.
+     */
+    private static final class Stripe<T> extends ReentrantLock {
+        private static final long serialVersionUID = -8014399478102233213L;
+
+        final PoolChunkList<T> q050;
+        final PoolChunkList<T> q025;
+        final PoolChunkList<T> q000;
+        final PoolChunkList<T> qInit;
+        final PoolChunkList<T> q075;
+        final PoolChunkList<T> q100;
+        // In the order of PoolArenaMetric.chunkLists().
+        final List<PoolChunkList<T>> chunkLists;
+
+        Stripe(int chunkSize) {
+            q100 = new PoolChunkList<T>(this, null, 100, Integer.MAX_VALUE, chunkSize);
+            q075 = new PoolChunkList<T>(this, q100, 75, 100, chunkSize);
+            q050 = new PoolChunkList<T>(this, q075, 50, 100, chunkSize);
+            q025 = new PoolChunkList<T>(this, q050, 25, 75, chunkSize);
+            q000 = new PoolChunkList<T>(this, q025, 1, 50, chunkSize);
+            qInit = new PoolChunkList<T>(this, q000, Integer.MIN_VALUE, 25, chunkSize);
+
+            q100.prevList(q075);
+            q075.prevList(q050);
+            q050.prevList(q025);
+            q025.prevList(q000);
+            q000.prevList(null);
+            qInit.prevList(qInit);
+
+            List<PoolChunkList<T>> lists = new ArrayList<PoolChunkList<T>>(6);
+            lists.add(qInit);
+            lists.add(q000);
+            lists.add(q025);
+            lists.add(q050);
+            lists.add(q075);
+            lists.add(q100);
+            chunkLists = Collections.unmodifiableList(lists);
+        }
+    }
+
+    /**
+     * Exposes the chunk lists with the same usage range of all stripes as one {@link PoolChunkListMetric}.
+     */
+    private static final class StripedChunkListMetric implements PoolChunkListMetric {
+        private final Stripe<?>[] stripes;
+        private final int index;
+
+        StripedChunkListMetric(Stripe<?>[] stripes, int index) {
+            this.stripes = stripes;
+            this.index = index;
+        }
+
+        @Override
+        public int minUsage() {
+            return stripes[0].chunkLists.get(index).minUsage();
+        }
+
+        @Override
+        public int maxUsage() {
+            return stripes[0].chunkLists.get(index).maxUsage();
+        }
+
+        @Override
+        public Iterator<PoolChunkMetric> iterator() {
+            List<PoolChunkMetric> metrics = new ArrayList<PoolChunkMetric>();
+            for (Stripe<?> stripe: stripes) {
+                for (PoolChunkMetric m: stripe.chunkLists.get(index)) {
+                    metrics.add(m);
+                }
+            }
+            return metrics.iterator();
+        }
+    }
+
     static final class HeapArena extends PoolArena<byte[]> {
 
         HeapArena(PooledByteBufAllocator parent, int pageSize, int maxOrder,
-                int pageShifts, int chunkSize, int directMemoryCacheAlignment) {
+                int pageShifts, int chunkSize, int directMemoryCacheAlignment, int numLockStripes,
+                boolean useSizeClasses) {
             super(parent, pageSize, maxOrder, pageShifts, chunkSize,
-                    directMemoryCacheAlignment);
+                    directMemoryCacheAlignment, numLockStripes, useSizeClasses);
         }
 
         private static byte[] newByteArray(int size) {
@@ -712,12 +912,13 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         }
     }
 
-    static final class DirectArena extends PoolArena<ByteBuffer> {
+    static class DirectArena extends PoolArena<ByteBuffer> {
 
         DirectArena(PooledByteBufAllocator parent, int pageSize, int maxOrder,
-                int pageShifts, int chunkSize, int directMemoryCacheAlignment) {
+                int pageShifts, int chunkSize, int directMemoryCacheAlignment, int numLockStripes,
+                boolean useSizeClasses) {
             super(parent, pageSize, maxOrder, pageShifts, chunkSize,
-                    directMemoryCacheAlignment);
+                    directMemoryCacheAlignment, numLockStripes, useSizeClasses);
         }
 
         @Override
@@ -725,7 +926,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
             return true;
         }
 
-        private int offsetCacheLine(ByteBuffer memory) {
+        final int offsetCacheLine(ByteBuffer memory) {
             // We can only calculate the offset if Unsafe is present as otherwise directBufferAddress(...) will
             // throw an NPE.
             return HAS_UNSAFE ?
@@ -759,7 +960,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
                     offsetCacheLine(memory));
         }
 
-        private static ByteBuffer allocateDirect(int capacity) {
+        static ByteBuffer allocateDirect(int capacity) {
             return PlatformDependent.useDirectBufferNoCleaner() ?
                     PlatformDependent.allocateDirectNoCleaner(capacity) : ByteBuffer.allocateDirect(capacity);
         }
@@ -137,4 +137,16 @@ public interface PoolArenaMetric {
      * Return the number of active bytes that are currently allocated by the arena.
      */
     long numActiveBytes();
+
+    /**
+     * Return the number of bytes of memory that the arena currently holds, which is the size of all its chunks and
+     * huge allocations. This is the same as {@link #numActiveBytes()}.
+     */
+    long numCommittedBytes();
+
+    /**
+     * Return the number of bytes of the {@linkplain #numCommittedBytes() committed memory} that are used by buffers or
+     * held by thread caches. The remaining committed bytes are free space in the chunks of the arena.
+     */
+    long numUsedBytes();
 }
@@ -16,6 +16,9 @@
 
 package io.netty.buffer;
 
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+
 /**
  * Description of algorithm for PageRun/PoolSubpage allocation from PoolChunk
  *
@@ -98,10 +101,26 @@ package io.netty.buffer;
  *
  * memoryMap[id]= depth_of_id  is defined above
  * depthMap[id]= x  indicates that the first node which is free to be allocated is at depth x (from root)
+ *
+ * Runs:
+ * -----
+ * If the arena uses {@link SizeClasses} the sizes of runs are any multiple of pageSize, so instead of the tree the
+ * chunk keeps the free runs of pages, which are found by the length of the run and merged with their neighbours
+ * when a run is freed.
+ *
+ * runs[p] = runs[p + n - 1] = n  => the pages [p, p + n) form a free run
+ * runs[p] = runs[p + n - 1] = -n => the pages [p, p + n) form a run that is in use
+ *
+ * Only the first and last page of a run are kept up to date, as they are the only ones that neighbouring runs
+ * look at. Free runs are linked into lists by the log2 of their length, so allocating n pages takes the first free
+ * run of at least n pages out of the list of log2(n), or any run out of the first non empty list after it. The
+ * handle of a run is (first page << 16 | number of pages).
  */
 final class PoolChunk<T> implements PoolChunkMetric {
 
     private static final int INTEGER_SIZE_MINUS_ONE = Integer.SIZE - 1;
+    private static final int RUN_PAGES_SHIFT = 16;
+    private static final int RUN_PAGES_MASK = (1 << RUN_PAGES_SHIFT) - 1;
 
     final PoolArena<T> arena;
     final T memory;
@@ -122,7 +141,17 @@ final class PoolChunk<T> implements PoolChunkMetric {
     /** Used to mark memory as unusable */
     private final byte unusable;
 
+    // Only used if the arena uses size classes, null otherwise.
+    private final int[] runs;
+    private final int[] nextAvailRun;
+    private final int[] prevAvailRun;
+    private final int[] availRunHeads;
+    // Bit i is set if there is a free run in availRunHeads[i].
+    private int availRunLists;
+
     private int freeBytes;
+    // The System.nanoTime() at which the last allocation out of this chunk was freed.
+    private long emptyNanoTime;
 
     PoolChunkList<T> parent;
     PoolChunk<T> prev;
@@ -148,17 +177,34 @@ final class PoolChunk<T> implements PoolChunkMetric {
         assert maxOrder < 30 : "maxOrder should be < 30, but is: " + maxOrder;
         maxSubpageAllocs = 1 << maxOrder;
 
-        // Generate the memory map.
-        memoryMap = new byte[maxSubpageAllocs << 1];
-        depthMap = new byte[memoryMap.length];
-        int memoryMapIndex = 1;
-        for (int d = 0; d <= maxOrder; ++ d) { // move down the tree one level at a time
-            int depth = 1 << d;
-            for (int p = 0; p < depth; ++ p) {
-                // in each level traverse left to right and set value to the depth of subtree
-                memoryMap[memoryMapIndex] = (byte) d;
-                depthMap[memoryMapIndex] = (byte) d;
-                memoryMapIndex ++;
+        if (arena.sizeClasses != null) {
+            assert maxOrder < RUN_PAGES_SHIFT : "maxOrder should be < 16, but is: " + maxOrder;
+            memoryMap = null;
+            depthMap = null;
+            runs = new int[maxSubpageAllocs];
+            nextAvailRun = new int[maxSubpageAllocs];
+            prevAvailRun = new int[maxSubpageAllocs];
+            availRunHeads = new int[maxOrder + 1];
+            Arrays.fill(availRunHeads, -1);
+            addAvailRun(0, maxSubpageAllocs);
+        } else {
+            runs = null;
+            nextAvailRun = null;
+            prevAvailRun = null;
+            availRunHeads = null;
+
+            // Generate the memory map.
+            memoryMap = new byte[maxSubpageAllocs << 1];
+            depthMap = new byte[memoryMap.length];
+            int memoryMapIndex = 1;
+            for (int d = 0; d <= maxOrder; ++ d) { // move down the tree one level at a time
+                int depth = 1 << d;
+                for (int p = 0; p < depth; ++ p) {
+                    // in each level traverse left to right and set value to the depth of subtree
+                    memoryMap[memoryMapIndex] = (byte) d;
+                    depthMap[memoryMapIndex] = (byte) d;
+                    memoryMapIndex ++;
+                }
             }
         }
 
@@ -173,6 +219,10 @@ final class PoolChunk<T> implements PoolChunkMetric {
         this.offset = offset;
         memoryMap = null;
         depthMap = null;
+        runs = null;
+        nextAvailRun = null;
+        prevAvailRun = null;
+        availRunHeads = null;
         subpages = null;
         subpageOverflowMask = 0;
         pageSize = 0;
@@ -192,8 +242,12 @@ final class PoolChunk<T> implements PoolChunkMetric {
     @Override
     public int usage() {
         final int freeBytes;
-        synchronized (arena) {
+        Lock lock = lock();
+        lock.lock();
+        try {
             freeBytes = this.freeBytes;
+        } finally {
+            lock.unlock();
         }
         return usage(freeBytes);
     }
@@ -211,6 +265,10 @@ final class PoolChunk<T> implements PoolChunkMetric {
     }
 
     long allocate(int normCapacity) {
+        if (runs != null) {
+            return arena.sizeClasses.isSubpage(normCapacity) ?
+                    allocateSubpage(normCapacity) : allocatePages(normCapacity >> pageShifts);
+        }
         if ((normCapacity & subpageOverflowMask) != 0) { // >= pageSize
             return allocateRun(normCapacity);
         } else {
@@ -321,21 +379,30 @@ final class PoolChunk<T> implements PoolChunkMetric {
         // This is need as we may add it back and so alter the linked-list structure.
         PoolSubpage<T> head = arena.findSubpagePoolHead(normCapacity);
         synchronized (head) {
-            int d = maxOrder; // subpages are only be allocated from pages i.e., leaves
-            int id = allocateNode(d);
-            if (id < 0) {
-                return id;
+            final int runSize;
+            final int id;
+            if (runs != null) {
+                runSize = arena.sizeClasses.subpageRunSize(normCapacity);
+                id = (int) allocatePages(runSize >> pageShifts);
+                if (id < 0) {
+                    return id;
+                }
+            } else {
+                runSize = pageSize;
+                int d = maxOrder; // subpages are only be allocated from pages i.e., leaves
+                id = allocateNode(d);
+                if (id < 0) {
+                    return id;
+                }
+                freeBytes -= runSize;
             }
 
             final PoolSubpage<T>[] subpages = this.subpages;
-            final int pageSize = this.pageSize;
-
-            freeBytes -= pageSize;
 
             int subpageIdx = subpageIdx(id);
             PoolSubpage<T> subpage = subpages[subpageIdx];
-            if (subpage == null) {
-                subpage = new PoolSubpage<T>(head, this, id, runOffset(id), pageSize, normCapacity);
+            if (subpage == null || subpage.pageSize() != runSize) {
+                subpage = new PoolSubpage<T>(head, this, id, runOffset(id), runSize, normCapacity);
                 subpages[subpageIdx] = subpage;
             } else {
                 subpage.init(head, normCapacity);
@@ -344,6 +411,95 @@ final class PoolChunk<T> implements PoolChunkMetric {
         }
     }
 
+    /**
+     * Allocates a run of the given number of pages if the arena uses size classes.
+     *
+     * @return the handle of the run or {@code -1} if there is no free run that is long enough
+     */
+    private long allocatePages(int pages) {
+        final int[] runs = this.runs;
+        final int[] nextAvailRun = this.nextAvailRun;
+        int list = log2(pages);
+        // The free runs in the list of the requested length may be too short.
+        for (int first = availRunHeads[list]; first >= 0; first = nextAvailRun[first]) {
+            if (runs[first] >= pages) {
+                return splitRun(first, pages);
+            }
+        }
+        // Every free run in any of the following lists is long enough, prefer the shortest.
+        int lists = availRunLists & -(2 << list);
+        if (lists == 0) {
+            return -1;
+        }
+        return splitRun(availRunHeads[Integer.numberOfTrailingZeros(lists)], pages);
+    }
+
+    private long splitRun(int first, int pages) {
+        int length = runs[first];
+        removeAvailRun(first, length);
+        setRun(first, -pages);
+        if (length > pages) {
+            addAvailRun(first + pages, length - pages);
+        }
+        freeBytes -= pages << pageShifts;
+        return first << RUN_PAGES_SHIFT | pages;
+    }
+
+    private void freePages(int first, int pages) {
+        freeBytes += pages << pageShifts;
+        final int[] runs = this.runs;
+        int length = pages;
+        // Merge with the free runs before and after the freed run, if any.
+        if (first > 0 && runs[first - 1] > 0) {
+            int prevLength = runs[first - 1];
+            first -= prevLength;
+            length += prevLength;
+            removeAvailRun(first, prevLength);
+        }
+        int next = first + length;
+        if (next < runs.length && runs[next] > 0) {
+            int nextLength = runs[next];
+            length += nextLength;
+            removeAvailRun(next, nextLength);
+        }
+        addAvailRun(first, length);
+    }
+
+    private void addAvailRun(int first, int length) {
+        setRun(first, length);
+        int list = log2(length);
+        int head = availRunHeads[list];
+        nextAvailRun[first] = head;
+        prevAvailRun[first] = -1;
+        if (head >= 0) {
+            prevAvailRun[head] = first;
+        }
+        availRunHeads[list] = first;
+        availRunLists |= 1 << list;
+    }
+
+    private void removeAvailRun(int first, int length) {
+        int prev = prevAvailRun[first];
+        int next = nextAvailRun[first];
+        if (prev >= 0) {
+            nextAvailRun[prev] = next;
+        } else {
+            int list = log2(length);
+            availRunHeads[list] = next;
+            if (next < 0) {
+                availRunLists &= ~(1 << list);
+            }
+        }
+        if (next >= 0) {
+            prevAvailRun[next] = prev;
+        }
+    }
+
+    private void setRun(int first, int length) {
+        runs[first] = length;
+        runs[first + Math.abs(length) - 1] = length;
+    }
+
     /**
      * Free a subpage or a run of pages
      * When a subpage is freed from PoolSubpage, it might be added back to subpage pool of the owning PoolArena
@@ -369,17 +525,45 @@ final class PoolChunk<T> implements PoolChunkMetric {
                 }
             }
         }
-        freeBytes += runLength(memoryMapIdx);
-        setValue(memoryMapIdx, depth(memoryMapIdx));
-        updateParentsFree(memoryMapIdx);
+        if (runs != null) {
+            freePages(memoryMapIdx >>> RUN_PAGES_SHIFT, memoryMapIdx & RUN_PAGES_MASK);
+        } else {
+            freeBytes += runLength(memoryMapIdx);
+            setValue(memoryMapIdx, depth(memoryMapIdx));
+            updateParentsFree(memoryMapIdx);
+        }
+        if (freeBytes == chunkSize) {
+            emptyNanoTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns {@code true} if nothing is allocated out of this chunk. Must be called while holding {@link #lock()}.
+     */
+    boolean isEmpty() {
+        return freeBytes == chunkSize;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which this chunk became empty the last time. Must be called while
+     * holding {@link #lock()}.
+     */
+    long emptyNanoTime() {
+        return emptyNanoTime;
+    }
+
+    /**
+     * Returns the number of bytes that are allocated out of this chunk. Must be called while holding {@link #lock()}.
+     */
+    int usedBytes() {
+        return chunkSize - freeBytes;
     }
 
     void initBuf(PooledByteBuf<T> buf, long handle, int reqCapacity) {
         int memoryMapIdx = memoryMapIdx(handle);
         int bitmapIdx = bitmapIdx(handle);
         if (bitmapIdx == 0) {
-            byte val = value(memoryMapIdx);
-            assert val == unusable : String.valueOf(val);
+            assert runs != null ? runs[memoryMapIdx >>> RUN_PAGES_SHIFT] < 0 : value(memoryMapIdx) == unusable;
             buf.init(this, handle, runOffset(memoryMapIdx) + offset, reqCapacity, runLength(memoryMapIdx),
                      arena.parent.threadCache());
         } else {
@@ -424,17 +608,26 @@ final class PoolChunk<T> implements PoolChunkMetric {
     }
 
     private int runLength(int id) {
+        if (runs != null) {
+            return (id & RUN_PAGES_MASK) << pageShifts;
+        }
         // represents the size in #bytes supported by node 'id' in the tree
         return 1 << log2ChunkSize - depth(id);
     }
 
     private int runOffset(int id) {
+        if (runs != null) {
+            return id >>> RUN_PAGES_SHIFT << pageShifts;
+        }
         // represents the 0-based offset in #bytes from start of the byte-array chunk
         int shift = id ^ 1 << depth(id);
         return shift * runLength(id);
     }
 
     private int subpageIdx(int memoryMapIdx) {
+        if (runs != null) {
+            return memoryMapIdx >>> RUN_PAGES_SHIFT; // the first page of the run
+        }
         return memoryMapIdx ^ maxSubpageAllocs; // remove highest set bit, to get offset
     }
 
@@ -453,16 +646,33 @@ final class PoolChunk<T> implements PoolChunkMetric {
 
     @Override
     public int freeBytes() {
-        synchronized (arena) {
+        Lock lock = lock();
+        lock.lock();
+        try {
             return freeBytes;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Returns the lock that guards this chunk, which is the lock of the stripe of the {@link PoolArena} whose
+     * {@link PoolChunkList}s the chunk belongs to.
+     */
+    Lock lock() {
+        PoolChunkList<T> parent = this.parent;
+        return parent != null ? parent.lock : arena.defaultLock();
+    }
+
     @Override
     public String toString() {
         final int freeBytes;
-        synchronized (arena) {
+        Lock lock = lock();
+        lock.lock();
+        try {
             freeBytes = this.freeBytes;
+        } finally {
+            lock.unlock();
         }
 
         return new StringBuilder()
@@ -22,12 +22,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import static java.lang.Math.*;
 
 final class PoolChunkList<T> implements PoolChunkListMetric {
     private static final Iterator<PoolChunkMetric> EMPTY_METRICS = Collections.<PoolChunkMetric>emptyList().iterator();
-    private final PoolArena<T> arena;
+    // Shared by all PoolChunkLists of the same stripe of the arena and guards them and their chunks.
+    final Lock lock;
     private final PoolChunkList<T> nextList;
     private final int minUsage;
     private final int maxUsage;
@@ -40,9 +42,9 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
     // TODO: Test if adding padding helps under contention
     //private long pad0, pad1, pad2, pad3, pad4, pad5, pad6, pad7;
 
-    PoolChunkList(PoolArena<T> arena, PoolChunkList<T> nextList, int minUsage, int maxUsage, int chunkSize) {
+    PoolChunkList(Lock lock, PoolChunkList<T> nextList, int minUsage, int maxUsage, int chunkSize) {
         assert minUsage <= maxUsage;
-        this.arena = arena;
+        this.lock = lock;
         this.nextList = nextList;
         this.minUsage = minUsage;
         this.maxUsage = maxUsage;
@@ -176,6 +178,28 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
         }
     }
 
+    /**
+     * Removes the chunks that are empty since {@code releaseNanoTime} or earlier from this list and adds them to
+     * {@code released}, except for the first {@code retain} empty chunks. Returns the number of empty chunks that are
+     * left in this list.
+     */
+    int releaseEmpty(int retain, long releaseNanoTime, List<PoolChunk<T>> released) {
+        int numEmpty = 0;
+        for (PoolChunk<T> cur = head; cur != null;) {
+            PoolChunk<T> next = cur.next;
+            if (cur.isEmpty()) {
+                if (numEmpty >= retain && cur.emptyNanoTime() - releaseNanoTime <= 0) {
+                    remove(cur);
+                    released.add(cur);
+                } else {
+                    numEmpty ++;
+                }
+            }
+            cur = next;
+        }
+        return numEmpty;
+    }
+
     @Override
     public int minUsage() {
         return minUsage0(minUsage);
@@ -192,7 +216,8 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
 
     @Override
     public Iterator<PoolChunkMetric> iterator() {
-        synchronized (arena) {
+        lock.lock();
+        try {
             if (head == null) {
                 return EMPTY_METRICS;
             }
@@ -205,13 +230,16 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
                 }
             }
             return metrics.iterator();
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder();
-        synchronized (arena) {
+        lock.lock();
+        try {
             if (head == null) {
                 return "none";
             }
@@ -224,6 +252,8 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
                 }
                 buf.append(StringUtil.NEWLINE);
             }
+        } finally {
+            lock.unlock();
         }
         return buf.toString();
     }
@@ -16,6 +16,8 @@
 
 package io.netty.buffer;
 
+import java.util.concurrent.locks.Lock;
+
 final class PoolSubpage<T> implements PoolSubpageMetric {
 
     final PoolChunk<T> chunk;
@@ -204,7 +206,9 @@ final class PoolSubpage<T> implements PoolSubpageMetric {
         final int maxNumElems;
         final int numAvail;
         final int elemSize;
-        synchronized (chunk.arena) {
+        Lock lock = chunk.lock();
+        lock.lock();
+        try {
             if (!this.doNotDestroy) {
                 doNotDestroy = false;
                 // Not used for creating the String.
@@ -215,6 +219,8 @@ final class PoolSubpage<T> implements PoolSubpageMetric {
                 numAvail = this.numAvail;
                 elemSize = this.elemSize;
             }
+        } finally {
+            lock.unlock();
         }
 
         if (!doNotDestroy) {
@@ -227,22 +233,34 @@ final class PoolSubpage<T> implements PoolSubpageMetric {
 
     @Override
     public int maxNumElements() {
-        synchronized (chunk.arena) {
+        Lock lock = chunk.lock();
+        lock.lock();
+        try {
             return maxNumElems;
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public int numAvailable() {
-        synchronized (chunk.arena) {
+        Lock lock = chunk.lock();
+        lock.lock();
+        try {
             return numAvail;
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public int elementSize() {
-        synchronized (chunk.arena) {
+        Lock lock = chunk.lock();
+        lock.lock();
+        try {
             return elemSize;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -27,6 +27,8 @@ import io.netty.util.internal.logging.InternalLoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.Queue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Acts a Thread cache for allocations. This implementation is moduled after
@@ -57,24 +59,38 @@ final class PoolThreadCache {
 
     private int allocations;
 
+    // Only used if the cache may be trimmed by a PoolThreadCacheTrimmer while its thread is idle. Guards the caches
+    // against being drained by the trimmer and the thread at the same time, as they only support a single consumer.
+    private final Lock idleTrimLock;
+    // Set whenever the thread uses the cache and cleared by the PoolThreadCacheTrimmer, guarded by idleTrimLock.
+    private boolean used;
+
     // TODO: Test if adding padding helps under contention
     //private long pad0, pad1, pad2, pad3, pad4, pad5, pad6, pad7;
 
     PoolThreadCache(PoolArena<byte[]> heapArena, PoolArena<ByteBuffer> directArena,
                     int tinyCacheSize, int smallCacheSize, int normalCacheSize,
                     int maxCachedBufferCapacity, int freeSweepAllocationThreshold) {
+        this(heapArena, directArena, tinyCacheSize, smallCacheSize, normalCacheSize, maxCachedBufferCapacity,
+             freeSweepAllocationThreshold, false);
+    }
+
+    PoolThreadCache(PoolArena<byte[]> heapArena, PoolArena<ByteBuffer> directArena,
+                    int tinyCacheSize, int smallCacheSize, int normalCacheSize,
+                    int maxCachedBufferCapacity, int freeSweepAllocationThreshold, boolean trimWhenIdle) {
         if (maxCachedBufferCapacity < 0) {
             throw new IllegalArgumentException("maxCachedBufferCapacity: "
                     + maxCachedBufferCapacity + " (expected: >= 0)");
         }
         this.freeSweepAllocationThreshold = freeSweepAllocationThreshold;
+        idleTrimLock = trimWhenIdle ? new ReentrantLock() : null;
         this.heapArena = heapArena;
         this.directArena = directArena;
         if (directArena != null) {
             tinySubPageDirectCaches = createSubPageCaches(
                     tinyCacheSize, PoolArena.numTinySubpagePools, SizeClass.Tiny);
-            smallSubPageDirectCaches = createSubPageCaches(
-                    smallCacheSize, directArena.numSmallSubpagePools, SizeClass.Small);
+            smallSubPageDirectCaches = createSmallSubPageCaches(
+                    smallCacheSize, normalCacheSize, maxCachedBufferCapacity, directArena);
 
             numShiftsNormalDirect = log2(directArena.pageSize);
             normalDirectCaches = createNormalCaches(
@@ -92,8 +108,8 @@ final class PoolThreadCache {
             // Create the caches for the heap allocations
             tinySubPageHeapCaches = createSubPageCaches(
                     tinyCacheSize, PoolArena.numTinySubpagePools, SizeClass.Tiny);
-            smallSubPageHeapCaches = createSubPageCaches(
-                    smallCacheSize, heapArena.numSmallSubpagePools, SizeClass.Small);
+            smallSubPageHeapCaches = createSmallSubPageCaches(
+                    smallCacheSize, normalCacheSize, maxCachedBufferCapacity, heapArena);
 
             numShiftsNormalHeap = log2(heapArena.pageSize);
             normalHeapCaches = createNormalCaches(
@@ -132,11 +148,35 @@ final class PoolThreadCache {
         }
     }
 
+    private static <T> MemoryRegionCache<T>[] createSmallSubPageCaches(
+            int smallCacheSize, int normalCacheSize, int maxCachedBufferCapacity, PoolArena<T> area) {
+        if (area.sizeClasses == null) {
+            return createSubPageCaches(smallCacheSize, area.numSmallSubpagePools, SizeClass.Small);
+        }
+        // Classes of at least a page are only allocated out of subpages as they are no multiple of the page size, so
+        // cache them like the normal classes around them.
+        @SuppressWarnings("unchecked")
+        MemoryRegionCache<T>[] cache = new MemoryRegionCache[area.numSmallSubpagePools];
+        boolean cached = false;
+        for (int i = 0; i < cache.length; i++) {
+            int size = area.sizeClasses.smallClassSize(i);
+            int cacheSize = size < area.pageSize ? smallCacheSize :
+                    size <= maxCachedBufferCapacity ? normalCacheSize : 0;
+            if (cacheSize > 0) {
+                cache[i] = new SubPageMemoryRegionCache<T>(cacheSize, SizeClass.Small);
+                cached = true;
+            }
+        }
+        return cached ? cache : null;
+    }
+
     private static <T> MemoryRegionCache<T>[] createNormalCaches(
             int cacheSize, int maxCachedBufferCapacity, PoolArena<T> area) {
         if (cacheSize > 0 && maxCachedBufferCapacity > 0) {
             int max = Math.min(area.chunkSize, maxCachedBufferCapacity);
-            int arraySize = Math.max(1, log2(max / area.pageSize) + 1);
+            // One cache per size class if the arena uses them, one per power of two otherwise.
+            int arraySize = Math.max(1, area.sizeClasses != null ?
+                    area.sizeClasses.numNormalClasses(max) : log2(max / area.pageSize) + 1);
 
             @SuppressWarnings("unchecked")
             MemoryRegionCache<T>[] cache = new MemoryRegionCache[arraySize];
@@ -185,6 +225,24 @@ final class PoolThreadCache {
             // no cache found so just return false here
             return false;
         }
+        final Lock lock = idleTrimLock;
+        if (lock == null) {
+            return allocate0(cache, buf, reqCapacity);
+        }
+        if (!lock.tryLock()) {
+            // The cache is trimmed right now, allocate out of the arena instead of waiting for the trimmer.
+            return false;
+        }
+        try {
+            used = true;
+            return allocate0(cache, buf, reqCapacity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private boolean allocate0(MemoryRegionCache<?> cache, PooledByteBuf buf, int reqCapacity) {
         boolean allocated = cache.allocate(buf, reqCapacity);
         if (++ allocations >= freeSweepAllocationThreshold) {
             allocations = 0;
@@ -203,7 +261,7 @@ final class PoolThreadCache {
         if (cache == null) {
             return false;
         }
-        return cache.add(chunk, handle);
+        return cache.add(chunk, handle, normCapacity);
     }
 
     private MemoryRegionCache<?> cache(PoolArena<?> area, int normCapacity, SizeClass sizeClass) {
@@ -223,12 +281,20 @@ final class PoolThreadCache {
      *  Should be called if the Thread that uses this cache is about to exist to release resources out of the cache
      */
     void free() {
-        int numFreed = free(tinySubPageDirectCaches) +
-                free(smallSubPageDirectCaches) +
-                free(normalDirectCaches) +
-                free(tinySubPageHeapCaches) +
-                free(smallSubPageHeapCaches) +
-                free(normalHeapCaches);
+        final int numFreed;
+        final Lock lock = idleTrimLock;
+        if (lock == null) {
+            numFreed = freeCaches();
+        } else {
+            // May be called by the thread that cleans up after the thread of this cache, so it can race with the
+            // PoolThreadCacheTrimmer.
+            lock.lock();
+            try {
+                numFreed = freeCaches();
+            } finally {
+                lock.unlock();
+            }
+        }
 
         if (numFreed > 0 && logger.isDebugEnabled()) {
             logger.debug("Freed {} thread-local buffer(s) from thread: {}", numFreed, Thread.currentThread().getName());
@@ -243,6 +309,51 @@ final class PoolThreadCache {
         }
     }
 
+    private int freeCaches() {
+        return free(tinySubPageDirectCaches) +
+                free(smallSubPageDirectCaches) +
+                free(normalDirectCaches) +
+                free(tinySubPageHeapCaches) +
+                free(smallSubPageHeapCaches) +
+                free(normalHeapCaches);
+    }
+
+    /**
+     * Returns {@code true} if the thread used the cache since the last call or uses it right now. Must only be called
+     * by the {@link PoolThreadCacheTrimmer}.
+     */
+    boolean checkAndClearUsed() {
+        final Lock lock = idleTrimLock;
+        assert lock != null;
+        if (!lock.tryLock()) {
+            return true;
+        }
+        try {
+            boolean used = this.used;
+            this.used = false;
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees all cached buffers unless the thread used the cache since the last call of {@link #checkAndClearUsed()}.
+     * Returns the number of freed buffers. Must only be called by the {@link PoolThreadCacheTrimmer}.
+     */
+    int freeIdle() {
+        final Lock lock = idleTrimLock;
+        assert lock != null;
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            return used ? 0 : freeCaches();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private static int free(MemoryRegionCache<?>[] caches) {
         if (caches == null) {
             return 0;
@@ -296,7 +407,7 @@ final class PoolThreadCache {
     }
 
     private MemoryRegionCache<?> cacheForSmall(PoolArena<?> area, int normCapacity) {
-        int idx = PoolArena.smallIdx(normCapacity);
+        int idx = area.smallSubpageIdx(normCapacity);
         if (area.isDirect()) {
             return cache(smallSubPageDirectCaches, idx);
         }
@@ -305,10 +416,12 @@ final class PoolThreadCache {
 
     private MemoryRegionCache<?> cacheForNormal(PoolArena<?> area, int normCapacity) {
         if (area.isDirect()) {
-            int idx = log2(normCapacity >> numShiftsNormalDirect);
+            int idx = area.sizeClasses != null ?
+                    area.sizeClasses.normalIdx(normCapacity) : log2(normCapacity >> numShiftsNormalDirect);
             return cache(normalDirectCaches, idx);
         }
-        int idx = log2(normCapacity >> numShiftsNormalHeap);
+        int idx = area.sizeClasses != null ?
+                area.sizeClasses.normalIdx(normCapacity) : log2(normCapacity >> numShiftsNormalHeap);
         return cache(normalHeapCaches, idx);
     }
 
@@ -371,11 +484,14 @@ final class PoolThreadCache {
          * Add to cache if not already full.
          */
         @SuppressWarnings("unchecked")
-        public final boolean add(PoolChunk<T> chunk, long handle) {
-            Entry<T> entry = newEntry(chunk, handle);
+        public final boolean add(PoolChunk<T> chunk, long handle, int normCapacity) {
+            Entry<T> entry = newEntry(chunk, handle, normCapacity);
+            // Count the bytes before the entry is visible to the thread of the cache, so they never go negative.
+            chunk.arena.numThreadCacheBytes.add(normCapacity);
             boolean queued = queue.offer(entry);
             if (!queued) {
                 // If it was not possible to cache the chunk, immediately recycle the entry
+                chunk.arena.numThreadCacheBytes.add(-normCapacity);
                 entry.recycle();
             }
 
@@ -391,6 +507,7 @@ final class PoolThreadCache {
                 return false;
             }
             initBuf(entry.chunk, entry.handle, buf, reqCapacity);
+            entry.chunk.arena.numThreadCacheBytes.add(-entry.normCapacity);
             entry.recycle();
 
             // allocations is not thread-safe which is fine as this is only called from the same thread all time.
@@ -436,10 +553,12 @@ final class PoolThreadCache {
         private  void freeEntry(Entry entry) {
             PoolChunk chunk = entry.chunk;
             long handle = entry.handle;
+            int normCapacity = entry.normCapacity;
 
             // recycle now so PoolChunk can be GC'ed.
             entry.recycle();
 
+            chunk.arena.numThreadCacheBytes.add(-normCapacity);
             chunk.arena.freeChunk(chunk, handle, sizeClass);
         }
 
@@ -447,6 +566,7 @@ final class PoolThreadCache {
             final Handle<Entry<?>> recyclerHandle;
             PoolChunk<T> chunk;
             long handle = -1;
+            int normCapacity;
 
             Entry(Handle<Entry<?>> recyclerHandle) {
                 this.recyclerHandle = recyclerHandle;
@@ -455,15 +575,17 @@ final class PoolThreadCache {
             void recycle() {
                 chunk = null;
                 handle = -1;
+                normCapacity = 0;
                 recyclerHandle.recycle(this);
             }
         }
 
         @SuppressWarnings("rawtypes")
-        private static Entry newEntry(PoolChunk<?> chunk, long handle) {
+        private static Entry newEntry(PoolChunk<?> chunk, long handle, int normCapacity) {
             Entry entry = RECYCLER.get();
             entry.chunk = chunk;
             entry.handle = handle;
+            entry.normCapacity = normCapacity;
             return entry;
         }
 
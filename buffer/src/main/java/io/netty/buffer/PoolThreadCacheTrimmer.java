@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.buffer;
+
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Frees the buffers held by {@link PoolThreadCache}s whose thread did not allocate out of them for some time. This
+ * is meant for threads that allocate in bursts and then idle, which would otherwise pin the cached memory until the
+ * thread allocates often enough again to sweep its cache or terminates.
+ * <p>
+ * All registered caches are checked by a single task that runs on the {@link GlobalEventExecutor} every half of the
+ * idle time. The task only runs while caches are registered.
+ */
+final class PoolThreadCacheTrimmer implements Runnable {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(PoolThreadCacheTrimmer.class);
+
+    private final long idleNanos;
+    private final long intervalNanos;
+    private final Map<PoolThreadCache, LastUse> caches = PlatformDependent.newConcurrentHashMap();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile ScheduledFuture<?> future;
+
+    PoolThreadCacheTrimmer(long idleMillis) {
+        if (idleMillis <= 0) {
+            throw new IllegalArgumentException("idleMillis: " + idleMillis + " (expected: > 0)");
+        }
+        idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        intervalNanos = Math.max(1, idleNanos / 2);
+    }
+
+    /**
+     * Starts to free the cached buffers of the given {@link PoolThreadCache} whenever it was idle for too long. The
+     * cache must have been created to be trimmed when idle.
+     */
+    void register(PoolThreadCache cache) {
+        caches.put(cache, new LastUse(System.nanoTime()));
+        schedule();
+    }
+
+    /**
+     * Stops to trim the given {@link PoolThreadCache}.
+     */
+    void unregister(PoolThreadCache cache) {
+        caches.remove(cache);
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            future = GlobalEventExecutor.INSTANCE.scheduleAtFixedRate(
+                    this, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void run() {
+        trim(System.nanoTime());
+        if (caches.isEmpty()) {
+            // Stop so the executor does not keep this trimmer and the allocator alive. A cache that is registered
+            // concurrently either sees scheduled == false and reschedules, or is seen by the check below.
+            ScheduledFuture<?> future = this.future;
+            scheduled.set(false);
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (!caches.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Frees the buffers of all caches that were not used within the idle time before {@code nanoTime}. Returns the
+     * number of freed buffers.
+     */
+    int trim(long nanoTime) {
+        int numFreed = 0;
+        for (Map.Entry<PoolThreadCache, LastUse> e: caches.entrySet()) {
+            PoolThreadCache cache = e.getKey();
+            LastUse lastUse = e.getValue();
+            if (cache.checkAndClearUsed()) {
+                lastUse.nanoTime = nanoTime;
+            } else if (nanoTime - lastUse.nanoTime >= idleNanos) {
+                numFreed += cache.freeIdle();
+            }
+        }
+        if (numFreed > 0 && logger.isDebugEnabled()) {
+            logger.debug("Freed {} buffer(s) from idle thread-local caches", numFreed);
+        }
+        return numFreed;
+    }
+
+    // Only accessed by the trimmer task.
+    private static final class LastUse {
+        long nanoTime;
+
+        LastUse(long nanoTime) {
+            this.nanoTime = nanoTime;
+        }
+    }
+}
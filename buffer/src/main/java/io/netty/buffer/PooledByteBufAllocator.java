@@ -25,6 +25,7 @@ import io.netty.util.internal.SystemPropertyUtil;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -45,6 +46,13 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
     private static final int DEFAULT_CACHE_TRIM_INTERVAL;
     private static final boolean DEFAULT_USE_CACHE_FOR_ALL_THREADS;
     private static final int DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT;
+    private static final int DEFAULT_NUM_ARENA_LOCK_STRIPES;
+    private static final long DEFAULT_CACHE_IDLE_TRIM_MILLIS;
+    private static final long DEFAULT_CHUNK_RELEASE_DELAY_MILLIS;
+    private static final int DEFAULT_MAX_EMPTY_CHUNKS;
+    private static final String DEFAULT_HUGE_PAGE_DIRECTORY;
+    private static final int DEFAULT_HUGE_PAGE_SIZE;
+    private static final boolean DEFAULT_USE_SIZE_CLASSES;
 
     private static final int MIN_PAGE_SIZE = 4096;
     private static final int MAX_CHUNK_SIZE = (int) (((long) Integer.MAX_VALUE + 1) / 2);
@@ -116,6 +124,32 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
         DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT = SystemPropertyUtil.getInt(
                 "io.netty.allocator.directMemoryCacheAlignment", 0);
 
+        // Each stripe of an arena allocates its own chunks, so more than one stripe trades memory for less contention.
+        DEFAULT_NUM_ARENA_LOCK_STRIPES = Math.max(1, SystemPropertyUtil.getInt(
+                "io.netty.allocator.arenaLockStripes", 1));
+
+        // the time after which the caches of threads that are not FastThreadLocalThreads are freed if not used,
+        // 0 disables it
+        DEFAULT_CACHE_IDLE_TRIM_MILLIS = Math.max(0, SystemPropertyUtil.getLong(
+                "io.netty.allocator.cacheIdleTrimMillis", 0));
+
+        // the time after which empty chunks beyond maxEmptyChunks per arena are released, 0 keeps them forever
+        DEFAULT_CHUNK_RELEASE_DELAY_MILLIS = Math.max(0, SystemPropertyUtil.getLong(
+                "io.netty.allocator.chunkReleaseDelayMillis", 0));
+        DEFAULT_MAX_EMPTY_CHUNKS = Math.max(0, SystemPropertyUtil.getInt(
+                "io.netty.allocator.maxEmptyChunks", 1));
+
+        // a directory on which a hugetlbfs is mounted to map the chunks of direct arenas from, none by default
+        DEFAULT_HUGE_PAGE_DIRECTORY = SystemPropertyUtil.get("io.netty.allocator.hugePageDirectory");
+        int defaultHugePageSize = SystemPropertyUtil.getInt("io.netty.allocator.hugePageSize", 2 * 1024 * 1024);
+        if (defaultHugePageSize <= 0 || (defaultHugePageSize & defaultHugePageSize - 1) != 0) {
+            defaultHugePageSize = 2 * 1024 * 1024;
+        }
+        DEFAULT_HUGE_PAGE_SIZE = defaultHugePageSize;
+
+        // round capacities up to one of four size classes per doubling instead of the next power of two
+        DEFAULT_USE_SIZE_CLASSES = SystemPropertyUtil.getBoolean("io.netty.allocator.useSizeClasses", false);
+
         if (logger.isDebugEnabled()) {
             logger.debug("-Dio.netty.allocator.numHeapArenas: {}", DEFAULT_NUM_HEAP_ARENA);
             logger.debug("-Dio.netty.allocator.numDirectArenas: {}", DEFAULT_NUM_DIRECT_ARENA);
@@ -136,6 +170,13 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
             logger.debug("-Dio.netty.allocator.maxCachedBufferCapacity: {}", DEFAULT_MAX_CACHED_BUFFER_CAPACITY);
             logger.debug("-Dio.netty.allocator.cacheTrimInterval: {}", DEFAULT_CACHE_TRIM_INTERVAL);
             logger.debug("-Dio.netty.allocator.useCacheForAllThreads: {}", DEFAULT_USE_CACHE_FOR_ALL_THREADS);
+            logger.debug("-Dio.netty.allocator.arenaLockStripes: {}", DEFAULT_NUM_ARENA_LOCK_STRIPES);
+            logger.debug("-Dio.netty.allocator.cacheIdleTrimMillis: {}", DEFAULT_CACHE_IDLE_TRIM_MILLIS);
+            logger.debug("-Dio.netty.allocator.chunkReleaseDelayMillis: {}", DEFAULT_CHUNK_RELEASE_DELAY_MILLIS);
+            logger.debug("-Dio.netty.allocator.maxEmptyChunks: {}", DEFAULT_MAX_EMPTY_CHUNKS);
+            logger.debug("-Dio.netty.allocator.hugePageDirectory: {}", DEFAULT_HUGE_PAGE_DIRECTORY);
+            logger.debug("-Dio.netty.allocator.hugePageSize: {}", DEFAULT_HUGE_PAGE_SIZE);
+            logger.debug("-Dio.netty.allocator.useSizeClasses: {}", DEFAULT_USE_SIZE_CLASSES);
         }
     }
 
@@ -150,6 +191,7 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
     private final List<PoolArenaMetric> heapArenaMetrics;
     private final List<PoolArenaMetric> directArenaMetrics;
     private final PoolThreadLocalCache threadCache;
+    private final PoolThreadCacheTrimmer threadCacheTrimmer;
     private final int chunkSize;
     private final PooledByteBufAllocatorMetric metric;
 
@@ -200,8 +242,56 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
     public PooledByteBufAllocator(boolean preferDirect, int nHeapArena, int nDirectArena, int pageSize, int maxOrder,
                                   int tinyCacheSize, int smallCacheSize, int normalCacheSize,
                                   boolean useCacheForAllThreads, int directMemoryCacheAlignment) {
+        this(preferDirect, nHeapArena, nDirectArena, pageSize, maxOrder,
+                tinyCacheSize, smallCacheSize, normalCacheSize,
+                useCacheForAllThreads, directMemoryCacheAlignment, DEFAULT_NUM_ARENA_LOCK_STRIPES);
+    }
+
+    /**
+     * Creates a new instance whose arenas are each split into {@code arenaLockStripes} stripes. Every stripe has its
+     * own lock and chunks, so threads that share an arena only contend when they allocate from the same stripe, at
+     * the cost of up to {@code arenaLockStripes} times as many partially used chunks.
+     */
+    public PooledByteBufAllocator(boolean preferDirect, int nHeapArena, int nDirectArena, int pageSize, int maxOrder,
+                                  int tinyCacheSize, int smallCacheSize, int normalCacheSize,
+                                  boolean useCacheForAllThreads, int directMemoryCacheAlignment,
+                                  int arenaLockStripes) {
+        this(preferDirect, nHeapArena, nDirectArena, pageSize, maxOrder,
+                tinyCacheSize, smallCacheSize, normalCacheSize,
+                useCacheForAllThreads, directMemoryCacheAlignment, arenaLockStripes, DEFAULT_CACHE_IDLE_TRIM_MILLIS);
+    }
+
+    /**
+     * Creates a new instance which frees the cached buffers of threads that are not {@link FastThreadLocalThread}s
+     * once they did not allocate for {@code cacheIdleTrimMillis} milliseconds, or never if it is {@code 0}. The
+     * caches of {@link FastThreadLocalThread}s, like those of event loops, are only trimmed by the threads themselves.
+     */
+    public PooledByteBufAllocator(boolean preferDirect, int nHeapArena, int nDirectArena, int pageSize, int maxOrder,
+                                  int tinyCacheSize, int smallCacheSize, int normalCacheSize,
+                                  boolean useCacheForAllThreads, int directMemoryCacheAlignment,
+                                  int arenaLockStripes, long cacheIdleTrimMillis) {
+        this(preferDirect, nHeapArena, nDirectArena, pageSize, maxOrder,
+                tinyCacheSize, smallCacheSize, normalCacheSize,
+                useCacheForAllThreads, directMemoryCacheAlignment, arenaLockStripes, cacheIdleTrimMillis,
+                DEFAULT_USE_SIZE_CLASSES);
+    }
+
+    /**
+     * Creates a new instance which rounds the capacities of buffers from 512 bytes up to the chunk size to one of four
+     * size classes per doubling if {@code useSizeClasses} is {@code true}, instead of to the next power of two. This
+     * wastes at most 25% instead of 50% of the memory of each buffer, like for 9 KiB buffers which take 10 KiB instead
+     * of 16 KiB, at the cost of slightly more work per allocation and more thread caches.
+     */
+    public PooledByteBufAllocator(boolean preferDirect, int nHeapArena, int nDirectArena, int pageSize, int maxOrder,
+                                  int tinyCacheSize, int smallCacheSize, int normalCacheSize,
+                                  boolean useCacheForAllThreads, int directMemoryCacheAlignment,
+                                  int arenaLockStripes, long cacheIdleTrimMillis, boolean useSizeClasses) {
         super(preferDirect);
+        if (cacheIdleTrimMillis < 0) {
+            throw new IllegalArgumentException("cacheIdleTrimMillis: " + cacheIdleTrimMillis + " (expected: >= 0)");
+        }
         threadCache = new PoolThreadLocalCache(useCacheForAllThreads);
+        threadCacheTrimmer = cacheIdleTrimMillis > 0 ? new PoolThreadCacheTrimmer(cacheIdleTrimMillis) : null;
         this.tinyCacheSize = tinyCacheSize;
         this.smallCacheSize = smallCacheSize;
         this.normalCacheSize = normalCacheSize;
@@ -227,6 +317,10 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
                     + directMemoryCacheAlignment + " (expected: power of two)");
         }
 
+        if (arenaLockStripes <= 0) {
+            throw new IllegalArgumentException("arenaLockStripes: " + arenaLockStripes + " (expected: > 0)");
+        }
+
         int pageShifts = validateAndCalculatePageShifts(pageSize);
 
         if (nHeapArena > 0) {
@@ -235,7 +329,7 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
             for (int i = 0; i < heapArenas.length; i ++) {
                 PoolArena.HeapArena arena = new PoolArena.HeapArena(this,
                         pageSize, maxOrder, pageShifts, chunkSize,
-                        directMemoryCacheAlignment);
+                        directMemoryCacheAlignment, arenaLockStripes, useSizeClasses);
                 heapArenas[i] = arena;
                 metrics.add(arena);
             }
@@ -248,9 +342,21 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
         if (nDirectArena > 0) {
             directArenas = newArenaArray(nDirectArena);
             List<PoolArenaMetric> metrics = new ArrayList<PoolArenaMetric>(directArenas.length);
+            File hugePageDirectory = DEFAULT_HUGE_PAGE_DIRECTORY == null ? null : new File(DEFAULT_HUGE_PAGE_DIRECTORY);
+            boolean hugetlbfs = hugePageDirectory != null && HugePageDirectArena.isHugetlbfsMount(hugePageDirectory);
+            if (hugePageDirectory != null && !hugetlbfs) {
+                logger.info("{} is not a hugetlbfs mount, allocating chunks from regular direct memory",
+                            hugePageDirectory);
+            }
             for (int i = 0; i < directArenas.length; i ++) {
-                PoolArena.DirectArena arena = new PoolArena.DirectArena(
-                        this, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment);
+                PoolArena.DirectArena arena = hugePageDirectory == null ?
+                        new PoolArena.DirectArena(
+                                this, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment,
+                                arenaLockStripes, useSizeClasses) :
+                        new HugePageDirectArena(
+                                this, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment,
+                                arenaLockStripes, useSizeClasses, hugePageDirectory, DEFAULT_HUGE_PAGE_SIZE,
+                                hugetlbfs, HugePageDirectArena.MAP_RETRY_INTERVAL_NANOS);
                 directArenas[i] = arena;
                 metrics.add(arena);
             }
@@ -394,6 +500,61 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
         return DEFAULT_NORMAL_CACHE_SIZE;
     }
 
+    /**
+     * Default number of lock stripes per arena - System Property: io.netty.allocator.arenaLockStripes - default 1
+     */
+    public static int defaultArenaLockStripes() {
+        return DEFAULT_NUM_ARENA_LOCK_STRIPES;
+    }
+
+    /**
+     * Default idle time after which thread caches are freed - System Property: io.netty.allocator.cacheIdleTrimMillis
+     * - default 0, which disables it
+     */
+    public static long defaultCacheIdleTrimMillis() {
+        return DEFAULT_CACHE_IDLE_TRIM_MILLIS;
+    }
+
+    /**
+     * Default time after which empty chunks are released - System Property: io.netty.allocator.chunkReleaseDelayMillis
+     * - default 0, which keeps empty chunks until they are needed again
+     */
+    public static long defaultChunkReleaseDelayMillis() {
+        return DEFAULT_CHUNK_RELEASE_DELAY_MILLIS;
+    }
+
+    /**
+     * Default number of empty chunks each arena keeps when releasing chunks - System Property:
+     * io.netty.allocator.maxEmptyChunks - default 1
+     */
+    public static int defaultMaxEmptyChunks() {
+        return DEFAULT_MAX_EMPTY_CHUNKS;
+    }
+
+    /**
+     * Default directory of a hugetlbfs mount to map the chunks of direct arenas from - System Property:
+     * io.netty.allocator.hugePageDirectory - default {@code null}, which allocates chunks from regular direct memory
+     */
+    public static String defaultHugePageDirectory() {
+        return DEFAULT_HUGE_PAGE_DIRECTORY;
+    }
+
+    /**
+     * Default size of the huge pages that chunks are mapped from - System Property: io.netty.allocator.hugePageSize
+     * - default 2 MiB
+     */
+    public static int defaultHugePageSize() {
+        return DEFAULT_HUGE_PAGE_SIZE;
+    }
+
+    /**
+     * Default use of size classes instead of powers of two - System Property: io.netty.allocator.useSizeClasses -
+     * default false
+     */
+    public static boolean defaultUseSizeClasses() {
+        return DEFAULT_USE_SIZE_CLASSES;
+    }
+
     /**
      * Return {@code true} if direct memory cache alignment is supported, {@code false} otherwise.
      */
@@ -436,11 +597,21 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
             final PoolArena<ByteBuffer> directArena = leastUsedArena(directArenas);
 
             Thread current = Thread.currentThread();
-            if (useCacheForAllThreads || current instanceof FastThreadLocalThread) {
+            if (current instanceof FastThreadLocalThread) {
                 return new PoolThreadCache(
                         heapArena, directArena, tinyCacheSize, smallCacheSize, normalCacheSize,
                         DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL);
             }
+            if (useCacheForAllThreads) {
+                final PoolThreadCacheTrimmer trimmer = threadCacheTrimmer;
+                PoolThreadCache cache = new PoolThreadCache(
+                        heapArena, directArena, tinyCacheSize, smallCacheSize, normalCacheSize,
+                        DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL, trimmer != null);
+                if (trimmer != null) {
+                    trimmer.register(cache);
+                }
+                return cache;
+            }
             // No caching so just use 0 as sizes.
             return new PoolThreadCache(heapArena, directArena, 0, 0, 0, 0, 0);
         }
@@ -448,6 +619,9 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
         @Override
         protected void onRemoval(PoolThreadCache threadCache) {
             threadCache.free();
+            if (threadCacheTrimmer != null) {
+                threadCacheTrimmer.unregister(threadCache);
+            }
         }
 
         private <T> PoolArena<T> leastUsedArena(PoolArena<T>[] arenas) {
@@ -580,6 +754,25 @@ public class PooledByteBufAllocator extends AbstractByteBufAllocator implements
         return usedMemory(directArenas);
     }
 
+    final long threadCacheHeapMemory() {
+        return threadCacheMemory(heapArenas);
+    }
+
+    final long threadCacheDirectMemory() {
+        return threadCacheMemory(directArenas);
+    }
+
+    private static long threadCacheMemory(PoolArena<?>... arenas) {
+        if (arenas == null) {
+            return 0;
+        }
+        long cached = 0;
+        for (PoolArena<?> arena : arenas) {
+            cached += arena.numThreadCacheBytes.value();
+        }
+        return Math.max(0, cached);
+    }
+
     private static long usedMemory(PoolArena<?>... arenas) {
         if (arenas == null) {
             return -1;
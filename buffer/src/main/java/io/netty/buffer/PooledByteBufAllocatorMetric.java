@@ -104,12 +104,30 @@ public final class PooledByteBufAllocatorMetric implements ByteBufAllocatorMetri
         return allocator.usedDirectMemory();
     }
 
+    /**
+     * Return the number of bytes of heap memory that are held by the thread local caches. These bytes are part of
+     * {@link #usedHeapMemory()} but not used by any buffer.
+     */
+    public long threadCacheHeapMemory() {
+        return allocator.threadCacheHeapMemory();
+    }
+
+    /**
+     * Return the number of bytes of direct memory that are held by the thread local caches. These bytes are part of
+     * {@link #usedDirectMemory()} but not used by any buffer.
+     */
+    public long threadCacheDirectMemory() {
+        return allocator.threadCacheDirectMemory();
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(256);
         sb.append(StringUtil.simpleClassName(this))
                 .append("(usedHeapMemory: ").append(usedHeapMemory())
                 .append("; usedDirectMemory: ").append(usedDirectMemory())
+                .append("; threadCacheHeapMemory: ").append(threadCacheHeapMemory())
+                .append("; threadCacheDirectMemory: ").append(threadCacheDirectMemory())
                 .append("; numHeapArenas: ").append(numHeapArenas())
                 .append("; numDirectArenas: ").append(numDirectArenas())
                 .append("; tinyCacheSize: ").append(tinyCacheSize())
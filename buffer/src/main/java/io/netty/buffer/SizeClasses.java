@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.buffer;
+
+/**
+ * The size classes of a {@link PoolArena} that uses size classes instead of powers of two, much like jemalloc 4.
+ * Capacities below 512 bytes are still rounded up to a multiple of 16, but from there on every doubling is split
+ * into four classes, so a 9 KiB buffer takes 10 KiB instead of 16 KiB and at most 25% of a buffer is wasted.
+ * <p>
+ * Classes that are not a multiple of the page size are allocated as {@link PoolSubpage}s out of runs that span as
+ * many pages as needed to hold a whole number of elements, like 4 elements of 10 KiB out of 5 pages of 8 KiB. All
+ * other classes are allocated as runs of pages of exactly their size.
+ * <p>
+ * Each class has an index, which is {@code 0} for 512 bytes and increases by one for every class above, so the
+ * {@link PoolSubpage} pools of the arena and the caches of a {@link PoolThreadCache} are kept per class.
+ */
+final class SizeClasses {
+
+    // The smallest capacity that is rounded up to a class instead of a multiple of 16.
+    private static final int MIN_CLASS_SHIFTS = 9;
+    // Number of classes per doubling is 1 << LOG2_CLASSES_PER_DOUBLING.
+    private static final int LOG2_CLASSES_PER_DOUBLING = 2;
+
+    private final int pageSize;
+    private final int pageShifts;
+    private final int chunkSize;
+    private final int alignmentShifts;
+    private final int pageIdx;
+    private final int numSmallClasses;
+
+    SizeClasses(int pageSize, int pageShifts, int chunkSize, int directMemoryCacheAlignment) {
+        this.pageSize = pageSize;
+        this.pageShifts = pageShifts;
+        this.chunkSize = chunkSize;
+        alignmentShifts = directMemoryCacheAlignment == 0 ? 0 : log2(directMemoryCacheAlignment);
+        pageIdx = sizeIdx(pageSize);
+        // From 4 pages on every class is a multiple of the page size.
+        numSmallClasses = sizeIdx(Math.max(1 << MIN_CLASS_SHIFTS, Math.min(pageSize << 2, chunkSize))) + 1;
+    }
+
+    /**
+     * Rounds the given capacity, which must be at least 512 and less than the chunk size, up to its class.
+     */
+    int normalize(int reqCapacity) {
+        assert reqCapacity >= 1 << MIN_CLASS_SHIFTS && reqCapacity < chunkSize;
+        int shifts = Math.max(log2(reqCapacity - 1) - LOG2_CLASSES_PER_DOUBLING, alignmentShifts);
+        int mask = (1 << shifts) - 1;
+        return reqCapacity + mask & ~mask;
+    }
+
+    /**
+     * Returns {@code true} if buffers of the given normalized capacity are allocated out of a {@link PoolSubpage}.
+     */
+    boolean isSubpage(int normCapacity) {
+        return normCapacity < pageSize || normCapacity < chunkSize && (normCapacity & pageSize - 1) != 0;
+    }
+
+    /**
+     * Returns the number of indexes of classes that may be allocated out of a {@link PoolSubpage} and are at least
+     * 512 bytes.
+     */
+    int numSmallClasses() {
+        return numSmallClasses;
+    }
+
+    /**
+     * Returns the index of the given class, which must be allocated out of a {@link PoolSubpage} and be at least
+     * 512 bytes.
+     */
+    int smallIdx(int normCapacity) {
+        return sizeIdx(normCapacity);
+    }
+
+    /**
+     * Returns the class of the given index, which is the inverse of {@link #smallIdx(int)}.
+     */
+    int smallClassSize(int smallIdx) {
+        int log2Group = (smallIdx >> LOG2_CLASSES_PER_DOUBLING) + MIN_CLASS_SHIFTS;
+        int classInGroup = smallIdx & (1 << LOG2_CLASSES_PER_DOUBLING) - 1;
+        return (1 << log2Group) + (classInGroup << log2Group - LOG2_CLASSES_PER_DOUBLING);
+    }
+
+    /**
+     * Returns the number of indexes of classes from the page size up to the given capacity.
+     */
+    int numNormalClasses(int maxCapacity) {
+        return maxCapacity < pageSize ? 0 : sizeIdx(maxCapacity) - pageIdx + 1;
+    }
+
+    /**
+     * Returns the index of the given class relative to the page size, so the first class that is allocated as a
+     * run of pages has index {@code 0}.
+     */
+    int normalIdx(int normCapacity) {
+        return sizeIdx(normCapacity) - pageIdx;
+    }
+
+    /**
+     * Returns the size of the run out of which a {@link PoolSubpage} with elements of the given class is allocated.
+     */
+    int subpageRunSize(int elemSize) {
+        if (elemSize < 1 << MIN_CLASS_SHIFTS) {
+            // Multiples of 16 would need up to 31 pages, so accept the waste at the end of a single page instead.
+            return pageSize;
+        }
+        // The least common multiple of the class and the page size, which is at most 7 pages.
+        int runSize = elemSize / Math.min(Integer.lowestOneBit(elemSize), pageSize) << pageShifts;
+        if (runSize > chunkSize) {
+            // Only happens for very small chunks, so just allocate a single element.
+            return elemSize + pageSize - 1 & ~(pageSize - 1);
+        }
+        return runSize;
+    }
+
+    /**
+     * Returns the index of the largest class that is less than or equal to the given size.
+     */
+    private static int sizeIdx(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFTS) {
+            return 0;
+        }
+        int log2Group = log2(size - 1);
+        int classInGroup = (size - (1 << log2Group)) >>> log2Group - LOG2_CLASSES_PER_DOUBLING;
+        return (log2Group - MIN_CLASS_SHIFTS << LOG2_CLASSES_PER_DOUBLING) + classInGroup;
+    }
+
+    private static int log2(int val) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(val);
+    }
+}
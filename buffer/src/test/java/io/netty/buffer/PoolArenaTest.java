@@ -19,13 +19,23 @@ package io.netty.buffer;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class PoolArenaTest {
 
     @Test
     public void testNormalizeCapacity() throws Exception {
-        PoolArena<ByteBuffer> arena = new PoolArena.DirectArena(null, 0, 0, 9, 999999, 0);
+        PoolArena<ByteBuffer> arena = new PoolArena.DirectArena(null, 0, 0, 9, 999999, 0, 1, false);
         int[] reqCapacities = {0, 15, 510, 1024, 1023, 1025};
         int[] expectedResult = {0, 16, 512, 1024, 1024, 2048};
         for (int i = 0; i < reqCapacities.length; i ++) {
@@ -35,7 +45,7 @@ public class PoolArenaTest {
 
     @Test
     public void testNormalizeAlignedCapacity() throws Exception {
-        PoolArena<ByteBuffer> arena = new PoolArena.DirectArena(null, 0, 0, 9, 999999, 64);
+        PoolArena<ByteBuffer> arena = new PoolArena.DirectArena(null, 0, 0, 9, 999999, 64, 1, false);
         int[] reqCapacities = {0, 15, 510, 1024, 1023, 1025};
         int[] expectedResult = {0, 64, 512, 1024, 1024, 2048};
         for (int i = 0; i < reqCapacities.length; i ++) {
@@ -43,6 +53,95 @@ public class PoolArenaTest {
         }
     }
 
+    @Test
+    public void testNormalizeSizeClassCapacity() throws Exception {
+        PoolArena<ByteBuffer> arena = new PoolArena.DirectArena(null, 8192, 11, 13, 8192 << 11, 0, 1, true);
+        int[] reqCapacities = {0, 15, 510, 512, 513, 1025, 9 * 1024, 17 * 1024, 40000, 8192 << 10 | 1};
+        int[] expectedResult = {0, 16, 512, 512, 640, 1280, 10 * 1024, 20 * 1024, 40960, 5 << 21};
+        for (int i = 0; i < reqCapacities.length; i ++) {
+            Assert.assertEquals(expectedResult[i], arena.normalizeCapacity(reqCapacities[i]));
+        }
+        Assert.assertTrue(arena.isTinyOrSmall(7 * 1024));
+        Assert.assertFalse(arena.isTinyOrSmall(8 * 1024));
+        // Neither a power of two nor a multiple of the page size.
+        Assert.assertTrue(arena.isTinyOrSmall(10 * 1024));
+        Assert.assertFalse(arena.isTinyOrSmall(40960));
+        Assert.assertEquals(5 * 8192, arena.sizeClasses.subpageRunSize(10 * 1024));
+        Assert.assertEquals(3 * 8192, arena.sizeClasses.subpageRunSize(12 * 1024));
+        for (int i = 0; i < arena.numSmallSubpagePools; i ++) {
+            int size = arena.sizeClasses.smallClassSize(i);
+            Assert.assertEquals(size, arena.normalizeCapacity(size));
+            Assert.assertEquals(i, arena.smallSubpageIdx(size));
+        }
+    }
+
+    @Test
+    public void testSizeClassesAllocation() {
+        final int pageSize = 8192;
+        final int chunkSize = pageSize << 4;
+        final PooledByteBufAllocator allocator = new PooledByteBufAllocator(
+                true,   // preferDirect
+                0,      // nHeapArena
+                1,      // nDirectArena
+                pageSize,
+                4,      // maxOrder
+                0,      // tinyCacheSize
+                0,      // smallCacheSize
+                0,      // normalCacheSize
+                true,   // useCacheForAllThreads
+                0,      // directMemoryCacheAlignment
+                1,      // arenaLockStripes
+                0,      // cacheIdleTrimMillis
+                true    // useSizeClasses
+                );
+        @SuppressWarnings("unchecked")
+        final PoolArena<ByteBuffer> arena = (PoolArena<ByteBuffer>) allocator.directArenas().get(0);
+        Random random = new Random(42);
+        List<ByteBuf> buffers = new ArrayList<ByteBuf>();
+        for (int i = 0; i < 2000; i ++) {
+            if (!buffers.isEmpty() && random.nextInt(3) == 0) {
+                Assert.assertTrue(buffers.remove(random.nextInt(buffers.size())).release());
+                continue;
+            }
+            ByteBuf buffer = allocator.directBuffer(1 + random.nextInt(chunkSize - 1));
+            for (int j = 0; j < buffer.capacity(); j += 256) {
+                buffer.setByte(j, i);
+            }
+            buffers.add(buffer);
+        }
+        // Make sure no two buffers share any memory.
+        for (int i = 0; i < buffers.size(); i ++) {
+            ByteBuf buffer = buffers.get(i);
+            for (int j = 0; j < buffer.capacity(); j += 256) {
+                Assert.assertEquals(buffer.getByte(0), buffer.getByte(j));
+            }
+        }
+        for (ByteBuf buffer: buffers) {
+            Assert.assertTrue(buffer.release());
+        }
+        Assert.assertEquals(0, arena.numActiveAllocations());
+
+        // Runs of pages that are freed in any order are merged again into a single run of the whole chunk.
+        PoolChunk<ByteBuffer> chunk = arena.newChunk(pageSize, 4, 13, chunkSize);
+        List<Long> handles = new ArrayList<Long>();
+        for (;;) {
+            long handle = chunk.allocate((1 + random.nextInt(4)) * pageSize);
+            if (handle < 0) {
+                break;
+            }
+            handles.add(handle);
+        }
+        Assert.assertTrue(chunk.usedBytes() > chunkSize - 4 * pageSize);
+        Collections.shuffle(handles, random);
+        for (long handle: handles) {
+            chunk.free(handle);
+        }
+        Assert.assertTrue(chunk.isEmpty());
+        Assert.assertTrue(chunk.allocate(chunkSize) > 0);
+        Assert.assertEquals(chunkSize, chunk.usedBytes());
+        arena.destroyChunk(chunk);
+    }
+
     @Test
     public final void testAllocationCounter() {
         final PooledByteBufAllocator allocator = new PooledByteBufAllocator(
@@ -87,4 +186,201 @@ public class PoolArenaTest {
         Assert.assertEquals(1, metric.numNormalDeallocations());
         Assert.assertEquals(1, metric.numNormalAllocations());
     }
+
+    @Test(timeout = 30000)
+    public void testLockStripes() throws Exception {
+        final PooledByteBufAllocator allocator = new PooledByteBufAllocator(
+                true,   // preferDirect
+                0,      // nHeapArena
+                1,      // nDirectArena
+                8192,   // pageSize
+                11,     // maxOrder
+                0,      // tinyCacheSize
+                0,      // smallCacheSize
+                0,      // normalCacheSize
+                true,   // useCacheForAllThreads
+                0,      // directMemoryCacheAlignment
+                4       // arenaLockStripes
+                );
+        final int numThreads = 8;
+        final int numIterations = 1000;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < threads.length; i ++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < numIterations; j ++) {
+                            ByteBuf normal = allocator.directBuffer(8192 * 2);
+                            ByteBuf small = allocator.directBuffer(800);
+                            normal.writeLong(j);
+                            small.writeLong(j);
+                            Assert.assertEquals(j, normal.readLong());
+                            Assert.assertEquals(j, small.readLong());
+                            Assert.assertTrue(normal.release());
+                            Assert.assertTrue(small.release());
+                        }
+                    } catch (Throwable cause) {
+                        error.compareAndSet(null, cause);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        Assert.assertNull(error.get());
+
+        final PoolArenaMetric metric = allocator.directArenas().get(0);
+        Assert.assertEquals(numThreads * numIterations, metric.numNormalAllocations());
+        Assert.assertEquals(numThreads * numIterations, metric.numNormalDeallocations());
+        Assert.assertEquals(numThreads * numIterations, metric.numSmallAllocations());
+        Assert.assertEquals(numThreads * numIterations, metric.numSmallDeallocations());
+        Assert.assertEquals(0, metric.numActiveAllocations());
+
+        // The chunk lists of all stripes are reported as one list per usage range.
+        Assert.assertEquals(6, metric.chunkLists().size());
+        ByteBuf buffer = allocator.directBuffer(8192 * 2);
+        int chunks = 0;
+        for (PoolChunkListMetric list: metric.chunkLists()) {
+            for (PoolChunkMetric chunk: list) {
+                Assert.assertEquals(8192 << 11, chunk.chunkSize());
+                chunks ++;
+            }
+        }
+        Assert.assertTrue(chunks >= 1);
+        Assert.assertTrue(chunks <= 4);
+        Assert.assertEquals(chunks * (long) (8192 << 11), metric.numActiveBytes());
+        Assert.assertTrue(buffer.release());
+    }
+
+    @Test
+    public void testReleaseEmptyChunks() {
+        final int chunkSize = 8192 << 3;
+        final PooledByteBufAllocator allocator = new PooledByteBufAllocator(
+                true,   // preferDirect
+                0,      // nHeapArena
+                1,      // nDirectArena
+                8192,   // pageSize
+                3,      // maxOrder
+                0,      // tinyCacheSize
+                0,      // smallCacheSize
+                0,      // normalCacheSize
+                true    // useCacheForAllThreads
+                );
+        @SuppressWarnings("unchecked")
+        final PoolArena<ByteBuffer> arena = (PoolArena<ByteBuffer>) allocator.directArenas().get(0);
+
+        // Less than 25% of the chunk, so it stays in qInit and is not destroyed once the buffer is released.
+        ByteBuf buffer = allocator.directBuffer(8192);
+        Assert.assertEquals(chunkSize, arena.numCommittedBytes());
+        Assert.assertEquals(8192, arena.numUsedBytes());
+        Assert.assertEquals(0, arena.releaseEmptyChunks(System.nanoTime(), 0));
+        Assert.assertTrue(buffer.release());
+        long nanoTime = System.nanoTime();
+        Assert.assertEquals(chunkSize, arena.numCommittedBytes());
+        Assert.assertEquals(0, arena.numUsedBytes());
+
+        // Not empty for long enough.
+        Assert.assertEquals(1, arena.releaseEmptyChunks(nanoTime - TimeUnit.HOURS.toNanos(1), 0));
+        // Kept to serve the next allocations.
+        Assert.assertEquals(1, arena.releaseEmptyChunks(nanoTime, 1));
+        Assert.assertEquals(chunkSize, arena.numCommittedBytes());
+
+        Assert.assertEquals(0, arena.releaseEmptyChunks(nanoTime, 0));
+        Assert.assertEquals(0, arena.numCommittedBytes());
+        Assert.assertEquals(0, arena.numUsedBytes());
+
+        // A new chunk is allocated on demand.
+        buffer = allocator.directBuffer(8192);
+        Assert.assertEquals(chunkSize, arena.numCommittedBytes());
+        Assert.assertTrue(buffer.release());
+    }
+
+    @Test
+    public void testHugePageDirectArena() throws Exception {
+        File directory = File.createTempFile("netty-hugepages-", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        try {
+            // Any directory works for the mapping itself, only a hugetlbfs mount backs it with huge pages.
+            HugePageDirectArena arena = newHugePageDirectArena(directory, true, TimeUnit.HOURS.toNanos(1));
+            PoolChunk<ByteBuffer> chunk = arena.newChunk(8192, 3, 13, 8192 << 3);
+            Assert.assertTrue(arena.hugePagesAvailable());
+            // Rounded up to the huge page size.
+            Assert.assertEquals(8192 << 4, chunk.memory.capacity());
+            Assert.assertTrue(chunk.memory.isDirect());
+            chunk.memory.putLong(8192, 42);
+            Assert.assertEquals(42, chunk.memory.getLong(8192));
+            // The file is deleted as soon as it is mapped.
+            Assert.assertEquals(0, directory.list().length);
+            arena.destroyChunk(chunk);
+
+            // Not a hugetlbfs mount, so nothing is mapped.
+            arena = newHugePageDirectArena(directory, false, 0);
+            Assert.assertFalse(arena.hugePagesAvailable());
+            chunk = arena.newChunk(8192, 3, 13, 8192 << 3);
+            Assert.assertEquals(8192 << 3, chunk.memory.capacity());
+            arena.destroyChunk(chunk);
+        } finally {
+            Assert.assertTrue(directory.delete());
+        }
+
+        HugePageDirectArena arena = newHugePageDirectArena(directory, true, TimeUnit.HOURS.toNanos(1));
+        PoolChunk<ByteBuffer> chunk = arena.newChunk(8192, 3, 13, 8192 << 3);
+        Assert.assertFalse(arena.hugePagesAvailable());
+        Assert.assertEquals(8192 << 3, chunk.memory.capacity());
+        arena.destroyChunk(chunk);
+    }
+
+    @Test
+    public void testHugePageDirectArenaMapsAgainAfterFailure() throws Exception {
+        File directory = File.createTempFile("netty-hugepages-", "");
+        Assert.assertTrue(directory.delete());
+        // Retries on the next chunk once mapping failed.
+        HugePageDirectArena arena = newHugePageDirectArena(directory, true, 0);
+        PoolChunk<ByteBuffer> chunk = arena.newChunk(8192, 3, 13, 8192 << 3);
+        Assert.assertEquals(8192 << 3, chunk.memory.capacity());
+        arena.destroyChunk(chunk);
+
+        Assert.assertTrue(directory.mkdir());
+        try {
+            Assert.assertTrue(arena.hugePagesAvailable());
+            chunk = arena.newChunk(8192, 3, 13, 8192 << 3);
+            Assert.assertEquals(8192 << 4, chunk.memory.capacity());
+            arena.destroyChunk(chunk);
+        } finally {
+            Assert.assertTrue(directory.delete());
+        }
+    }
+
+    @Test
+    public void testIsHugetlbfsMount() throws Exception {
+        String mounts = "/dev/sda1 / ext4 rw,relatime 0 0\n"
+                + "hugetlbfs /dev/hugepages hugetlbfs rw,relatime,pagesize=2M 0 0\n"
+                + "hugetlbfs /mnt/huge\\040pages hugetlbfs rw,relatime,pagesize=1G 0 0\n"
+                + "tmpfs /dev/hugepages/tmp tmpfs rw 0 0\n";
+        Assert.assertTrue(isHugetlbfsMount("/dev/hugepages", mounts));
+        Assert.assertTrue(isHugetlbfsMount("/dev/hugepages/netty", mounts));
+        Assert.assertTrue(isHugetlbfsMount("/mnt/huge pages", mounts));
+        Assert.assertFalse(isHugetlbfsMount("/dev/hugepages/tmp", mounts));
+        Assert.assertFalse(isHugetlbfsMount("/dev/hugepages2", mounts));
+        Assert.assertFalse(isHugetlbfsMount("/tmp", mounts));
+        Assert.assertFalse(isHugetlbfsMount("/tmp", ""));
+    }
+
+    private static boolean isHugetlbfsMount(String path, String mounts) throws Exception {
+        return HugePageDirectArena.isHugetlbfsMount(path, new BufferedReader(new StringReader(mounts)));
+    }
+
+    private static HugePageDirectArena newHugePageDirectArena(File directory, boolean hugetlbfs,
+                                                              long mapRetryIntervalNanos) {
+        return new HugePageDirectArena(null, 8192, 3, 13, 8192 << 3, 0, 1, false, directory, 8192 << 4, hugetlbfs,
+                                       mapRetryIntervalNanos);
+    }
 }
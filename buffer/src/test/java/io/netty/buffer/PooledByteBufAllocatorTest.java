@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
@@ -408,6 +409,98 @@ public class PooledByteBufAllocatorTest extends AbstractByteBufAllocatorTest<Poo
         void destroy() throws InterruptedException;
     }
 
+    @Test(timeout = 10000)
+    public void testIdleThreadCacheTrimmed() throws Throwable {
+        final PooledByteBufAllocator allocator = new PooledByteBufAllocator(
+                true, 0, 1, 8192, 11, 64, 64, 64, true, 0, 1, 100);
+        final CountDownLatch cached = new CountDownLatch(1);
+        final CountDownLatch trimmed = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertTrue(allocator.directBuffer(1024).release());
+                    cached.countDown();
+                    trimmed.await();
+                    // The cache can still be used after it was trimmed.
+                    assertTrue(allocator.directBuffer(1024).release());
+                    assertEquals(1024, allocator.metric().threadCacheDirectMemory());
+                } catch (Throwable cause) {
+                    error.set(cause);
+                }
+            }
+        });
+        thread.start();
+        cached.await();
+        assertEquals(1024, allocator.metric().threadCacheDirectMemory());
+        assertEquals(0, allocator.metric().threadCacheHeapMemory());
+        assertEquals(1, allocator.metric().directArenas().get(0).numActiveAllocations());
+
+        while (allocator.metric().threadCacheDirectMemory() != 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(thread.isAlive());
+        assertEquals(0, allocator.metric().directArenas().get(0).numActiveAllocations());
+
+        trimmed.countDown();
+        thread.join();
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    @Test
+    public void testSizeClassesThreadCacheBounded() {
+        // A small cache of 256 but a normal cache of 2 buffers.
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(
+                true, 0, 1, 8192, 11, 64, 256, 2, true, 0, 1, 0, true);
+        assertCachedBytes(allocator, 640, 8, 8 * 640);
+        // Allocated out of subpages but at least a page, so cached like the normal classes.
+        assertCachedBytes(allocator, 10 * 1024, 8, 8 * 640 + 2 * 10 * 1024);
+        assertCachedBytes(allocator, 14 * 1024, 8, 8 * 640 + 2 * 10 * 1024 + 2 * 14 * 1024);
+    }
+
+    private static void assertCachedBytes(PooledByteBufAllocator allocator, int capacity, int count,
+                                          long expectedCachedBytes) {
+        ByteBuf[] buffers = new ByteBuf[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = allocator.directBuffer(capacity);
+        }
+        for (ByteBuf buffer: buffers) {
+            assertTrue(buffer.release());
+        }
+        assertEquals(expectedCachedBytes, allocator.metric().threadCacheDirectMemory());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testThreadCacheTrimmerWaitsForIdleTime() {
+        // Long enough for the scheduled trim tasks to not run during the test.
+        long idleNanos = TimeUnit.HOURS.toNanos(1);
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(
+                true, 0, 1, 8192, 11, 64, 64, 64, true, 0, 1, TimeUnit.NANOSECONDS.toMillis(idleNanos));
+        PoolThreadCacheTrimmer trimmer = new PoolThreadCacheTrimmer(TimeUnit.NANOSECONDS.toMillis(idleNanos));
+        long nanoTime = System.nanoTime();
+        try {
+            assertTrue(allocator.directBuffer(1024).release());
+            assertEquals(1024, allocator.metric().threadCacheDirectMemory());
+            trimmer.register(allocator.threadCache());
+
+            // The cache was used since it was registered.
+            assertEquals(0, trimmer.trim(nanoTime + idleNanos));
+            assertEquals(0, trimmer.trim(nanoTime + idleNanos * 2 - 1));
+            assertEquals(1024, allocator.metric().threadCacheDirectMemory());
+
+            assertEquals(1, trimmer.trim(nanoTime + idleNanos * 2));
+            assertEquals(0, allocator.metric().threadCacheDirectMemory());
+            assertEquals(0, allocator.metric().directArenas().get(0).numActiveAllocations());
+        } finally {
+            trimmer.unregister(allocator.threadCache());
+            allocator.freeThreadLocalCache();
+        }
+    }
+
     @Test
     public void testConcurrentUsage() throws Throwable {
         long runningTime = MILLISECONDS.toNanos(SystemPropertyUtil.getLong(
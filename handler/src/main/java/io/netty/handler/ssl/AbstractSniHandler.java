@@ -95,8 +95,9 @@ public abstract class AbstractSniHandler<T> extends ByteToMessageDecoder impleme
                         case SslUtils.SSL_CONTENT_TYPE_HANDSHAKE:
                             final int majorVersion = in.getUnsignedByte(readerIndex + 1);
 
-                            // SSLv3 or TLS
-                            if (majorVersion == 3) {
+                            // SSLv3, TLS or GMTLS
+                            if (majorVersion == 3 ||
+                                    in.getUnsignedShort(readerIndex + 1) == SslUtils.GMTLS_VERSION) {
                                 final int packetLength = in.getUnsignedShort(readerIndex + 3) +
                                         SslUtils.SSL_RECORD_HEADER_LENGTH;
 
@@ -83,20 +83,141 @@ final class CipherSuiteConverter {
     private static final Pattern OPENSSL_AES_PATTERN = Pattern.compile("^(AES)([0-9]+)-(.*)$");
 
     /**
-     * Java-to-OpenSSL cipher suite conversion map
+     * The OpenSSL cipher suites that are known when the class is initialized, mostly the ones returned by
+     * {@code SSL_get_cipher_name} for the ciphers of OpenSSL, LibreSSL, BoringSSL and the GM patches.
+     */
+    private static final String[] KNOWN_OPENSSL_CIPHER_SUITES = {
+            // TLSv1.2 AEAD suites
+            "ECDHE-ECDSA-AES128-GCM-SHA256", "ECDHE-RSA-AES128-GCM-SHA256", "ECDHE-ECDSA-AES256-GCM-SHA384",
+            "ECDHE-RSA-AES256-GCM-SHA384", "DHE-RSA-AES128-GCM-SHA256", "DHE-RSA-AES256-GCM-SHA384",
+            "DHE-DSS-AES128-GCM-SHA256", "DHE-DSS-AES256-GCM-SHA384", "ECDH-ECDSA-AES128-GCM-SHA256",
+            "ECDH-ECDSA-AES256-GCM-SHA384", "ECDH-RSA-AES128-GCM-SHA256", "ECDH-RSA-AES256-GCM-SHA384",
+            "AES128-GCM-SHA256", "AES256-GCM-SHA384", "ADH-AES128-GCM-SHA256", "ADH-AES256-GCM-SHA384",
+            "PSK-AES128-GCM-SHA256", "PSK-AES256-GCM-SHA384", "DHE-PSK-AES128-GCM-SHA256",
+            "DHE-PSK-AES256-GCM-SHA384", "RSA-PSK-AES128-GCM-SHA256", "RSA-PSK-AES256-GCM-SHA384",
+            "ECDHE-RSA-CHACHA20-POLY1305", "ECDHE-ECDSA-CHACHA20-POLY1305", "DHE-RSA-CHACHA20-POLY1305",
+            "PSK-CHACHA20-POLY1305", "ECDHE-PSK-CHACHA20-POLY1305", "DHE-PSK-CHACHA20-POLY1305",
+            "RSA-PSK-CHACHA20-POLY1305",
+            // CBC suites
+            "ECDHE-ECDSA-AES128-SHA256", "ECDHE-RSA-AES128-SHA256", "ECDHE-ECDSA-AES256-SHA384",
+            "ECDHE-RSA-AES256-SHA384", "ECDHE-ECDSA-AES128-SHA", "ECDHE-RSA-AES128-SHA", "ECDHE-ECDSA-AES256-SHA",
+            "ECDHE-RSA-AES256-SHA", "ECDH-ECDSA-AES128-SHA256", "ECDH-RSA-AES128-SHA256", "ECDH-ECDSA-AES256-SHA384",
+            "ECDH-RSA-AES256-SHA384", "ECDH-ECDSA-AES128-SHA", "ECDH-RSA-AES128-SHA", "ECDH-ECDSA-AES256-SHA",
+            "ECDH-RSA-AES256-SHA", "DHE-RSA-AES128-SHA256", "DHE-DSS-AES128-SHA256", "DHE-RSA-AES256-SHA256",
+            "DHE-DSS-AES256-SHA256", "DHE-RSA-AES128-SHA", "DHE-DSS-AES128-SHA", "DHE-RSA-AES256-SHA",
+            "DHE-DSS-AES256-SHA", "AES128-SHA256", "AES256-SHA256", "AES128-SHA", "AES256-SHA", "ADH-AES128-SHA256",
+            "ADH-AES256-SHA256", "ADH-AES128-SHA", "ADH-AES256-SHA", "AECDH-AES128-SHA", "AECDH-AES256-SHA",
+            "ECDHE-PSK-AES128-CBC-SHA", "ECDHE-PSK-AES256-CBC-SHA", "PSK-AES128-CBC-SHA", "PSK-AES256-CBC-SHA",
+            "SRP-AES-128-CBC-SHA", "SRP-AES-256-CBC-SHA", "SRP-RSA-AES-128-CBC-SHA", "SRP-RSA-AES-256-CBC-SHA",
+            "SRP-DSS-AES-128-CBC-SHA", "SRP-DSS-AES-256-CBC-SHA", "CAMELLIA128-SHA", "CAMELLIA256-SHA",
+            "DHE-RSA-CAMELLIA128-SHA", "DHE-RSA-CAMELLIA256-SHA", "DHE-DSS-CAMELLIA128-SHA",
+            "DHE-DSS-CAMELLIA256-SHA", "ADH-CAMELLIA128-SHA", "ADH-CAMELLIA256-SHA", "SEED-SHA", "DHE-RSA-SEED-SHA",
+            "DHE-DSS-SEED-SHA", "ADH-SEED-SHA", "IDEA-CBC-SHA", "KRB5-IDEA-CBC-SHA", "KRB5-IDEA-CBC-MD5",
+            // 3DES, DES, RC4, RC2 and NULL suites
+            "ECDHE-ECDSA-DES-CBC3-SHA", "ECDHE-RSA-DES-CBC3-SHA", "ECDH-ECDSA-DES-CBC3-SHA", "ECDH-RSA-DES-CBC3-SHA",
+            "DHE-RSA-DES-CBC3-SHA", "DHE-DSS-DES-CBC3-SHA", "EDH-RSA-DES-CBC3-SHA", "EDH-DSS-DES-CBC3-SHA",
+            "DES-CBC3-SHA", "DES-CBC3-MD5", "ADH-DES-CBC3-SHA", "AECDH-DES-CBC3-SHA", "PSK-3DES-EDE-CBC-SHA",
+            "SRP-3DES-EDE-CBC-SHA", "SRP-RSA-3DES-EDE-CBC-SHA", "SRP-DSS-3DES-EDE-CBC-SHA", "KRB5-DES-CBC3-SHA",
+            "KRB5-DES-CBC3-MD5", "DES-CBC-SHA", "DES-CBC-MD5", "DHE-RSA-DES-CBC-SHA", "DHE-DSS-DES-CBC-SHA",
+            "EDH-RSA-DES-CBC-SHA", "EDH-DSS-DES-CBC-SHA", "ADH-DES-CBC-SHA", "KRB5-DES-CBC-SHA", "KRB5-DES-CBC-MD5",
+            "ECDHE-ECDSA-RC4-SHA", "ECDHE-RSA-RC4-SHA", "ECDH-ECDSA-RC4-SHA", "ECDH-RSA-RC4-SHA", "RC4-SHA",
+            "RC4-MD5", "ADH-RC4-MD5", "AECDH-RC4-SHA", "PSK-RC4-SHA", "KRB5-RC4-SHA", "KRB5-RC4-MD5", "RC2-CBC-MD5",
+            "EXP-DES-CBC-SHA", "EXP-DHE-RSA-DES-CBC-SHA", "EXP-DHE-DSS-DES-CBC-SHA", "EXP-EDH-RSA-DES-CBC-SHA",
+            "EXP-EDH-DSS-DES-CBC-SHA", "EXP-ADH-DES-CBC-SHA", "EXP-RC4-MD5", "EXP-ADH-RC4-MD5", "EXP-RC2-CBC-MD5",
+            "EXP-KRB5-DES-CBC-SHA", "EXP-KRB5-DES-CBC-MD5", "EXP-KRB5-RC4-SHA", "EXP-KRB5-RC4-MD5",
+            "EXP-KRB5-RC2-CBC-SHA", "EXP-KRB5-RC2-CBC-MD5", "NULL-SHA256", "NULL-SHA", "NULL-MD5",
+            "ECDHE-ECDSA-NULL-SHA", "ECDHE-RSA-NULL-SHA", "ECDH-ECDSA-NULL-SHA", "ECDH-RSA-NULL-SHA",
+            "AECDH-NULL-SHA",
+    };
+
+    /**
+     * The Java cipher suites that are known when the class is initialized and do not have the same name as the
+     * result of {@link #toJavaUncached(String)} for their OpenSSL cipher suite.
+     */
+    private static final String[] KNOWN_JAVA_CIPHER_SUITES = {
+            "SSL_RSA_EXPORT_WITH_DES40_CBC_SHA", "SSL_DHE_RSA_EXPORT_WITH_DES40_CBC_SHA",
+            "SSL_DHE_DSS_EXPORT_WITH_DES40_CBC_SHA", "SSL_DH_anon_EXPORT_WITH_DES40_CBC_SHA",
+    };
+
+    /**
+     * The GM cipher suites, which do not follow the naming convention the patterns above expect.
+     */
+    private static final String[][] GM_CIPHER_SUITES = {
+            { "ECDHE-SM4-SM3", "ECDHE_WITH_SM4_SM3" },
+            { "ECC-SM4-SM3", "ECC_WITH_SM4_SM3" },
+    };
+
+    /**
+     * The maximum number of conversions of unknown cipher suites that are cached in addition to the
+     * {@linkplain #J2O_TABLE known ones}. Every cipher suite that is configured or negotiated ends up here, so a
+     * small bound is enough and keeps bogus names from growing the cache forever.
+     */
+    private static final int MAX_CACHED = 256;
+
+    /**
+     * Java-to-OpenSSL cipher suite conversion table of all known cipher suites. Built during class initialization
+     * and never modified afterwards, so it can be read without synchronization.
      * Note that the Java cipher suite has the protocol prefix (TLS_, SSL_)
      */
+    private static final Map<String, String> J2O_TABLE;
+
+    /**
+     * OpenSSL-to-Java cipher suite conversion table of all known cipher suites. Built during class initialization
+     * and never modified afterwards, so it can be read without synchronization.
+     */
+    private static final Map<String, JavaCipherSuite> O2J_TABLE;
+
+    /**
+     * Java-to-OpenSSL cipher suite conversion map of the cipher suites that are not in {@link #J2O_TABLE}.
+     */
     private static final ConcurrentMap<String, String> j2o = PlatformDependent.newConcurrentHashMap();
 
     /**
-     * OpenSSL-to-Java cipher suite conversion map.
+     * OpenSSL-to-Java cipher suite conversion map of the cipher suites that are not in {@link #O2J_TABLE}.
      * Note that one OpenSSL cipher suite can be converted to more than one Java cipher suites because
      * a Java cipher suite has the protocol name prefix (TLS_, SSL_)
      */
-    private static final ConcurrentMap<String, Map<String, String>> o2j = PlatformDependent.newConcurrentHashMap();
+    private static final ConcurrentMap<String, JavaCipherSuite> o2j = PlatformDependent.newConcurrentHashMap();
+
+    static {
+        Map<String, String> j2oTable = new HashMap<String, String>();
+        Map<String, JavaCipherSuite> o2jTable = new HashMap<String, JavaCipherSuite>();
+        for (String openSslCipherSuite: KNOWN_OPENSSL_CIPHER_SUITES) {
+            String javaCipherSuiteSuffix = toJavaUncached(openSslCipherSuite);
+            if (javaCipherSuiteSuffix != null) {
+                addMapping(j2oTable, o2jTable, openSslCipherSuite, javaCipherSuiteSuffix);
+            }
+        }
+        for (String javaCipherSuite: KNOWN_JAVA_CIPHER_SUITES) {
+            String openSslCipherSuite = toOpenSslUncached(javaCipherSuite);
+            if (openSslCipherSuite != null && !j2oTable.containsKey(javaCipherSuite)) {
+                j2oTable.put(javaCipherSuite, openSslCipherSuite);
+                if (!o2jTable.containsKey(openSslCipherSuite)) {
+                    o2jTable.put(openSslCipherSuite, new JavaCipherSuite(javaCipherSuite.substring(4)));
+                }
+            }
+        }
+        for (String[] gmCipherSuite: GM_CIPHER_SUITES) {
+            addMapping(j2oTable, o2jTable, gmCipherSuite[0], gmCipherSuite[1]);
+        }
+        J2O_TABLE = j2oTable;
+        O2J_TABLE = o2jTable;
+    }
+
+    private static void addMapping(Map<String, String> j2oTable, Map<String, JavaCipherSuite> o2jTable,
+                                   String openSslCipherSuite, String javaCipherSuiteSuffix) {
+        JavaCipherSuite javaCipherSuite = new JavaCipherSuite(javaCipherSuiteSuffix);
+        o2jTable.put(openSslCipherSuite, javaCipherSuite);
+        if (!j2oTable.containsKey(javaCipherSuite.tls)) {
+            j2oTable.put(javaCipherSuite.tls, openSslCipherSuite);
+        }
+        if (!j2oTable.containsKey(javaCipherSuite.ssl)) {
+            j2oTable.put(javaCipherSuite.ssl, openSslCipherSuite);
+        }
+    }
 
     /**
-     * Clears the cache for testing purpose.
+     * Clears the cache for testing purpose. The table of known cipher suites is not affected.
      */
     static void clearCache() {
         j2o.clear();
@@ -107,19 +228,25 @@ final class CipherSuiteConverter {
      * Tests if the specified key-value pair has been cached in Java-to-OpenSSL cache.
      */
     static boolean isJ2OCached(String key, String value) {
-        return value.equals(j2o.get(key));
+        String cached = J2O_TABLE.get(key);
+        if (cached == null) {
+            cached = j2o.get(key);
+        }
+        return value.equals(cached);
     }
 
     /**
      * Tests if the specified key-value pair has been cached in OpenSSL-to-Java cache.
      */
     static boolean isO2JCached(String key, String protocol, String value) {
-        Map<String, String> p2j = o2j.get(key);
-        if (p2j == null) {
-            return false;
-        } else {
-            return value.equals(p2j.get(protocol));
+        JavaCipherSuite javaCipherSuite = O2J_TABLE.get(key);
+        if (javaCipherSuite == null) {
+            javaCipherSuite = o2j.get(key);
+            if (javaCipherSuite == null) {
+                return false;
+            }
         }
+        return value.equals(javaCipherSuite.get(protocol));
     }
 
     /**
@@ -155,7 +282,11 @@ final class CipherSuiteConverter {
      * @return {@code null} if the conversion has failed
      */
     static String toOpenSsl(String javaCipherSuite) {
-        String converted = j2o.get(javaCipherSuite);
+        String converted = J2O_TABLE.get(javaCipherSuite);
+        if (converted != null) {
+            return converted;
+        }
+        converted = j2o.get(javaCipherSuite);
         if (converted != null) {
             return converted;
         } else {
@@ -168,17 +299,20 @@ final class CipherSuiteConverter {
         if (openSslCipherSuite == null) {
             return null;
         }
+        if (o2j.size() >= MAX_CACHED || j2o.size() >= MAX_CACHED) {
+            return openSslCipherSuite;
+        }
 
         // Cache the mapping.
-        j2o.putIfAbsent(javaCipherSuite, openSslCipherSuite);
+        String old = j2o.putIfAbsent(javaCipherSuite, openSslCipherSuite);
+        if (old != null) {
+            openSslCipherSuite = old;
+        }
 
         // Cache the reverse mapping after stripping the protocol prefix (TLS_ or SSL_)
-        final String javaCipherSuiteSuffix = javaCipherSuite.substring(4);
-        Map<String, String> p2j = new HashMap<String, String>(4);
-        p2j.put("", javaCipherSuiteSuffix);
-        p2j.put("SSL", "SSL_" + javaCipherSuiteSuffix);
-        p2j.put("TLS", "TLS_" + javaCipherSuiteSuffix);
-        o2j.put(openSslCipherSuite, p2j);
+        if (!O2J_TABLE.containsKey(openSslCipherSuite)) {
+            o2j.putIfAbsent(openSslCipherSuite, new JavaCipherSuite(javaCipherSuite.substring(4)));
+        }
 
         logger.debug("Cipher suite mapping: {} => {}", javaCipherSuite, openSslCipherSuite);
 
@@ -275,53 +409,51 @@ final class CipherSuiteConverter {
      * @return The translated cipher suite name according to java conventions. This will not be {@code null}.
      */
     static String toJava(String openSslCipherSuite, String protocol) {
-        if (openSslCipherSuite.equals("ECDHE-SM4-SM3")) {
-            return protocol.concat("_ECDHE_WITH_SM4_SM3");
-        } else if (openSslCipherSuite.equals("ECC-SM4-SM3")) {
-            return protocol.concat("_ECC_WITH_SM4_SM3");
-        }
-        Map<String, String> p2j = o2j.get(openSslCipherSuite);
-        if (p2j == null) {
-            p2j = cacheFromOpenSsl(openSslCipherSuite);
-            // This may happen if this method is queried when OpenSSL doesn't yet have a cipher setup. It will return
-            // "(NONE)" in this case.
-            if (p2j == null) {
-                return null;
-            }
-        }
-
-        String javaCipherSuite = p2j.get(protocol);
+        JavaCipherSuite javaCipherSuite = O2J_TABLE.get(openSslCipherSuite);
         if (javaCipherSuite == null) {
-            javaCipherSuite = protocol + '_' + p2j.get("");
+            javaCipherSuite = o2j.get(openSslCipherSuite);
+            if (javaCipherSuite == null) {
+                javaCipherSuite = cacheFromOpenSsl(openSslCipherSuite);
+                // This may happen if this method is queried when OpenSSL doesn't yet have a cipher setup. It will
+                // return "(NONE)" in this case.
+                if (javaCipherSuite == null) {
+                    return null;
+                }
+            }
         }
 
-        return javaCipherSuite;
+        return javaCipherSuite.get(protocol);
     }
 
-    private static Map<String, String> cacheFromOpenSsl(String openSslCipherSuite) {
+    private static JavaCipherSuite cacheFromOpenSsl(String openSslCipherSuite) {
         String javaCipherSuiteSuffix = toJavaUncached(openSslCipherSuite);
         if (javaCipherSuiteSuffix == null) {
             return null;
         }
 
-        final String javaCipherSuiteSsl = "SSL_" + javaCipherSuiteSuffix;
-        final String javaCipherSuiteTls = "TLS_" + javaCipherSuiteSuffix;
+        final JavaCipherSuite javaCipherSuite = new JavaCipherSuite(javaCipherSuiteSuffix);
+        if (o2j.size() >= MAX_CACHED || j2o.size() >= MAX_CACHED) {
+            return javaCipherSuite;
+        }
 
         // Cache the mapping.
-        final Map<String, String> p2j = new HashMap<String, String>(4);
-        p2j.put("", javaCipherSuiteSuffix);
-        p2j.put("SSL", javaCipherSuiteSsl);
-        p2j.put("TLS", javaCipherSuiteTls);
-        o2j.putIfAbsent(openSslCipherSuite, p2j);
+        JavaCipherSuite old = o2j.putIfAbsent(openSslCipherSuite, javaCipherSuite);
+        if (old != null) {
+            return old;
+        }
 
         // Cache the reverse mapping after adding the protocol prefix (TLS_ or SSL_)
-        j2o.putIfAbsent(javaCipherSuiteTls, openSslCipherSuite);
-        j2o.putIfAbsent(javaCipherSuiteSsl, openSslCipherSuite);
+        if (!J2O_TABLE.containsKey(javaCipherSuite.tls)) {
+            j2o.putIfAbsent(javaCipherSuite.tls, openSslCipherSuite);
+        }
+        if (!J2O_TABLE.containsKey(javaCipherSuite.ssl)) {
+            j2o.putIfAbsent(javaCipherSuite.ssl, openSslCipherSuite);
+        }
 
-        logger.debug("Cipher suite mapping: {} => {}", javaCipherSuiteTls, openSslCipherSuite);
-        logger.debug("Cipher suite mapping: {} => {}", javaCipherSuiteSsl, openSslCipherSuite);
+        logger.debug("Cipher suite mapping: {} => {}", javaCipherSuite.tls, openSslCipherSuite);
+        logger.debug("Cipher suite mapping: {} => {}", javaCipherSuite.ssl, openSslCipherSuite);
 
-        return p2j;
+        return javaCipherSuite;
     }
 
     static String toJavaUncached(String openSslCipherSuite) {
@@ -428,5 +560,51 @@ final class CipherSuiteConverter {
         return hmacAlgo;
     }
 
+    /**
+     * The Java names of an OpenSSL cipher suite, with and without the protocol prefix.
+     */
+    private static final class JavaCipherSuite {
+        final String suffix;
+        final String ssl;
+        final String tls;
+        // The name with the last other prefix, like the UNKNOWN prefix of GMTLS sessions, so it is not built again
+        // for every session of the same protocol.
+        private volatile PrefixedName other;
+
+        JavaCipherSuite(String suffix) {
+            this.suffix = suffix;
+            ssl = "SSL_" + suffix;
+            tls = "TLS_" + suffix;
+        }
+
+        String get(String protocol) {
+            if ("TLS".equals(protocol)) {
+                return tls;
+            }
+            if ("SSL".equals(protocol)) {
+                return ssl;
+            }
+            if (protocol.isEmpty()) {
+                return suffix;
+            }
+            PrefixedName other = this.other;
+            if (other == null || !other.protocol.equals(protocol)) {
+                other = new PrefixedName(protocol, protocol + '_' + suffix);
+                this.other = other;
+            }
+            return other.name;
+        }
+    }
+
+    private static final class PrefixedName {
+        final String protocol;
+        final String name;
+
+        PrefixedName(String protocol, String name) {
+            this.protocol = protocol;
+            this.name = name;
+        }
+    }
+
     private CipherSuiteConverter() { }
 }
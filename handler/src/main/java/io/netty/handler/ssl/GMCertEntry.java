@@ -1,5 +1,16 @@
 package io.netty.handler.ssl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledDirectByteBuf;
+import io.netty.buffer.UnpooledUnsafeDirectByteBuf;
+import io.netty.util.CharsetUtil;
+import io.netty.util.internal.PlatformDependent;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * @purpose 国密证书和私钥对
  * @company Infosec Technology
@@ -7,27 +18,177 @@ package io.netty.handler.ssl;
  * @date 18-5-28
  */
 public class GMCertEntry {
+    private static final String PEM_BEGIN = "-----BEGIN ";
+
+    private final boolean immutable;
     private String cert;
     private String key;
 
+    // PEM encoded cert and key in direct memory, created on first use and shared by all contexts built from this entry
+    // until release() is called.
+    private ByteBuf certPem;
+    private ByteBuf keyPem;
+
     public GMCertEntry(String cert, String key) {
+        this(cert, key, false);
+    }
+
+    /**
+     * Create a new entry, which rejects {@link #setCert(String)} and {@link #setKey(String)} if {@code immutable} is
+     * {@code true}. Entries that are created by {@link SslContextGMBuilder} or a {@link GMCertEntryCache} are
+     * immutable, as they may be shared by more than one caller.
+     */
+    GMCertEntry(String cert, String key, boolean immutable) {
         this.cert = cert;
         this.key = key;
+        this.immutable = immutable;
     }
 
     public String getCert() {
         return cert;
     }
 
-    public void setCert(String cert) {
+    public synchronized void setCert(String cert) {
+        checkMutable();
         this.cert = cert;
+        certPem = release(certPem);
     }
 
     public String getKey() {
         return key;
     }
 
-    public void setKey(String key) {
+    public synchronized void setKey(String key) {
+        checkMutable();
         this.key = key;
+        keyPem = release(keyPem);
+    }
+
+    /**
+     * Returns {@code true} if this entry contains a cert and a key.
+     */
+    boolean isComplete() {
+        return cert != null && !cert.isEmpty() && key != null && !key.isEmpty();
+    }
+
+    /**
+     * Releases the PEM encoded cert and key. Their direct memory is freed, and the key zeroed out, as soon as all
+     * duplicates that were handed out are released as well. The entry stays usable and encodes them again on next
+     * use.
+     */
+    synchronized void release() {
+        certPem = release(certPem);
+        keyPem = release(keyPem);
+    }
+
+    /**
+     * Returns a retained duplicate of the PEM encoded cert that must be released by the caller, for example by
+     * passing it to {@link ReferenceCountedOpenSslContext#toBIO(ByteBufAllocator, PemEncoded)}.
+     */
+    synchronized PemEncoded retainedCertPem() {
+        ByteBuf pem = certPem;
+        if (pem == null) {
+            if (cert.startsWith(PEM_BEGIN)) {
+                pem = toDirect(cert, false);
+            } else {
+                // Only the base64 encoded DER was given.
+                pem = copyToDirect(PemX509Certificate.toPEM(ByteBufAllocator.DEFAULT, false, cert));
+            }
+            certPem = pem;
+        }
+        return new PemValue(pem.retainedDuplicate(), false);
+    }
+
+    /**
+     * Returns a retained duplicate of the PEM encoded key that must be released by the caller, for example by
+     * passing it to {@link ReferenceCountedOpenSslContext#toBIO(ByteBufAllocator, PemEncoded)}.
+     */
+    synchronized PemEncoded retainedKeyPem() {
+        ByteBuf pem = keyPem;
+        if (pem == null) {
+            if (key.startsWith(PEM_BEGIN)) {
+                // Keep the original label so PKCS#8 keys work as well as SEC1 "EC PRIVATE KEY"s.
+                pem = toDirect(key, true);
+            } else {
+                // Only the base64 encoded SEC1 key was given.
+                pem = copyToDirect(PemPrivateKey.toPEM(ByteBufAllocator.DEFAULT, false, key));
+            }
+            keyPem = pem;
+        }
+        // Read-only, as releasing a sensitive PemValue zeroes out its content, which would wipe the shared key.
+        return new PemValue(pem.asReadOnly().retain(), true);
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new UnsupportedOperationException("immutable");
+        }
+    }
+
+    private static ByteBuf toDirect(String pem, boolean sensitive) {
+        byte[] bytes = pem.trim().concat("\n").getBytes(CharsetUtil.US_ASCII);
+        try {
+            return toDirect(bytes, sensitive);
+        } finally {
+            if (sensitive) {
+                Arrays.fill(bytes, (byte) 0);
+            }
+        }
+    }
+
+    private static ByteBuf copyToDirect(PemEncoded pem) {
+        byte[] bytes = new byte[pem.content().readableBytes()];
+        try {
+            pem.content().getBytes(pem.content().readerIndex(), bytes);
+            return toDirect(bytes, pem.isSensitive());
+        } finally {
+            if (pem.isSensitive()) {
+                Arrays.fill(bytes, (byte) 0);
+                SslUtils.zeroout(pem.content());
+            }
+            pem.release();
+        }
+    }
+
+    // The memory is freed once the entry and all duplicates were released, or by the GC if a mutable entry is dropped
+    // without being released. Sensitive memory is zeroed out before it is freed.
+    private static ByteBuf toDirect(byte[] bytes, boolean sensitive) {
+        ByteBufAllocator alloc = UnpooledByteBufAllocator.DEFAULT;
+        int length = bytes.length;
+        final ByteBuf buffer;
+        if (!sensitive) {
+            buffer = PlatformDependent.hasUnsafe() ? new UnpooledUnsafeDirectByteBuf(alloc, length, length) :
+                    new UnpooledDirectByteBuf(alloc, length, length);
+        } else if (PlatformDependent.hasUnsafe()) {
+            buffer = new UnpooledUnsafeDirectByteBuf(alloc, length, length) {
+                @Override
+                protected void freeDirect(ByteBuffer buffer) {
+                    zeroout(buffer);
+                    super.freeDirect(buffer);
+                }
+            };
+        } else {
+            buffer = new UnpooledDirectByteBuf(alloc, length, length) {
+                @Override
+                protected void freeDirect(ByteBuffer buffer) {
+                    zeroout(buffer);
+                    super.freeDirect(buffer);
+                }
+            };
+        }
+        return buffer.writeBytes(bytes);
+    }
+
+    private static void zeroout(ByteBuffer buffer) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    private static ByteBuf release(ByteBuf pem) {
+        if (pem != null) {
+            pem.release();
+        }
+        return null;
     }
 }
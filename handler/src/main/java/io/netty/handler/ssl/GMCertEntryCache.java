@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.UnstableApi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+import static io.netty.util.internal.ObjectUtil.checkPositiveOrZero;
+
+/**
+ * A bounded LRU cache of {@link GMCertEntry}s, which can be passed to
+ * {@link SslContextGMBuilder#certEntryCache(GMCertEntryCache)}. As every cached {@link GMCertEntry} keeps its PEM
+ * encoded material in direct memory once it was used to build a context, returning the same instance for the same
+ * cert and key means the files are only read and encoded once no matter how many contexts are built from them.
+ * <p>
+ * Entries for files are keyed by the path, size and modification time of the files, so a changed file results in
+ * a new entry.
+ * <p>
+ * The cache is owned by the caller, who should {@link #clear()} it once it is not needed anymore. The returned
+ * entries are immutable, and the PEM encoded material of evicted or cleared entries is released, which zeroes out
+ * the keys.
+ */
+@UnstableApi
+public final class GMCertEntryCache {
+
+    private final Map<Object, GMCertEntry> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Create a new cache that holds up to {@code maxSize} entries. A size of {@code 0} disables caching.
+     */
+    public GMCertEntryCache(final int maxSize) {
+        checkPositiveOrZero(maxSize, "maxSize");
+        entries = new LinkedHashMap<Object, GMCertEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = -5402815651442442513L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, GMCertEntry> eldest) {
+                if (size() > maxSize) {
+                    eldest.getValue().release();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the {@link GMCertEntry} for the given cert and key in PEM format.
+     */
+    public GMCertEntry get(String cert, String key) {
+        checkNotNull(cert, "cert");
+        checkNotNull(key, "key");
+        Object cacheKey = new ContentKey(cert, key);
+        synchronized (this) {
+            GMCertEntry entry = entries.get(cacheKey);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+        return putIfAbsent(cacheKey, new GMCertEntry(cert, key, true));
+    }
+
+    /**
+     * Returns the {@link GMCertEntry} for the given cert and key files in PEM format.
+     */
+    public GMCertEntry get(File cert, File key) throws IOException {
+        checkNotNull(cert, "cert");
+        checkNotNull(key, "key");
+        Object cacheKey = new FileKey(cert, key);
+        synchronized (this) {
+            GMCertEntry entry = entries.get(cacheKey);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+        // Read the files outside of the lock.
+        return putIfAbsent(cacheKey, new GMCertEntry(readContent(cert), readContent(key), true));
+    }
+
+    /**
+     * Removes all entries and releases their PEM encoded material.
+     */
+    public synchronized void clear() {
+        for (GMCertEntry entry : entries.values()) {
+            entry.release();
+        }
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns how often an entry was served from this cache.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns how often an entry had to be created.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    private synchronized GMCertEntry putIfAbsent(Object cacheKey, GMCertEntry entry) {
+        GMCertEntry old = entries.get(cacheKey);
+        if (old != null) {
+            return old;
+        }
+        entries.put(cacheKey, entry);
+        return entry;
+    }
+
+    static String readContent(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return PemReader.readContent(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final class ContentKey {
+        private final String cert;
+        private final String key;
+        private final int hash;
+
+        ContentKey(String cert, String key) {
+            this.cert = cert;
+            this.key = key;
+            hash = 31 * cert.hashCode() + key.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey other = (ContentKey) o;
+            return hash == other.hash && cert.equals(other.cert) && key.equals(other.key);
+        }
+    }
+
+    private static final class FileKey {
+        private final String certPath;
+        private final long certLength;
+        private final long certLastModified;
+        private final String keyPath;
+        private final long keyLength;
+        private final long keyLastModified;
+
+        FileKey(File cert, File key) {
+            certPath = cert.getAbsolutePath();
+            certLength = cert.length();
+            certLastModified = cert.lastModified();
+            keyPath = key.getAbsolutePath();
+            keyLength = key.length();
+            keyLastModified = key.lastModified();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * certPath.hashCode() + keyPath.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileKey)) {
+                return false;
+            }
+            FileKey other = (FileKey) o;
+            return certLength == other.certLength && certLastModified == other.certLastModified &&
+                    keyLength == other.keyLength && keyLastModified == other.keyLastModified &&
+                    certPath.equals(other.certPath) && keyPath.equals(other.keyPath);
+        }
+    }
+}
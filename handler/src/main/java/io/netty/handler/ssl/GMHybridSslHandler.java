@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.UnstableApi;
+
+import java.util.List;
+
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+
+/**
+ * Serves GM and international clients on the same port. The first record of the client is inspected and this
+ * handler replaces itself with a {@link SslHandler} of the GM {@link SslContext} if the client speaks GMTLS, or of
+ * the international {@link SslContext} otherwise.
+ * <p>
+ * A client is considered a GM client if its record or {@code ClientHello} version is GMTLS 1.1 ({@code 0x0101}),
+ * or if it only offers GM cipher suites. Some GM clients send a TLS 1.x version for compatibility and are detected
+ * by the latter.
+ * <p>
+ * The bytes received so far are not copied: once this handler is removed from the pipeline they are handed to the
+ * {@link SslHandler} as they are.
+ */
+@UnstableApi
+public class GMHybridSslHandler extends ByteToMessageDecoder {
+
+    // The largest record a ClientHello may be sent in, see https://tools.ietf.org/html/rfc5246#section-6.2.1
+    private static final int MAX_PLAINTEXT_RECORD_LENGTH = (1 << 14) + SslUtils.SSL_RECORD_HEADER_LENGTH;
+    private static final int HANDSHAKE_TYPE_CLIENT_HELLO = 1;
+    // TLS_EMPTY_RENEGOTIATION_INFO_SCSV and TLS_FALLBACK_SCSV carry no algorithms and are sent by both kinds.
+    private static final int TLS_EMPTY_RENEGOTIATION_INFO_SCSV = 0x00FF;
+    private static final int TLS_FALLBACK_SCSV = 0x5600;
+
+    static final int NEED_MORE_DATA = 0;
+    static final int GM = 1;
+    static final int INTERNATIONAL = 2;
+
+    private final SslContext gmContext;
+    private final SslContext internationalContext;
+
+    /**
+     * Create a new instance.
+     *
+     * @param gmContext the context used for GM clients, built via {@link SslContextGMBuilder}
+     * @param internationalContext the context used for all other clients, built via {@link SslContextBuilder}
+     */
+    public GMHybridSslHandler(SslContext gmContext, SslContext internationalContext) {
+        this.gmContext = checkNotNull(gmContext, "gmContext");
+        this.internationalContext = checkNotNull(internationalContext, "internationalContext");
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        switch (detect(in)) {
+            case GM:
+                replaceHandler(ctx, true, gmContext);
+                break;
+            case INTERNATIONAL:
+                replaceHandler(ctx, false, internationalContext);
+                break;
+            default:
+                // Wait for the rest of the ClientHello.
+                break;
+        }
+    }
+
+    /**
+     * Inspects the first record in {@code in} without changing its indices and returns {@link #GM},
+     * {@link #INTERNATIONAL} or {@link #NEED_MORE_DATA}. Everything that is not a well-formed ClientHello is left
+     * to the international {@link SslHandler}, which will fail the handshake if it is not TLS at all.
+     */
+    static int detect(ByteBuf in) {
+        final int readerIndex = in.readerIndex();
+        final int readableBytes = in.readableBytes();
+        if (readableBytes < SslUtils.SSL_RECORD_HEADER_LENGTH) {
+            return NEED_MORE_DATA;
+        }
+        if (in.getUnsignedByte(readerIndex) != SslUtils.SSL_CONTENT_TYPE_HANDSHAKE) {
+            return INTERNATIONAL;
+        }
+        final int recordVersion = in.getUnsignedShort(readerIndex + 1);
+        if (recordVersion == SslUtils.GMTLS_VERSION) {
+            return GM;
+        }
+        if (recordVersion >>> 8 != 3) {
+            return INTERNATIONAL;
+        }
+        final int packetLength = in.getUnsignedShort(readerIndex + 3) + SslUtils.SSL_RECORD_HEADER_LENGTH;
+        if (packetLength > MAX_PLAINTEXT_RECORD_LENGTH) {
+            return INTERNATIONAL;
+        }
+        if (readableBytes < packetLength) {
+            return NEED_MORE_DATA;
+        }
+
+        // See https://tools.ietf.org/html/rfc5246#section-7.4.1.2
+        //
+        // struct {
+        //    HandshakeType msg_type;   (1 byte)
+        //    uint24 length;            (3 bytes)
+        //    ProtocolVersion client_version;
+        //    Random random;            (32 bytes)
+        //    SessionID session_id;
+        //    CipherSuite cipher_suites<2..2^16-2>;
+        //    ...
+        // } ClientHello;
+        final int endOffset = readerIndex + packetLength;
+        int offset = readerIndex + SslUtils.SSL_RECORD_HEADER_LENGTH;
+        if (endOffset - offset < 39 || in.getUnsignedByte(offset) != HANDSHAKE_TYPE_CLIENT_HELLO) {
+            return INTERNATIONAL;
+        }
+        if (in.getUnsignedShort(offset + 4) == SslUtils.GMTLS_VERSION) {
+            return GM;
+        }
+        offset += 38;
+        offset += in.getUnsignedByte(offset) + 1;
+        if (endOffset - offset < 2) {
+            return INTERNATIONAL;
+        }
+        final int cipherSuitesLength = in.getUnsignedShort(offset);
+        offset += 2;
+        final int cipherSuitesLimit = offset + cipherSuitesLength;
+        if (cipherSuitesLimit > endOffset) {
+            return INTERNATIONAL;
+        }
+        boolean gmOnly = false;
+        for (; offset + 1 < cipherSuitesLimit; offset += 2) {
+            final int cipherSuite = in.getUnsignedShort(offset);
+            if (cipherSuite == TLS_EMPTY_RENEGOTIATION_INFO_SCSV || cipherSuite == TLS_FALLBACK_SCSV) {
+                continue;
+            }
+            if (!isGMCipherSuite(cipherSuite)) {
+                return INTERNATIONAL;
+            }
+            gmOnly = true;
+        }
+        return gmOnly ? GM : INTERNATIONAL;
+    }
+
+    /**
+     * Returns {@code true} for the cipher suites of GM/T 0024, which are all allocated in {@code 0xE0xx}.
+     */
+    static boolean isGMCipherSuite(int cipherSuite) {
+        return cipherSuite >>> 8 == 0xE0;
+    }
+
+    private void replaceHandler(ChannelHandlerContext ctx, boolean gm, SslContext sslContext) {
+        SslHandler sslHandler = null;
+        try {
+            sslHandler = newSslHandler(ctx, gm, sslContext);
+            ctx.pipeline().replace(this, newSslHandlerName(), sslHandler);
+            sslHandler = null;
+        } finally {
+            // Since the SslHandler was not inserted into the pipeline the ownership of the SSLEngine was not
+            // transferred to the SslHandler.
+            if (sslHandler != null) {
+                ReferenceCountUtil.safeRelease(sslHandler.engine());
+            }
+        }
+    }
+
+    /**
+     * Optionally specify the SSL handler name, this method may return {@code null}.
+     * @return the name of the SSL handler.
+     */
+    protected String newSslHandlerName() {
+        return null;
+    }
+
+    /**
+     * Override to configure the {@link SslHandler}.
+     *
+     * @param ctx the {@link ChannelHandlerContext} to use.
+     * @param gm {@code true} if the client was detected as a GM client.
+     * @param sslContext the {@link SslContext} that was selected for the client.
+     * @return the {@link SslHandler} which will replace the {@link GMHybridSslHandler} in the pipeline.
+     */
+    protected SslHandler newSslHandler(ChannelHandlerContext ctx, boolean gm, SslContext sslContext) {
+        return sslContext.newHandler(ctx.alloc());
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.internal.tcnative.SSL;
+import io.netty.util.internal.UnstableApi;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.net.ssl.SSLException;
+
+import static io.netty.handler.ssl.ReferenceCountedOpenSslContext.freeBio;
+import static io.netty.handler.ssl.ReferenceCountedOpenSslContext.toBIO;
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+
+/**
+ * Provides the GM encryption and signing certificate/key pairs of one or more OpenSSL based {@link SslContext}s
+ * and allows to replace them at runtime via {@link #reload(GMCertEntry, GMCertEntry, String)}.
+ * <p>
+ * A reload swaps both pairs of every attached context at once while holding the write lock of the context, so an
+ * engine either sees the old or the new pairs but never a mix of both. Engines that were created before the
+ * reload keep the key material they were created with, and the session cache of the context is left untouched so
+ * sessions established with the old certificates can still be resumed.
+ *
+ * @see SslContextGMBuilder#keyManager(GMKeyMaterialProvider)
+ */
+@UnstableApi
+public final class GMKeyMaterialProvider {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(GMKeyMaterialProvider.class);
+
+    // Contexts are only weakly referenced so a finalizer based OpenSslContext can still be collected.
+    private final Set<ReferenceCountedOpenSslContext> contexts =
+            Collections.newSetFromMap(new WeakHashMap<ReferenceCountedOpenSslContext, Boolean>());
+    private volatile Material material;
+
+    /**
+     * Create a new instance.
+     *
+     * @param encCertEntry cert and key in PEM format for ssl encryption and decryption
+     * @param signCertEntry cert and key in PEM format for ssl sign and verify
+     * @param keyPassword the password of the keys, or {@code null} if they are not password-protected
+     * @throws SSLException if the certificates or keys can not be parsed
+     */
+    public GMKeyMaterialProvider(GMCertEntry encCertEntry, GMCertEntry signCertEntry, String keyPassword)
+            throws SSLException {
+        OpenSsl.ensureAvailability();
+        material = new Material(encCertEntry, signCertEntry, keyPassword);
+    }
+
+    /**
+     * Returns the cert and key currently used for ssl encryption and decryption.
+     */
+    public GMCertEntry encCertEntry() {
+        return material.encCertEntry;
+    }
+
+    /**
+     * Returns the cert and key currently used for ssl sign and verify.
+     */
+    public GMCertEntry signCertEntry() {
+        return material.signCertEntry;
+    }
+
+    /**
+     * Replace the encryption and signing pairs of all contexts that use this provider. The new material is
+     * validated before any context is changed. If it can not be applied to one of the contexts, the contexts
+     * that were already changed are restored to the previous material and an {@link SSLException} is thrown.
+     *
+     * @param encCertEntry cert and key in PEM format for ssl encryption and decryption
+     * @param signCertEntry cert and key in PEM format for ssl sign and verify
+     * @param keyPassword the password of the keys, or {@code null} if they are not password-protected
+     */
+    public synchronized void reload(GMCertEntry encCertEntry, GMCertEntry signCertEntry, String keyPassword)
+            throws SSLException {
+        Material newMaterial = new Material(encCertEntry, signCertEntry, keyPassword);
+        Material oldMaterial = material;
+        List<ReferenceCountedOpenSslContext> applied = new ArrayList<ReferenceCountedOpenSslContext>(contexts.size());
+        try {
+            for (ReferenceCountedOpenSslContext context: contexts) {
+                if (context.setGMKeyMaterial(newMaterial)) {
+                    applied.add(context);
+                }
+            }
+        } catch (SSLException e) {
+            for (ReferenceCountedOpenSslContext context: applied) {
+                try {
+                    context.setGMKeyMaterial(oldMaterial);
+                } catch (SSLException cause) {
+                    logger.warn("Failed to restore the previous key material of {}", context, cause);
+                }
+            }
+            throw e;
+        }
+        material = newMaterial;
+    }
+
+    /**
+     * Returns the material that a context should be built with before it is {@link #attach attached}.
+     */
+    Material material() {
+        return material;
+    }
+
+    /**
+     * Start to manage the key material of {@code context}, which was built with {@code builtWith}. If a
+     * {@link #reload} happened in between the current material is applied right away.
+     */
+    synchronized void attach(ReferenceCountedOpenSslContext context, Material builtWith) throws SSLException {
+        Material current = material;
+        if (current != builtWith) {
+            context.setGMKeyMaterial(current);
+        }
+        contexts.add(context);
+        context.gmKeyMaterialProvider = this;
+    }
+
+    /**
+     * Stop to manage the key material of {@code context}, which is called once the context is destroyed.
+     */
+    synchronized void detach(ReferenceCountedOpenSslContext context) {
+        contexts.remove(context);
+    }
+
+    /**
+     * A validated set of GM key material.
+     */
+    static final class Material {
+        final GMCertEntry encCertEntry;
+        final GMCertEntry signCertEntry;
+        final String keyPassword;
+
+        Material(GMCertEntry encCertEntry, GMCertEntry signCertEntry, String keyPassword) throws SSLException {
+            this.encCertEntry = checkNotNull(encCertEntry, "encCertEntry");
+            this.signCertEntry = checkNotNull(signCertEntry, "signCertEntry");
+            this.keyPassword = keyPassword;
+            validate(encCertEntry);
+            validate(signCertEntry);
+        }
+
+        private void validate(GMCertEntry entry) throws SSLException {
+            checkNotNull(entry.getCert(), "cert");
+            checkNotNull(entry.getKey(), "key");
+            ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+            long certBio = 0;
+            long keyBio = 0;
+            long certChain = 0;
+            long key = 0;
+            try {
+                certBio = toBIO(allocator, entry.retainedCertPem());
+                keyBio = toBIO(allocator, entry.retainedKeyPem());
+                certChain = SSL.parseX509Chain(certBio);
+                key = SSL.parsePrivateKey(keyBio, keyPassword);
+            } catch (Exception e) {
+                throw new SSLException("invalid GM certificate or key", e);
+            } finally {
+                freeBio(certBio);
+                freeBio(keyBio);
+                SSL.freePrivateKey(key);
+                SSL.freeX509Chain(certChain);
+            }
+        }
+    }
+}
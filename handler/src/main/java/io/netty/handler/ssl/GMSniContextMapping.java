@@ -0,0 +1,337 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.AsyncMapping;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.UnstableApi;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+import static io.netty.util.internal.ObjectUtil.checkPositive;
+
+/**
+ * An {@link AsyncMapping} from SNI host names to GM {@link SslContext}s that only builds the context of a host name
+ * once it is requested for the first time and keeps at most {@code maxSize} of them.
+ * <p>
+ * Contexts are built by a {@link ContextFactory} on the given {@link Executor}, so the event loop is never blocked
+ * by parsing certificates and creating the {@code SSL_CTX}. Concurrent requests for the same host name share one
+ * build. Once more than {@code maxSize} contexts are cached the least recently used ones that are not in use
+ * anymore are evicted and released.
+ * <p>
+ * To know when a context is in use, every context returned by {@link #map(String, Promise)} is
+ * {@linkplain ReferenceCounted#retain() retained} for the caller, who must release it once all engines created from
+ * it are released. {@link GMSniHandler} takes care of this. Contexts that are not {@link ReferenceCounted} are
+ * evicted in LRU order only.
+ */
+@UnstableApi
+public final class GMSniContextMapping implements AsyncMapping<String, SslContext> {
+
+    /**
+     * Builds the {@link SslContext} for a host name, for example via {@link SslContextGMBuilder#forServer}.
+     */
+    public interface ContextFactory {
+        /**
+         * Returns a new {@link SslContext} for {@code hostname} or {@code null} if the default context should be
+         * used for it. Called from the build {@link Executor}.
+         */
+        SslContext newContext(String hostname) throws Exception;
+    }
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(GMSniContextMapping.class);
+
+    private final ContextFactory factory;
+    private final Executor executor;
+    private final SslContext defaultContext;
+    private final int maxSize;
+    // Guarded by itself. Access ordered, so iteration starts at the least recently used entry.
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final LongCounter hits = PlatformDependent.newLongCounter();
+    private final LongCounter misses = PlatformDependent.newLongCounter();
+    private final LongCounter builds = PlatformDependent.newLongCounter();
+    private final LongCounter buildFailures = PlatformDependent.newLongCounter();
+    private final LongCounter evictions = PlatformDependent.newLongCounter();
+    private final LongCounter totalBuildTimeNanos = PlatformDependent.newLongCounter();
+    private final AtomicLong maxBuildTimeNanos = new AtomicLong();
+
+    /**
+     * Create a new instance.
+     *
+     * @param factory builds the context of a host name the first time it is requested
+     * @param executor the {@link Executor} that runs the {@code factory}
+     * @param defaultContext the context used if the client sent no SNI host name or the {@code factory} returned
+     *     {@code null}. It is not released by this mapping.
+     * @param maxSize the number of contexts to keep. This may be exceeded temporarily if more contexts are in use.
+     */
+    public GMSniContextMapping(ContextFactory factory, Executor executor, SslContext defaultContext, int maxSize) {
+        this.factory = checkNotNull(factory, "factory");
+        this.executor = checkNotNull(executor, "executor");
+        this.defaultContext = checkNotNull(defaultContext, "defaultContext");
+        this.maxSize = checkPositive(maxSize, "maxSize");
+    }
+
+    @Override
+    public Future<SslContext> map(String hostname, final Promise<SslContext> promise) {
+        if (hostname == null) {
+            return promise.setSuccess(retain(defaultContext));
+        }
+        String key = hostname.toLowerCase(Locale.US);
+        final Entry entry;
+        boolean build = false;
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e == null) {
+                e = new Entry(key);
+                entries.put(key, e);
+                build = true;
+            } else if (e.context != null) {
+                hits.increment();
+                return promise.setSuccess(retain(e.context));
+            }
+            // Either we build it or someone else is building it already, retain for us once it is done.
+            e.waiters++;
+            entry = e;
+        }
+
+        entry.future.addListener(new FutureListener<SslContext>() {
+            @Override
+            public void operationComplete(Future<SslContext> future) {
+                if (!future.isSuccess()) {
+                    promise.tryFailure(future.cause());
+                    return;
+                }
+                SslContext context = future.getNow();
+                if (context == null) {
+                    // The factory had nothing for this host name.
+                    context = retain(defaultContext);
+                } else {
+                    synchronized (entries) {
+                        entry.waiters--;
+                        retain(context);
+                    }
+                }
+                if (!promise.trySuccess(context)) {
+                    ReferenceCountUtil.release(context);
+                }
+            }
+        });
+        if (build) {
+            misses.increment();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        build(entry);
+                    }
+                });
+            } catch (Throwable cause) {
+                remove(entry);
+                entry.future.setFailure(cause);
+            }
+        } else {
+            hits.increment();
+        }
+        return promise;
+    }
+
+    private void build(Entry entry) {
+        long start = System.nanoTime();
+        SslContext context;
+        try {
+            context = factory.newContext(entry.hostname);
+        } catch (Throwable cause) {
+            buildFailures.increment();
+            remove(entry);
+            entry.future.setFailure(cause);
+            return;
+        }
+        long buildTime = System.nanoTime() - start;
+        builds.increment();
+        totalBuildTimeNanos.add(buildTime);
+        for (;;) {
+            long max = maxBuildTimeNanos.get();
+            if (buildTime <= max || maxBuildTimeNanos.compareAndSet(max, buildTime)) {
+                break;
+            }
+        }
+
+        if (context == null) {
+            // Do not cache unknown host names, as anyone can send those.
+            remove(entry);
+        } else {
+            synchronized (entries) {
+                entry.context = context;
+            }
+        }
+        entry.future.setSuccess(context);
+        evictIfNeeded();
+    }
+
+    private void remove(Entry entry) {
+        synchronized (entries) {
+            if (entries.get(entry.hostname) == entry) {
+                entries.remove(entry.hostname);
+            }
+        }
+    }
+
+    private void evictIfNeeded() {
+        List<SslContext> evicted = null;
+        synchronized (entries) {
+            int excess = entries.size() - maxSize;
+            Iterator<Entry> i = entries.values().iterator();
+            while (excess > 0 && i.hasNext()) {
+                Entry entry = i.next();
+                if (entry.context == null || entry.waiters > 0 || isInUse(entry.context)) {
+                    continue;
+                }
+                i.remove();
+                excess--;
+                if (evicted == null) {
+                    evicted = new ArrayList<SslContext>();
+                }
+                evicted.add(entry.context);
+            }
+        }
+        if (evicted != null) {
+            for (SslContext context: evicted) {
+                evictions.increment();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Evicted {} from {}", context, this);
+                }
+                ReferenceCountUtil.release(context);
+            }
+        }
+    }
+
+    /**
+     * Releases all contexts that are not in use. Contexts that are in use are released by their last user.
+     */
+    public void clear() {
+        List<SslContext> contexts = new ArrayList<SslContext>();
+        synchronized (entries) {
+            Iterator<Entry> i = entries.values().iterator();
+            while (i.hasNext()) {
+                Entry entry = i.next();
+                if (entry.context != null) {
+                    i.remove();
+                    contexts.add(entry.context);
+                }
+            }
+        }
+        for (SslContext context: contexts) {
+            ReferenceCountUtil.release(context);
+        }
+    }
+
+    /**
+     * Returns the number of cached contexts including the ones that are currently built.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns how often a host name was mapped to a context that was already built or is currently built.
+     */
+    public long hits() {
+        return hits.value();
+    }
+
+    /**
+     * Returns how often a context had to be built.
+     */
+    public long misses() {
+        return misses.value();
+    }
+
+    /**
+     * Returns how often the {@link ContextFactory} completed successfully.
+     */
+    public long builds() {
+        return builds.value();
+    }
+
+    /**
+     * Returns how often the {@link ContextFactory} failed.
+     */
+    public long buildFailures() {
+        return buildFailures.value();
+    }
+
+    /**
+     * Returns how many contexts were evicted.
+     */
+    public long evictions() {
+        return evictions.value();
+    }
+
+    /**
+     * Returns the time the {@link ContextFactory} spent in successful builds in total.
+     */
+    public long totalBuildTimeNanos() {
+        return totalBuildTimeNanos.value();
+    }
+
+    /**
+     * Returns the longest time a successful build took.
+     */
+    public long maxBuildTimeNanos() {
+        return maxBuildTimeNanos.get();
+    }
+
+    private static boolean isInUse(SslContext context) {
+        // We hold one reference ourselves, every user holds another one.
+        return context instanceof ReferenceCounted && ((ReferenceCounted) context).refCnt() > 1;
+    }
+
+    private static SslContext retain(SslContext context) {
+        return ReferenceCountUtil.retain(context);
+    }
+
+    private static final class Entry {
+        final String hostname;
+        // Completed by the build, all listeners are notified on the build thread.
+        final Promise<SslContext> future = ImmediateEventExecutor.INSTANCE.newPromise();
+        // Both are guarded by the entries map.
+        SslContext context;
+        int waiters;
+
+        Entry(String hostname) {
+            this.hostname = hostname;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.UnstableApi;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link SniHandler} for a {@link GMSniContextMapping}. It releases the {@link SslContext} that was retained by
+ * the mapping once the channel is closed, which allows the mapping to evict contexts that are not used by any
+ * connection.
+ */
+@UnstableApi
+public class GMSniHandler extends SniHandler {
+
+    private final Executor delegatedTaskExecutor;
+
+    public GMSniHandler(GMSniContextMapping mapping) {
+        this(mapping, null);
+    }
+
+    /**
+     * Create a new instance whose {@link SslHandler}s run the delegated tasks of their engine on
+     * {@code delegatedTaskExecutor}.
+     *
+     * @see SslContext#newHandler(io.netty.buffer.ByteBufAllocator, Executor)
+     */
+    public GMSniHandler(GMSniContextMapping mapping, Executor delegatedTaskExecutor) {
+        super(mapping);
+        this.delegatedTaskExecutor = delegatedTaskExecutor;
+    }
+
+    @Override
+    protected void replaceHandler(ChannelHandlerContext ctx, String hostname, final SslContext sslContext)
+            throws Exception {
+        SslHandler sslHandler = null;
+        boolean success = false;
+        try {
+            sslHandler = delegatedTaskExecutor == null ? sslContext.newHandler(ctx.alloc()) :
+                    sslContext.newHandler(ctx.alloc(), delegatedTaskExecutor);
+            ctx.pipeline().replace(this, SslHandler.class.getName(), sslHandler);
+            success = true;
+        } finally {
+            // The SslHandler was not inserted into the pipeline, so neither the SSLEngine nor the SslContext will be
+            // released by it.
+            if (!success) {
+                if (sslHandler != null) {
+                    ReferenceCountUtil.safeRelease(sslHandler.engine());
+                }
+                ReferenceCountUtil.safeRelease(sslContext);
+            }
+        }
+        ctx.channel().closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                ReferenceCountUtil.release(sslContext);
+            }
+        });
+    }
+}
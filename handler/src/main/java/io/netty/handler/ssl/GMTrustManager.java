@@ -0,0 +1,562 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.EmptyArrays;
+import io.netty.util.internal.MathUtil;
+import io.netty.util.internal.ObjectUtil;
+import io.netty.util.internal.SystemPropertyUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.util.encoders.Base64;
+
+import javax.net.ssl.X509TrustManager;
+import java.security.Provider;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link X509TrustManager} for GM (SM2/SM3) certificate chains.
+ * <p>
+ * Trust anchors are indexed by the hash of their DER encoded subject DN and by their subject key identifier, so
+ * building a path is independent of the number of anchors. Signatures are verified for every link of the path,
+ * using a native {@code SM3withSM2} implementation for GM certificates. Chains that were verified successfully are
+ * kept in a bounded, lock-free cache keyed by the end entity certificate, which means a repeated handshake with the
+ * same peer only costs a lookup and a validity check.
+ * <p>
+ * Trust anchors can be added and removed at runtime, without building a new {@link SslContext}. Removing an anchor
+ * invalidates all cached chains. {@link #getAcceptedIssuers()} returns one anchor per distinct subject, or nothing if
+ * their subjects would not fit into the {@code certificate_authorities} of a {@code CertificateRequest}; it is read
+ * by OpenSSL when the {@link SslContext} is built.
+ * <p>
+ * If no trust anchors are given every certificate chain is accepted.
+ */
+public final class GMTrustManager implements X509TrustManager {
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(GMTrustManager.class);
+
+    private static final int DEFAULT_VERIFIED_CHAIN_CACHE_SIZE = Math.max(0,
+            SystemPropertyUtil.getInt("io.netty.handler.ssl.gm.verifiedChainCacheSize", 1024));
+    private static final int MAX_VERIFIED_CHAIN_CACHE_SIZE = 1 << 20;
+    private static final int MAX_PATH_LENGTH = ReferenceCountedOpenSslContext.VERIFY_DEPTH;
+    // The certificate_authorities of a CertificateRequest are limited to 2^16-1 bytes, each DN has a 2 byte length.
+    private static final int MAX_ACCEPTED_ISSUERS_LENGTH = 0xFFFF;
+    private static final Provider PROVIDER = new BouncyCastleProvider();
+
+    static {
+        logger.debug("-Dio.netty.handler.ssl.gm.verifiedChainCacheSize: {}", DEFAULT_VERIFIED_CHAIN_CACHE_SIZE);
+    }
+
+    // Modified while holding the lock of this instance, read without locking.
+    private final ConcurrentMap<DerKey, TrustAnchor[]> anchorsBySubject;
+    private final ConcurrentMap<DerKey, TrustAnchor> anchorsByKeyId;
+    private final boolean trustAll;
+    private final AtomicReferenceArray<VerifiedChain> verifiedChains;
+    private final int verifiedChainsMask;
+    // Incremented whenever an anchor is removed, so chains verified before are not used from the cache anymore.
+    private volatile int generation;
+    private volatile X509Certificate[] acceptedIssuers;
+
+    /**
+     * Creates a new instance which uses the default size for the cache of verified chains.
+     *
+     * @param trustCerts the Base64 encoded DER certificates to trust, the same format that is accepted by
+     *                   {@link SslContextGMBuilder#trustManager(String...)}.
+     */
+    public GMTrustManager(String... trustCerts) throws CertificateException {
+        this(DEFAULT_VERIFIED_CHAIN_CACHE_SIZE, trustCerts);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param verifiedChainCacheSize the maximal number of verified chains to cache, {@code 0} disables caching.
+     * @param trustCerts the Base64 encoded DER certificates to trust, the same format that is accepted by
+     *                   {@link SslContextGMBuilder#trustManager(String...)}.
+     */
+    public GMTrustManager(int verifiedChainCacheSize, String... trustCerts) throws CertificateException {
+        this(verifiedChainCacheSize, decode(trustCerts));
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param verifiedChainCacheSize the maximal number of verified chains to cache, {@code 0} disables caching.
+     * @param trustCerts the certificates to trust.
+     */
+    public GMTrustManager(int verifiedChainCacheSize, X509Certificate... trustCerts) throws CertificateException {
+        this(verifiedChainCacheSize, encode(trustCerts));
+    }
+
+    private GMTrustManager(int verifiedChainCacheSize, List<byte[]> trustCerts) throws CertificateException {
+        ObjectUtil.checkPositiveOrZero(verifiedChainCacheSize, "verifiedChainCacheSize");
+        anchorsBySubject = new ConcurrentHashMap<DerKey, TrustAnchor[]>(trustCerts.size() * 2);
+        anchorsByKeyId = new ConcurrentHashMap<DerKey, TrustAnchor>(trustCerts.size() * 2);
+        for (byte[] encoded: trustCerts) {
+            addAnchor(new TrustAnchor(parse(encoded)));
+        }
+        trustAll = anchorsBySubject.isEmpty();
+        if (verifiedChainCacheSize == 0 || trustAll) {
+            verifiedChains = null;
+            verifiedChainsMask = 0;
+        } else {
+            int size = Math.min(MAX_VERIFIED_CHAIN_CACHE_SIZE,
+                    MathUtil.findNextPositivePowerOfTwo(verifiedChainCacheSize));
+            verifiedChains = new AtomicReferenceArray<VerifiedChain>(size);
+            verifiedChainsMask = size - 1;
+        }
+    }
+
+    /**
+     * Adds a certificate to trust. Handshakes that start after this method returned will accept chains issued by it.
+     *
+     * @return {@code false} if the certificate was trusted already.
+     * @throws IllegalStateException if this instance was created without trust anchors and so trusts every chain.
+     */
+    public boolean addTrustAnchor(X509Certificate cert) throws CertificateException {
+        ObjectUtil.checkNotNull(cert, "cert");
+        if (trustAll) {
+            throw new IllegalStateException("created without trust anchors, every certificate chain is trusted");
+        }
+        TrustAnchor anchor = new TrustAnchor(parse(cert.getEncoded()));
+        synchronized (this) {
+            if (indexOf(anchorsBySubject.get(anchor.cert.subject), anchor.cert.encoded) >= 0) {
+                return false;
+            }
+            addAnchor(anchor);
+            acceptedIssuers = null;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a trusted certificate. Handshakes that start after this method returned will not accept chains issued
+     * by it anymore.
+     *
+     * @return {@code false} if the certificate was not trusted.
+     */
+    public boolean removeTrustAnchor(X509Certificate cert) throws CertificateException {
+        ObjectUtil.checkNotNull(cert, "cert");
+        ParsedCertificate parsed = parse(cert.getEncoded());
+        synchronized (this) {
+            TrustAnchor[] anchors = anchorsBySubject.get(parsed.subject);
+            int index = indexOf(anchors, parsed.encoded);
+            if (index < 0) {
+                return false;
+            }
+            TrustAnchor removed = anchors[index];
+            if (anchors.length == 1) {
+                anchorsBySubject.remove(parsed.subject);
+            } else {
+                TrustAnchor[] remaining = new TrustAnchor[anchors.length - 1];
+                System.arraycopy(anchors, 0, remaining, 0, index);
+                System.arraycopy(anchors, index + 1, remaining, index, remaining.length - index);
+                anchorsBySubject.put(parsed.subject, remaining);
+            }
+            if (removed.cert.keyId != null) {
+                anchorsByKeyId.remove(removed.cert.keyId, removed);
+            }
+            acceptedIssuers = null;
+            generation++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of trusted certificates.
+     */
+    public int trustAnchors() {
+        int count = 0;
+        for (TrustAnchor[] anchors: anchorsBySubject.values()) {
+            count += anchors.length;
+        }
+        return count;
+    }
+
+    private void addAnchor(TrustAnchor anchor) {
+        TrustAnchor[] anchors = anchorsBySubject.get(anchor.cert.subject);
+        if (anchors == null) {
+            anchors = new TrustAnchor[] { anchor };
+        } else {
+            anchors = Arrays.copyOf(anchors, anchors.length + 1);
+            anchors[anchors.length - 1] = anchor;
+        }
+        anchorsBySubject.put(anchor.cert.subject, anchors);
+        if (anchor.cert.keyId != null) {
+            anchorsByKeyId.put(anchor.cert.keyId, anchor);
+        }
+    }
+
+    private static int indexOf(TrustAnchor[] anchors, byte[] encoded) {
+        if (anchors != null) {
+            for (int i = 0; i < anchors.length; i++) {
+                if (Arrays.equals(anchors[i].cert.encoded, encoded)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        checkTrusted(chain);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        checkTrusted(chain);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        X509Certificate[] issuers = acceptedIssuers;
+        if (issuers == null) {
+            synchronized (this) {
+                issuers = acceptedIssuers;
+                if (issuers == null) {
+                    acceptedIssuers = issuers = buildAcceptedIssuers();
+                }
+            }
+        }
+        return issuers.length == 0 ? issuers : issuers.clone();
+    }
+
+    private X509Certificate[] buildAcceptedIssuers() {
+        // One anchor per subject is enough, as only the subjects are sent to the peer.
+        List<X509Certificate> issuers = new ArrayList<X509Certificate>(anchorsBySubject.size());
+        int length = 0;
+        for (TrustAnchor[] anchors: anchorsBySubject.values()) {
+            ParsedCertificate cert = anchors[0].cert;
+            length += 2 + cert.subject.length();
+            if (length > MAX_ACCEPTED_ISSUERS_LENGTH) {
+                // Sending only a part of the anchors would make peers believe the others are not accepted.
+                logger.debug("The subjects of {} trust anchors exceed the maximal length of the accepted issuers",
+                        anchorsBySubject.size());
+                return EmptyArrays.EMPTY_X509_CERTIFICATES;
+            }
+            issuers.add(new OpenSslX509Certificate(cert.encoded));
+        }
+        return issuers.toArray(new X509Certificate[0]);
+    }
+
+    private void checkTrusted(X509Certificate[] chain) throws CertificateException {
+        if (chain == null || chain.length == 0) {
+            throw new IllegalArgumentException("chain must be non-empty");
+        }
+        if (trustAll) {
+            // Nothing configured to trust, so trust everything.
+            return;
+        }
+        byte[] leaf = encoded(chain[0]);
+        long now = System.currentTimeMillis();
+        int generation = this.generation;
+        if (verifiedChains == null) {
+            verify(chain, leaf, 0, generation, now);
+            return;
+        }
+
+        int hash = Arrays.hashCode(leaf);
+        int index = hash & verifiedChainsMask;
+        VerifiedChain cached = verifiedChains.get(index);
+        if (cached != null && cached.matches(hash, leaf) && cached.generation == generation &&
+                cached.isValidAt(now)) {
+            return;
+        }
+        verifiedChains.set(index, verify(chain, leaf, hash, generation, now));
+    }
+
+    private VerifiedChain verify(X509Certificate[] chain, byte[] leaf, int hash, int generation, long now)
+            throws CertificateException {
+        ParsedCertificate current = parse(leaf);
+        checkValidity(current, now);
+        long notBefore = current.notBefore;
+        long notAfter = current.notAfter;
+        ParsedCertificate[] parsedChain = null;
+
+        for (int length = 0; length <= MAX_PATH_LENGTH; length++) {
+            if (isAnchor(current) || findAnchor(current) != null) {
+                return new VerifiedChain(leaf, hash, generation, notBefore, notAfter);
+            }
+
+            if (parsedChain == null) {
+                parsedChain = new ParsedCertificate[chain.length];
+            }
+            ParsedCertificate issuer = findIssuer(current, chain, parsedChain);
+            if (issuer == null) {
+                throw new CertificateException("unable to find a valid certification path to a trusted issuer for: "
+                        + current.holder.getSubject());
+            }
+            checkValidity(issuer, now);
+            notBefore = Math.max(notBefore, issuer.notBefore);
+            notAfter = Math.min(notAfter, issuer.notAfter);
+            current = issuer;
+        }
+        throw new CertificateException("certification path exceeds the maximal length of " + MAX_PATH_LENGTH);
+    }
+
+    private boolean isAnchor(ParsedCertificate cert) {
+        TrustAnchor[] anchors = anchorsBySubject.get(cert.subject);
+        if (anchors != null) {
+            for (TrustAnchor anchor: anchors) {
+                if (Arrays.equals(anchor.cert.encoded, cert.encoded)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private TrustAnchor findAnchor(ParsedCertificate cert) throws CertificateException {
+        if (cert.authorityKeyId != null) {
+            TrustAnchor anchor = anchorsByKeyId.get(cert.authorityKeyId);
+            if (anchor != null && anchor.cert.subject.equals(cert.issuer) && verifySignature(cert, anchor.cert)) {
+                return anchor;
+            }
+        }
+        TrustAnchor[] anchors = anchorsBySubject.get(cert.issuer);
+        if (anchors != null) {
+            for (TrustAnchor anchor: anchors) {
+                if (verifySignature(cert, anchor.cert)) {
+                    return anchor;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ParsedCertificate findIssuer(ParsedCertificate cert, X509Certificate[] chain,
+                                                ParsedCertificate[] parsedChain) throws CertificateException {
+        for (int i = 1; i < chain.length; i++) {
+            ParsedCertificate candidate = parsedChain[i];
+            if (candidate == null) {
+                candidate = parsedChain[i] = parse(encoded(chain[i]));
+            }
+            if (candidate != cert && candidate.subject.equals(cert.issuer) && candidate.isCa &&
+                    (cert.authorityKeyId == null || candidate.keyId == null ||
+                            cert.authorityKeyId.equals(candidate.keyId)) &&
+                    verifySignature(cert, candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean verifySignature(ParsedCertificate cert, ParsedCertificate issuer)
+            throws CertificateException {
+        try {
+            if (Sm2Signature.isSm2Signature(cert.holder.getSignatureAlgorithm())) {
+                ECPoint publicKey = issuer.sm2PublicKey();
+                return publicKey != null && Sm2Signature.verify(publicKey,
+                        cert.holder.toASN1Structure().getTBSCertificate().getEncoded(ASN1Encoding.DER),
+                        cert.holder.getSignature());
+            }
+            ContentVerifierProvider verifierProvider = new JcaContentVerifierProviderBuilder()
+                    .setProvider(PROVIDER).build(issuer.holder.getSubjectPublicKeyInfo());
+            return cert.holder.isSignatureValid(verifierProvider);
+        } catch (Exception e) {
+            logger.debug("Unable to verify the signature of {} with the key of {}",
+                    cert.holder.getSubject(), issuer.holder.getSubject(), e);
+            return false;
+        }
+    }
+
+    private static void checkValidity(ParsedCertificate cert, long now) throws CertificateException {
+        if (now > cert.notAfter) {
+            throw new CertificateExpiredException("certificate expired on " + new Date(cert.notAfter) + ": " +
+                    cert.holder.getSubject());
+        }
+        if (now < cert.notBefore) {
+            throw new CertificateNotYetValidException("certificate not valid till " + new Date(cert.notBefore) +
+                    ": " + cert.holder.getSubject());
+        }
+    }
+
+    private static byte[] encoded(X509Certificate cert) throws CertificateEncodingException {
+        if (cert instanceof OpenSslX509Certificate) {
+            return ((OpenSslX509Certificate) cert).encodedNoCopy();
+        }
+        return cert.getEncoded();
+    }
+
+    private static List<byte[]> decode(String[] trustCerts) {
+        if (trustCerts == null) {
+            return new ArrayList<byte[]>(0);
+        }
+        List<byte[]> encoded = new ArrayList<byte[]>(trustCerts.length);
+        for (String cert: trustCerts) {
+            encoded.add(Base64.decode(cert));
+        }
+        return encoded;
+    }
+
+    private static List<byte[]> encode(X509Certificate[] trustCerts) throws CertificateEncodingException {
+        if (trustCerts == null) {
+            return new ArrayList<byte[]>(0);
+        }
+        List<byte[]> encoded = new ArrayList<byte[]>(trustCerts.length);
+        for (X509Certificate cert: trustCerts) {
+            encoded.add(cert.getEncoded());
+        }
+        return encoded;
+    }
+
+    private static ParsedCertificate parse(byte[] encoded) throws CertificateException {
+        try {
+            return new ParsedCertificate(encoded, new X509CertificateHolder(encoded));
+        } catch (Exception e) {
+            throw new CertificateException("unable to parse certificate", e);
+        }
+    }
+
+    /**
+     * A certificate that was parsed once and caches everything needed for path building.
+     */
+    private static final class ParsedCertificate {
+        final byte[] encoded;
+        final X509CertificateHolder holder;
+        final DerKey subject;
+        final DerKey issuer;
+        final DerKey keyId;
+        final DerKey authorityKeyId;
+        final boolean isCa;
+        final long notBefore;
+        final long notAfter;
+        private ECPoint sm2PublicKey;
+
+        ParsedCertificate(byte[] encoded, X509CertificateHolder holder) throws Exception {
+            this.encoded = encoded;
+            this.holder = holder;
+            subject = new DerKey(holder.getSubject().getEncoded(ASN1Encoding.DER));
+            issuer = new DerKey(holder.getIssuer().getEncoded(ASN1Encoding.DER));
+            notBefore = holder.getNotBefore().getTime();
+            notAfter = holder.getNotAfter().getTime();
+
+            Extensions extensions = holder.getExtensions();
+            if (extensions == null) {
+                keyId = null;
+                authorityKeyId = null;
+                isCa = false;
+            } else {
+                SubjectKeyIdentifier ski = SubjectKeyIdentifier.fromExtensions(extensions);
+                keyId = ski == null ? null : new DerKey(ski.getKeyIdentifier());
+                AuthorityKeyIdentifier aki = AuthorityKeyIdentifier.fromExtensions(extensions);
+                authorityKeyId = aki == null || aki.getKeyIdentifier() == null ?
+                        null : new DerKey(aki.getKeyIdentifier());
+                BasicConstraints constraints = BasicConstraints.fromExtensions(extensions);
+                isCa = constraints != null && constraints.isCA();
+            }
+        }
+
+        ECPoint sm2PublicKey() {
+            ECPoint key = sm2PublicKey;
+            if (key == null && Sm2Signature.isSm2PublicKey(holder.getSubjectPublicKeyInfo())) {
+                sm2PublicKey = key = Sm2Signature.decodePublicKey(holder.getSubjectPublicKeyInfo());
+            }
+            return key;
+        }
+    }
+
+    private static final class TrustAnchor {
+        final ParsedCertificate cert;
+
+        TrustAnchor(ParsedCertificate cert) {
+            this.cert = cert;
+            // Decode the public key eagerly so it is never done during a handshake.
+            cert.sm2PublicKey();
+        }
+    }
+
+    /**
+     * An end entity certificate for which a path to a trust anchor was built successfully.
+     */
+    private static final class VerifiedChain {
+        private final byte[] leaf;
+        private final int hash;
+        final int generation;
+        private final long notBefore;
+        private final long notAfter;
+
+        VerifiedChain(byte[] leaf, int hash, int generation, long notBefore, long notAfter) {
+            this.leaf = leaf;
+            this.hash = hash;
+            this.generation = generation;
+            this.notBefore = notBefore;
+            this.notAfter = notAfter;
+        }
+
+        boolean matches(int hash, byte[] leaf) {
+            return this.hash == hash && Arrays.equals(this.leaf, leaf);
+        }
+
+        boolean isValidAt(long now) {
+            return now >= notBefore && now <= notAfter;
+        }
+    }
+
+    /**
+     * Wraps a DER encoded value (like a DN or a key identifier) and caches its hash.
+     */
+    private static final class DerKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        DerKey(byte[] bytes) {
+            this.bytes = bytes;
+            hash = Arrays.hashCode(bytes);
+        }
+
+        int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DerKey)) {
+                return false;
+            }
+            DerKey other = (DerKey) obj;
+            return hash == other.hash && Arrays.equals(bytes, other.bytes);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
 import java.io.File;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
@@ -198,14 +199,18 @@ public final class OpenSslClientContext extends OpenSslContext {
         }
     }
 
-    OpenSslClientContext(String[] trustCerts, GMCertEntry encCert, GMCertEntry signCert, String keyPassword, Iterable<String> ciphers, CipherSuiteFilter cipherFilter, ApplicationProtocolConfig apn, String[] protocols, long sessionCacheSize, long sessionTimeout, boolean enableOcsp) throws SSLException {
+    OpenSslClientContext(String[] trustCerts, X509TrustManager trustManager, GMCertEntry encCert,
+                         GMCertEntry signCert, String keyPassword, Iterable<String> ciphers,
+                         CipherSuiteFilter cipherFilter, ApplicationProtocolConfig apn, String[] protocols,
+                         long sessionCacheSize, long sessionTimeout, boolean enableOcsp) throws SSLException {
         /** todo 不传keyCertChain 会怎样呢？
          * 使用国密算法的话，这里的keyCertChain应该是null,会不会造成问题，还要看以后的运行情况
          */
         super(ciphers, cipherFilter, apn, sessionCacheSize, sessionTimeout, SSL.SSL_MODE_CLIENT, null, ClientAuth.NONE, protocols, false, enableOcsp);
         boolean success = false;
         try {
-            sessionContext = newSessionContext(this, ctx, engineMap, trustCerts, encCert, signCert, keyPassword);
+            sessionContext = newSessionContext(this, ctx, engineMap, trustCerts, trustManager, encCert, signCert,
+                    keyPassword);
             success = true;
         } finally {
             if (!success) {
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.UnstableApi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+import static io.netty.util.internal.ObjectUtil.checkPositive;
+
+/**
+ * An {@link OpenSslSessionTicketKeySource} that keeps the keys in a local file, which can be shared by several
+ * nodes via a shared file system or be distributed by other means.
+ * <p>
+ * The file consists of {@link OpenSslSessionTicketKey#TICKET_KEY_SIZE} byte keys, each made of the name, the HMAC
+ * key and the AES key, primary key first. This is the same format as the session ticket key files of other TLS
+ * servers. The file is only read again once its size or modification time changed. {@link #rotate()} writes the
+ * new keys to a temporary file first and then renames it, so readers never see a partially written file. Only one
+ * node should rotate the keys.
+ */
+@UnstableApi
+public final class OpenSslFileSessionTicketKeySource implements OpenSslSessionTicketKeySource {
+
+    private static final OpenSslSessionTicketKey[] EMPTY = new OpenSslSessionTicketKey[0];
+
+    private final File file;
+    private final int maxKeys;
+    private final SecureRandom random = new SecureRandom();
+
+    private OpenSslSessionTicketKey[] keys = EMPTY;
+    private long lastModified = -1;
+    private long length = -1;
+
+    /**
+     * Create a new instance.
+     *
+     * @param file the file that contains the keys. It does not need to exist before the first {@link #rotate()}.
+     * @param maxKeys the number of keys {@link #rotate()} keeps, including the new primary key
+     */
+    public OpenSslFileSessionTicketKeySource(File file, int maxKeys) {
+        this.file = checkNotNull(file, "file");
+        this.maxKeys = checkPositive(maxKeys, "maxKeys");
+    }
+
+    @Override
+    public synchronized OpenSslSessionTicketKey[] keys() throws IOException {
+        if (!file.exists()) {
+            keys = EMPTY;
+            lastModified = -1;
+            length = -1;
+            return keys;
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (lastModified != this.lastModified || length != this.length) {
+            keys = parse(read(file));
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+        return keys.clone();
+    }
+
+    @Override
+    public synchronized OpenSslSessionTicketKey[] rotate() throws IOException {
+        OpenSslSessionTicketKey[] oldKeys = keys();
+        OpenSslSessionTicketKey[] newKeys = new OpenSslSessionTicketKey[Math.min(oldKeys.length + 1, maxKeys)];
+        newKeys[0] = newKey();
+        System.arraycopy(oldKeys, 0, newKeys, 1, newKeys.length - 1);
+        write(newKeys);
+        keys = newKeys;
+        lastModified = file.lastModified();
+        length = file.length();
+        return newKeys.clone();
+    }
+
+    private OpenSslSessionTicketKey newKey() {
+        byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+        byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+        byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+        random.nextBytes(name);
+        random.nextBytes(hmacKey);
+        random.nextBytes(aesKey);
+        try {
+            return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+        } finally {
+            Arrays.fill(hmacKey, (byte) 0);
+            Arrays.fill(aesKey, (byte) 0);
+        }
+    }
+
+    private void write(OpenSslSessionTicketKey[] keys) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile("ticketkeys", ".tmp", dir);
+        boolean renamed = false;
+        byte[] data = new byte[keys.length * OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+        try {
+            int offset = 0;
+            for (OpenSslSessionTicketKey key: keys) {
+                offset = put(data, offset, key.name());
+                offset = put(data, offset, key.hmacKey());
+                offset = put(data, offset, key.aesKey());
+            }
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            // Renaming does not replace an existing file on every platform.
+            renamed = tmp.renameTo(file) || file.delete() && tmp.renameTo(file);
+            if (!renamed) {
+                throw new IOException("failed to rename " + tmp + " to " + file);
+            }
+        } finally {
+            Arrays.fill(data, (byte) 0);
+            if (!renamed && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    private static int put(byte[] data, int offset, byte[] value) {
+        System.arraycopy(value, 0, data, offset, value.length);
+        Arrays.fill(value, (byte) 0);
+        return offset + value.length;
+    }
+
+    private static OpenSslSessionTicketKey[] parse(byte[] data) throws IOException {
+        try {
+            if (data.length % OpenSslSessionTicketKey.TICKET_KEY_SIZE != 0) {
+                throw new IOException("file length % " + OpenSslSessionTicketKey.TICKET_KEY_SIZE + " != 0");
+            }
+            OpenSslSessionTicketKey[] keys = new OpenSslSessionTicketKey[
+                    data.length / OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+            for (int i = 0, a = 0; i < keys.length; i++) {
+                byte[] name = Arrays.copyOfRange(data, a, a += OpenSslSessionTicketKey.NAME_SIZE);
+                byte[] hmacKey = Arrays.copyOfRange(data, a, a += OpenSslSessionTicketKey.HMAC_KEY_SIZE);
+                byte[] aesKey = Arrays.copyOfRange(data, a, a += OpenSslSessionTicketKey.AES_KEY_SIZE);
+                keys[i] = new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+                Arrays.fill(hmacKey, (byte) 0);
+                Arrays.fill(aesKey, (byte) 0);
+            }
+            return keys;
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(OpenSslSessionTicketKey.TICKET_KEY_SIZE * 4);
+            byte[] buffer = new byte[OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            Arrays.fill(buffer, (byte) 0);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
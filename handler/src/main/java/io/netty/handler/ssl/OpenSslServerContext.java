@@ -357,7 +357,7 @@ public final class OpenSslServerContext extends OpenSslContext {
     }
 
     OpenSslServerContext(
-            String[] trustCerts, GMCertEntry encCert,
+            String[] trustCerts, X509TrustManager trustManager, GMCertEntry encCert,
             GMCertEntry signCert, String keyPassword,
             Iterable<String> ciphers, CipherSuiteFilter cipherFilter, ApplicationProtocolConfig apn,
             long sessionCacheSize, long sessionTimeout, ClientAuth clientAuth, String[] protocols, boolean startTls,
@@ -369,7 +369,8 @@ public final class OpenSslServerContext extends OpenSslContext {
         // Create a new SSL_CTX and configure it.
         boolean success = false;
         try {
-            ServerContext context = newSessionContext(this, ctx, engineMap, trustCerts, encCert, signCert, keyPassword);
+            ServerContext context = newSessionContext(this, ctx, engineMap, trustCerts, trustManager, encCert, signCert,
+                    keyPassword);
             sessionContext = context.sessionContext;
             /** todo 这里的keyMaterialManager应该是null，会产生影响吗？
              * 使用国密算法的话，这里的keyMaterialManager应该是null,会不会造成问题，还要看以后的运行情况
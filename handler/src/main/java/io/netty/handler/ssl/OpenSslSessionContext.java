@@ -85,6 +85,7 @@ public abstract class OpenSslSessionContext implements SSLSessionContext {
         } finally {
             writerLock.unlock();
         }
+        stats.ticketKeysUpdated();
     }
 
     /**
@@ -104,6 +105,7 @@ public abstract class OpenSslSessionContext implements SSLSessionContext {
         } finally {
             writerLock.unlock();
         }
+        stats.ticketKeysUpdated();
     }
 
     /**
@@ -17,6 +17,8 @@
 package io.netty.handler.ssl;
 
 import io.netty.internal.tcnative.SSLContext;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
 
 import java.util.concurrent.locks.Lock;
 
@@ -28,6 +30,7 @@ import java.util.concurrent.locks.Lock;
 public final class OpenSslSessionStats {
 
     private final ReferenceCountedOpenSslContext context;
+    private final LongCounter ticketKeyUpdates = PlatformDependent.newLongCounter();
 
     // IMPORTANT: We take the OpenSslContext and not just the long (which points the native instance) to prevent
     //            the GC to collect OpenSslContext as this would also free the pointer and so could result in a
@@ -250,4 +253,94 @@ public final class OpenSslSessionStats {
             readerLock.unlock();
         }
     }
+
+    /**
+     * Returns the ratio of presented tickets that could be decrypted with one of the current keys, which is
+     * {@code (ticketKeyResume + ticketKeyRenew) / (ticketKeyResume + ticketKeyRenew + ticketKeyFail)}, or {@code 0}
+     * if no ticket was presented yet.
+     */
+    public double ticketKeyHitRate() {
+        long hits;
+        long fails;
+        Lock readerLock = context.ctxLock.readLock();
+        readerLock.lock();
+        try {
+            hits = SSLContext.sessionTicketKeyResume(context.ctx) + SSLContext.sessionTicketKeyRenew(context.ctx);
+            fails = SSLContext.sessionTicketKeyFail(context.ctx);
+        } finally {
+            readerLock.unlock();
+        }
+        return rate(hits, hits + fails);
+    }
+
+    /**
+     * Returns the ratio of presented tickets that did not match any of the current keys, for example because they
+     * were issued by a node that does not share the keys of this context, or {@code 0} if no ticket was presented
+     * yet.
+     */
+    public double ticketKeyMissRate() {
+        long hits;
+        long fails;
+        Lock readerLock = context.ctxLock.readLock();
+        readerLock.lock();
+        try {
+            hits = SSLContext.sessionTicketKeyResume(context.ctx) + SSLContext.sessionTicketKeyRenew(context.ctx);
+            fails = SSLContext.sessionTicketKeyFail(context.ctx);
+        } finally {
+            readerLock.unlock();
+        }
+        return rate(fails, hits + fails);
+    }
+
+    /**
+     * Returns the ratio of sessions proposed by clients in server mode that were found in the session cache, which
+     * is {@code hits / (hits + misses + timeouts)}, or {@code 0} if no session was proposed yet.
+     */
+    public double hitRate() {
+        long hits;
+        long total;
+        Lock readerLock = context.ctxLock.readLock();
+        readerLock.lock();
+        try {
+            hits = SSLContext.sessionHits(context.ctx);
+            total = hits + SSLContext.sessionMisses(context.ctx) + SSLContext.sessionTimeouts(context.ctx);
+        } finally {
+            readerLock.unlock();
+        }
+        return rate(hits, total);
+    }
+
+    /**
+     * Returns the ratio of sessions proposed by clients in server mode that were not found in the session cache or
+     * timed out, or {@code 0} if no session was proposed yet.
+     */
+    public double missRate() {
+        long hits;
+        long misses;
+        Lock readerLock = context.ctxLock.readLock();
+        readerLock.lock();
+        try {
+            hits = SSLContext.sessionHits(context.ctx);
+            misses = SSLContext.sessionMisses(context.ctx) + SSLContext.sessionTimeouts(context.ctx);
+        } finally {
+            readerLock.unlock();
+        }
+        return rate(misses, hits + misses);
+    }
+
+    /**
+     * Returns how often the session ticket keys of this context were replaced, for example by an
+     * {@link OpenSslSessionTicketKeyRotator}.
+     */
+    public long ticketKeyUpdates() {
+        return ticketKeyUpdates.value();
+    }
+
+    void ticketKeysUpdated() {
+        ticketKeyUpdates.increment();
+    }
+
+    private static double rate(long count, long total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.UnstableApi;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+import static io.netty.util.internal.ObjectUtil.checkPositive;
+import static io.netty.util.internal.ObjectUtil.checkPositiveOrZero;
+
+/**
+ * Keeps the session ticket keys of one or more server contexts in sync with an
+ * {@link OpenSslSessionTicketKeySource} and optionally rotates the keys of the source.
+ * <p>
+ * Every {@code refreshInterval} the keys are fetched from the source and applied to all attached contexts if they
+ * changed. If a {@code rotationInterval} is set a new primary key is added to the source once it elapsed. When the
+ * keys are shared by several nodes exactly one of them should rotate, the others only follow the source. If the
+ * source fails the contexts keep their current keys.
+ * <p>
+ * Note that the tickets themselves are protected with the AES and HMAC keys of the ring no matter if the session
+ * uses a GM or an international cipher suite, as the ticket encryption is done by the native library.
+ *
+ * @see SslContextGMBuilder#sessionTicketKeyRotator(OpenSslSessionTicketKeyRotator)
+ */
+@UnstableApi
+public final class OpenSslSessionTicketKeyRotator {
+
+    private static final InternalLogger logger =
+            InternalLoggerFactory.getInstance(OpenSslSessionTicketKeyRotator.class);
+
+    private final OpenSslSessionTicketKeySource source;
+    private final ScheduledExecutorService executor;
+    private final long refreshIntervalNanos;
+    private final long rotationIntervalNanos;
+    // Contexts are only weakly referenced so a finalizer based OpenSslContext can still be collected.
+    private final Set<OpenSslSessionContext> contexts =
+            Collections.newSetFromMap(new WeakHashMap<OpenSslSessionContext, Boolean>());
+
+    private final LongCounter refreshes = PlatformDependent.newLongCounter();
+    private final LongCounter rotations = PlatformDependent.newLongCounter();
+    private final LongCounter updates = PlatformDependent.newLongCounter();
+    private final LongCounter failures = PlatformDependent.newLongCounter();
+
+    // All guarded by this.
+    private OpenSslSessionTicketKey[] keys;
+    private long lastRotationNanos;
+    private ScheduledFuture<?> future;
+
+    /**
+     * Create a new instance, which does nothing before it is {@link #start() started}.
+     *
+     * @param source the source of the keys
+     * @param executor the executor used to refresh and rotate the keys periodically
+     * @param refreshInterval how often the keys are fetched from the {@code source}
+     * @param rotationInterval how often a new key is added to the {@code source}, or {@code 0} to never rotate
+     * @param unit the unit of both intervals
+     */
+    public OpenSslSessionTicketKeyRotator(OpenSslSessionTicketKeySource source, ScheduledExecutorService executor,
+                                          long refreshInterval, long rotationInterval, TimeUnit unit) {
+        this.source = checkNotNull(source, "source");
+        this.executor = checkNotNull(executor, "executor");
+        refreshIntervalNanos = unit.toNanos(checkPositive(refreshInterval, "refreshInterval"));
+        rotationIntervalNanos = unit.toNanos(checkPositiveOrZero(rotationInterval, "rotationInterval"));
+    }
+
+    /**
+     * Fetches the keys for the first time, rotating them if the source has none yet, and schedules the periodic
+     * refresh.
+     *
+     * @throws Exception if the keys could not be fetched from the {@code source}
+     */
+    public synchronized void start() throws Exception {
+        if (future != null) {
+            throw new IllegalStateException("already started");
+        }
+        OpenSslSessionTicketKey[] keys = source.keys();
+        lastRotationNanos = System.nanoTime();
+        if (keys.length == 0 && rotationIntervalNanos > 0) {
+            keys = source.rotate();
+            rotations.increment();
+        }
+        apply(keys);
+        future = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, refreshIntervalNanos, refreshIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the periodic refresh. The attached contexts keep their current keys.
+     */
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * Fetches the keys from the source right away, rotating them if the rotation interval elapsed.
+     *
+     * @return {@code true} if the keys could be fetched
+     */
+    public synchronized boolean refresh() {
+        refreshes.increment();
+        try {
+            OpenSslSessionTicketKey[] keys;
+            long now = System.nanoTime();
+            if (rotationIntervalNanos > 0 && now - lastRotationNanos >= rotationIntervalNanos) {
+                keys = source.rotate();
+                lastRotationNanos = now;
+                rotations.increment();
+            } else {
+                keys = source.keys();
+            }
+            apply(keys);
+            return true;
+        } catch (Throwable cause) {
+            failures.increment();
+            logger.warn("Failed to refresh the session ticket keys from {}", source, cause);
+            return false;
+        }
+    }
+
+    /**
+     * Start to manage the ticket keys of {@code context}. The current keys are applied right away.
+     */
+    public synchronized void attach(OpenSslSessionContext context) {
+        checkNotNull(context, "context");
+        if (contexts.add(context) && keys != null && keys.length != 0) {
+            context.setTicketKeys(keys);
+        }
+        context.context.ticketKeyRotator = this;
+    }
+
+    /**
+     * Stop to manage the ticket keys of {@code context}. The context keeps its current keys.
+     */
+    public synchronized void detach(OpenSslSessionContext context) {
+        contexts.remove(context);
+    }
+
+    /**
+     * Returns how often the keys were fetched from the source.
+     */
+    public long refreshes() {
+        return refreshes.value();
+    }
+
+    /**
+     * Returns how often a new key was added to the source.
+     */
+    public long rotations() {
+        return rotations.value();
+    }
+
+    /**
+     * Returns how often changed keys were applied to the attached contexts.
+     */
+    public long updates() {
+        return updates.value();
+    }
+
+    /**
+     * Returns how often the keys could not be fetched from the source.
+     */
+    public long failures() {
+        return failures.value();
+    }
+
+    private void apply(OpenSslSessionTicketKey[] newKeys) {
+        if (newKeys.length == 0 || sameNames(keys, newKeys)) {
+            return;
+        }
+        keys = newKeys;
+        updates.increment();
+        for (OpenSslSessionContext context: contexts) {
+            context.setTicketKeys(newKeys);
+        }
+    }
+
+    private static boolean sameNames(OpenSslSessionTicketKey[] keys, OpenSslSessionTicketKey[] newKeys) {
+        if (keys == null || keys.length != newKeys.length) {
+            return false;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (!Arrays.equals(keys[i].name(), newKeys[i].name())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
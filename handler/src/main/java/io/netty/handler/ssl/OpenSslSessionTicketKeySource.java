@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.UnstableApi;
+
+/**
+ * A source of {@link OpenSslSessionTicketKey}s, which may be shared by several nodes so that a ticket issued by one
+ * of them can be used to resume the session on any other.
+ * <p>
+ * The keys are returned as a ring: the first key is the primary key that encrypts new tickets, all keys are
+ * accepted to decrypt tickets so the tickets issued before a rotation stay valid until their key drops out of the
+ * ring.
+ *
+ * @see OpenSslSessionTicketKeyRotator
+ * @see OpenSslFileSessionTicketKeySource
+ */
+@UnstableApi
+public interface OpenSslSessionTicketKeySource {
+
+    /**
+     * Returns the current keys, primary key first, or an empty array if there are no keys yet.
+     */
+    OpenSslSessionTicketKey[] keys() throws Exception;
+
+    /**
+     * Adds a new primary key and returns the new keys, primary key first. Sources that are rotated by someone
+     * else should just return {@link #keys()}.
+     */
+    OpenSslSessionTicketKey[] rotate() throws Exception;
+}
@@ -130,6 +130,14 @@ final class OpenSslX509Certificate extends X509Certificate {
         return bytes.clone();
     }
 
+    /**
+     * Returns the DER encoded certificate without cloning it. The returned array <strong>must not</strong> be
+     * modified.
+     */
+    byte[] encodedNoCopy() {
+        return bytes;
+    }
+
     @Override
     public void verify(PublicKey key)
             throws CertificateException, NoSuchAlgorithmException,
@@ -150,6 +150,7 @@ public final class ReferenceCountedOpenSslClientContext extends ReferenceCounted
      * @param ctx SLContext句柄
      * @param engineMap 所用的engine
      * @param trustCerts 信任证书集合
+     * @param trustManager 信任管理器，为{@code null}时根据{@code trustCerts}创建
      * @param encCert 客户端加密证书和私钥
      * @param signCert 客户端签名证书和私钥
      * @param keyPassword 私钥解密口令
@@ -158,7 +159,7 @@ public final class ReferenceCountedOpenSslClientContext extends ReferenceCounted
      */
     static OpenSslSessionContext newSessionContext(ReferenceCountedOpenSslContext thiz, long ctx,
                                                    OpenSslEngineMap engineMap,
-                                                   String[] trustCerts,
+                                                   String[] trustCerts, X509TrustManager trustManager,
                                                    GMCertEntry encCert, GMCertEntry signCert, String keyPassword) throws SSLException {
         /**
          * 作为客户端，可以设置客户端证书，也可以不设置客户端证书
@@ -172,7 +173,7 @@ public final class ReferenceCountedOpenSslClientContext extends ReferenceCounted
             if (null == signCert) {
                 signCert = new GMCertEntry(null, null);
             }
-            setKeyMaterial(ctx, encCert.getCert(), encCert.getKey(), signCert.getCert(), signCert.getKey(), keyPassword);
+            setKeyMaterial(ctx, encCert, signCert, keyPassword);
         } catch (Exception e) {
             throw new SSLException("failed to set certificate and key", e);
         }
@@ -180,7 +181,7 @@ public final class ReferenceCountedOpenSslClientContext extends ReferenceCounted
         SSLContext.setVerify(ctx, SSL.SSL_CVERIFY_NONE, VERIFY_DEPTH);
         // 设置信任证书集合
         try {
-            final X509TrustManager manager = buildGMTrustManager(trustCerts);
+            final X509TrustManager manager = trustManager != null ? trustManager : buildGMTrustManager(trustCerts);
 
             // IMPORTANT: The callbacks set for verification must be static to prevent memory leak as
             //            otherwise the context can never be collected. This is because the JNI code holds
@@ -24,6 +24,7 @@ import io.netty.util.*;
 import io.netty.util.internal.PlatformDependent;
 import io.netty.util.internal.StringUtil;
 import io.netty.util.internal.SystemPropertyUtil;
+import io.netty.util.internal.UnstableApi;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import org.bouncycastle.util.Strings;
@@ -37,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -69,6 +71,9 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
                 }
             });
 
+    private static final boolean DEFAULT_RELEASE_IDLE_BUFFERS =
+            SystemPropertyUtil.getBoolean("io.netty.handler.ssl.openssl.releaseIdleBuffers", false);
+
     private static final Integer DH_KEY_LENGTH;
     private static final ResourceLeakDetector<ReferenceCountedOpenSslContext> leakDetector =
             ResourceLeakDetectorFactory.instance().newResourceLeakDetector(ReferenceCountedOpenSslContext.class);
@@ -116,8 +121,14 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
     final boolean enableOcsp;
     final OpenSslEngineMap engineMap = new DefaultOpenSslEngineMap();
     final ReadWriteLock ctxLock = new ReentrantReadWriteLock();
+    // Set once the key material of this context is managed by a GMKeyMaterialProvider.
+    volatile GMKeyMaterialProvider gmKeyMaterialProvider;
+    // Set once the session ticket keys of this context are managed by an OpenSslSessionTicketKeyRotator.
+    volatile OpenSslSessionTicketKeyRotator ticketKeyRotator;
 
     private volatile int bioNonApplicationBufferSize = DEFAULT_BIO_NON_APPLICATION_BUFFER_SIZE;
+    private volatile boolean offloadPrivateKeyOperations;
+    private volatile boolean releaseIdleBuffers = DEFAULT_RELEASE_IDLE_BUFFERS;
 
     @SuppressWarnings("deprecation")
     static final OpenSslApplicationProtocolNegotiator NONE_PROTOCOL_NEGOTIATOR =
@@ -345,6 +356,17 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
         return new SslHandler(newEngine0(alloc, peerHost, peerPort, false), startTls);
     }
 
+    @Override
+    protected final SslHandler newHandler(ByteBufAllocator alloc, boolean startTls, Executor executor) {
+        return new SslHandler(newEngine0(alloc, null, -1, false), startTls, executor);
+    }
+
+    @Override
+    protected final SslHandler newHandler(ByteBufAllocator alloc, String peerHost, int peerPort, boolean startTls,
+                                          Executor executor) {
+        return new SslHandler(newEngine0(alloc, peerHost, peerPort, false), startTls, executor);
+    }
+
     SSLEngine newEngine0(ByteBufAllocator alloc, String peerHost, int peerPort, boolean jdkCompatibilityMode) {
         return new ReferenceCountedOpenSslEngine(this, alloc, peerHost, peerPort, jdkCompatibilityMode, true);
     }
@@ -424,6 +446,47 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
         return bioNonApplicationBufferSize;
     }
 
+    /**
+     * Set if engines created from now on should process handshake records from the remote peer in
+     * {@linkplain SSLEngine#getDelegatedTask() delegated tasks}, so the private key operations of the handshake
+     * (like SM2 signing and decryption) can be run off the event loop by passing an {@link Executor} to the
+     * {@link SslHandler}. The BIO for non-application based writes should be large enough to hold the whole
+     * flight produced by such a step, see {@link #setBioNonApplicationBufferSize(int)}.
+     */
+    @UnstableApi
+    public void setOffloadPrivateKeyOperations(boolean offloadPrivateKeyOperations) {
+        this.offloadPrivateKeyOperations = offloadPrivateKeyOperations;
+    }
+
+    /**
+     * Returns {@code true} if engines process handshake records from the remote peer in delegated tasks.
+     */
+    @UnstableApi
+    public boolean isOffloadPrivateKeyOperations() {
+        return offloadPrivateKeyOperations;
+    }
+
+    /**
+     * Set if engines created from now on should release their read and write record buffers while the connection
+     * has no pending data. OpenSSL otherwise keeps about {@code 34KB} of buffers allocated for the whole lifetime of
+     * a connection, which dominates the native memory of idle long-lived connections. Released buffers are put into
+     * the freelist shared by all engines of this context and taken from it again once data arrives, so busy
+     * connections pay little for it while idle connections only keep the {@code SSL} object and the BIO for
+     * non-application based writes (see {@link #setBioNonApplicationBufferSize(int)}).
+     */
+    @UnstableApi
+    public void setReleaseIdleBuffers(boolean releaseIdleBuffers) {
+        this.releaseIdleBuffers = releaseIdleBuffers;
+    }
+
+    /**
+     * Returns {@code true} if engines release their read and write record buffers while the connection is idle.
+     */
+    @UnstableApi
+    public boolean isReleaseIdleBuffers() {
+        return releaseIdleBuffers;
+    }
+
     /**
      * Sets the SSL session ticket keys of this context.
      *
@@ -459,6 +522,17 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
     //            get access to an OpenSslSessionContext after this method was called to prevent the user from
     //            producing a segfault.
     private void destroy() {
+        // Must be done before acquiring the writer lock as a reload or rotation holds the lock of the provider or
+        // rotator while it acquires the writer lock of each context.
+        GMKeyMaterialProvider provider = gmKeyMaterialProvider;
+        if (provider != null) {
+            provider.detach(this);
+        }
+        OpenSslSessionTicketKeyRotator rotator = ticketKeyRotator;
+        if (rotator != null) {
+            rotator.detach(sessionContext());
+        }
+
         Lock writerLock = ctxLock.writeLock();
         writerLock.lock();
         try {
@@ -603,6 +677,8 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
         public final int verify(long ssl, byte[][] chain, String auth) {
             X509Certificate[] peerCerts = certificates(chain);
             final ReferenceCountedOpenSslEngine engine = engineMap.get(ssl);
+            final SslHandshakeTimings timings = engine.handshakeTimings;
+            final long start = timings != null ? System.nanoTime() : 0;
             try {
                 verify(engine, peerCerts, auth);
                 return CertificateVerifier.X509_V_OK;
@@ -653,6 +729,10 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
 
                 // Could not detect a specific error code to use, so fallback to a default code.
                 return CertificateVerifier.X509_V_ERR_UNSPECIFIED;
+            } finally {
+                if (timings != null) {
+                    timings.addCertificateVerifyNanos(System.nanoTime() - start);
+                }
             }
         }
 
@@ -715,48 +795,30 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
         }
     }
 
-    static void setKeyMaterial(long ctx, String encCert, String encKey, String signCert, String signKey, String keyPassword) throws SSLException {
+    static void setKeyMaterial(long ctx, GMCertEntry encCert, GMCertEntry signCert, String keyPassword)
+            throws SSLException {
         /* Load the certificate file and private key. */
         long encKeyBio = 0;
         long signKeyBio = 0;
         long encCertBio = 0;
         long signCertBio = 0;
-        PemEncoded encoded = null;
         try {
             /**
              * 1.作为服务端,在{@SslContextGMBuilder}中做了控制，必须要传加密证书和签名证书，这里不需要考虑
              * 2.作为客户端,有可能没有传加密证书和签名证书.在底层openssl中做了限制，如果传了就认为是双向SSL,没有传
              * 就是单向.并且证书和私钥要齐全
              */
-            if (
-                    null != encCert &&
-                    !encCert.isEmpty() &&
-                    null != encKey &&
-                    !encKey.isEmpty() &&
-                    null != signCert &&
-                    !signCert.isEmpty() &&
-                    null != signKey &&
-                    !signKey.isEmpty()
-               ) {
+            if (encCert != null && encCert.isComplete() && signCert != null && signCert.isComplete()) {
+                // The PEM encoded material is cached in direct memory by the GMCertEntry, so this only copies it into
+                // the BIOs.
                 ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
-                // Only encode one time
-                encoded = PemX509Certificate.toPEM(allocator, true, encCert);
-                encCertBio = toBIO(allocator, encoded.retain());
-                encoded.release();
-
-                encoded = PemX509Certificate.toPEM(allocator, true, signCert);
-                signCertBio = toBIO(allocator, encoded.retain());
-                encoded.release();
-
-                encoded = PemPrivateKey.toPEM(allocator, true, encKey);
-                encKeyBio = toBIO(allocator, encoded.retain());
-                encoded.release();
-
-                encoded = PemPrivateKey.toPEM(allocator, true, signKey);
-                signKeyBio = toBIO(allocator, encoded.retain());
-                encoded.release();
+                encCertBio = toBIO(allocator, encCert.retainedCertPem());
+                signCertBio = toBIO(allocator, signCert.retainedCertPem());
+                encKeyBio = toBIO(allocator, encCert.retainedKeyPem());
+                signKeyBio = toBIO(allocator, signCert.retainedKeyPem());
             }
-            SSLContext.setCertificateExtBio(ctx, encCertBio, encKeyBio, signCertBio, signKeyBio, keyPassword == null ? StringUtil.EMPTY_STRING : keyPassword);
+            SSLContext.setCertificateExtBio(ctx, encCertBio, encKeyBio, signCertBio, signKeyBio,
+                    keyPassword == null ? StringUtil.EMPTY_STRING : keyPassword);
         } catch (SSLException e) {
             throw e;
         } catch (Exception e) {
@@ -766,9 +828,26 @@ public abstract class ReferenceCountedOpenSslContext extends SslContext implemen
             freeBio(signKeyBio);
             freeBio(encCertBio);
             freeBio(signCertBio);
-            if (encoded != null && encoded.refCnt() > 0) {
-                encoded.release();
+        }
+    }
+
+    /**
+     * Replace the GM encryption and signing pairs of this context. Engines created after this method returns use the
+     * new pairs, engines created before keep the ones they were created with.
+     *
+     * @return {@code false} if this context was already destroyed.
+     */
+    final boolean setGMKeyMaterial(GMKeyMaterialProvider.Material material) throws SSLException {
+        Lock writerLock = ctxLock.writeLock();
+        writerLock.lock();
+        try {
+            if (ctx == 0) {
+                return false;
             }
+            setKeyMaterial(ctx, material.encCertEntry, material.signCertEntry, material.keyPassword);
+            return true;
+        } finally {
+            writerLock.unlock();
         }
     }
 
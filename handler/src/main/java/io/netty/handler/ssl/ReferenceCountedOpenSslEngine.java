@@ -64,6 +64,7 @@ import static io.netty.handler.ssl.SslUtils.PROTOCOL_SSL_V3;
 import static io.netty.handler.ssl.SslUtils.PROTOCOL_TLS_V1;
 import static io.netty.handler.ssl.SslUtils.PROTOCOL_TLS_V1_1;
 import static io.netty.handler.ssl.SslUtils.PROTOCOL_TLS_V1_2;
+import static io.netty.handler.ssl.SslUtils.SSL_CONTENT_TYPE_HANDSHAKE;
 import static io.netty.handler.ssl.SslUtils.SSL_RECORD_HEADER_LENGTH;
 import static io.netty.internal.tcnative.SSL.SSL_MAX_PLAINTEXT_LENGTH;
 import static io.netty.internal.tcnative.SSL.SSL_MAX_RECORD_LENGTH;
@@ -73,6 +74,7 @@ import static io.netty.util.internal.ObjectUtil.checkNotNull;
 import static java.lang.Integer.MAX_VALUE;
 import static java.lang.Math.min;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_TASK;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_UNWRAP;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_WRAP;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
@@ -135,6 +137,7 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
     private static final SSLEngineResult NEED_UNWRAP_OK = new SSLEngineResult(OK, NEED_UNWRAP, 0, 0);
     private static final SSLEngineResult NEED_UNWRAP_CLOSED = new SSLEngineResult(CLOSED, NEED_UNWRAP, 0, 0);
     private static final SSLEngineResult NEED_WRAP_OK = new SSLEngineResult(OK, NEED_WRAP, 0, 0);
+    private static final SSLEngineResult NEED_TASK_OK = new SSLEngineResult(OK, NEED_TASK, 0, 0);
     private static final SSLEngineResult NEED_WRAP_CLOSED = new SSLEngineResult(CLOSED, NEED_WRAP, 0, 0);
     private static final SSLEngineResult CLOSED_NOT_HANDSHAKING = new SSLEngineResult(CLOSED, NOT_HANDSHAKING, 0, 0);
 
@@ -166,6 +169,8 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
     private boolean receivedShutdown;
     private volatile int destroyed;
     private volatile String applicationProtocol;
+    // Set by the SslHandler before the handshake starts if it is measured, the certificate verification adds to it.
+    SslHandshakeTimings handshakeTimings;
 
     // Reference Counting
     private final ResourceLeakTracker<ReferenceCountedOpenSslEngine> leak;
@@ -220,6 +225,12 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
     private final boolean enableOcsp;
     private int maxWrapOverhead;
     private int maxWrapBufferSize;
+    // Run the handshake steps that consume records from the remote peer as delegated tasks.
+    private final boolean offloadHandshake;
+    // The task that was created for the last handshake record and not handed out via getDelegatedTask() yet.
+    private HandshakeTask pendingHandshakeTask;
+    // true from the time a task was created until it completed.
+    private boolean handshakeTaskRunning;
 
     // This is package-private as we set it from OpenSslContext if an exception is thrown during
     // the verification step.
@@ -249,6 +260,7 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
         localCerts = context.keyCertChain;
         keyMaterialManager = context.keyMaterialManager();
         enableOcsp = context.enableOcsp;
+        offloadHandshake = context.isOffloadPrivateKeyOperations();
         this.jdkCompatibilityMode = jdkCompatibilityMode;
         Lock readerLock = context.ctxLock.readLock();
         readerLock.lock();
@@ -285,6 +297,11 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
                     SSL.setMode(ssl, SSL.getMode(ssl) | SSL.SSL_MODE_ENABLE_PARTIAL_WRITE);
                 }
 
+                if (context.isReleaseIdleBuffers()) {
+                    // The record buffers are returned to the freelist of the SSL_CTX whenever no data is pending.
+                    SSL.setMode(ssl, SSL.getMode(ssl) | SSL.SSL_MODE_RELEASE_BUFFERS);
+                }
+
                 // setMode may impact the overhead.
                 calculateMaxWrapOverhead();
             } catch (Throwable cause) {
@@ -402,6 +419,11 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
      */
     public final synchronized void shutdown() {
         if (DESTROYED_UPDATER.compareAndSet(this, 0, 1)) {
+            if (pendingHandshakeTask != null) {
+                // The task was never handed out, so release the record it holds.
+                pendingHandshakeTask.record.release();
+                pendingHandshakeTask = null;
+            }
             engineMap.remove(ssl);
             SSL.freeSSL(ssl);
             ssl = networkBIO = 0;
@@ -449,6 +471,50 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
         return sslWrote;
     }
 
+    /**
+     * Write the plaintext data of {@code srcs} to the OpenSSL internal BIO with a single call, so that it ends up in
+     * one record. At most {@code len} bytes are written, which should not exceed the bytes remaining in {@code srcs}.
+     */
+    private int writeGatheredPlaintextData(final ByteBuffer[] srcs, final int offset, final int endOffset, int len) {
+        ByteBuf buf = alloc.directBuffer(len);
+        try {
+            for (int i = offset; i < endOffset && buf.isWritable(); ++i) {
+                final ByteBuffer src = srcs[i];
+                final int pos = src.position();
+                final int limit = src.limit();
+                src.limit(pos + min(src.remaining(), buf.writableBytes()));
+                buf.writeBytes(src);
+                // Only consume what was written by OpenSSL below.
+                src.limit(limit).position(pos);
+            }
+
+            final int sslWrote = SSL.writeToSSL(ssl, memoryAddress(buf), buf.readableBytes());
+            for (int i = offset, skip = sslWrote; i < endOffset && skip > 0; ++i) {
+                final ByteBuffer src = srcs[i];
+                final int n = min(src.remaining(), skip);
+                src.position(src.position() + n);
+                skip -= n;
+            }
+            return sslWrote;
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * Returns the number of bytes remaining in {@code srcs}, but at most {@code max}.
+     */
+    private static int remaining(ByteBuffer[] srcs, int offset, int endOffset, int max) {
+        int remaining = 0;
+        for (int i = offset; i < endOffset && remaining < max; ++i) {
+            ByteBuffer src = srcs[i];
+            if (src != null) {
+                remaining += min(src.remaining(), max - remaining);
+            }
+        }
+        return remaining;
+    }
+
     /**
      * Write encrypted data to the OpenSSL network BIO.
      */
@@ -591,6 +657,10 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
                 // All drained in the outbound buffer
                 return isInboundDone() || isDestroyed() ? CLOSED_NOT_HANDSHAKING : NEED_UNWRAP_CLOSED;
             }
+            if (handshakeTaskRunning) {
+                // Nothing can be produced before the delegated task completed.
+                return NEED_TASK_OK;
+            }
 
             int bytesProduced = 0;
             ByteBuf bioReadCopyBuf = null;
@@ -726,22 +796,33 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
                         continue;
                     }
 
-                    final int bytesWritten;
+                    final int maxLength;
                     if (jdkCompatibilityMode) {
                         // Write plaintext application data to the SSL engine. We don't have to worry about checking
                         // if there is enough space if jdkCompatibilityMode because we only wrap at most
                         // MAX_PLAINTEXT_LENGTH and we loop over the input before hand and check if there is space.
-                        bytesWritten = writePlaintextData(src, min(remaining, MAX_PLAINTEXT_LENGTH - bytesConsumed));
+                        maxLength = MAX_PLAINTEXT_LENGTH - bytesConsumed;
                     } else {
                         // OpenSSL's SSL_write keeps state between calls. We should make sure the amount we attempt to
                         // write is guaranteed to succeed so we don't have to worry about keeping state consistent
                         // between calls.
-                        final int availableCapacityForWrap = dst.remaining() - bytesProduced - maxWrapOverhead;
-                        if (availableCapacityForWrap <= 0) {
+                        maxLength = dst.remaining() - bytesProduced - maxWrapOverhead;
+                        if (maxLength <= 0) {
                             return new SSLEngineResult(BUFFER_OVERFLOW, getHandshakeStatus(), bytesConsumed,
                                     bytesProduced);
                         }
-                        bytesWritten = writePlaintextData(src, min(remaining, availableCapacityForWrap));
+                    }
+
+                    final int bytesWritten;
+                    final int maxWriteLength = min(maxLength, MAX_PLAINTEXT_LENGTH);
+                    final int gatherLength = remaining < maxWriteLength ?
+                            remaining(srcs, offset, endOffset, maxWriteLength) : remaining;
+                    if (gatherLength > remaining) {
+                        // Every SSL_write call produces at least one record, so gather the small buffers into one
+                        // call instead of producing a record with a lot of overhead for each of them.
+                        bytesWritten = writeGatheredPlaintextData(srcs, offset, endOffset, gatherLength);
+                    } else {
+                        bytesWritten = writePlaintextData(src, min(remaining, maxLength));
                     }
 
                     if (bytesWritten > 0) {
@@ -924,6 +1005,12 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
             SSLEngineResult.HandshakeStatus status = NOT_HANDSHAKING;
             // Prepare OpenSSL to work in server mode and receive handshake
             if (handshakeState != HandshakeState.FINISHED) {
+                if (offloadHandshake) {
+                    SSLEngineResult result = offloadHandshakeRecord(srcs, srcsOffset, len);
+                    if (result != null) {
+                        return result;
+                    }
+                }
                 if (handshakeState != HandshakeState.STARTED_EXPLICITLY) {
                     // Update accepted so we know we triggered the handshake via wrap
                     handshakeState = HandshakeState.STARTED_IMPLICITLY;
@@ -1101,6 +1188,120 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
         }
     }
 
+    /**
+     * Decrypts as many records of the readable bytes of {@code src} as fit into the writable bytes of {@code dst}
+     * with a single call, skipping the consumed bytes of {@code src} and increasing the writer index of {@code dst}
+     * by the number of produced bytes.
+     * <p>
+     * Unlike {@link #unwrap(ByteBuffer[], ByteBuffer[])} this always decrypts every record it can, even in
+     * {@code jdkCompatibilityMode}, and only asks OpenSSL how much input was consumed once per {@link ByteBuffer} of
+     * {@code src} instead of once per record, so many small records arriving in one read need about half of the
+     * native calls. Before the handshake finished this falls back to {@link #unwrap(ByteBuffer[], ByteBuffer[])}.
+     */
+    public final SSLEngineResult unwrapRecords(ByteBuf src, ByteBuf dst) throws SSLException {
+        checkNotNull(src, "src");
+        checkNotNull(dst, "dst");
+        synchronized (this) {
+            if (handshakeState != HandshakeState.FINISHED || handshakeTaskRunning || isInboundDone() ||
+                    !src.isReadable() || !dst.isWritable() || sslPending0() > 0) {
+                return unwrapBuffers(src, dst);
+            }
+
+            final int capacity = dst.writableBytes();
+            final ByteBuf dstCopyBuf;
+            final long dstAddress;
+            if (dst.hasMemoryAddress()) {
+                dstCopyBuf = null;
+                dstAddress = dst.memoryAddress() + dst.writerIndex();
+            } else if (dst.isDirect() && dst.nioBufferCount() == 1) {
+                dstCopyBuf = null;
+                // The address of the ByteBuffer does not include its position, which is the writer index.
+                final ByteBuffer nioBuffer = dst.internalNioBuffer(dst.writerIndex(), capacity);
+                dstAddress = bufferAddress(nioBuffer) + nioBuffer.position();
+            } else {
+                dstCopyBuf = alloc.directBuffer(capacity);
+                dstAddress = memoryAddress(dstCopyBuf);
+            }
+
+            final ByteBuffer[] srcs = src.nioBuffers();
+            int bytesConsumed = 0;
+            int bytesProduced = 0;
+            try {
+                srcLoop:
+                for (ByteBuffer buffer: srcs) {
+                    final int remaining = buffer.remaining();
+                    if (remaining == 0) {
+                        continue;
+                    }
+                    final ByteBuf bioWriteCopyBuf = writeEncryptedData(buffer, remaining);
+                    try {
+                        while (bytesProduced < capacity) {
+                            final int bytesRead = SSL.readFromSSL(ssl, dstAddress + bytesProduced,
+                                    capacity - bytesProduced);
+                            if (bytesRead > 0) {
+                                bytesProduced += bytesRead;
+                                continue;
+                            }
+                            final int sslError = SSL.getError(ssl, bytesRead);
+                            if (sslError == SSL.SSL_ERROR_WANT_READ || sslError == SSL.SSL_ERROR_WANT_WRITE) {
+                                // Everything of this buffer was consumed, continue with the next one.
+                                break;
+                            }
+                            bytesConsumed += remaining - SSL.bioLengthByteBuffer(networkBIO);
+                            if (sslError == SSL.SSL_ERROR_ZERO_RETURN) {
+                                if (!receivedShutdown) {
+                                    closeAll();
+                                }
+                                break srcLoop;
+                            }
+                            return sslReadErrorResult(SSL.getLastErrorNumber(), bytesConsumed, bytesProduced);
+                        }
+                        final int consumed = remaining - SSL.bioLengthByteBuffer(networkBIO);
+                        bytesConsumed += consumed;
+                        if (consumed < remaining) {
+                            // dst is full.
+                            break;
+                        }
+                    } finally {
+                        if (bioWriteCopyBuf != null) {
+                            bioWriteCopyBuf.release();
+                        }
+                    }
+                }
+            } finally {
+                SSL.bioClearByteBuffer(networkBIO);
+                src.skipBytes(bytesConsumed);
+                if (dstCopyBuf != null) {
+                    dst.writeBytes(dstCopyBuf, 0, bytesProduced);
+                    dstCopyBuf.release();
+                } else {
+                    dst.writerIndex(dst.writerIndex() + bytesProduced);
+                }
+                rejectRemoteInitiatedRenegotiation();
+            }
+
+            // Check to see if we received a close_notify message from the peer.
+            if (!receivedShutdown && (SSL.getShutdown(ssl) & SSL.SSL_RECEIVED_SHUTDOWN) == SSL.SSL_RECEIVED_SHUTDOWN) {
+                closeAll();
+            }
+            if (!isInboundDone() && sslPending0() > 0) {
+                return newResult(BUFFER_OVERFLOW, NOT_HANDSHAKING, bytesConsumed, bytesProduced);
+            }
+            return newResultMayFinishHandshake(isInboundDone() ? CLOSED : OK, NOT_HANDSHAKING,
+                    bytesConsumed, bytesProduced);
+        }
+    }
+
+    private SSLEngineResult unwrapBuffers(ByteBuf src, ByteBuf dst) throws SSLException {
+        final int writerIndex = dst.writerIndex();
+        final ByteBuffer[] srcs = src.isReadable() ? src.nioBuffers() : new ByteBuffer[] { src.nioBuffer() };
+        final ByteBuffer[] dsts = { dst.nioBuffer(writerIndex, dst.writableBytes()) };
+        final SSLEngineResult result = unwrap(srcs, 0, srcs.length, dsts, 0, 1);
+        src.skipBytes(result.bytesConsumed());
+        dst.writerIndex(writerIndex + result.bytesProduced());
+        return result;
+    }
+
     private SSLEngineResult sslReadErrorResult(int err, int bytesConsumed, int bytesProduced) throws SSLException {
         // Check if we have a pending handshakeException and if so see if we need to consume all pending data from the
         // BIO first or can just shutdown and throw it now.
@@ -1198,11 +1399,126 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
         }
     }
 
+    /**
+     * Copies the next handshake record of {@code srcs} and creates a {@link HandshakeTask} for it, so the private key
+     * operations that processing the record may include (like SM2 signing or decryption) do not run on the calling
+     * thread.
+     *
+     * @return the result to return from {@code unwrap(...)} or {@code null} if the record should be processed as usual.
+     */
+    private SSLEngineResult offloadHandshakeRecord(ByteBuffer[] srcs, int srcsOffset, long len) {
+        if (handshakeTaskRunning) {
+            return NEED_TASK_OK;
+        }
+        if (handshakeException != null || len < SSL_RECORD_HEADER_LENGTH || isDestroyed()) {
+            return null;
+        }
+        while (!srcs[srcsOffset].hasRemaining()) {
+            srcsOffset++;
+        }
+        ByteBuffer first = srcs[srcsOffset];
+        if (first.get(first.position()) != SSL_CONTENT_TYPE_HANDSHAKE) {
+            // ChangeCipherSpec, alerts, etc. are cheap to process.
+            return null;
+        }
+        int packetLength = SslUtils.getEncryptedPacketLength(srcs, srcsOffset);
+        if (packetLength <= 0) {
+            return null;
+        }
+        if (len < packetLength) {
+            return new SSLEngineResult(BUFFER_UNDERFLOW, getHandshakeStatus(), 0, 0);
+        }
+
+        ByteBuf record = alloc.directBuffer(packetLength);
+        for (int remaining = packetLength; remaining > 0; srcsOffset++) {
+            ByteBuffer src = srcs[srcsOffset];
+            int length = min(remaining, src.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            record.writeBytes(src);
+            src.limit(limit);
+            remaining -= length;
+        }
+        if (handshakeState == HandshakeState.NOT_STARTED) {
+            handshakeState = HandshakeState.STARTED_IMPLICITLY;
+        }
+        pendingHandshakeTask = new HandshakeTask(record);
+        handshakeTaskRunning = true;
+        return new SSLEngineResult(OK, NEED_TASK, packetLength, 0);
+    }
+
+    /**
+     * Feeds {@code record} to OpenSSL and continues the handshake. Unlike {@link #handshake()} this never finishes
+     * the handshake, which is left to the next {@code wrap(...)} or {@code unwrap(...)} call, and only records a
+     * failure in {@link #handshakeException} so the alert that may have been produced is still sent.
+     */
+    private void handshakeStep(ByteBuf record) {
+        SSL.bioSetByteBuffer(networkBIO, memoryAddress(record) + record.readerIndex(), record.readableBytes(),
+                false);
+        try {
+            // Adding the OpenSslEngine to the OpenSslEngineMap so it can be used in the AbstractCertificateVerifier.
+            engineMap.add(this);
+            if (lastAccessed == -1) {
+                lastAccessed = System.currentTimeMillis();
+            }
+            if (!certificateSet && keyMaterialManager != null) {
+                certificateSet = true;
+                keyMaterialManager.setKeyMaterial(this);
+            }
+
+            int code = SSL.doHandshake(ssl);
+            if (code <= 0) {
+                int sslError = SSL.getError(ssl, code);
+                if (sslError != SSL.SSL_ERROR_WANT_READ && sslError != SSL.SSL_ERROR_WANT_WRITE &&
+                        handshakeException == null) {
+                    String err = SSL.getLastError();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("SSL_do_handshake failed: OpenSSL error: {}", err);
+                    }
+                    handshakeException = new SSLHandshakeException(err);
+                }
+            }
+        } catch (SSLException e) {
+            if (handshakeException == null) {
+                handshakeException = (SSLHandshakeException) new SSLHandshakeException(e.getMessage()).initCause(e);
+            }
+        } finally {
+            SSL.bioClearByteBuffer(networkBIO);
+        }
+    }
+
     @Override
-    public final Runnable getDelegatedTask() {
-        // Currently, we do not delegate SSL computation tasks
-        // TODO: in the future, possibly create tasks to do encrypt / decrypt async
-        return null;
+    public final synchronized Runnable getDelegatedTask() {
+        // Only handshake records are delegated if enabled, encrypt / decrypt of application data is always done
+        // directly.
+        Runnable task = pendingHandshakeTask;
+        pendingHandshakeTask = null;
+        return task;
+    }
+
+    /**
+     * Processes one handshake record, which is done while holding the lock of the engine.
+     */
+    private final class HandshakeTask implements Runnable {
+        final ByteBuf record;
+
+        HandshakeTask(ByteBuf record) {
+            this.record = record;
+        }
+
+        @Override
+        public void run() {
+            synchronized (ReferenceCountedOpenSslEngine.this) {
+                try {
+                    if (!isDestroyed()) {
+                        handshakeStep(record);
+                    }
+                } finally {
+                    handshakeTaskRunning = false;
+                    record.release();
+                }
+            }
+        }
     }
 
     @Override
@@ -1607,6 +1923,9 @@ public class ReferenceCountedOpenSslEngine extends SSLEngine implements Referenc
 
     @Override
     public final synchronized SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+        if (handshakeTaskRunning && !isDestroyed()) {
+            return NEED_TASK;
+        }
         // Check if we are in the initial handshake phase or shutdown phase
         return needPendingStatus() ? pendingStatus(SSL.bioLengthNonApplication(networkBIO)) : NOT_HANDSHAKING;
     }
@@ -186,6 +186,7 @@ public final class ReferenceCountedOpenSslServerContext extends ReferenceCounted
 
     static ServerContext newSessionContext(ReferenceCountedOpenSslContext thiz, long ctx, OpenSslEngineMap engineMap,
                                            String[] trustCerts,
+                                           X509TrustManager trustManager,
                                            GMCertEntry encCert,
                                            GMCertEntry signCert,
                                            String keyPassword)
@@ -193,12 +194,12 @@ public final class ReferenceCountedOpenSslServerContext extends ReferenceCounted
         ServerContext result = new ServerContext();
         try {
             SSLContext.setVerify(ctx, SSL.SSL_CVERIFY_NONE, VERIFY_DEPTH);
-            setKeyMaterial(ctx, encCert.getCert(), encCert.getKey(), signCert.getCert(), signCert.getKey(), keyPassword);
+            setKeyMaterial(ctx, encCert, signCert, keyPassword);
         } catch (Exception e) {
             throw new SSLException("failed to set certificate and key", e);
         }
         try {
-            final X509TrustManager manager = buildGMTrustManager(trustCerts);
+            final X509TrustManager manager = trustManager != null ? trustManager : buildGMTrustManager(trustCerts);
 
             // IMPORTANT: The callbacks set for verification must be static to prevent memory leak as
             //            otherwise the context can never be collected. This is because the JNI code holds
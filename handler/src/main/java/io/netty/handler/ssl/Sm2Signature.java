@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
+
+import java.math.BigInteger;
+
+/**
+ * Verification of {@code SM3withSM2} signatures as defined by GM/T 0003-2012 and GM/T 0009-2012.
+ * <p>
+ * This is implemented on top of the lightweight Bouncy Castle EC primitives so it neither depends on a
+ * {@link java.security.Provider} that knows about SM2 nor needs any locking.
+ */
+final class Sm2Signature {
+
+    /**
+     * OID of the {@code SM3withSM2} signature algorithm.
+     */
+    static final ASN1ObjectIdentifier SM3_WITH_SM2 = new ASN1ObjectIdentifier("1.2.156.10197.1.501");
+
+    /**
+     * OID of the {@code sm2p256v1} named curve.
+     */
+    static final ASN1ObjectIdentifier SM2_P256_V1 = new ASN1ObjectIdentifier("1.2.156.10197.1.301");
+
+    private static final ASN1ObjectIdentifier EC_PUBLIC_KEY = new ASN1ObjectIdentifier("1.2.840.10045.2.1");
+
+    // The default user identity "1234567812345678" used by GM/T 0009-2012 if nothing else was agreed on.
+    private static final byte[] DEFAULT_USER_ID = {
+            '1', '2', '3', '4', '5', '6', '7', '8', '1', '2', '3', '4', '5', '6', '7', '8' };
+
+    private static final int FIELD_SIZE = 32;
+
+    private static final BigInteger P = new BigInteger(
+            "FFFFFFFEFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF00000000FFFFFFFFFFFFFFFF", 16);
+    private static final BigInteger A = new BigInteger(
+            "FFFFFFFEFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF00000000FFFFFFFFFFFFFFFC", 16);
+    private static final BigInteger B = new BigInteger(
+            "28E9FA9E9D9F5E344D5A9E4BCF6509A7F39789F515AB8F92DDBCBD414D940E93", 16);
+    private static final BigInteger N = new BigInteger(
+            "FFFFFFFEFFFFFFFFFFFFFFFFFFFFFFFF7203DF6B21C6052B53BBF40939D54123", 16);
+    private static final BigInteger GX = new BigInteger(
+            "32C4AE2C1F1981195F9904466A39C9948FE30BBFF2660BE1715A4589334C74C7", 16);
+    private static final BigInteger GY = new BigInteger(
+            "BC3736A2F4F6779C59BDCEE36B692153D0A9877CC62A474002DF32E52139F0A0", 16);
+
+    private static final ECCurve CURVE = new ECCurve.Fp(P, A, B, N, BigInteger.ONE);
+    private static final ECPoint G = CURVE.createPoint(GX, GY);
+
+    // The part of Z_A that is the same for every public key: ENTL || ID || a || b || xG || yG
+    private static final byte[] Z_PREFIX;
+
+    static {
+        byte[] prefix = new byte[2 + DEFAULT_USER_ID.length + 4 * FIELD_SIZE];
+        int bits = DEFAULT_USER_ID.length * 8;
+        prefix[0] = (byte) (bits >>> 8);
+        prefix[1] = (byte) bits;
+        System.arraycopy(DEFAULT_USER_ID, 0, prefix, 2, DEFAULT_USER_ID.length);
+        int offset = 2 + DEFAULT_USER_ID.length;
+        offset = writeFieldElement(A, prefix, offset);
+        offset = writeFieldElement(B, prefix, offset);
+        offset = writeFieldElement(GX, prefix, offset);
+        writeFieldElement(GY, prefix, offset);
+        Z_PREFIX = prefix;
+    }
+
+    private Sm2Signature() { }
+
+    /**
+     * Returns {@code true} if the given algorithm is {@code SM3withSM2}.
+     */
+    static boolean isSm2Signature(AlgorithmIdentifier algorithm) {
+        return SM3_WITH_SM2.equals(algorithm.getAlgorithm());
+    }
+
+    /**
+     * Returns {@code true} if the given {@link SubjectPublicKeyInfo} holds a key on the {@code sm2p256v1} curve.
+     */
+    static boolean isSm2PublicKey(SubjectPublicKeyInfo publicKeyInfo) {
+        AlgorithmIdentifier algorithm = publicKeyInfo.getAlgorithm();
+        return EC_PUBLIC_KEY.equals(algorithm.getAlgorithm()) && SM2_P256_V1.equals(algorithm.getParameters());
+    }
+
+    /**
+     * Decode the SM2 public key stored in the given {@link SubjectPublicKeyInfo}.
+     */
+    static ECPoint decodePublicKey(SubjectPublicKeyInfo publicKeyInfo) {
+        ECPoint point = CURVE.decodePoint(publicKeyInfo.getPublicKeyData().getBytes()).normalize();
+        if (!point.isValid()) {
+            throw new IllegalArgumentException("public key is not a valid point on the SM2 curve");
+        }
+        return point;
+    }
+
+    /**
+     * Verify the DER encoded {@code SM3withSM2} {@code signature} of {@code message} using the default user id.
+     */
+    static boolean verify(ECPoint publicKey, byte[] message, byte[] signature) {
+        final BigInteger r;
+        final BigInteger s;
+        try {
+            ASN1Sequence seq = ASN1Sequence.getInstance(signature);
+            if (seq.size() != 2) {
+                return false;
+            }
+            r = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue();
+            s = ASN1Integer.getInstance(seq.getObjectAt(1)).getValue();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (r.signum() <= 0 || r.compareTo(N) >= 0 || s.signum() <= 0 || s.compareTo(N) >= 0) {
+            return false;
+        }
+        BigInteger t = r.add(s).mod(N);
+        if (t.signum() == 0) {
+            return false;
+        }
+
+        SM3Digest digest = new SM3Digest();
+        byte[] e = new byte[digest.getDigestSize()];
+
+        // Z_A = SM3(ENTL || ID || a || b || xG || yG || xA || yA)
+        digest.update(Z_PREFIX, 0, Z_PREFIX.length);
+        update(digest, publicKey.getAffineXCoord().toBigInteger());
+        update(digest, publicKey.getAffineYCoord().toBigInteger());
+        digest.doFinal(e, 0);
+
+        // e = SM3(Z_A || M)
+        digest.update(e, 0, e.length);
+        digest.update(message, 0, message.length);
+        digest.doFinal(e, 0);
+
+        ECPoint point = ECAlgorithms.sumOfTwoMultiplies(G, s, publicKey, t).normalize();
+        if (point.isInfinity()) {
+            return false;
+        }
+        BigInteger expected = new BigInteger(1, e).add(point.getAffineXCoord().toBigInteger()).mod(N);
+        return expected.equals(r);
+    }
+
+    private static void update(SM3Digest digest, BigInteger value) {
+        byte[] bytes = BigIntegers.asUnsignedByteArray(FIELD_SIZE, value);
+        digest.update(bytes, 0, bytes.length);
+    }
+
+    private static int writeFieldElement(BigInteger value, byte[] dst, int offset) {
+        byte[] bytes = BigIntegers.asUnsignedByteArray(FIELD_SIZE, value);
+        System.arraycopy(bytes, 0, dst, offset, FIELD_SIZE);
+        return offset + FIELD_SIZE;
+    }
+}
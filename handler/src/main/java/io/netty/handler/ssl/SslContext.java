@@ -25,27 +25,23 @@ import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
 import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
 import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
 import io.netty.util.internal.EmptyArrays;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.util.BigIntegers;
-import org.bouncycastle.util.encoders.Base64;
+import io.netty.util.internal.UnstableApi;
 
 import javax.crypto.*;
 import javax.crypto.spec.PBEKeySpec;
 import javax.net.ssl.*;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
 import java.security.*;
 import java.security.cert.*;
 import java.security.cert.Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A secure socket protocol implementation which acts as a factory for {@link SSLEngine} and {@link SslHandler}.
@@ -80,6 +76,7 @@ public abstract class SslContext {
     }
 
     private final boolean startTls;
+    private volatile SslHandshakeMetrics handshakeMetrics;
 
     /**
      * Returns the default server-side implementation provider currently in use.
@@ -419,13 +416,13 @@ public abstract class SslContext {
     }
 
     static SslContext newServerContextInternal(
-            String[] trustCertCollection, GMCertEntry encCert, GMCertEntry signCert, String keyPassword,
-            Iterable<String> ciphers, CipherSuiteFilter cipherFilter, ApplicationProtocolConfig apn,
+            String[] trustCertCollection, X509TrustManager trustManager, GMCertEntry encCert, GMCertEntry signCert,
+            String keyPassword, Iterable<String> ciphers, CipherSuiteFilter cipherFilter, ApplicationProtocolConfig apn,
             long sessionCacheSize, long sessionTimeout, ClientAuth clientAuth, String[] protocols, boolean startTls,
             boolean enableOcsp) throws SSLException {
 
             return new OpenSslServerContext(
-                    trustCertCollection, encCert, signCert, keyPassword,
+                    trustCertCollection, trustManager, encCert, signCert, keyPassword,
                     ciphers, cipherFilter, apn, sessionCacheSize, sessionTimeout,
                     clientAuth, protocols, startTls, enableOcsp);
     }
@@ -785,12 +782,12 @@ public abstract class SslContext {
     }
 
     static SslContext newClientContextInternal(
-            String[] trustCert, GMCertEntry encCert, GMCertEntry signCert, String keyPassword,
-            Iterable<String> ciphers, CipherSuiteFilter cipherFilter, ApplicationProtocolConfig apn, String[] protocols,
-            long sessionCacheSize, long sessionTimeout, boolean enableOcsp) throws SSLException {
+            String[] trustCert, X509TrustManager trustManager, GMCertEntry encCert, GMCertEntry signCert,
+            String keyPassword, Iterable<String> ciphers, CipherSuiteFilter cipherFilter, ApplicationProtocolConfig apn,
+            String[] protocols, long sessionCacheSize, long sessionTimeout, boolean enableOcsp) throws SSLException {
 
             return new OpenSslClientContext(
-                    trustCert, encCert, signCert, keyPassword,
+                    trustCert, trustManager, encCert, signCert, keyPassword,
                     ciphers, cipherFilter, apn, protocols, sessionCacheSize, sessionTimeout,
                     enableOcsp);
     }
@@ -885,6 +882,33 @@ public abstract class SslContext {
      */
     public abstract SSLSessionContext sessionContext();
 
+    /**
+     * Sets if the handshakes of the {@link SslHandler}s created by this context from now on are measured and
+     * aggregated into the {@link #handshakeMetrics()} of this context. Disabled by default, in which case nothing is
+     * measured at all. Enabling it again starts with new metrics.
+     */
+    @UnstableApi
+    public final void setHandshakeMetricsEnabled(boolean enabled) {
+        handshakeMetrics = enabled ? new SslHandshakeMetrics() : null;
+    }
+
+    /**
+     * Returns the {@link SslHandshakeMetrics} of the handshakes of the {@link SslHandler}s created by this context or
+     * {@code null} if they are not {@linkplain #setHandshakeMetricsEnabled(boolean) enabled}.
+     */
+    @UnstableApi
+    public final SslHandshakeMetrics handshakeMetrics() {
+        return handshakeMetrics;
+    }
+
+    private SslHandler withHandshakeMetrics(SslHandler handler) {
+        SslHandshakeMetrics metrics = handshakeMetrics;
+        if (metrics != null) {
+            handler.setHandshakeMetrics(metrics);
+        }
+        return handler;
+    }
+
     /**
      * Creates a new {@link SslHandler}.
      * <p>If {@link SslProvider#OPENSSL_REFCNT} is used then the returned {@link SslHandler} will release the engine
@@ -909,7 +933,7 @@ public abstract class SslContext {
      * @return a new {@link SslHandler}
      */
     public final SslHandler newHandler(ByteBufAllocator alloc) {
-        return newHandler(alloc, startTls);
+        return withHandshakeMetrics(newHandler(alloc, startTls));
     }
 
     /**
@@ -920,6 +944,28 @@ public abstract class SslContext {
         return new SslHandler(newEngine(alloc), startTls);
     }
 
+    /**
+     * Creates a new {@link SslHandler} that runs the {@linkplain SSLEngine#getDelegatedTask() delegated tasks} of its
+     * {@link SSLEngine} on {@code delegatedTaskExecutor} without blocking the event loop in the meantime.
+     *
+     * @param alloc If supported by the SSLEngine then the SSLEngine will use this to allocate ByteBuf objects.
+     * @param delegatedTaskExecutor the {@link Executor} that will be used to execute tasks that are returned by
+     *                              {@link SSLEngine#getDelegatedTask()}.
+     * @return a new {@link SslHandler}
+     * @see #newHandler(ByteBufAllocator)
+     */
+    public SslHandler newHandler(ByteBufAllocator alloc, Executor delegatedTaskExecutor) {
+        return withHandshakeMetrics(newHandler(alloc, startTls, delegatedTaskExecutor));
+    }
+
+    /**
+     * Create a new SslHandler.
+     * @see #newHandler(ByteBufAllocator, Executor)
+     */
+    protected SslHandler newHandler(ByteBufAllocator alloc, boolean startTls, Executor executor) {
+        return new SslHandler(newEngine(alloc), startTls, executor);
+    }
+
     /**
      * Creates a new {@link SslHandler} with advisory peer information.
      * <p>If {@link SslProvider#OPENSSL_REFCNT} is used then the returned {@link SslHandler} will release the engine
@@ -947,7 +993,7 @@ public abstract class SslContext {
      * @return a new {@link SslHandler}
      */
     public final SslHandler newHandler(ByteBufAllocator alloc, String peerHost, int peerPort) {
-        return newHandler(alloc, peerHost, peerPort, startTls);
+        return withHandshakeMetrics(newHandler(alloc, peerHost, peerPort, startTls));
     }
 
     /**
@@ -958,6 +1004,33 @@ public abstract class SslContext {
         return new SslHandler(newEngine(alloc, peerHost, peerPort), startTls);
     }
 
+    /**
+     * Creates a new {@link SslHandler} with advisory peer information that runs the
+     * {@linkplain SSLEngine#getDelegatedTask() delegated tasks} of its {@link SSLEngine} on
+     * {@code delegatedTaskExecutor} without blocking the event loop in the meantime.
+     *
+     * @param alloc If supported by the SSLEngine then the SSLEngine will use this to allocate ByteBuf objects.
+     * @param peerHost the non-authoritative name of the host
+     * @param peerPort the non-authoritative port
+     * @param delegatedTaskExecutor the {@link Executor} that will be used to execute tasks that are returned by
+     *                              {@link SSLEngine#getDelegatedTask()}.
+     * @return a new {@link SslHandler}
+     * @see #newHandler(ByteBufAllocator, String, int)
+     */
+    public SslHandler newHandler(ByteBufAllocator alloc, String peerHost, int peerPort,
+                                 Executor delegatedTaskExecutor) {
+        return withHandshakeMetrics(newHandler(alloc, peerHost, peerPort, startTls, delegatedTaskExecutor));
+    }
+
+    /**
+     * Create a new SslHandler.
+     * @see #newHandler(ByteBufAllocator, String, int, Executor)
+     */
+    protected SslHandler newHandler(ByteBufAllocator alloc, String peerHost, int peerPort, boolean startTls,
+                                    Executor delegatedTaskExecutor) {
+        return new SslHandler(newEngine(alloc, peerHost, peerPort), startTls, delegatedTaskExecutor);
+    }
+
     /**
      * Generates a key specification for an (encrypted) private key.
      *
@@ -1137,112 +1210,6 @@ public abstract class SslContext {
         return new GMTrustManager(trustCerts);
     }
 
-    static class GMTrustManager implements X509TrustManager {
-
-        ArrayList<X509Certificate> trustCerts;
-        private CertificateFactory certificateFactory;
-
-        public GMTrustManager(String[] trustCert) throws CertificateException {
-            // 没有设置信任证书，就不再做操作
-            if (null == trustCert || trustCert.length <= 0) {
-                return;
-            }
-            certificateFactory = CertificateFactory.getInstance("X.509", new BouncyCastleProvider());
-            trustCerts = new ArrayList<X509Certificate>(trustCert.length);
-            for (int i = 0; i < trustCert.length; i++) {
-                byte[] certBytes = Base64.decode(trustCert[i]);
-                trustCerts.add((X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(certBytes)));
-            }
-        }
-
-        @Override
-        public void checkClientTrusted(X509Certificate[] certificates, String auth) throws CertificateException {
-            System.out.println("***** auth type = " + auth + " *****");
-            System.out.println("***** start checking client trustCerts *****");
-            if (null == trustCerts || trustCerts.size() <= 0) {
-                System.out.println("***** trust all client cert *****");
-            } else {
-                // todo 国密算法中，如何处理客户端证书？
-                boolean trust = false;
-                outerLoop:for (X509Certificate x509PeerCertificate : certificates) {
-                    x509PeerCertificate = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(x509PeerCertificate.getEncoded()));
-                    for (X509Certificate x509TrustCertificate : trustCerts) {
-                        // 序列号
-                        BigInteger clientSerialNumber = x509PeerCertificate.getSerialNumber();
-                        BigInteger trustSerialNumber = x509TrustCertificate.getSerialNumber();
-                        // DN
-                        Principal clientSubjectDN = x509PeerCertificate.getSubjectDN();
-                        Principal trustSubjectDN = x509TrustCertificate.getSubjectDN();
-                        // 颁发者DN
-                        Principal clientIssuerDN = x509PeerCertificate.getIssuerDN();
-                        // 先判断是不是过期了
-                        x509PeerCertificate.checkValidity();
-                        // 判断是不是同一张证书,或者是由它颁发的
-                        if (clientSerialNumber.equals(trustSerialNumber) && clientSubjectDN.getName().equals(trustSubjectDN.getName())) {
-                            // 是同一张证书,不用再继续遍历下去了
-                            trust = true;
-                            break outerLoop;
-                        } else if (clientIssuerDN.getName().equals(trustSubjectDN.getName())) {
-                            // client证书由trust证书颁发,不用再继续遍历下去了
-                            trust = true;
-                            break outerLoop;
-                        }
-                    }
-                }
-                if (!trust) {
-                    throw new CertificateException("证书验证失败!");
-                }
-            }
-            System.out.println("***** end checking client trustCerts *****");
-        }
-
-        @Override
-        public void checkServerTrusted(X509Certificate[] certificates, String auth) throws CertificateException {
-            System.out.println("***** auth type = " + auth + " *****");
-            System.out.println("***** start checking server trustCerts *****");
-            if (null == trustCerts || trustCerts.size() <= 0) {
-                System.out.println("***** trust all server cert *****");
-            } else {
-                // todo 国密算法中，如何处理服务端证书？
-                boolean trust = false;
-                outerLoop:for (X509Certificate x509PeerCertificate : certificates) {
-                    x509PeerCertificate = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(x509PeerCertificate.getEncoded()));
-                    for (X509Certificate x509TrustCertificate : trustCerts) {
-                        // 序列号
-                        BigInteger clientSerialNumber = x509PeerCertificate.getSerialNumber();
-                        BigInteger trustSerialNumber = x509TrustCertificate.getSerialNumber();
-                        // DN
-                        Principal clientSubjectDN = x509PeerCertificate.getSubjectDN();
-                        Principal trustSubjectDN = x509TrustCertificate.getSubjectDN();
-                        // 颁发者DN
-                        Principal clientIssuerDN = x509PeerCertificate.getIssuerDN();
-                        // 先判断是不是过期了
-                        x509PeerCertificate.checkValidity();
-                        // 判断是不是同一张证书,或者是由它颁发的
-                        if (clientSerialNumber.equals(trustSerialNumber) && clientSubjectDN.getName().equals(trustSubjectDN.getName())) {
-                            // 是同一张证书,不用再继续遍历下去了
-                            trust = true;
-                            break outerLoop;
-                        } else if (clientIssuerDN.getName().equals(trustSubjectDN.getName())) {
-                            // client证书由trust证书颁发,不用再继续遍历下去了
-                            trust = true;
-                            break outerLoop;
-                        }
-                    }
-                }
-                if (!trust) {
-                    throw new CertificateException("证书验证失败!");
-                }
-            }
-            System.out.println("***** end checking server trustCerts *****");
-        }
-
-        @Override
-        public X509Certificate[] getAcceptedIssuers() {
-            return null;
-        }
-    }
-
     static PrivateKey toPrivateKeyInternal(File keyFile, String keyPassword) throws SSLException {
         try {
             return toPrivateKey(keyFile, keyPassword);
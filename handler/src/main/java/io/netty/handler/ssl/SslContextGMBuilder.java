@@ -17,12 +17,16 @@
 package io.netty.handler.ssl;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.base64.Base64;
+import io.netty.internal.tcnative.SSL;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.internal.UnstableApi;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.X509TrustManager;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
 import static io.netty.util.internal.ObjectUtil.checkNotNull;
@@ -84,18 +88,26 @@ public final class SslContextGMBuilder {
 
     private final boolean forServer;
     private String[] trustCertCollection;
+    private X509TrustManager trustManager;
     private GMCertEntry encCertEntry;
     private GMCertEntry signCertEntry;
     private String keyPassword;
+    private GMKeyMaterialProvider keyMaterialProvider;
+    private GMCertEntryCache certEntryCache;
+    // true if the entries were created by this builder, which then releases their PEM encoded material after build().
+    private boolean ownsCertEntries;
     private Iterable<String> ciphers;
     private CipherSuiteFilter cipherFilter = IdentityCipherSuiteFilter.INSTANCE;
     private ApplicationProtocolConfig apn;
     private long sessionCacheSize;
     private long sessionTimeout;
+    private OpenSslSessionTicketKeyRotator ticketKeyRotator;
     private ClientAuth clientAuth = ClientAuth.NONE;
     private String[] protocols;
     private boolean startTls;
     private boolean enableOcsp;
+    private boolean offloadPrivateKeyOperations;
+    private boolean releaseIdleBuffers;
 
     private SslContextGMBuilder(boolean forServer) {
         this.forServer = forServer;
@@ -110,7 +122,13 @@ public final class SslContextGMBuilder {
             ByteBuf[] readCertificates = PemReader.readCertificates(trustCertCollectionFile);
             String[] trustCertCollection = new String[readCertificates.length];
             for (int i = 0; i < readCertificates.length; i++) {
-                trustCertCollection[i] = readCertificates[i].toString();
+                ByteBuf encoded = Base64.encode(readCertificates[i], false);
+                try {
+                    trustCertCollection[i] = encoded.toString(CharsetUtil.US_ASCII);
+                } finally {
+                    encoded.release();
+                    readCertificates[i].release();
+                }
             }
             return trustManager(trustCertCollection);
         } catch (Exception e) {
@@ -127,6 +145,17 @@ public final class SslContextGMBuilder {
             throw new IllegalArgumentException("trustCertCollection must be non-empty");
         }
         this.trustCertCollection = trustCertCollection;
+        this.trustManager = null;
+        return this;
+    }
+
+    /**
+     * Trust manager for verifying the remote endpoint's certificate, for example a {@link GMTrustManager} that was
+     * configured with a custom cache size. <b>can not</b> be {@code null}.
+     */
+    public SslContextGMBuilder trustManager(X509TrustManager trustManager) {
+        this.trustManager = checkNotNull(trustManager, "trustManager");
+        this.trustCertCollection = null;
         return this;
     }
 
@@ -152,9 +181,13 @@ public final class SslContextGMBuilder {
         } else if (null == signKey || signKey.isEmpty()) {
             throw new IllegalArgumentException("signCertString must be non-empty");
         }
-        GMCertEntry encCertEntry = new GMCertEntry(encCert, encKey);
-        GMCertEntry signCertEntry = new GMCertEntry(signCert, signKey);
-        return keyManager(encCertEntry, signCertEntry, keyPassword);
+        GMCertEntryCache cache = certEntryCache;
+        if (cache != null) {
+            return keyManager(cache.get(encCert, encKey), cache.get(signCert, signKey), keyPassword);
+        }
+        keyManager(new GMCertEntry(encCert, encKey, true), new GMCertEntry(signCert, signKey, true), keyPassword);
+        ownsCertEntries = true;
+        return this;
     }
 
     /**
@@ -176,11 +209,13 @@ public final class SslContextGMBuilder {
             checkNotNull(encKey, "encKey required for servers");
         }
         try {
-            String encCertString = PemReader.readContent(new FileInputStream(encCert));
-            String encKeyString = PemReader.readContent(new FileInputStream(encKey));
-            String signCertString = PemReader.readContent(new FileInputStream(signCert));
-            String signKeyString = PemReader.readContent(new FileInputStream(signKey));
-            return keyManager(encCertString, encKeyString, signCertString, signKeyString, keyPassword);
+            GMCertEntryCache cache = certEntryCache;
+            if (cache != null) {
+                return keyManager(cache.get(encCert, encKey), cache.get(signCert, signKey), keyPassword);
+            }
+            keyManager(newCertEntry(encCert, encKey), newCertEntry(signCert, signKey), keyPassword);
+            ownsCertEntries = true;
+            return this;
         } catch (IOException e) {
             throw new RuntimeException("exception occured while processing cert and key", e);
         }
@@ -189,7 +224,7 @@ public final class SslContextGMBuilder {
     /**
      * Identifying info for this host. may be {@code null} for
      * client contexts, which disables mutual authentication.
-     * this only supported for  {@link SslProvider#OPENSSL}.
+     * This is only supported for {@link SslProvider#OPENSSL}.
      * @param encCertEntry cert and key for ssl encryption and decryption
      * @param signCertEntry cert and key for ssl sign and verify
      * @param keyPassword the secret key of cert keys, or {@code null} if it's not
@@ -203,6 +238,44 @@ public final class SslContextGMBuilder {
         this.encCertEntry = encCertEntry;
         this.signCertEntry = signCertEntry;
         this.keyPassword = keyPassword;
+        this.keyMaterialProvider = null;
+        this.ownsCertEntries = false;
+        return this;
+    }
+
+    private static GMCertEntry newCertEntry(File cert, File key) throws IOException {
+        if (cert == null || key == null) {
+            return null;
+        }
+        return new GMCertEntry(GMCertEntryCache.readContent(cert), GMCertEntryCache.readContent(key), true);
+    }
+
+    /**
+     * Identifying info for this host that can be replaced at runtime via
+     * {@link GMKeyMaterialProvider#reload(GMCertEntry, GMCertEntry, String)} without building a new context.
+     * The same provider may be used by more than one context.
+     * This is only supported for {@link SslProvider#OPENSSL}.
+     * @param keyMaterialProvider the provider of the cert and key pairs for ssl encryption and signature
+     */
+    @UnstableApi
+    public SslContextGMBuilder keyManager(GMKeyMaterialProvider keyMaterialProvider) {
+        this.keyMaterialProvider = checkNotNull(keyMaterialProvider, "keyMaterialProvider");
+        this.encCertEntry = null;
+        this.signCertEntry = null;
+        this.keyPassword = null;
+        this.ownsCertEntries = false;
+        return this;
+    }
+
+    /**
+     * The cache the {@code keyManager} methods that take PEM files or strings get their {@link GMCertEntry}s from, so
+     * the same cert and key are only read and encoded once for all contexts built from them. Must be set before those
+     * methods are called. {@code null}, the default, creates new entries whose PEM encoded material is released once
+     * the context was built. The cache is owned by the caller.
+     */
+    @UnstableApi
+    public SslContextGMBuilder certEntryCache(GMCertEntryCache certEntryCache) {
+        this.certEntryCache = certEntryCache;
         return this;
     }
 
@@ -252,6 +325,20 @@ public final class SslContextGMBuilder {
         return this;
     }
 
+    /**
+     * Keep the session ticket keys of the server context in sync with {@code ticketKeyRotator}, so tickets issued
+     * by other nodes that share the same key source can be used to resume sessions. {@code null} uses keys that are
+     * generated by the native library for this context only.
+     */
+    @UnstableApi
+    public SslContextGMBuilder sessionTicketKeyRotator(OpenSslSessionTicketKeyRotator ticketKeyRotator) {
+        if (!forServer && ticketKeyRotator != null) {
+            throw new IllegalArgumentException("session ticket keys are only used by servers");
+        }
+        this.ticketKeyRotator = ticketKeyRotator;
+        return this;
+    }
+
     /**
      * Sets the client authentication mode.
      */
@@ -290,18 +377,94 @@ public final class SslContextGMBuilder {
         return this;
     }
 
+    /**
+     * {@code true} if the handshake records from the remote peer, whose processing includes the SM2 private key
+     * operations, should be processed in {@linkplain SSLEngine#getDelegatedTask() delegated tasks}. Together with
+     * {@link SslContext#newHandler(io.netty.buffer.ByteBufAllocator, java.util.concurrent.Executor)} this keeps the
+     * signing and decryption of handshakes off the event loop, so established connections are not delayed by
+     * handshake floods.
+     *
+     * @see ReferenceCountedOpenSslContext#setOffloadPrivateKeyOperations(boolean)
+     */
+    @UnstableApi
+    public SslContextGMBuilder offloadPrivateKeyOperations(boolean offloadPrivateKeyOperations) {
+        this.offloadPrivateKeyOperations = offloadPrivateKeyOperations;
+        return this;
+    }
+
+    /**
+     * {@code true} if connections should release their read and write record buffers while no data is pending, which
+     * reduces the native memory of mostly idle long-lived connections.
+     *
+     * @see ReferenceCountedOpenSslContext#setReleaseIdleBuffers(boolean)
+     */
+    @UnstableApi
+    public SslContextGMBuilder releaseIdleBuffers(boolean releaseIdleBuffers) {
+        this.releaseIdleBuffers = releaseIdleBuffers;
+        return this;
+    }
+
     /**
      * Create new {@code SslContext} instance with configured settings.
      * the caller is responsible for releasing this object, or else native memory may leak.
      */
     public SslContext build() throws SSLException {
-        if (forServer) {
-            return SslContext.newServerContextInternal(trustCertCollection, encCertEntry, signCertEntry, keyPassword,
-                ciphers, cipherFilter, apn, sessionCacheSize, sessionTimeout, clientAuth, protocols, startTls,
-                enableOcsp);
-        } else {
-            return SslContext.newClientContextInternal(trustCertCollection, encCertEntry, signCertEntry, keyPassword,
-                ciphers, cipherFilter, apn, protocols, sessionCacheSize, sessionTimeout, enableOcsp);
+        GMCertEntry encCertEntry = this.encCertEntry;
+        GMCertEntry signCertEntry = this.signCertEntry;
+        String keyPassword = this.keyPassword;
+        GMKeyMaterialProvider.Material material = null;
+        if (keyMaterialProvider != null) {
+            material = keyMaterialProvider.material();
+            encCertEntry = material.encCertEntry;
+            signCertEntry = material.signCertEntry;
+            keyPassword = material.keyPassword;
+        }
+
+        final SslContext context;
+        try {
+            if (forServer) {
+                context = SslContext.newServerContextInternal(trustCertCollection, trustManager, encCertEntry,
+                    signCertEntry, keyPassword, ciphers, cipherFilter, apn, sessionCacheSize, sessionTimeout,
+                    clientAuth, protocols, startTls, enableOcsp);
+            } else {
+                context = SslContext.newClientContextInternal(trustCertCollection, trustManager, encCertEntry,
+                    signCertEntry, keyPassword, ciphers, cipherFilter, apn, protocols, sessionCacheSize,
+                    sessionTimeout, enableOcsp);
+            }
+        } finally {
+            if (ownsCertEntries) {
+                // The context holds its own copy of the material, so don't keep the key in memory until the next build.
+                release(encCertEntry);
+                release(signCertEntry);
+            }
+        }
+        if (material != null) {
+            try {
+                keyMaterialProvider.attach((ReferenceCountedOpenSslContext) context, material);
+            } catch (SSLException e) {
+                ReferenceCountUtil.release(context);
+                throw e;
+            }
+        }
+        if (ticketKeyRotator != null) {
+            ticketKeyRotator.attach(((ReferenceCountedOpenSslContext) context).sessionContext());
+        }
+        if (offloadPrivateKeyOperations) {
+            ReferenceCountedOpenSslContext openSslContext = (ReferenceCountedOpenSslContext) context;
+            openSslContext.setOffloadPrivateKeyOperations(true);
+            // The whole flight that is produced by a delegated task must fit into the BIO.
+            openSslContext.setBioNonApplicationBufferSize(
+                    Math.max(openSslContext.getBioNonApplicationBufferSize(), SSL.SSL_MAX_RECORD_LENGTH));
+        }
+        if (releaseIdleBuffers) {
+            ((ReferenceCountedOpenSslContext) context).setReleaseIdleBuffers(true);
+        }
+        return context;
+    }
+
+    private static void release(GMCertEntry entry) {
+        if (entry != null) {
+            entry.release();
         }
     }
 }
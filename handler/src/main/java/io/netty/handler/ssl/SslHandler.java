@@ -54,10 +54,9 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
@@ -183,18 +182,31 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
             new SSLException("handshake timed out"), SslHandler.class, "handshake(...)");
     private static final ClosedChannelException CHANNEL_CLOSED = ThrowableUtil.unknownStackTrace(
             new ClosedChannelException(), SslHandler.class, "channelInactive(...)");
+    private static final SSLException HANDSHAKE_REJECTED = ThrowableUtil.unknownStackTrace(
+            new SSLException("handshake rejected by the admission controller"), SslHandler.class,
+            "admitHandshake(...)");
 
     /**
      * <a href="https://tools.ietf.org/html/rfc5246#section-6.2">2^14</a> which is the maximum sized plaintext chunk
      * allowed by the TLS RFC.
      */
     private static final int MAX_PLAINTEXT_LENGTH = 16 * 1024;
+    // Fills one TCP segment on an Ethernet link together with the TCP/IP headers and the TLS record overhead.
+    private static final int DEFAULT_ADAPTIVE_INITIAL_WRAP_DATA_SIZE = 1369;
+    private static final long DEFAULT_ADAPTIVE_IDLE_RESET_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // The number of full records that are written before the record size is doubled.
+    private static final int ADAPTIVE_RECORDS_PER_STEP = 4;
 
     private enum SslEngineType {
         TCNATIVE(true, COMPOSITE_CUMULATOR) {
             @Override
             SSLEngineResult unwrap(SslHandler handler, ByteBuf in, int readerIndex, int len, ByteBuf out)
                     throws SSLException {
+                if (len > 0) {
+                    // Decrypt all records with one call instead of one record at a time.
+                    return ((ReferenceCountedOpenSslEngine) handler.engine).unwrapRecords(in.slice(readerIndex, len),
+                            out);
+                }
                 int nioBufferCount = in.nioBufferCount();
                 int writerIndex = out.writerIndex();
                 final SSLEngineResult result;
@@ -402,6 +414,21 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
     private boolean outboundClosed;
     private boolean closeNotify;
 
+    /**
+     * Set while the delegated tasks of the {@link SSLEngine} run on the {@link #delegatedTaskExecutor}. No wrap or
+     * unwrap is done until they completed.
+     */
+    private boolean processTask;
+
+    private volatile SslHandshakeAdmissionController admissionController;
+    // Set once the handshake was admitted by the admissionController, or if there is none.
+    private boolean handshakeAdmitted;
+    // Set while the handshake waits for the admissionController. No reads are requested in the meantime, so the
+    // cumulation does not grow while the engine can not consume it.
+    private AdmissionWaiter admissionWaiter;
+    // Set if autoRead was turned off while the handshake waits for the admissionController.
+    private boolean autoReadSuspended;
+
     private int packetLength;
 
     /**
@@ -414,6 +441,22 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
     private volatile long closeNotifyFlushTimeoutMillis = 3000;
     private volatile long closeNotifyReadTimeoutMillis;
     volatile int wrapDataSize = MAX_PLAINTEXT_LENGTH;
+    // The size of the first records of a burst if adaptive record sizing is used, 0 otherwise.
+    private volatile int adaptiveInitialWrapDataSize;
+    private volatile long adaptiveIdleResetNanos;
+    // Only accessed from the event loop.
+    private int adaptiveWrapDataSize;
+    private int adaptiveFullRecords;
+    private long lastWrapNanos;
+    private volatile boolean vectoredWrap;
+    private volatile boolean aggregateDecryptedReads;
+    // Decrypted data that is fired once the current read loop completed, only used if aggregateDecryptedReads is set.
+    private ByteBuf pendingDecrypted;
+    private SslHandshakeMetrics handshakeMetrics;
+    // Only set if handshakeMetrics is set, so nothing is measured otherwise.
+    private SslHandshakeTimings handshakeTimings;
+    // When the delegated tasks were handed to the delegatedTaskExecutor or their result to the event loop.
+    private long taskQueuedNanos;
 
     /**
      * Creates a new instance.
@@ -431,23 +474,30 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
      * @param startTls  {@code true} if the first write request shouldn't be
      *                  encrypted by the {@link SSLEngine}
      */
-    @SuppressWarnings("deprecation")
     public SslHandler(SSLEngine engine, boolean startTls) {
         this(engine, startTls, ImmediateExecutor.INSTANCE);
     }
 
     /**
-     * @deprecated Use {@link #SslHandler(SSLEngine)} instead.
+     * Creates a new instance.
+     *
+     * @param engine  the {@link SSLEngine} this handler will use
+     * @param delegatedTaskExecutor the {@link Executor} that will be used to execute tasks that are returned by
+     *                              {@link SSLEngine#getDelegatedTask()}. The event loop is not blocked while they run.
      */
-    @Deprecated
     public SslHandler(SSLEngine engine, Executor delegatedTaskExecutor) {
         this(engine, false, delegatedTaskExecutor);
     }
 
     /**
-     * @deprecated Use {@link #SslHandler(SSLEngine, boolean)} instead.
+     * Creates a new instance.
+     *
+     * @param engine  the {@link SSLEngine} this handler will use
+     * @param startTls  {@code true} if the first write request shouldn't be
+     *                  encrypted by the {@link SSLEngine}
+     * @param delegatedTaskExecutor the {@link Executor} that will be used to execute tasks that are returned by
+     *                              {@link SSLEngine#getDelegatedTask()}. The event loop is not blocked while they run.
      */
-    @Deprecated
     public SslHandler(SSLEngine engine, boolean startTls, Executor delegatedTaskExecutor) {
         if (engine == null) {
             throw new NullPointerException("engine");
@@ -483,6 +533,24 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         this.handshakeTimeoutMillis = handshakeTimeoutMillis;
     }
 
+    /**
+     * Sets the {@link SslHandshakeAdmissionController} that decides when the handshake of this server side handler
+     * may start. It must be set before the first bytes are received and is ignored in client mode. {@code null}
+     * starts the handshake as soon as the ClientHello was received, which is the default.
+     */
+    @UnstableApi
+    public void setHandshakeAdmissionController(SslHandshakeAdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Returns the {@link SslHandshakeAdmissionController} of this handler or {@code null} if there is none.
+     */
+    @UnstableApi
+    public SslHandshakeAdmissionController getHandshakeAdmissionController() {
+        return admissionController;
+    }
+
     /**
      * Sets the number of bytes to pass to each {@link SSLEngine#wrap(ByteBuffer[], int, int, ByteBuffer)} call.
      * <p>
@@ -506,6 +574,161 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
     @UnstableApi
     public final void setWrapDataSize(int wrapDataSize) {
         this.wrapDataSize = wrapDataSize;
+        adaptiveInitialWrapDataSize = 0;
+    }
+
+    /**
+     * Use records of about one TCP segment at the start of a burst and after an idle period of one second, and
+     * grow them up to the maximum TLS record size while the application keeps them full.
+     *
+     * @see #setAdaptiveWrapDataSize(int, long, TimeUnit)
+     */
+    @UnstableApi
+    public final void setAdaptiveWrapDataSize() {
+        setAdaptiveWrapDataSize(DEFAULT_ADAPTIVE_INITIAL_WRAP_DATA_SIZE, DEFAULT_ADAPTIVE_IDLE_RESET_NANOS,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sizes the records produced by this handler adaptively instead of using a fixed
+     * {@linkplain #setWrapDataSize(int) wrap data size}.
+     * <p>
+     * The first records of a burst contain at most {@code initialWrapDataSize} bytes, so the peer can decrypt and
+     * process the first bytes after a single round trip instead of waiting for all segments of a 16 KiB record. Each
+     * time a few records were filled completely the size is doubled, up to the maximum TLS record size, to reduce the
+     * per-record overhead of bulk transfers. Once nothing was written for {@code idleResetTimeout} the size starts
+     * at {@code initialWrapDataSize} again. Calling {@link #setWrapDataSize(int)} switches back to a fixed size.
+     *
+     * @param initialWrapDataSize the number of bytes in the first records of a burst
+     * @param idleResetTimeout the time without writes after which a burst is considered to be over
+     * @param unit the unit of {@code idleResetTimeout}
+     */
+    @UnstableApi
+    public final void setAdaptiveWrapDataSize(int initialWrapDataSize, long idleResetTimeout, TimeUnit unit) {
+        if (initialWrapDataSize <= 0 || initialWrapDataSize > MAX_PLAINTEXT_LENGTH) {
+            throw new IllegalArgumentException("initialWrapDataSize: " + initialWrapDataSize +
+                    " (expected: 1-" + MAX_PLAINTEXT_LENGTH + ')');
+        }
+        if (idleResetTimeout < 0) {
+            throw new IllegalArgumentException("idleResetTimeout: " + idleResetTimeout + " (expected: >= 0)");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        adaptiveIdleResetNanos = unit.toNanos(idleResetTimeout);
+        adaptiveInitialWrapDataSize = initialWrapDataSize;
+        wrapDataSize = MAX_PLAINTEXT_LENGTH;
+    }
+
+    /**
+     * Returns {@code true} if the size of the records is adapted to the traffic, see
+     * {@link #setAdaptiveWrapDataSize(int, long, TimeUnit)}.
+     */
+    @UnstableApi
+    public final boolean isAdaptiveWrapDataSize() {
+        return adaptiveInitialWrapDataSize > 0;
+    }
+
+    /**
+     * Returns the number of bytes that are passed to the next {@link SSLEngine#wrap(ByteBuffer[], ByteBuffer)} call.
+     */
+    private int nextWrapDataSize() {
+        final int initialWrapDataSize = adaptiveInitialWrapDataSize;
+        if (initialWrapDataSize <= 0) {
+            return wrapDataSize;
+        }
+        final long now = System.nanoTime();
+        if (adaptiveWrapDataSize == 0 || now - lastWrapNanos > adaptiveIdleResetNanos) {
+            // Start of a new burst.
+            adaptiveWrapDataSize = initialWrapDataSize;
+            adaptiveFullRecords = 0;
+        }
+        lastWrapNanos = now;
+        return adaptiveWrapDataSize;
+    }
+
+    /**
+     * Grows the adaptive wrap data size if {@code bytesConsumed} filled the last record.
+     */
+    private void recordWrapped(int bytesConsumed) {
+        if (adaptiveInitialWrapDataSize > 0 && bytesConsumed >= adaptiveWrapDataSize &&
+                adaptiveWrapDataSize < MAX_PLAINTEXT_LENGTH && ++adaptiveFullRecords >= ADAPTIVE_RECORDS_PER_STEP) {
+            adaptiveWrapDataSize = Math.min(MAX_PLAINTEXT_LENGTH, adaptiveWrapDataSize << 1);
+            adaptiveFullRecords = 0;
+        }
+    }
+
+    /**
+     * Sets if queued writes are passed to the {@link SSLEngine} as they are instead of being copied into one buffer
+     * first.
+     * <p>
+     * By default small writes are aggregated by copying them into a single buffer of up to
+     * {@linkplain #setWrapDataSize(int) wrap data size} bytes, and a {@link CompositeByteBuf} or heap buffer is
+     * copied into a direct buffer before it is passed to an {@link SSLEngine} that wants direct buffers. If enabled,
+     * the writes are only composed into a {@link CompositeByteBuf} and the components are passed to
+     * {@link SSLEngine#wrap(ByteBuffer[], ByteBuffer)} as an array. The {@link SSLEngine} then gathers them into one
+     * record itself, so every plaintext byte is copied at most once and a single direct buffer is not copied at all.
+     */
+    @UnstableApi
+    public final void setVectoredWrap(boolean vectoredWrap) {
+        this.vectoredWrap = vectoredWrap;
+    }
+
+    /**
+     * Returns {@code true} if writes are passed to the {@link SSLEngine} without copying them into one buffer first,
+     * see {@link #setVectoredWrap(boolean)}.
+     */
+    @UnstableApi
+    public final boolean isVectoredWrap() {
+        return vectoredWrap;
+    }
+
+    /**
+     * Sets if the data decrypted while handling the reads of one read loop is passed on with a single
+     * {@link ChannelHandlerContext#fireChannelRead(Object)} once the loop {@linkplain #channelReadComplete completed}
+     * instead of with one call per read. This helps protocols that receive a lot of small records, for example RPC
+     * traffic, as the handlers after this one are called less often and see more of the data at once.
+     */
+    @UnstableApi
+    public final void setAggregateDecryptedReads(boolean aggregateDecryptedReads) {
+        this.aggregateDecryptedReads = aggregateDecryptedReads;
+    }
+
+    /**
+     * Returns {@code true} if the decrypted data of a read loop is passed on at once, see
+     * {@link #setAggregateDecryptedReads(boolean)}.
+     */
+    @UnstableApi
+    public final boolean isAggregateDecryptedReads() {
+        return aggregateDecryptedReads;
+    }
+
+    /**
+     * Sets the {@link SslHandshakeMetrics} the {@link SslHandshakeTimings} of the handshake are recorded to. If
+     * {@code null}, which is the default, nothing is measured. Must be set before the handler is added to the
+     * pipeline. Handlers created by an {@link SslContext} use its {@link SslContext#handshakeMetrics()}.
+     */
+    @UnstableApi
+    public final void setHandshakeMetrics(SslHandshakeMetrics handshakeMetrics) {
+        this.handshakeMetrics = handshakeMetrics;
+    }
+
+    /**
+     * Returns the {@link SslHandshakeMetrics} the handshake is recorded to or {@code null} if none.
+     */
+    @UnstableApi
+    public final SslHandshakeMetrics handshakeMetrics() {
+        return handshakeMetrics;
+    }
+
+    /**
+     * Returns the timings of the initial handshake or {@code null} if no {@link SslHandshakeMetrics} are
+     * {@linkplain #setHandshakeMetrics(SslHandshakeMetrics) set} or the handshake did not start yet. Should only be
+     * accessed from the event loop or once the {@link #handshakeFuture()} completed.
+     */
+    @UnstableApi
+    public final SslHandshakeTimings handshakeTimings() {
+        return handshakeTimings;
     }
 
     /**
@@ -671,6 +894,8 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
     @Override
     public void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        cancelAdmission(ctx);
+        firePendingDecrypted(ctx);
         if (!pendingUnencryptedWrites.isEmpty()) {
             // Check if queue is not empty first because create a new ChannelException is expensive
             pendingUnencryptedWrites.releaseAndFailAll(ctx,
@@ -715,6 +940,10 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         if (!handshakePromise.isDone()) {
             readDuringHandshake = true;
         }
+        if (admissionWaiter != null) {
+            // Reading is resumed once the handshake was admitted.
+            return;
+        }
 
         ctx.read();
     }
@@ -784,10 +1013,10 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         boolean needUnwrap = false;
         ByteBuf buf = null;
         try {
-            final int wrapDataSize = this.wrapDataSize;
-            // Only continue to loop if the handler was not removed in the meantime.
+            // Only continue to loop if the handler was not removed in the meantime and no delegated task is running.
             // See https://github.com/netty/netty/issues/5860
-            while (!ctx.isRemoved()) {
+            outer: while (!ctx.isRemoved() && !processTask) {
+                final int wrapDataSize = nextWrapDataSize();
                 promise = ctx.newPromise();
                 buf = wrapDataSize > 0 ?
                         pendingUnencryptedWrites.remove(alloc, wrapDataSize, promise) :
@@ -801,6 +1030,7 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
                 }
 
                 SSLEngineResult result = wrap(alloc, engine, buf, out);
+                recordWrapped(result.bytesConsumed());
 
                 if (result.getStatus() == Status.CLOSED) {
                     buf.release();
@@ -824,7 +1054,10 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
                     switch (result.getHandshakeStatus()) {
                         case NEED_TASK:
-                            runDelegatedTasks();
+                            if (!runDelegatedTasks(inUnwrap)) {
+                                // The tasks run on the delegatedTaskExecutor, we continue once they completed.
+                                break outer;
+                            }
                             break;
                         case FINISHED:
                             setHandshakeSuccess();
@@ -891,9 +1124,9 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         ByteBuf out = null;
         ByteBufAllocator alloc = ctx.alloc();
         try {
-            // Only continue to loop if the handler was not removed in the meantime.
+            // Only continue to loop if the handler was not removed in the meantime and no delegated task is running.
             // See https://github.com/netty/netty/issues/5860
-            while (!ctx.isRemoved()) {
+            while (!ctx.isRemoved() && !processTask) {
                 if (out == null) {
                     // As this is called for the handshake we have no real idea how big the buffer needs to be.
                     // That said 2048 should give us enough room to include everything like ALPN / NPN data.
@@ -915,7 +1148,10 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
                         setHandshakeSuccess();
                         return false;
                     case NEED_TASK:
-                        runDelegatedTasks();
+                        if (!runDelegatedTasks(inUnwrap)) {
+                            // The tasks run on the delegatedTaskExecutor, we continue once they completed.
+                            return false;
+                        }
                         break;
                     case NEED_UNWRAP:
                         if (inUnwrap) {
@@ -969,7 +1205,7 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
             // We will call SslEngine.wrap(ByteBuffer[], ByteBuffer) to allow efficient handling of
             // CompositeByteBuf without force an extra memory copy when CompositeByteBuffer.nioBuffer() is called.
             final ByteBuffer[] in0;
-            if (in.isDirect() || !engineType.wantsDirectBuffer) {
+            if (in.isDirect() || !engineType.wantsDirectBuffer || vectoredWrap) {
                 // As CompositeByteBuf.nioBufferCount() can be expensive (as it needs to check all composed ByteBuf
                 // to calculate the count) we will just assume a CompositeByteBuf contains more then 1 ByteBuf.
                 // The worst that can happen is that we allocate an extra ByteBuffer[] in CompositeByteBuf.nioBuffers()
@@ -983,9 +1219,8 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
                     in0 = in.nioBuffers();
                 }
             } else {
-                // We could even go further here and check if its a CompositeByteBuf and if so try to decompose it and
-                // only replace the ByteBuffer that are not direct. At the moment we just will replace the whole
-                // CompositeByteBuf to keep the complexity to a minimum
+                // If vectored wrap is enabled the engine gathers the ByteBuffers itself, otherwise we just replace the
+                // whole CompositeByteBuf to keep the complexity to a minimum.
                 newDirectIn = alloc.directBuffer(readableBytes);
                 newDirectIn.writeBytes(in, readerIndex, readableBytes);
                 in0 = singleBuffer;
@@ -994,7 +1229,14 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
             for (;;) {
                 ByteBuffer out0 = out.nioBuffer(out.writerIndex(), out.writableBytes());
-                SSLEngineResult result = engine.wrap(in0, out0);
+                final SSLEngineResult result;
+                if (isMeasuringHandshake()) {
+                    long start = System.nanoTime();
+                    result = engine.wrap(in0, out0);
+                    handshakeTimings.addEngineNanos(System.nanoTime() - start);
+                } else {
+                    result = engine.wrap(in0, out0);
+                }
                 in.skipBytes(result.bytesConsumed());
                 out.writerIndex(out.writerIndex() + result.bytesProduced());
 
@@ -1018,6 +1260,8 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        cancelAdmission(ctx);
+        firePendingDecrypted(ctx);
         // Make sure to release SSLEngine,
         // and notify the handshake future if the connection has been closed during handshake.
         setHandshakeFailure(ctx, CHANNEL_CLOSED, !outboundClosed, handshakeStarted, false);
@@ -1193,6 +1437,7 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
     }
 
     private void handleUnwrapThrowable(ChannelHandlerContext ctx, Throwable cause) {
+        firePendingDecrypted(ctx);
         try {
             // We should attempt to notify the handshake failure before writing any pending data. If we are in unwrap
             // and failed during the handshake process, and we attempt to wrap, then promises will fail, and if
@@ -1217,6 +1462,17 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws SSLException {
+        if (handshakeTimings != null && !handshakeTimings.isHelloReceived()) {
+            // Only the first read of the handshake is recorded, so later reads do not need the time.
+            handshakeTimings.helloReceived(System.nanoTime());
+        }
+        if (processTask) {
+            // The engine can not consume anything before the delegated tasks completed.
+            return;
+        }
+        if (!handshakeAdmitted && !admitHandshake(ctx, in)) {
+            return;
+        }
         if (jdkCompatibilityMode) {
             decodeJdkCompatible(ctx, in);
         } else {
@@ -1224,8 +1480,132 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         }
     }
 
+    /**
+     * Asks the {@link #admissionController} if the handshake may start once the ClientHello was received.
+     *
+     * @return {@code true} if the data in {@code in} may be fed to the {@link SSLEngine}.
+     */
+    private boolean admitHandshake(ChannelHandlerContext ctx, ByteBuf in) {
+        SslHandshakeAdmissionController controller = admissionController;
+        if (controller == null || engine.getUseClientMode()) {
+            handshakeAdmitted = true;
+            return true;
+        }
+        if (admissionWaiter != null) {
+            // Still waiting.
+            return false;
+        }
+        int type = SslHandshakeAdmissionController.classify(in);
+        if (type == SslHandshakeAdmissionController.NEED_MORE_DATA) {
+            return false;
+        }
+        AdmissionWaiter waiter = new AdmissionWaiter(ctx, in.getUnsignedShort(in.readerIndex() + 1));
+        switch (controller.acquire(type == SslHandshakeAdmissionController.RESUMPTION, waiter)) {
+            case SslHandshakeAdmissionController.ADMITTED:
+                handshakeAdmitted = true;
+                return true;
+            case SslHandshakeAdmissionController.QUEUED:
+                admissionWaiter = waiter;
+                suspendReads(ctx);
+                return false;
+            default:
+                rejectHandshake(ctx, waiter.recordVersion);
+                return false;
+        }
+    }
+
+    private void rejectHandshake(ChannelHandlerContext ctx, int recordVersion) {
+        // The engine never saw the data, so there is nothing to unwrap.
+        ByteBuf cumulation = internalBuffer();
+        cumulation.skipBytes(cumulation.readableBytes());
+        ctx.write(SslHandshakeAdmissionController.newRejectionAlert(ctx.alloc(), recordVersion));
+        setHandshakeFailure(ctx, HANDSHAKE_REJECTED, true, true, true);
+    }
+
+    private void cancelAdmission(ChannelHandlerContext ctx) {
+        AdmissionWaiter waiter = admissionWaiter;
+        if (waiter != null) {
+            admissionWaiter = null;
+            admissionController.cancel(waiter);
+            resumeReads(ctx);
+        }
+    }
+
+    private void suspendReads(ChannelHandlerContext ctx) {
+        ChannelConfig config = ctx.channel().config();
+        if (config.isAutoRead()) {
+            config.setAutoRead(false);
+            autoReadSuspended = true;
+        }
+    }
+
+    private void resumeReads(ChannelHandlerContext ctx) {
+        if (autoReadSuspended) {
+            autoReadSuspended = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Continues with the handshake on the event loop once the {@link #admissionController} made its decision.
+     */
+    private final class AdmissionWaiter extends SslHandshakeAdmissionController.Waiter {
+        private final ChannelHandlerContext ctx;
+        final int recordVersion;
+
+        AdmissionWaiter(ChannelHandlerContext ctx, int recordVersion) {
+            this.ctx = ctx;
+            this.recordVersion = recordVersion;
+        }
+
+        @Override
+        void admitted() {
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (admissionWaiter != AdmissionWaiter.this) {
+                        // Cancelled in the meantime.
+                        return;
+                    }
+                    admissionWaiter = null;
+                    handshakeAdmitted = true;
+                    resumeReads(ctx);
+                    decodeAgain(ctx);
+                }
+            });
+        }
+
+        @Override
+        void rejected() {
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (admissionWaiter != AdmissionWaiter.this) {
+                        return;
+                    }
+                    admissionWaiter = null;
+                    resumeReads(ctx);
+                    rejectHandshake(ctx, recordVersion);
+                }
+            });
+        }
+    }
+
+    /**
+     * Feeds the data that was received while we could not process it to the {@link SSLEngine}.
+     */
+    private void decodeAgain(ChannelHandlerContext ctx) {
+        try {
+            channelRead(ctx, Unpooled.EMPTY_BUFFER);
+            channelReadComplete(ctx);
+        } catch (Throwable cause) {
+            ctx.fireExceptionCaught(cause);
+        }
+    }
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        firePendingDecrypted(ctx);
         // Discard bytes of the cumulation buffer if needed.
         discardSomeReadBytes();
 
@@ -1238,7 +1618,8 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
     private void readIfNeeded(ChannelHandlerContext ctx) {
         // If handshake is not finished yet, we need more data.
-        if (!ctx.channel().config().isAutoRead() && (!firedChannelRead || !handshakePromise.isDone())) {
+        if (admissionWaiter == null && !ctx.channel().config().isAutoRead() &&
+                (!firedChannelRead || !handshakePromise.isDone())) {
             // No auto-read used and no message passed through the ChannelPipeline or the handshake was not complete
             // yet, which means we need to trigger the read to ensure we not encounter any stalls.
             ctx.read();
@@ -1269,10 +1650,17 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         int overflowReadableBytes = -1;
         ByteBuf decodeOut = allocate(ctx, length);
         try {
-            // Only continue to loop if the handler was not removed in the meantime.
+            // Only continue to loop if the handler was not removed in the meantime and no delegated task is running.
             // See https://github.com/netty/netty/issues/5860
-            unwrapLoop: while (!ctx.isRemoved()) {
-                final SSLEngineResult result = engineType.unwrap(this, packet, offset, length, decodeOut);
+            unwrapLoop: while (!ctx.isRemoved() && !processTask) {
+                final SSLEngineResult result;
+                if (isMeasuringHandshake()) {
+                    long start = System.nanoTime();
+                    result = engineType.unwrap(this, packet, offset, length, decodeOut);
+                    handshakeTimings.addEngineNanos(System.nanoTime() - start);
+                } else {
+                    result = engineType.unwrap(this, packet, offset, length, decodeOut);
+                }
                 final Status status = result.getStatus();
                 final HandshakeStatus handshakeStatus = result.getHandshakeStatus();
                 final int produced = result.bytesProduced();
@@ -1289,8 +1677,7 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
                     overflowReadableBytes = readableBytes;
                     int bufferSize = engine.getSession().getApplicationBufferSize() - readableBytes;
                     if (readableBytes > 0) {
-                        firedChannelRead = true;
-                        ctx.fireChannelRead(decodeOut);
+                        fireDecrypted(ctx, decodeOut);
 
                         // This buffer was handled, null it out.
                         decodeOut = null;
@@ -1340,7 +1727,12 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
                         }
                         break;
                     case NEED_TASK:
-                        runDelegatedTasks();
+                        if (!runDelegatedTasks(true)) {
+                            // The tasks run on the delegatedTaskExecutor, we continue once they completed. Anything
+                            // that needs to be wrapped is wrapped then as well.
+                            wrapLater = false;
+                            break unwrapLoop;
+                        }
                         break;
                     case FINISHED:
                         setHandshakeSuccess();
@@ -1397,14 +1789,13 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
             }
 
             if (notifyClosure) {
+                firePendingDecrypted(ctx);
                 notifyClosePromise(null);
             }
         } finally {
             if (decodeOut != null) {
                 if (decodeOut.isReadable()) {
-                    firedChannelRead = true;
-
-                    ctx.fireChannelRead(decodeOut);
+                    fireDecrypted(ctx, decodeOut);
                 } else {
                     decodeOut.release();
                 }
@@ -1413,6 +1804,34 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         return originalLength - length;
     }
 
+    private void fireDecrypted(ChannelHandlerContext ctx, ByteBuf decrypted) {
+        firedChannelRead = true;
+        if (!aggregateDecryptedReads || !ctx.channel().isActive()) {
+            firePendingDecrypted(ctx);
+            ctx.fireChannelRead(decrypted);
+            return;
+        }
+        ByteBuf pending = pendingDecrypted;
+        if (pending == null) {
+            pendingDecrypted = decrypted;
+            return;
+        }
+        if (!(pending instanceof CompositeByteBuf)) {
+            CompositeByteBuf composite = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+            composite.addComponent(true, pending);
+            pendingDecrypted = pending = composite;
+        }
+        ((CompositeByteBuf) pending).addComponent(true, decrypted);
+    }
+
+    private void firePendingDecrypted(ChannelHandlerContext ctx) {
+        ByteBuf pending = pendingDecrypted;
+        if (pending != null) {
+            pendingDecrypted = null;
+            ctx.fireChannelRead(pending);
+        }
+    }
+
     private static ByteBuffer toByteBuffer(ByteBuf out, int index, int len) {
         return out.nioBufferCount() == 1 ? out.internalNioBuffer(index, len) :
                 out.nioBuffer(index, len);
@@ -1420,63 +1839,150 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
     /**
      * Fetches all delegated tasks from the {@link SSLEngine} and runs them via the {@link #delegatedTaskExecutor}.
-     * If the {@link #delegatedTaskExecutor} is {@link ImmediateExecutor}, just call {@link Runnable#run()} directly
-     * instead of using {@link Executor#execute(Runnable)}.  Otherwise, run the tasks via
-     * the {@link #delegatedTaskExecutor} and wait until the tasks are finished.
+     * If the {@link #delegatedTaskExecutor} is {@link ImmediateExecutor} or the {@link EventExecutor} we are running
+     * in, just call {@link Runnable#run()} directly instead of using {@link Executor#execute(Runnable)}. Otherwise,
+     * run the tasks via the {@link #delegatedTaskExecutor} and resume the handshake on the event loop once they
+     * completed, without waiting for them.
+     *
+     * @return {@code true} if the tasks were run directly, {@code false} if they were handed to the
+     *         {@link #delegatedTaskExecutor}.
      */
-    private void runDelegatedTasks() {
-        if (delegatedTaskExecutor == ImmediateExecutor.INSTANCE) {
+    private boolean runDelegatedTasks(boolean inUnwrap) {
+        if (delegatedTaskExecutor == ImmediateExecutor.INSTANCE || inEventLoop(delegatedTaskExecutor)) {
+            long start = isMeasuringHandshake() ? System.nanoTime() : 0;
             for (;;) {
                 Runnable task = engine.getDelegatedTask();
                 if (task == null) {
-                    break;
+                    if (start != 0) {
+                        handshakeTimings.addEngineNanos(System.nanoTime() - start);
+                    }
+                    return true;
                 }
-
                 task.run();
             }
-        } else {
-            final List<Runnable> tasks = new ArrayList<Runnable>(2);
-            for (;;) {
-                final Runnable task = engine.getDelegatedTask();
-                if (task == null) {
-                    break;
-                }
+        }
+        executeDelegatedTasks(inUnwrap);
+        return false;
+    }
 
-                tasks.add(task);
-            }
+    private boolean isMeasuringHandshake() {
+        return handshakeTimings != null && !handshakeTimings.isFinished();
+    }
 
-            if (tasks.isEmpty()) {
-                return;
-            }
+    private void executeDelegatedTasks(boolean inUnwrap) {
+        if (isMeasuringHandshake()) {
+            taskQueuedNanos = System.nanoTime();
+        }
+        processTask = true;
+        try {
+            delegatedTaskExecutor.execute(new SslTasksRunner(inUnwrap));
+        } catch (RejectedExecutionException e) {
+            processTask = false;
+            throw e;
+        }
+    }
 
-            final CountDownLatch latch = new CountDownLatch(1);
-            delegatedTaskExecutor.execute(new Runnable() {
+    private static boolean inEventLoop(Executor executor) {
+        return executor instanceof EventExecutor && ((EventExecutor) executor).inEventLoop();
+    }
+
+    /**
+     * Runs all delegated tasks of the {@link SSLEngine} on the {@link #delegatedTaskExecutor} and continues with
+     * whatever the engine needs next on the event loop.
+     */
+    private final class SslTasksRunner implements Runnable {
+        private final boolean inUnwrap;
+
+        SslTasksRunner(boolean inUnwrap) {
+            this.inUnwrap = inUnwrap;
+        }
+
+        @Override
+        public void run() {
+            // The event loop does not touch the timings until it continues below.
+            final boolean measure = isMeasuringHandshake();
+            long start = 0;
+            if (measure) {
+                start = System.nanoTime();
+                handshakeTimings.addTaskQueueNanos(start - taskQueuedNanos);
+            }
+            Throwable error = null;
+            try {
+                for (;;) {
+                    Runnable task = engine.getDelegatedTask();
+                    if (task == null) {
+                        break;
+                    }
+                    task.run();
+                }
+            } catch (Throwable cause) {
+                error = cause;
+            }
+            if (measure) {
+                taskQueuedNanos = System.nanoTime();
+                handshakeTimings.addEngineNanos(taskQueuedNanos - start);
+            }
+            final Throwable cause = error;
+            ctx.executor().execute(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        for (Runnable task: tasks) {
-                            task.run();
-                        }
-                    } catch (Exception e) {
-                        ctx.fireExceptionCaught(e);
-                    } finally {
-                        latch.countDown();
+                    if (measure) {
+                        handshakeTimings.addTaskQueueNanos(System.nanoTime() - taskQueuedNanos);
+                    }
+                    processTask = false;
+                    if (ctx.isRemoved()) {
+                        return;
+                    }
+                    if (cause == null) {
+                        resume();
+                    } else {
+                        taskError(cause);
                     }
                 }
             });
+        }
 
-            boolean interrupted = false;
-            while (latch.getCount() != 0) {
-                try {
-                    latch.await();
-                } catch (InterruptedException e) {
-                    // Interrupt later.
-                    interrupted = true;
+        private void resume() {
+            try {
+                HandshakeStatus status = engine.getHandshakeStatus();
+                switch (status) {
+                    case NEED_TASK:
+                        executeDelegatedTasks(inUnwrap);
+                        return;
+                    case NEED_WRAP:
+                        wrapNonAppData(ctx, false);
+                        break;
+                    case NEED_UNWRAP:
+                        // The task may have completed the handshake already, whatever is left in the cumulation is
+                        // fed to the engine below.
+                        unwrapNonAppData(ctx);
+                        break;
+                    case FINISHED:
+                    case NOT_HANDSHAKING:
+                        setHandshakeSuccessIfStillHandshaking();
+                        wrap(ctx, false);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown handshake status: " + status);
                 }
+                forceFlush(ctx);
+            } catch (Throwable cause) {
+                taskError(cause);
+                return;
             }
+            decodeAgain(ctx);
+        }
 
-            if (interrupted) {
-                Thread.currentThread().interrupt();
+        private void taskError(Throwable cause) {
+            if (inUnwrap) {
+                try {
+                    handleUnwrapThrowable(ctx, cause);
+                } catch (Throwable t) {
+                    ctx.fireExceptionCaught(t);
+                }
+            } else {
+                setHandshakeFailure(ctx, cause);
+                forceFlush(ctx);
             }
         }
     }
@@ -1637,6 +2143,9 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
 
     private void startHandshakeProcessing() {
         handshakeStarted = true;
+        if (handshakeMetrics != null && handshakeTimings == null) {
+            startHandshakeTimings();
+        }
         if (engine.getUseClientMode()) {
             // Begin the initial handshake.
             // channelActive() event has been fired already, which means this.channelActive() will
@@ -1647,6 +2156,27 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         }
     }
 
+    private void startHandshakeTimings() {
+        final SslHandshakeMetrics metrics = handshakeMetrics;
+        final SslHandshakeTimings timings = new SslHandshakeTimings(System.nanoTime());
+        handshakeTimings = timings;
+        if (engine instanceof ReferenceCountedOpenSslEngine) {
+            ((ReferenceCountedOpenSslEngine) engine).handshakeTimings = timings;
+        }
+        // The listener is notified right away on the event loop, so the end of the handshake is measured exactly.
+        handshakePromise.addListener(new FutureListener<Channel>() {
+            @Override
+            public void operationComplete(Future<Channel> future) {
+                if (future.isSuccess()) {
+                    timings.finished(System.nanoTime());
+                    metrics.record(timings);
+                } else {
+                    metrics.recordFailure();
+                }
+            }
+        });
+    }
+
     /**
      * Performs TLS renegotiation.
      */
@@ -1912,22 +2442,27 @@ public class SslHandler extends ByteToMessageDecoder implements ChannelOutboundH
         @Override
         protected ByteBuf compose(ByteBufAllocator alloc, ByteBuf cumulation, ByteBuf next) {
             final int wrapDataSize = SslHandler.this.wrapDataSize;
+            final boolean vectoredWrap = SslHandler.this.vectoredWrap;
             if (cumulation instanceof CompositeByteBuf) {
                 CompositeByteBuf composite = (CompositeByteBuf) cumulation;
                 int numComponents = composite.numComponents();
-                if (numComponents == 0 ||
+                if (vectoredWrap || numComponents == 0 ||
                         !attemptCopyToCumulation(composite.internalComponent(numComponents - 1), next, wrapDataSize)) {
                     composite.addComponent(true, next);
                 }
                 return composite;
             }
+            if (vectoredWrap) {
+                // The engine gathers the components, so there is no need to copy.
+                return composeIntoComposite(alloc, cumulation, next);
+            }
             return attemptCopyToCumulation(cumulation, next, wrapDataSize) ? cumulation :
                     copyAndCompose(alloc, cumulation, next);
         }
 
         @Override
         protected ByteBuf composeFirst(ByteBufAllocator allocator, ByteBuf first) {
-            if (first instanceof CompositeByteBuf) {
+            if (first instanceof CompositeByteBuf && !vectoredWrap) {
                 CompositeByteBuf composite = (CompositeByteBuf) first;
                 first = allocator.directBuffer(composite.readableBytes());
                 try {
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.UnstableApi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+import static io.netty.util.internal.ObjectUtil.checkPositive;
+import static io.netty.util.internal.ObjectUtil.checkPositiveOrZero;
+
+/**
+ * Limits the rate at which server side {@link SslHandler}s start handshakes, so a reconnect storm can not starve the
+ * established connections of an {@link EventExecutorGroup}. One instance is meant to be shared by all
+ * {@link SslHandler}s of a group, see
+ * {@link SslHandler#setHandshakeAdmissionController(SslHandshakeAdmissionController)}.
+ * <p>
+ * Handshakes are admitted by a token bucket that is refilled with {@code handshakesPerSecond} tokens per second and
+ * holds up to {@code burst} tokens. A handshake that finds the bucket empty waits in a queue of at most
+ * {@code maxQueueSize} entries for up to {@code maxWait}. Clients that try to resume a session, which is much cheaper
+ * than a full handshake, are admitted before all waiting full handshakes and may take the place of the most recently
+ * queued full handshake if the queue is full. Handshakes that can not be queued or waited too long are rejected
+ * before the {@link javax.net.ssl.SSLEngine} saw any of their data: the client receives a fatal
+ * {@code internal_error} alert and the connection is closed.
+ */
+@UnstableApi
+public final class SslHandshakeAdmissionController {
+
+    static final int NEED_MORE_DATA = 0;
+    static final int FULL_HANDSHAKE = 1;
+    static final int RESUMPTION = 2;
+
+    static final int ADMITTED = 0;
+    static final int QUEUED = 1;
+    static final int REJECTED = 2;
+
+    private static final int HANDSHAKE_TYPE_CLIENT_HELLO = 1;
+    private static final int EXTENSION_SESSION_TICKET = 35;
+    private static final int ALERT_LEVEL_FATAL = 2;
+    private static final int ALERT_INTERNAL_ERROR = 80;
+
+    private final EventExecutorGroup group;
+    private final double tokensPerNano;
+    private final double burst;
+    private final int maxQueueSize;
+    private final long maxWaitNanos;
+
+    // All guarded by this.
+    private final ArrayDeque<Waiter> resumptions = new ArrayDeque<Waiter>();
+    private final ArrayDeque<Waiter> fullHandshakes = new ArrayDeque<Waiter>();
+    private double tokens;
+    private long lastRefillNanos;
+    private boolean drainScheduled;
+
+    private final LongCounter admitted = PlatformDependent.newLongCounter();
+    private final LongCounter admittedResumptions = PlatformDependent.newLongCounter();
+    private final LongCounter queued = PlatformDependent.newLongCounter();
+    private final LongCounter rejected = PlatformDependent.newLongCounter();
+    private final LongCounter timedOut = PlatformDependent.newLongCounter();
+    private final LongCounter totalWaitTimeNanos = PlatformDependent.newLongCounter();
+    private final AtomicLong maxWaitTimeNanos = new AtomicLong();
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Create a new instance.
+     *
+     * @param group the group whose handshakes are controlled, used to admit queued handshakes once tokens are
+     *              available again
+     * @param handshakesPerSecond the rate at which tokens are added to the bucket
+     * @param burst the number of tokens the bucket holds, which is the number of handshakes that are admitted at once
+     *              after a quiet period
+     * @param maxQueueSize the number of handshakes that may wait for a token, {@code 0} rejects them right away
+     * @param maxWait the time a handshake may wait for a token before it is rejected
+     * @param unit the unit of {@code maxWait}
+     */
+    public SslHandshakeAdmissionController(EventExecutorGroup group, double handshakesPerSecond, int burst,
+                                           int maxQueueSize, long maxWait, TimeUnit unit) {
+        this.group = checkNotNull(group, "group");
+        if (!(handshakesPerSecond > 0)) {
+            throw new IllegalArgumentException("handshakesPerSecond: " + handshakesPerSecond + " (expected: > 0)");
+        }
+        tokensPerNano = handshakesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = checkPositive(burst, "burst");
+        this.maxQueueSize = checkPositiveOrZero(maxQueueSize, "maxQueueSize");
+        maxWaitNanos = checkNotNull(unit, "unit").toNanos(checkPositiveOrZero(maxWait, "maxWait"));
+        tokens = burst;
+        lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the number of handshakes that currently wait for a token.
+     */
+    public synchronized int queueDepth() {
+        return resumptions.size() + fullHandshakes.size();
+    }
+
+    /**
+     * Returns the number of handshakes that were admitted, either right away or after waiting.
+     */
+    public long admitted() {
+        return admitted.value();
+    }
+
+    /**
+     * Returns the number of admitted handshakes whose client tried to resume a session.
+     */
+    public long admittedResumptions() {
+        return admittedResumptions.value();
+    }
+
+    /**
+     * Returns the number of handshakes that had to wait for a token.
+     */
+    public long queued() {
+        return queued.value();
+    }
+
+    /**
+     * Returns the number of handshakes that were rejected, including the ones that {@link #timedOut()}.
+     */
+    public long rejected() {
+        return rejected.value();
+    }
+
+    /**
+     * Returns the number of handshakes that were rejected because they waited longer than {@code maxWait}.
+     */
+    public long timedOut() {
+        return timedOut.value();
+    }
+
+    /**
+     * Returns the time queued handshakes waited until they were admitted in total.
+     */
+    public long totalWaitTimeNanos() {
+        return totalWaitTimeNanos.value();
+    }
+
+    /**
+     * Returns the longest time a queued handshake waited until it was admitted.
+     */
+    public long maxWaitTimeNanos() {
+        return maxWaitTimeNanos.get();
+    }
+
+    /**
+     * Tries to admit a handshake.
+     *
+     * @return {@link #ADMITTED} if the handshake may start right away, {@link #QUEUED} if {@code waiter} will be
+     *         notified later, or {@link #REJECTED}.
+     */
+    int acquire(boolean resumption, Waiter waiter) {
+        Waiter displaced = null;
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            // Resumptions only wait behind other resumptions.
+            boolean noneWaiting = resumptions.isEmpty() && (resumption || fullHandshakes.isEmpty());
+            if (noneWaiting && tokens >= 1) {
+                tokens--;
+                admitted(resumption, 0);
+                return ADMITTED;
+            }
+            if (maxWaitNanos == 0 || queueDepth() >= maxQueueSize) {
+                if (!resumption || fullHandshakes.isEmpty()) {
+                    rejected.increment();
+                    return REJECTED;
+                }
+                displaced = fullHandshakes.pollLast();
+            }
+            waiter.resumption = resumption;
+            waiter.queuedNanos = now;
+            (resumption ? resumptions : fullHandshakes).add(waiter);
+            queued.increment();
+            scheduleDrain(now);
+        }
+        if (displaced != null) {
+            rejected.increment();
+            displaced.rejected();
+        }
+        return QUEUED;
+    }
+
+    /**
+     * Removes {@code waiter} from the queue, for example because its channel was closed.
+     */
+    synchronized void cancel(Waiter waiter) {
+        if (!resumptions.remove(waiter)) {
+            fullHandshakes.remove(waiter);
+        }
+    }
+
+    private void drain() {
+        List<Waiter> admit = null;
+        List<Waiter> reject = null;
+        synchronized (this) {
+            drainScheduled = false;
+            long now = System.nanoTime();
+            refill(now);
+            reject = expire(resumptions, now, expire(fullHandshakes, now, null));
+            while (tokens >= 1) {
+                Waiter waiter = resumptions.poll();
+                if (waiter == null) {
+                    waiter = fullHandshakes.poll();
+                    if (waiter == null) {
+                        break;
+                    }
+                }
+                tokens--;
+                admitted(waiter.resumption, now - waiter.queuedNanos);
+                if (admit == null) {
+                    admit = new ArrayList<Waiter>();
+                }
+                admit.add(waiter);
+            }
+            if (!resumptions.isEmpty() || !fullHandshakes.isEmpty()) {
+                scheduleDrain(now);
+            }
+        }
+        // Notify outside of the lock.
+        if (reject != null) {
+            for (Waiter waiter: reject) {
+                waiter.rejected();
+            }
+        }
+        if (admit != null) {
+            for (Waiter waiter: admit) {
+                waiter.admitted();
+            }
+        }
+    }
+
+    private List<Waiter> expire(ArrayDeque<Waiter> queue, long now, List<Waiter> expired) {
+        // The queues are ordered by the time the handshakes were queued.
+        for (;;) {
+            Waiter waiter = queue.peek();
+            if (waiter == null || now - waiter.queuedNanos < maxWaitNanos) {
+                return expired;
+            }
+            queue.poll();
+            rejected.increment();
+            timedOut.increment();
+            if (expired == null) {
+                expired = new ArrayList<Waiter>();
+            }
+            expired.add(waiter);
+        }
+    }
+
+    private void scheduleDrain(long now) {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        long untilToken = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        long untilExpiry = Long.MAX_VALUE;
+        Waiter oldest = oldestWaiter();
+        if (oldest != null) {
+            untilExpiry = Math.max(0, oldest.queuedNanos + maxWaitNanos - now);
+        }
+        group.next().schedule(drainTask, Math.min(untilToken, untilExpiry), TimeUnit.NANOSECONDS);
+    }
+
+    private Waiter oldestWaiter() {
+        Waiter resumption = resumptions.peek();
+        Waiter fullHandshake = fullHandshakes.peek();
+        if (resumption == null) {
+            return fullHandshake;
+        }
+        if (fullHandshake == null) {
+            return resumption;
+        }
+        return resumption.queuedNanos - fullHandshake.queuedNanos <= 0 ? resumption : fullHandshake;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+
+    private void admitted(boolean resumption, long waitNanos) {
+        admitted.increment();
+        if (resumption) {
+            admittedResumptions.increment();
+        }
+        if (waitNanos > 0) {
+            totalWaitTimeNanos.add(waitNanos);
+            for (;;) {
+                long max = maxWaitTimeNanos.get();
+                if (waitNanos <= max || maxWaitTimeNanos.compareAndSet(max, waitNanos)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inspects the first record in {@code in} without changing its indices and returns {@link #RESUMPTION} if it
+     * is a ClientHello that offers a session ID or a session ticket, {@link #FULL_HANDSHAKE} for everything else,
+     * or {@link #NEED_MORE_DATA}.
+     */
+    static int classify(ByteBuf in) {
+        final int readerIndex = in.readerIndex();
+        final int readableBytes = in.readableBytes();
+        if (readableBytes < SslUtils.SSL_RECORD_HEADER_LENGTH) {
+            return NEED_MORE_DATA;
+        }
+        if (in.getUnsignedByte(readerIndex) != SslUtils.SSL_CONTENT_TYPE_HANDSHAKE) {
+            return FULL_HANDSHAKE;
+        }
+        final int packetLength = in.getUnsignedShort(readerIndex + 3) + SslUtils.SSL_RECORD_HEADER_LENGTH;
+        if (readableBytes < packetLength) {
+            return NEED_MORE_DATA;
+        }
+
+        // See https://tools.ietf.org/html/rfc5246#section-7.4.1.2
+        final int endOffset = readerIndex + packetLength;
+        int offset = readerIndex + SslUtils.SSL_RECORD_HEADER_LENGTH;
+        if (endOffset - offset < 39 || in.getUnsignedByte(offset) != HANDSHAKE_TYPE_CLIENT_HELLO) {
+            return FULL_HANDSHAKE;
+        }
+        offset += 38;
+        final int sessionIdLength = in.getUnsignedByte(offset);
+        if (sessionIdLength > 0) {
+            return RESUMPTION;
+        }
+        offset++;
+        // cipher_suites and compression_methods
+        if (endOffset - offset < 2) {
+            return FULL_HANDSHAKE;
+        }
+        offset += in.getUnsignedShort(offset) + 2;
+        if (endOffset - offset < 1) {
+            return FULL_HANDSHAKE;
+        }
+        offset += in.getUnsignedByte(offset) + 1;
+        if (endOffset - offset < 2) {
+            return FULL_HANDSHAKE;
+        }
+        final int extensionsLimit = Math.min(endOffset, offset + 2 + in.getUnsignedShort(offset));
+        offset += 2;
+        while (extensionsLimit - offset >= 4) {
+            final int extensionType = in.getUnsignedShort(offset);
+            final int extensionLength = in.getUnsignedShort(offset + 2);
+            if (extensionType == EXTENSION_SESSION_TICKET) {
+                return extensionLength > 0 ? RESUMPTION : FULL_HANDSHAKE;
+            }
+            offset += 4 + extensionLength;
+        }
+        return FULL_HANDSHAKE;
+    }
+
+    /**
+     * Returns a fatal {@code internal_error} alert record that is sent to clients whose handshake is rejected.
+     *
+     * @param recordVersion the version of the record the client sent, so GM clients get a GMTLS record
+     */
+    static ByteBuf newRejectionAlert(ByteBufAllocator alloc, int recordVersion) {
+        ByteBuf alert = alloc.buffer(SslUtils.SSL_RECORD_HEADER_LENGTH + 2);
+        alert.writeByte(SslUtils.SSL_CONTENT_TYPE_ALERT);
+        alert.writeShort(recordVersion);
+        alert.writeShort(2);
+        alert.writeByte(ALERT_LEVEL_FATAL);
+        alert.writeByte(ALERT_INTERNAL_ERROR);
+        return alert;
+    }
+
+    /**
+     * A handshake that waits for a token. The methods are called from an arbitrary thread.
+     */
+    abstract static class Waiter {
+        boolean resumption;
+        long queuedNanos;
+
+        abstract void admitted();
+
+        abstract void rejected();
+    }
+}
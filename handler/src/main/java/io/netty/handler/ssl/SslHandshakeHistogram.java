@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.UnstableApi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds in the spirit of HdrHistogram. Values are counted in buckets whose width
+ * grows with the value, every power of two is split into {@value #SUB_BUCKETS} buckets, so every recorded value is
+ * reported with a relative error of less than {@code 1 / }{@value #SUB_BUCKETS}. Recording is lock-free and does not
+ * allocate, so it can be shared by all connections of an {@link SslContext}.
+ */
+@UnstableApi
+public final class SslHandshakeHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongCounter count = PlatformDependent.newLongCounter();
+    private final LongCounter totalNanos = PlatformDependent.newLongCounter();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    SslHandshakeHistogram() { }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        for (;;) {
+            long max = maxNanos.get();
+            if (nanos <= max || maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value that is counted in the bucket with the given index.
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long count() {
+        return count.value();
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     */
+    public long totalNanos() {
+        return totalNanos.value();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     */
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the mean of all recorded values or {@code 0} if nothing was recorded yet.
+     */
+    public double meanNanos() {
+        long count = count();
+        return count == 0 ? 0 : (double) totalNanos() / count;
+    }
+
+    /**
+     * Returns the value below which {@code percentile} percent of the recorded values fall, for example
+     * {@code valueAtPercentile(99)} for the 99th percentile. The returned value is the largest value of the bucket it
+     * was counted in, but never larger than {@link #maxNanos()}.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile: " + percentile + " (expected: 0-100)");
+        }
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    @Override
+    public String toString() {
+        return "SslHandshakeHistogram(count: " + count() + ", mean: " + (long) meanNanos() +
+                "ns, p50: " + valueAtPercentile(50) + "ns, p99: " + valueAtPercentile(99) +
+                "ns, max: " + maxNanos() + "ns)";
+    }
+}
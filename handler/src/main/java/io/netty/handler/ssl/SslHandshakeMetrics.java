@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.UnstableApi;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Aggregates the {@link SslHandshakeTimings} of all successful handshakes of the {@link SslHandler}s it is
+ * {@linkplain SslHandler#setHandshakeMetrics(SslHandshakeMetrics) set on} into one {@link SslHandshakeHistogram}
+ * per {@link Phase}. Usually this is done for all handlers of an {@link SslContext}, see
+ * {@link SslContext#setHandshakeMetricsEnabled(boolean)} and {@link SslContext#handshakeMetrics()}.
+ */
+@UnstableApi
+public final class SslHandshakeMetrics {
+
+    /**
+     * The phases of a handshake, see {@link SslHandshakeTimings}.
+     */
+    public enum Phase {
+        /**
+         * See {@link SslHandshakeTimings#helloNanos()}.
+         */
+        HELLO,
+        /**
+         * See {@link SslHandshakeTimings#keyExchangeNanos()}.
+         */
+        KEY_EXCHANGE,
+        /**
+         * See {@link SslHandshakeTimings#certificateVerifyNanos()}.
+         */
+        CERTIFICATE_VERIFY,
+        /**
+         * See {@link SslHandshakeTimings#taskQueueNanos()}.
+         */
+        TASK_QUEUE,
+        /**
+         * See {@link SslHandshakeTimings#totalNanos()}.
+         */
+        TOTAL
+    }
+
+    private final Map<Phase, SslHandshakeHistogram> histograms =
+            new EnumMap<Phase, SslHandshakeHistogram>(Phase.class);
+    private final LongCounter failures = PlatformDependent.newLongCounter();
+
+    public SslHandshakeMetrics() {
+        for (Phase phase: Phase.values()) {
+            histograms.put(phase, new SslHandshakeHistogram());
+        }
+    }
+
+    void record(SslHandshakeTimings timings) {
+        long hello = timings.helloNanos();
+        if (hello >= 0) {
+            histograms.get(Phase.HELLO).record(hello);
+        }
+        histograms.get(Phase.KEY_EXCHANGE).record(timings.keyExchangeNanos());
+        histograms.get(Phase.CERTIFICATE_VERIFY).record(timings.certificateVerifyNanos());
+        histograms.get(Phase.TASK_QUEUE).record(timings.taskQueueNanos());
+        histograms.get(Phase.TOTAL).record(timings.totalNanos());
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    /**
+     * Returns the histogram of the durations of the given phase of all successful handshakes.
+     */
+    public SslHandshakeHistogram histogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    /**
+     * Returns the number of successful handshakes.
+     */
+    public long handshakes() {
+        return histograms.get(Phase.TOTAL).count();
+    }
+
+    /**
+     * Returns the number of failed handshakes, including the ones that timed out.
+     */
+    public long failures() {
+        return failures.value();
+    }
+
+    @Override
+    public String toString() {
+        return "SslHandshakeMetrics(handshakes: " + handshakes() + ", failures: " + failures() + ", " +
+                histograms + ')';
+    }
+}
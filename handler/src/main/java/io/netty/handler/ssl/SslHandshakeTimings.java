@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.internal.UnstableApi;
+
+/**
+ * The timings of the handshake of one {@link SslHandler}, see {@link SslHandler#handshakeTimings()}. All timestamps
+ * are values of {@link System#nanoTime()}.
+ * <p>
+ * The time between the start and the end of the handshake is spent in one of the phases below, or in the network
+ * and the event loop.
+ * <ul>
+ *     <li>{@link #helloNanos()}: waiting for the first handshake record of the remote peer, the ClientHello on the
+ *     server side and the ServerHello on the client side.</li>
+ *     <li>{@link #keyExchangeNanos()}: running the {@link javax.net.ssl.SSLEngine} and its delegated tasks, which
+ *     includes the private key operations like SM2 signing and decryption and the key agreement.</li>
+ *     <li>{@link #certificateVerifyNanos()}: verifying the certificates of the remote peer in the trust manager. Only
+ *     measured for OpenSSL based engines, otherwise this is part of the key exchange.</li>
+ *     <li>{@link #taskQueueNanos()}: delegated tasks waiting for the executor, and the handshake waiting for the
+ *     event loop to continue once they completed.</li>
+ * </ul>
+ */
+@UnstableApi
+public final class SslHandshakeTimings {
+
+    private final long startNanos;
+    private long helloReceivedNanos;
+    private boolean helloReceived;
+    private long finishedNanos;
+    private boolean finished;
+    private long engineNanos;
+    private long certificateVerifyNanos;
+    private long taskQueueNanos;
+
+    SslHandshakeTimings(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    boolean isHelloReceived() {
+        return helloReceived;
+    }
+
+    void helloReceived(long nanos) {
+        if (!helloReceived) {
+            helloReceived = true;
+            helloReceivedNanos = nanos;
+        }
+    }
+
+    void finished(long nanos) {
+        finished = true;
+        finishedNanos = nanos;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    void addEngineNanos(long nanos) {
+        engineNanos += nanos;
+    }
+
+    void addCertificateVerifyNanos(long nanos) {
+        certificateVerifyNanos += nanos;
+    }
+
+    void addTaskQueueNanos(long nanos) {
+        taskQueueNanos += nanos;
+    }
+
+    /**
+     * Returns when the handshake started, which is once the channel became active.
+     */
+    public long startNanos() {
+        return startNanos;
+    }
+
+    /**
+     * Returns when the first handshake record of the remote peer was received or {@code -1} if it was not received
+     * yet.
+     */
+    public long helloReceivedNanos() {
+        return helloReceived ? helloReceivedNanos : -1;
+    }
+
+    /**
+     * Returns when the handshake finished or {@code -1} if it did not finish successfully (yet).
+     */
+    public long finishedNanos() {
+        return finished ? finishedNanos : -1;
+    }
+
+    /**
+     * Returns the time between the start and the first handshake record of the remote peer or {@code -1} if it was
+     * not received yet.
+     */
+    public long helloNanos() {
+        return helloReceived ? helloReceivedNanos - startNanos : -1;
+    }
+
+    /**
+     * Returns the time spent in the {@link javax.net.ssl.SSLEngine} and its delegated tasks, without the time spent
+     * in {@link #certificateVerifyNanos()}.
+     */
+    public long keyExchangeNanos() {
+        return Math.max(0, engineNanos - certificateVerifyNanos);
+    }
+
+    /**
+     * Returns the time spent verifying the certificates of the remote peer.
+     */
+    public long certificateVerifyNanos() {
+        return certificateVerifyNanos;
+    }
+
+    /**
+     * Returns the time the delegated tasks and their results waited for an executor.
+     */
+    public long taskQueueNanos() {
+        return taskQueueNanos;
+    }
+
+    /**
+     * Returns the time between the start and the end of the handshake or {@code -1} if it did not finish
+     * successfully (yet).
+     */
+    public long totalNanos() {
+        return finished ? finishedNanos - startNanos : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "SslHandshakeTimings(hello: " + helloNanos() + "ns, keyExchange: " + keyExchangeNanos() +
+                "ns, certificateVerify: " + certificateVerifyNanos() + "ns, taskQueue: " + taskQueueNanos() +
+                "ns, total: " + totalNanos() + "ns)";
+    }
+}
@@ -73,6 +73,11 @@ final class SslUtils {
      */
     static final int SSL_RECORD_HEADER_LENGTH = 5;
 
+    /**
+     * the protocol version of GM/T 0024 (GMTLS 1.1), which is used in the record header and the ClientHello
+     */
+    static final int GMTLS_VERSION = 0x0101;
+
     /**
      * Not enough data in buffer to parse the record length
      */
@@ -179,8 +184,8 @@ final class SslUtils {
         if (tls) {
             // SSLv3 or TLS - Check ProtocolVersion
             int majorVersion = buffer.getUnsignedByte(offset + 1);
-            if (majorVersion == 3) {
-                // SSLv3 or TLS
+            if (majorVersion == 3 || unsignedShortBE(buffer, offset + 1) == GMTLS_VERSION) {
+                // SSLv3, TLS or GMTLS
                 packetLength = unsignedShortBE(buffer, offset + 3) + SSL_RECORD_HEADER_LENGTH;
                 if (packetLength <= SSL_RECORD_HEADER_LENGTH) {
                     // Neither SSLv3 or TLSv1 (i.e. SSLv2 or bad data)
@@ -284,8 +289,8 @@ final class SslUtils {
         if (tls) {
             // SSLv3 or TLS - Check ProtocolVersion
             int majorVersion = unsignedByte(buffer.get(pos + 1));
-            if (majorVersion == 3) {
-                // SSLv3 or TLS
+            if (majorVersion == 3 || unsignedShortBE(buffer, pos + 1) == GMTLS_VERSION) {
+                // SSLv3, TLS or GMTLS
                 packetLength = unsignedShortBE(buffer, pos + 3) + SSL_RECORD_HEADER_LENGTH;
                 if (packetLength <= SSL_RECORD_HEADER_LENGTH) {
                     // Neither SSLv3 or TLSv1 (i.e. SSLv2 or bad data)
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl.ocsp;
+
+import io.netty.util.internal.ObjectUtil;
+import io.netty.util.internal.UnstableApi;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+
+import static io.netty.util.internal.ObjectUtil.checkPositive;
+
+/**
+ * {@link OcspResponseSource} which requests the OCSP responses via HTTP POST from the responder named in the
+ * Authority Information Access extension of the certificate, or from a fixed responder.
+ *
+ * <p>This class requires <a href="https://www.bouncycastle.org/">Bouncy Castle</a> in the classpath.
+ */
+@UnstableApi
+public final class HttpOcspResponseSource implements OcspResponseSource {
+
+    private static final int MAX_RESPONSE_LENGTH = 64 * 1024;
+
+    private final URI responder;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    /**
+     * Creates a new instance which uses the responder of the Authority Information Access extension.
+     */
+    public HttpOcspResponseSource() {
+        this(null, 10000, 10000);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param responder the URI of the OCSP responder or {@code null} to use the responder of the Authority Information
+     *                  Access extension of each certificate
+     * @param connectTimeoutMillis the timeout to connect to the responder
+     * @param readTimeoutMillis the timeout to read the response
+     */
+    public HttpOcspResponseSource(URI responder, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.responder = responder;
+        this.connectTimeoutMillis = checkPositive(connectTimeoutMillis, "connectTimeoutMillis");
+        this.readTimeoutMillis = checkPositive(readTimeoutMillis, "readTimeoutMillis");
+    }
+
+    @Override
+    public byte[] fetch(X509Certificate certificate, X509Certificate issuer) throws Exception {
+        ObjectUtil.checkNotNull(certificate, "certificate");
+        ObjectUtil.checkNotNull(issuer, "issuer");
+        URI uri = responder != null ? responder : responderUri(certificate);
+        if (uri == null) {
+            throw new IOException("No OCSP responder for " + certificate.getSubjectX500Principal());
+        }
+        byte[] request = newRequest(certificate, issuer);
+
+        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        try {
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/ocsp-request");
+            connection.setRequestProperty("Accept", "application/ocsp-response");
+            connection.setFixedLengthStreamingMode(request.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(request);
+            } finally {
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP status of OCSP responder " + uri + ": " + status);
+            }
+            return readResponse(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static byte[] newRequest(X509Certificate certificate, X509Certificate issuer) throws Exception {
+        DigestCalculatorProvider digests = new JcaDigestCalculatorProviderBuilder().build();
+        CertificateID id = new CertificateID(digests.get(CertificateID.HASH_SHA1),
+                new JcaX509CertificateHolder(issuer), certificate.getSerialNumber());
+        return new OCSPReqBuilder().addRequest(id).build().getEncoded();
+    }
+
+    /**
+     * Returns the URI of the OCSP responder named in the Authority Information Access extension of the given
+     * certificate, or {@code null} if there is none.
+     */
+    static URI responderUri(X509Certificate certificate) throws IOException {
+        byte[] value = certificate.getExtensionValue(Extension.authorityInfoAccess.getId());
+        if (value == null) {
+            return null;
+        }
+        ASN1Primitive extension = JcaX509ExtensionUtils.parseExtensionValue(value);
+        for (AccessDescription description: AuthorityInformationAccess.getInstance(extension).getAccessDescriptions()) {
+            GeneralName location = description.getAccessLocation();
+            if (AccessDescription.id_ad_ocsp.equals(description.getAccessMethod())
+                    && location.getTagNo() == GeneralName.uniformResourceIdentifier) {
+                return URI.create(DERIA5String.getInstance(location.getName()).getString());
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readResponse(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > MAX_RESPONSE_LENGTH) {
+                    throw new IOException("OCSP response exceeds " + MAX_RESPONSE_LENGTH + " bytes");
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl.ocsp;
+
+import io.netty.util.internal.UnstableApi;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Source of the DER encoded OCSP responses that are stapled by an {@link OcspStapleManager}.
+ */
+@UnstableApi
+public interface OcspResponseSource {
+
+    /**
+     * Returns the DER encoded OCSP response for the given {@code certificate}. This method is called from the
+     * executor of the {@link OcspStapleManager} and so may block.
+     *
+     * @param certificate the certificate whose status is requested
+     * @param issuer the certificate of the issuer of {@code certificate}
+     */
+    byte[] fetch(X509Certificate certificate, X509Certificate issuer) throws Exception;
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl.ocsp;
+
+import io.netty.handler.ssl.DelegatingSslContext;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.internal.ObjectUtil;
+import io.netty.util.internal.UnstableApi;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLEngine;
+
+import static io.netty.util.internal.ObjectUtil.checkPositive;
+
+/**
+ * Caches the DER encoded OCSP responses of server certificates and staples them to new
+ * {@link ReferenceCountedOpenSslEngine}s.
+ *
+ * <p>Responses are fetched from an {@link OcspResponseSource} in the given executor, never on the event loop, and
+ * refreshed in the background before their {@code nextUpdate}. Attaching a response to an engine is a lookup of the
+ * cached bytes, so connections never wait for the responder. A response is no longer stapled once its
+ * {@code nextUpdate} has passed, while failed fetches are retried until the responder answers again.
+ *
+ * <p>This class requires <a href="https://www.bouncycastle.org/">Bouncy Castle</a> in the classpath and the
+ * {@link SslContext} must be created with OCSP stapling enabled.
+ *
+ * @see SslContextBuilder#enableOcsp(boolean)
+ * @see ReferenceCountedOpenSslEngine#setOcspResponse(byte[])
+ */
+@UnstableApi
+public final class OcspStapleManager {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(OcspStapleManager.class);
+
+    private final ConcurrentMap<X509Certificate, Entry> entries = new ConcurrentHashMap<X509Certificate, Entry>();
+    private final OcspResponseSource source;
+    private final ScheduledExecutorService executor;
+    private final long refreshAheadMillis;
+    private final long retryDelayMillis;
+
+    /**
+     * Creates a new instance which refreshes responses one hour before their {@code nextUpdate} and retries failed
+     * fetches after one minute.
+     *
+     * @param source the source of the OCSP responses
+     * @param executor the executor that fetches the responses
+     */
+    public OcspStapleManager(OcspResponseSource source, ScheduledExecutorService executor) {
+        this(source, executor, TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param source the source of the OCSP responses
+     * @param executor the executor that fetches the responses
+     * @param refreshAheadMillis how long before {@code nextUpdate} a response is refreshed. If the response is valid
+     *                           for a shorter time it is refreshed halfway to its {@code nextUpdate}, and responses
+     *                           without {@code nextUpdate} are refreshed at this interval.
+     * @param retryDelayMillis the delay after which a failed fetch is retried
+     */
+    public OcspStapleManager(OcspResponseSource source, ScheduledExecutorService executor,
+                             long refreshAheadMillis, long retryDelayMillis) {
+        this.source = ObjectUtil.checkNotNull(source, "source");
+        this.executor = ObjectUtil.checkNotNull(executor, "executor");
+        this.refreshAheadMillis = checkPositive(refreshAheadMillis, "refreshAheadMillis");
+        this.retryDelayMillis = checkPositive(retryDelayMillis, "retryDelayMillis");
+    }
+
+    /**
+     * Starts to fetch and refresh the OCSP response of the given certificate.
+     *
+     * @param certificate the server certificate whose OCSP response is stapled
+     * @param issuer the certificate of the issuer of {@code certificate}
+     * @return the {@link Future} of the first fetch
+     */
+    public Future<?> register(X509Certificate certificate, X509Certificate issuer) {
+        Entry entry = new Entry(ObjectUtil.checkNotNull(certificate, "certificate"),
+                                ObjectUtil.checkNotNull(issuer, "issuer"));
+        Entry old = entries.put(certificate, entry);
+        if (old != null) {
+            old.cancel();
+        }
+        return entry.schedule(0);
+    }
+
+    /**
+     * Stops to refresh the OCSP response of the given certificate and removes it from the cache.
+     *
+     * @return {@code true} if the certificate was registered
+     */
+    public boolean unregister(X509Certificate certificate) {
+        Entry entry = entries.remove(certificate);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancel();
+        return true;
+    }
+
+    /**
+     * Stops to refresh all OCSP responses and clears the cache. The executor is not shut down.
+     */
+    public void close() {
+        for (X509Certificate certificate: entries.keySet()) {
+            unregister(certificate);
+        }
+    }
+
+    /**
+     * Returns the cached DER encoded OCSP response of the given certificate, or {@code null} if there is no response
+     * or it is no longer valid.
+     */
+    public byte[] response(X509Certificate certificate) {
+        byte[] response = validResponse(certificate);
+        return response == null ? null : response.clone();
+    }
+
+    /**
+     * Staples the cached OCSP response of the given certificate to the given server engine, if there is one.
+     *
+     * <p>The certificate is passed by the caller as the engine does not know its own certificate if the context was
+     * built from a {@link javax.net.ssl.KeyManagerFactory} or is a GM context, which uses a separate signing and
+     * encryption certificate. For GM contexts this is the signing certificate.
+     *
+     * @param engine the server engine
+     * @param certificate the certificate the engine presents to its peers
+     * @return {@code true} if a response was stapled
+     */
+    public boolean attach(ReferenceCountedOpenSslEngine engine, X509Certificate certificate) {
+        ObjectUtil.checkNotNull(engine, "engine");
+        byte[] response = validResponse(ObjectUtil.checkNotNull(certificate, "certificate"));
+        if (response == null) {
+            return false;
+        }
+        engine.setOcspResponse(response);
+        return true;
+    }
+
+    /**
+     * Returns a {@link SslContext} which wraps the given server context and staples the cached OCSP response of the
+     * given certificate to all engines it creates.
+     *
+     * @param ctx the server context
+     * @param certificate the certificate the engines of {@code ctx} present to their peers, see
+     *                    {@link #attach(ReferenceCountedOpenSslEngine, X509Certificate)}
+     */
+    public SslContext newContext(SslContext ctx, final X509Certificate certificate) {
+        if (ctx.isClient()) {
+            throw new IllegalArgumentException("Not a server context");
+        }
+        ObjectUtil.checkNotNull(certificate, "certificate");
+        return new DelegatingSslContext(ctx) {
+            @Override
+            protected void initEngine(SSLEngine engine) {
+                if (engine instanceof ReferenceCountedOpenSslEngine) {
+                    attach((ReferenceCountedOpenSslEngine) engine, certificate);
+                }
+            }
+        };
+    }
+
+    private byte[] validResponse(X509Certificate certificate) {
+        Entry entry = entries.get(certificate);
+        if (entry == null) {
+            return null;
+        }
+        Staple staple = entry.staple;
+        if (staple == null || staple.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        return staple.response;
+    }
+
+    /**
+     * Returns the delay after which a response with the given {@code nextUpdate} is refreshed.
+     */
+    long refreshDelay(long nextUpdateMillis, long nowMillis) {
+        if (nextUpdateMillis == 0) {
+            return refreshAheadMillis;
+        }
+        long remaining = nextUpdateMillis - nowMillis;
+        if (remaining <= 0) {
+            return retryDelayMillis;
+        }
+        return remaining > 2 * refreshAheadMillis ? remaining - refreshAheadMillis : remaining / 2;
+    }
+
+    /**
+     * Returns the {@code nextUpdate} of the status of {@code certificate} in the given DER encoded response, or
+     * {@code 0} if the responder did not set one.
+     */
+    static long nextUpdate(byte[] response, X509Certificate certificate) throws Exception {
+        OCSPResp ocspResponse = new OCSPResp(response);
+        if (ocspResponse.getStatus() != OCSPResp.SUCCESSFUL) {
+            throw new IOException("Unsuccessful OCSP response status: " + ocspResponse.getStatus());
+        }
+        BasicOCSPResp basicResponse = (BasicOCSPResp) ocspResponse.getResponseObject();
+        for (SingleResp single: basicResponse.getResponses()) {
+            if (single.getCertID().getSerialNumber().equals(certificate.getSerialNumber())) {
+                Date nextUpdate = single.getNextUpdate();
+                return nextUpdate == null ? 0 : nextUpdate.getTime();
+            }
+        }
+        throw new IOException("OCSP response does not contain the status of " +
+                certificate.getSubjectX500Principal());
+    }
+
+    private static final class Staple {
+        final byte[] response;
+        // 0 if the responder did not set nextUpdate.
+        final long nextUpdateMillis;
+
+        Staple(byte[] response, long nextUpdateMillis) {
+            this.response = response;
+            this.nextUpdateMillis = nextUpdateMillis;
+        }
+
+        boolean isExpired(long nowMillis) {
+            return nextUpdateMillis != 0 && nowMillis >= nextUpdateMillis;
+        }
+    }
+
+    private final class Entry implements Runnable {
+        final X509Certificate certificate;
+        final X509Certificate issuer;
+        volatile Staple staple;
+        // Guarded by this.
+        private ScheduledFuture<?> future;
+        private boolean cancelled;
+
+        Entry(X509Certificate certificate, X509Certificate issuer) {
+            this.certificate = certificate;
+            this.issuer = issuer;
+        }
+
+        synchronized Future<?> schedule(long delayMillis) {
+            if (!cancelled) {
+                future = executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            }
+            return future;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            long delayMillis;
+            try {
+                byte[] response = source.fetch(certificate, issuer);
+                long nextUpdateMillis = nextUpdate(response, certificate);
+                staple = new Staple(response, nextUpdateMillis);
+                delayMillis = refreshDelay(nextUpdateMillis, System.currentTimeMillis());
+            } catch (Throwable cause) {
+                logger.warn("Failed to fetch the OCSP response of {}, retrying in {}ms",
+                            certificate.getSubjectX500Principal(), retryDelayMillis, cause);
+                delayMillis = retryDelayMillis;
+            }
+            schedule(delayMillis);
+        }
+    }
+}
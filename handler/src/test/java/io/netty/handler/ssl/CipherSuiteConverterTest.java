@@ -341,6 +341,40 @@ public class CipherSuiteConverterTest {
         assertThat(actual1, is(sameInstance(actual2)));
     }
 
+    @Test
+    public void testGMMappings() {
+        testKnownMapping("TLS_ECDHE_WITH_SM4_SM3", "ECDHE-SM4-SM3");
+        testKnownMapping("TLS_ECC_WITH_SM4_SM3", "ECC-SM4-SM3");
+        assertThat(CipherSuiteConverter.toJava("ECC-SM4-SM3", "SSL"), is("SSL_ECC_WITH_SM4_SM3"));
+        assertThat(CipherSuiteConverter.toJava("ECC-SM4-SM3", "UNKNOWN"), is("UNKNOWN_ECC_WITH_SM4_SM3"));
+        // GMTLS sessions have the UNKNOWN prefix, so their name is cached as well.
+        assertThat(CipherSuiteConverter.toJava("ECC-SM4-SM3", "UNKNOWN"),
+                is(sameInstance(CipherSuiteConverter.toJava("ECC-SM4-SM3", "UNKNOWN"))));
+    }
+
+    @Test
+    public void testKnownMappings() {
+        testKnownMapping("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "ECDHE-RSA-AES128-GCM-SHA256");
+        testKnownMapping("TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256", "ECDHE-ECDSA-CHACHA20-POLY1305");
+        testKnownMapping("TLS_RSA_WITH_AES_256_CBC_SHA", "AES256-SHA");
+        assertThat(CipherSuiteConverter.toOpenSsl("SSL_RSA_EXPORT_WITH_DES40_CBC_SHA"), is("EXP-DES-CBC-SHA"));
+    }
+
+    private static void testKnownMapping(String javaCipherSuite, String openSslCipherSuite) {
+        // The known cipher suites are not part of the cache, so they are still converted without a lookup of the
+        // patterns and without creating any new strings.
+        CipherSuiteConverter.clearCache();
+        assertThat(CipherSuiteConverter.isJ2OCached(javaCipherSuite, openSslCipherSuite), is(true));
+        assertThat(CipherSuiteConverter.isO2JCached(openSslCipherSuite, "TLS", javaCipherSuite), is(true));
+
+        String openSsl = CipherSuiteConverter.toOpenSsl(javaCipherSuite);
+        assertThat(openSsl, is(openSslCipherSuite));
+        assertThat(CipherSuiteConverter.toOpenSsl(javaCipherSuite), is(sameInstance(openSsl)));
+        String java = CipherSuiteConverter.toJava(openSslCipherSuite, "TLS");
+        assertThat(java, is(javaCipherSuite));
+        assertThat(CipherSuiteConverter.toJava(openSslCipherSuite, "TLS"), is(sameInstance(java)));
+    }
+
     @Test
     public void testCachedO2JMappings() {
         testCachedO2JMapping("ECDHE_ECDSA_WITH_AES_128_CBC_SHA256", "ECDHE-ECDSA-AES128-SHA256");
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GMCertEntryTest {
+
+    @Test
+    public void testPemIsKeptAsIs() throws Exception {
+        GMCertEntry entry = GMKeyMaterialProviderTest.entry("gm_server_sign");
+        PemEncoded cert = entry.retainedCertPem();
+        PemEncoded key = entry.retainedKeyPem();
+        try {
+            assertTrue(cert.content().isDirect());
+            assertFalse(cert.isSensitive());
+            assertEquals(entry.getCert().trim() + '\n', cert.content().toString(CharsetUtil.US_ASCII));
+            assertTrue(key.content().isDirect());
+            assertTrue(key.isSensitive());
+            assertEquals(entry.getKey().trim() + '\n', key.content().toString(CharsetUtil.US_ASCII));
+        } finally {
+            cert.release();
+            key.release();
+        }
+    }
+
+    @Test
+    public void testMaterialIsShared() throws Exception {
+        GMCertEntry entry = GMKeyMaterialProviderTest.entry("gm_server_sign");
+        PemEncoded first = entry.retainedCertPem();
+        PemEncoded second = entry.retainedCertPem();
+        try {
+            assertEquals(first.content().memoryAddress(), second.content().memoryAddress());
+        } finally {
+            first.release();
+            second.release();
+        }
+        // The cached material must still be usable after all duplicates were released.
+        PemEncoded third = entry.retainedCertPem();
+        assertEquals(1, third.refCnt());
+        third.release();
+    }
+
+    @Test
+    public void testReleasedKeyIsNotWiped() throws Exception {
+        GMCertEntry entry = GMKeyMaterialProviderTest.entry("gm_server_sign");
+        entry.retainedKeyPem().release();
+        PemEncoded key = entry.retainedKeyPem();
+        try {
+            assertEquals(entry.getKey().trim() + '\n', key.content().toString(CharsetUtil.US_ASCII));
+        } finally {
+            key.release();
+        }
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        GMCertEntry entry = GMKeyMaterialProviderTest.entry("gm_server_sign");
+        PemEncoded key = entry.retainedKeyPem();
+        ByteBuf content = key.content();
+        entry.release();
+        // The material is only freed once the duplicate was released as well.
+        assertEquals(1, content.refCnt());
+        assertEquals(entry.getKey().trim() + '\n', content.toString(CharsetUtil.US_ASCII));
+        key.release();
+        assertEquals(0, content.refCnt());
+
+        // The entry stays usable.
+        key = entry.retainedKeyPem();
+        try {
+            assertEquals(entry.getKey().trim() + '\n', key.content().toString(CharsetUtil.US_ASCII));
+        } finally {
+            key.release();
+        }
+    }
+
+    @Test
+    public void testBase64Cert() throws Exception {
+        GMCertEntry entry = new GMCertEntry(GMTrustManagerTest.base64("gm_ca.pem"), "unused");
+        PemEncoded cert = entry.retainedCertPem();
+        try {
+            String pem = cert.content().toString(CharsetUtil.US_ASCII);
+            assertTrue(pem.startsWith("-----BEGIN CERTIFICATE-----\n"));
+            assertTrue(pem.endsWith("-----END CERTIFICATE-----\n"));
+        } finally {
+            cert.release();
+        }
+    }
+
+    @Test
+    public void testSetCertDropsMaterial() throws Exception {
+        GMCertEntry entry = GMKeyMaterialProviderTest.entry("gm_server_sign");
+        entry.retainedCertPem().release();
+        GMCertEntry other = GMKeyMaterialProviderTest.entry("gm_server_enc");
+        entry.setCert(other.getCert());
+        PemEncoded cert = entry.retainedCertPem();
+        try {
+            assertEquals(other.getCert().trim() + '\n', cert.content().toString(CharsetUtil.US_ASCII));
+        } finally {
+            cert.release();
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        GMCertEntryCache cache = new GMCertEntryCache(1);
+        File cert = new File(GMCertEntryTest.class.getResource("gm_server_sign.pem").getFile());
+        File key = new File(GMCertEntryTest.class.getResource("gm_server_sign.key").getFile());
+        GMCertEntry entry = cache.get(cert, key);
+        assertSame(entry, cache.get(cert, key));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        GMCertEntry byContent = cache.get(entry.getCert(), entry.getKey());
+        assertNotSame(entry, byContent);
+        assertSame(byContent, cache.get(entry.getCert(), entry.getKey()));
+        // The cache only holds a single entry, so the entry of the files was evicted.
+        assertEquals(1, cache.size());
+        assertNotSame(entry, cache.get(cert, key));
+    }
+
+    @Test
+    public void testCacheReleasesEntries() throws Exception {
+        GMCertEntryCache cache = new GMCertEntryCache(1);
+        GMCertEntry other = GMKeyMaterialProviderTest.entry("gm_server_sign");
+        GMCertEntry entry = cache.get(other.getCert(), other.getKey());
+        PemEncoded key = entry.retainedKeyPem();
+        ByteBuf content = key.content();
+        key.release();
+        assertEquals(1, content.refCnt());
+
+        // Evicts the entry.
+        cache.get(other.getKey(), other.getCert());
+        assertEquals(0, content.refCnt());
+
+        entry = cache.get(other.getKey(), other.getCert());
+        key = entry.retainedKeyPem();
+        content = key.content();
+        key.release();
+        cache.clear();
+        assertEquals(0, content.refCnt());
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedEntryIsImmutable() {
+        new GMCertEntryCache(1).get("cert", "key").setKey("other");
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception {
+        GMCertEntryCache cache = new GMCertEntryCache(0);
+        assertNotSame(cache.get("cert", "key"), cache.get("cert", "key"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GMHybridSslHandlerTest {
+
+    private static SelfSignedCertificate ssc;
+    private static SslContext gmContext;
+    private static SslContext internationalContext;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        ssc = new SelfSignedCertificate();
+        // Any server context will do, the handler only decides which one is used.
+        gmContext = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(SslProvider.JDK).build();
+        internationalContext = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(SslProvider.JDK).build();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        ssc.delete();
+    }
+
+    @Test
+    public void testGMRecordVersion() {
+        assertDetected(GMHybridSslHandler.GM, clientHello(SslUtils.GMTLS_VERSION, SslUtils.GMTLS_VERSION, 0xE013));
+    }
+
+    @Test
+    public void testGMClientHelloVersion() {
+        assertDetected(GMHybridSslHandler.GM, clientHello(0x0301, SslUtils.GMTLS_VERSION, 0xE013, 0x002F));
+    }
+
+    @Test
+    public void testGMCipherSuitesOnly() {
+        assertDetected(GMHybridSslHandler.GM, clientHello(0x0301, 0x0303, 0xE011, 0xE013, 0x00FF));
+    }
+
+    @Test
+    public void testMixedCipherSuites() {
+        assertDetected(GMHybridSslHandler.INTERNATIONAL, clientHello(0x0301, 0x0303, 0xE013, 0xC02F));
+    }
+
+    @Test
+    public void testNotHandshake() {
+        assertDetected(GMHybridSslHandler.INTERNATIONAL, Unpooled.wrappedBuffer("GET / HTTP/1.1\r\n".getBytes()));
+    }
+
+    @Test
+    public void testIncompleteClientHello() {
+        ByteBuf hello = clientHello(0x0301, 0x0303, 0xE013);
+        ByteBuf partial = hello.retainedSlice(0, hello.readableBytes() - 1);
+        try {
+            assertDetected(GMHybridSslHandler.NEED_MORE_DATA, partial);
+            assertDetected(GMHybridSslHandler.NEED_MORE_DATA, Unpooled.wrappedBuffer(new byte[] { 22, 3, 1 }));
+        } finally {
+            hello.release();
+        }
+    }
+
+    @Test
+    public void testGMRecordLength() {
+        ByteBuf hello = clientHello(SslUtils.GMTLS_VERSION, SslUtils.GMTLS_VERSION, 0xE013);
+        try {
+            assertEquals(hello.readableBytes(), SslUtils.getEncryptedPacketLength(hello, 0));
+            assertEquals(hello.readableBytes(),
+                    SslUtils.getEncryptedPacketLength(new ByteBuffer[] { hello.nioBuffer() }, 0));
+        } finally {
+            hello.release();
+        }
+    }
+
+    @Test
+    public void testSelectsGMContext() throws Exception {
+        assertSelected(gmContext, clientHello(SslUtils.GMTLS_VERSION, SslUtils.GMTLS_VERSION, 0xE013));
+    }
+
+    @Test
+    public void testSelectsInternationalContext() throws Exception {
+        SSLEngine client = SSLContext.getDefault().createSSLEngine();
+        client.setUseClientMode(true);
+        ByteBuffer out = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        client.wrap(ByteBuffer.allocate(0), out);
+        out.flip();
+        assertSelected(internationalContext, Unpooled.wrappedBuffer(out));
+    }
+
+    private static void assertSelected(SslContext expected, ByteBuf hello) {
+        final SslContext[] selected = new SslContext[1];
+        EmbeddedChannel channel = new EmbeddedChannel(new GMHybridSslHandler(gmContext, internationalContext) {
+            @Override
+            protected SslHandler newSslHandler(ChannelHandlerContext ctx, boolean gm, SslContext sslContext) {
+                selected[0] = sslContext;
+                return super.newSslHandler(ctx, gm, sslContext);
+            }
+        });
+        try {
+            // Feed the record in two parts to also cover waiting for the rest of it.
+            channel.writeInbound(hello.readRetainedSlice(3));
+            assertNull(selected[0]);
+            channel.writeInbound(hello.retain());
+            assertSame(expected, selected[0]);
+            assertNull(channel.pipeline().get(GMHybridSslHandler.class));
+            assertNotNull(channel.pipeline().get(SslHandler.class));
+        } catch (Exception ignore) {
+            // The JDK engine can not parse the fake GM ClientHello and fails the handshake.
+            assertSame(expected, selected[0]);
+        } finally {
+            hello.release();
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private static void assertDetected(int expected, ByteBuf in) {
+        try {
+            int readerIndex = in.readerIndex();
+            assertEquals(expected, GMHybridSslHandler.detect(in));
+            assertEquals(readerIndex, in.readerIndex());
+        } finally {
+            in.release();
+        }
+    }
+
+    private static ByteBuf clientHello(int recordVersion, int clientVersion, int... cipherSuites) {
+        ByteBuf body = Unpooled.buffer();
+        body.writeShort(clientVersion);
+        body.writeZero(32);
+        body.writeByte(0);
+        body.writeShort(cipherSuites.length * 2);
+        for (int cipherSuite: cipherSuites) {
+            body.writeShort(cipherSuite);
+        }
+        body.writeByte(1).writeByte(0);
+
+        ByteBuf hello = Unpooled.buffer();
+        hello.writeByte(SslUtils.SSL_CONTENT_TYPE_HANDSHAKE);
+        hello.writeShort(recordVersion);
+        hello.writeShort(body.readableBytes() + 4);
+        hello.writeByte(1).writeMedium(body.readableBytes());
+        hello.writeBytes(body);
+        body.release();
+        return hello;
+    }
+}
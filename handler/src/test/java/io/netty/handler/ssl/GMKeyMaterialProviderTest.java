@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GMKeyMaterialProviderTest {
+
+    @BeforeClass
+    public static void assumeOpenSsl() {
+        Assume.assumeTrue(OpenSsl.isAvailable());
+    }
+
+    @Test(expected = SSLException.class)
+    public void testInvalidKeyMaterial() throws Exception {
+        new GMKeyMaterialProvider(new GMCertEntry("invalid", "invalid"), entry("gm_server_sign"), null);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        GMKeyMaterialProvider provider = new GMKeyMaterialProvider(
+                entry("gm_server_enc"), entry("gm_server_sign"), null);
+        ReferenceCountedOpenSslContext context = (ReferenceCountedOpenSslContext) SslContextGMBuilder.forServer(
+                entry("gm_server_enc"), entry("gm_server_sign"), null).keyManager(provider).build();
+        try {
+            assertSame(provider, context.gmKeyMaterialProvider);
+            SSLEngine before = context.newEngine(UnpooledByteBufAllocator.DEFAULT);
+
+            GMCertEntry enc = entry("gm_client_enc");
+            GMCertEntry sign = entry("gm_client_sign");
+            provider.reload(enc, sign, null);
+            assertSame(enc, provider.encCertEntry());
+            assertSame(sign, provider.signCertEntry());
+
+            // Engines created before and after the reload are both usable.
+            SSLEngine after = context.newEngine(UnpooledByteBufAllocator.DEFAULT);
+            ReferenceCountUtil.release(before);
+            ReferenceCountUtil.release(after);
+        } finally {
+            context.release();
+        }
+    }
+
+    @Test
+    public void testFailedReloadKeepsMaterial() throws Exception {
+        GMCertEntry enc = entry("gm_server_enc");
+        GMCertEntry sign = entry("gm_server_sign");
+        GMKeyMaterialProvider provider = new GMKeyMaterialProvider(enc, sign, null);
+        try {
+            provider.reload(new GMCertEntry(enc.getCert(), "invalid"), sign, null);
+            fail();
+        } catch (SSLException expected) {
+            // expected
+        }
+        assertSame(enc, provider.encCertEntry());
+        assertSame(sign, provider.signCertEntry());
+    }
+
+    @Test
+    public void testReleasedContextIsDetached() throws Exception {
+        GMKeyMaterialProvider provider = new GMKeyMaterialProvider(
+                entry("gm_server_enc"), entry("gm_server_sign"), null);
+        ReferenceCountedOpenSslContext context = (ReferenceCountedOpenSslContext) SslContextGMBuilder.forServer(
+                entry("gm_server_enc"), entry("gm_server_sign"), null).keyManager(provider).build();
+        assertTrue(context.release());
+        assertFalse(context.setGMKeyMaterial(provider.material()));
+        // Must not touch the released context.
+        provider.reload(entry("gm_client_enc"), entry("gm_client_sign"), null);
+    }
+
+    static GMCertEntry entry(String name) throws Exception {
+        return new GMCertEntry(
+                PemReader.readContent(GMKeyMaterialProviderTest.class.getResourceAsStream(name + ".pem")),
+                PemReader.readContent(GMKeyMaterialProviderTest.class.getResourceAsStream(name + ".key")));
+    }
+}
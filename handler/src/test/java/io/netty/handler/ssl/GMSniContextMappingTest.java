@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class GMSniContextMappingTest {
+
+    private static final SslContext DEFAULT_CONTEXT = mock(SslContext.class);
+
+    @Test
+    public void testBuildsOnceAndCountsHits() {
+        final AtomicInteger built = new AtomicInteger();
+        GMSniContextMapping mapping = new GMSniContextMapping(new GMSniContextMapping.ContextFactory() {
+            @Override
+            public SslContext newContext(String hostname) {
+                built.incrementAndGet();
+                return mock(SslContext.class);
+            }
+        }, ImmediateEventExecutor.INSTANCE, DEFAULT_CONTEXT, 4);
+
+        SslContext first = map(mapping, "a.example.com").getNow();
+        SslContext second = map(mapping, "A.EXAMPLE.COM").getNow();
+        assertSame(first, second);
+        assertEquals(1, built.get());
+        assertEquals(1, mapping.misses());
+        assertEquals(1, mapping.hits());
+        assertEquals(1, mapping.builds());
+        assertEquals(1, mapping.size());
+        assertSame(DEFAULT_CONTEXT, map(mapping, null).getNow());
+    }
+
+    @Test
+    public void testPendingBuildIsShared() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        final SslContext context = mock(SslContext.class);
+        GMSniContextMapping mapping = new GMSniContextMapping(new GMSniContextMapping.ContextFactory() {
+            @Override
+            public SslContext newContext(String hostname) {
+                return context;
+            }
+        }, executor, DEFAULT_CONTEXT, 4);
+
+        Future<SslContext> first = map(mapping, "a.example.com");
+        Future<SslContext> second = map(mapping, "a.example.com");
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertSame(context, first.getNow());
+        assertSame(context, second.getNow());
+        assertEquals(1, mapping.builds());
+    }
+
+    @Test
+    public void testUnknownHostUsesDefaultAndIsNotCached() {
+        GMSniContextMapping mapping = new GMSniContextMapping(new GMSniContextMapping.ContextFactory() {
+            @Override
+            public SslContext newContext(String hostname) {
+                return null;
+            }
+        }, ImmediateEventExecutor.INSTANCE, DEFAULT_CONTEXT, 4);
+
+        assertSame(DEFAULT_CONTEXT, map(mapping, "unknown.example.com").getNow());
+        assertEquals(0, mapping.size());
+    }
+
+    @Test
+    public void testFailedBuildIsNotCached() {
+        final AtomicInteger attempts = new AtomicInteger();
+        GMSniContextMapping mapping = new GMSniContextMapping(new GMSniContextMapping.ContextFactory() {
+            @Override
+            public SslContext newContext(String hostname) throws Exception {
+                attempts.incrementAndGet();
+                throw new IllegalStateException();
+            }
+        }, ImmediateEventExecutor.INSTANCE, DEFAULT_CONTEXT, 4);
+
+        assertTrue(map(mapping, "a.example.com").cause() instanceof IllegalStateException);
+        assertTrue(map(mapping, "a.example.com").cause() instanceof IllegalStateException);
+        assertEquals(2, attempts.get());
+        assertEquals(2, mapping.buildFailures());
+        assertEquals(0, mapping.size());
+    }
+
+    @Test
+    public void testEvictionSkipsContextsInUse() {
+        final SslContext inUse = referenceCountedContext(2);
+        final SslContext unused = referenceCountedContext(1);
+        final SslContext latest = referenceCountedContext(1);
+        GMSniContextMapping mapping = new GMSniContextMapping(new GMSniContextMapping.ContextFactory() {
+            @Override
+            public SslContext newContext(String hostname) {
+                if ("in-use".equals(hostname)) {
+                    return inUse;
+                }
+                return "unused".equals(hostname) ? unused : latest;
+            }
+        }, ImmediateEventExecutor.INSTANCE, DEFAULT_CONTEXT, 2);
+
+        map(mapping, "in-use");
+        map(mapping, "unused");
+        map(mapping, "latest");
+
+        assertEquals(2, mapping.size());
+        assertEquals(1, mapping.evictions());
+        // Released once by the eviction, the in-use context is kept although it is the least recently used one.
+        verify((ReferenceCounted) unused).release();
+        assertSame(inUse, map(mapping, "in-use").getNow());
+        assertEquals(3, mapping.misses());
+        assertEquals(1, mapping.hits());
+    }
+
+    private static SslContext referenceCountedContext(int refCnt) {
+        SslContext context = mock(SslContext.class, withSettings().extraInterfaces(ReferenceCounted.class));
+        when(((ReferenceCounted) context).refCnt()).thenReturn(refCnt);
+        when(((ReferenceCounted) context).retain()).thenReturn((ReferenceCounted) context);
+        return context;
+    }
+
+    private static Future<SslContext> map(GMSniContextMapping mapping, String hostname) {
+        return mapping.map(hostname, ImmediateEventExecutor.INSTANCE.<SslContext>newPromise());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class GMSniHandlerTest {
+
+    @Test
+    public void testHandlerIsCreatedByContextAndContextReleasedOnClose() throws Exception {
+        SSLEngine engine = SSLContext.getDefault().createSSLEngine();
+        engine.setUseClientMode(false);
+        SslHandler sslHandler = new SslHandler(engine);
+        Executor executor = mock(Executor.class);
+        SslContext context = mock(SslContext.class, withSettings().extraInterfaces(ReferenceCounted.class));
+        when(context.newHandler(any(ByteBufAllocator.class), eq(executor))).thenReturn(sslHandler);
+
+        GMSniContextMapping mapping = new GMSniContextMapping(new GMSniContextMapping.ContextFactory() {
+            @Override
+            public SslContext newContext(String hostname) {
+                throw new UnsupportedOperationException();
+            }
+        }, ImmediateEventExecutor.INSTANCE, mock(SslContext.class), 1);
+        GMSniHandler handler = new GMSniHandler(mapping, executor);
+        EmbeddedChannel ch = new EmbeddedChannel(handler);
+        handler.replaceHandler(ch.pipeline().context(handler), "a.example.com", context);
+
+        // Built by the context, so it gets the startTls setting, the executor and the metrics of the context.
+        assertSame(sslHandler, ch.pipeline().get(SslHandler.class));
+        verify((ReferenceCounted) context, never()).release();
+
+        ch.finishAndReleaseAll();
+        verify((ReferenceCounted) context).release();
+    }
+}
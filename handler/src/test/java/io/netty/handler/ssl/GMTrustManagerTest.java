@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Test;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GMTrustManagerTest {
+
+    @Test
+    public void testTrustedChain() throws Exception {
+        GMTrustManager tm = new GMTrustManager(base64("gm_ca.pem"));
+        tm.checkServerTrusted(chain("gm_server_sign.pem"), "ECDHE_SM2");
+        tm.checkServerTrusted(chain("gm_server_enc.pem"), "ECDHE_SM2");
+        tm.checkClientTrusted(chain("gm_client_sign.pem"), "ECDHE_SM2");
+    }
+
+    @Test
+    public void testTrustedChainWithoutCache() throws Exception {
+        GMTrustManager tm = new GMTrustManager(0, base64("gm_ca.pem"));
+        tm.checkServerTrusted(chain("gm_server_sign.pem"), "ECDHE_SM2");
+        tm.checkServerTrusted(chain("gm_server_sign.pem"), "ECDHE_SM2");
+    }
+
+    @Test
+    public void testCachedChain() throws Exception {
+        GMTrustManager tm = new GMTrustManager(1, base64("gm_ca.pem"));
+        X509Certificate[] chain = chain("gm_server_sign.pem");
+        for (int i = 0; i < 4; i++) {
+            tm.checkServerTrusted(chain, "ECDHE_SM2");
+        }
+    }
+
+    @Test
+    public void testTrustAnchorItself() throws Exception {
+        GMTrustManager tm = new GMTrustManager(base64("gm_ca.pem"));
+        tm.checkServerTrusted(chain("gm_ca.pem"), "ECDHE_SM2");
+    }
+
+    @Test
+    public void testChainWithIntermediateFromPeer() throws Exception {
+        // The peer may send the CA as part of its chain, which must not change the outcome.
+        GMTrustManager tm = new GMTrustManager(base64("gm_ca.pem"));
+        tm.checkServerTrusted(chain("gm_server_sign.pem", "gm_ca.pem"), "ECDHE_SM2");
+    }
+
+    @Test(expected = CertificateException.class)
+    public void testIssuerWithSameDnButWrongKey() throws Exception {
+        // gm_untrusted.pem is issued by a CA with the same subject DN as gm_ca.pem but a different key.
+        GMTrustManager tm = new GMTrustManager(base64("gm_ca.pem"));
+        tm.checkServerTrusted(chain("gm_untrusted.pem"), "ECDHE_SM2");
+    }
+
+    @Test
+    public void testUntrustedIsNotCached() throws Exception {
+        GMTrustManager tm = new GMTrustManager(1, base64("gm_ca.pem"));
+        tm.checkServerTrusted(chain("gm_server_sign.pem"), "ECDHE_SM2");
+        for (int i = 0; i < 2; i++) {
+            try {
+                tm.checkServerTrusted(chain("gm_untrusted.pem"), "ECDHE_SM2");
+            } catch (CertificateException expected) {
+                continue;
+            }
+            throw new AssertionError();
+        }
+    }
+
+    @Test
+    public void testNoTrustAnchorsTrustsAll() throws Exception {
+        GMTrustManager tm = new GMTrustManager();
+        tm.checkServerTrusted(chain("gm_untrusted.pem"), "ECDHE_SM2");
+        assertEquals(0, tm.getAcceptedIssuers().length);
+    }
+
+    @Test
+    public void testAddAndRemoveTrustAnchor() throws Exception {
+        GMTrustManager tm = new GMTrustManager(1, chain("gm_client_sign.pem"));
+        X509Certificate ca = chain("gm_ca.pem")[0];
+        X509Certificate[] serverChain = chain("gm_server_sign.pem");
+        assertUntrusted(tm, serverChain);
+
+        assertTrue(tm.addTrustAnchor(ca));
+        assertFalse(tm.addTrustAnchor(ca));
+        assertEquals(2, tm.trustAnchors());
+        tm.checkServerTrusted(serverChain, "ECDHE_SM2");
+
+        // The chain is cached now, removing the anchor must invalidate it.
+        assertTrue(tm.removeTrustAnchor(ca));
+        assertFalse(tm.removeTrustAnchor(ca));
+        assertEquals(1, tm.trustAnchors());
+        assertUntrusted(tm, serverChain);
+        tm.checkClientTrusted(chain("gm_client_sign.pem"), "ECDHE_SM2");
+    }
+
+    @Test
+    public void testRemoveLastTrustAnchorTrustsNothing() throws Exception {
+        GMTrustManager tm = new GMTrustManager(base64("gm_ca.pem"));
+        assertTrue(tm.removeTrustAnchor(chain("gm_ca.pem")[0]));
+        assertEquals(0, tm.trustAnchors());
+        assertUntrusted(tm, chain("gm_server_sign.pem"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddTrustAnchorWhenTrustingAll() throws Exception {
+        new GMTrustManager().addTrustAnchor(chain("gm_ca.pem")[0]);
+    }
+
+    @Test
+    public void testAcceptedIssuers() throws Exception {
+        X509Certificate ca = chain("gm_ca.pem")[0];
+        GMTrustManager tm = new GMTrustManager(base64("gm_ca.pem"));
+        X509Certificate[] issuers = tm.getAcceptedIssuers();
+        assertEquals(1, issuers.length);
+        assertEquals(ca.getSubjectX500Principal(), issuers[0].getSubjectX500Principal());
+
+        tm.addTrustAnchor(chain("gm_client_sign.pem")[0]);
+        assertEquals(2, tm.getAcceptedIssuers().length);
+        tm.removeTrustAnchor(ca);
+        issuers = tm.getAcceptedIssuers();
+        assertEquals(1, issuers.length);
+        assertNotEquals(ca.getSubjectX500Principal(), issuers[0].getSubjectX500Principal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyChain() throws Exception {
+        new GMTrustManager(base64("gm_ca.pem")).checkServerTrusted(new X509Certificate[0], "ECDHE_SM2");
+    }
+
+    private static void assertUntrusted(GMTrustManager tm, X509Certificate[] chain) {
+        try {
+            tm.checkServerTrusted(chain, "ECDHE_SM2");
+        } catch (CertificateException expected) {
+            return;
+        }
+        fail();
+    }
+
+    static String base64(String resource) throws Exception {
+        return Base64.toBase64String(der(resource));
+    }
+
+    static X509Certificate[] chain(String... resources) throws Exception {
+        X509Certificate[] chain = new X509Certificate[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            chain[i] = new OpenSslX509Certificate(der(resources[i]));
+        }
+        return chain;
+    }
+
+    private static byte[] der(String resource) throws Exception {
+        ByteBuf[] certs = PemReader.readCertificates(GMTrustManagerTest.class.getResourceAsStream(resource));
+        try {
+            return ByteBufUtil.getBytes(certs[0]);
+        } finally {
+            for (ByteBuf cert: certs) {
+                cert.release();
+            }
+        }
+    }
+}
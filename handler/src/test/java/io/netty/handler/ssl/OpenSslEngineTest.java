@@ -15,7 +15,10 @@
  */
 package io.netty.handler.ssl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledDirectByteBuf;
 import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
 import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
 import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
@@ -52,6 +55,7 @@ import static io.netty.handler.ssl.SslUtils.PROTOCOL_TLS_V1_1;
 import static io.netty.handler.ssl.SslUtils.PROTOCOL_TLS_V1_2;
 import static io.netty.internal.tcnative.SSL.SSL_CVERIFY_IGNORED;
 import static java.lang.Integer.MAX_VALUE;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -235,6 +239,101 @@ public class OpenSslEngineTest extends SSLEngineTest {
         }
     }
 
+    @Test
+    public void testUnwrapRecordsIntoDirectBufferWithoutMemoryAddress() throws Exception {
+        clientSslCtx = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(sslClientProvider())
+                .build();
+        SelfSignedCertificate ssc = new SelfSignedCertificate();
+        serverSslCtx = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(sslServerProvider())
+                .build();
+        SSLEngine clientEngine = null;
+        SSLEngine serverEngine = null;
+        ByteBuf dst = null;
+        try {
+            clientEngine = wrapEngine(clientSslCtx.newEngine(UnpooledByteBufAllocator.DEFAULT));
+            serverEngine = wrapEngine(serverSslCtx.newEngine(UnpooledByteBufAllocator.DEFAULT));
+            handshake(clientEngine, serverEngine);
+
+            byte[] data = new byte[1024];
+            PlatformDependent.threadLocalRandom().nextBytes(data);
+            ByteBuffer encrypted = allocateBuffer(clientEngine.getSession().getPacketBufferSize());
+            assertEquals(SSLEngineResult.Status.OK, clientEngine.wrap(ByteBuffer.wrap(data), encrypted).getStatus());
+            encrypted.flip();
+
+            // Not backed by Unsafe, so the address of its ByteBuffer is used.
+            dst = new UnpooledDirectByteBuf(UnpooledByteBufAllocator.DEFAULT, 4096, 4096);
+            assertFalse(dst.hasMemoryAddress());
+            byte[] prefix = { 1, 2, 3, 4, 5, 6, 7, 8 };
+            dst.writeBytes(prefix);
+
+            ByteBuf src = Unpooled.wrappedBuffer(encrypted);
+            SSLEngineResult result = unwrapEngine(serverEngine).unwrapRecords(src, dst);
+            assertEquals(SSLEngineResult.Status.OK, result.getStatus());
+            assertEquals(data.length, result.bytesProduced());
+            assertFalse(src.isReadable());
+            assertEquals(prefix.length + data.length, dst.writerIndex());
+
+            byte[] written = new byte[prefix.length];
+            dst.getBytes(0, written);
+            assertArrayEquals(prefix, written);
+            written = new byte[data.length];
+            dst.getBytes(prefix.length, written);
+            assertArrayEquals(data, written);
+        } finally {
+            if (dst != null) {
+                dst.release();
+            }
+            cleanupClientSslEngine(clientEngine);
+            cleanupServerSslEngine(serverEngine);
+        }
+    }
+
+    @Test
+    public void testReleaseIdleBuffers() throws Exception {
+        clientSslCtx = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(sslClientProvider())
+                .build();
+        SelfSignedCertificate ssc = new SelfSignedCertificate();
+        serverSslCtx = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(sslServerProvider())
+                .build();
+        ((ReferenceCountedOpenSslContext) clientSslCtx).setReleaseIdleBuffers(true);
+        ((ReferenceCountedOpenSslContext) serverSslCtx).setReleaseIdleBuffers(true);
+        SSLEngine clientEngine = null;
+        SSLEngine serverEngine = null;
+        try {
+            clientEngine = wrapEngine(clientSslCtx.newEngine(UnpooledByteBufAllocator.DEFAULT));
+            serverEngine = wrapEngine(serverSslCtx.newEngine(UnpooledByteBufAllocator.DEFAULT));
+            assertTrue((SSL.getMode(unwrapEngine(clientEngine).sslPointer()) & SSL.SSL_MODE_RELEASE_BUFFERS) != 0);
+            assertTrue((SSL.getMode(unwrapEngine(serverEngine).sslPointer()) & SSL.SSL_MODE_RELEASE_BUFFERS) != 0);
+            handshake(clientEngine, serverEngine);
+
+            // The connection goes idle after every record, so the buffers are reacquired for each of them.
+            for (int i = 0; i < 10; i++) {
+                ByteBuffer src = allocateBuffer(1024);
+                byte[] data = new byte[src.capacity()];
+                PlatformDependent.threadLocalRandom().nextBytes(data);
+                src.put(data).flip();
+                ByteBuffer encrypted = allocateBuffer(clientEngine.getSession().getPacketBufferSize());
+                assertEquals(SSLEngineResult.Status.OK, clientEngine.wrap(src, encrypted).getStatus());
+                encrypted.flip();
+                ByteBuffer decrypted = allocateBuffer(serverEngine.getSession().getApplicationBufferSize());
+                assertEquals(SSLEngineResult.Status.OK, serverEngine.unwrap(encrypted, decrypted).getStatus());
+                decrypted.flip();
+                byte[] received = new byte[decrypted.remaining()];
+                decrypted.get(received);
+                assertArrayEquals(data, received);
+            }
+        } finally {
+            cleanupClientSslEngine(clientEngine);
+            cleanupServerSslEngine(serverEngine);
+        }
+    }
+
     @Test
     public void testOnlySmallBufferNeededForWrap() throws Exception {
         clientSslCtx = SslContextBuilder.forClient()
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpenSslFileSessionTicketKeySourceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMissingFileHasNoKeys() throws Exception {
+        OpenSslFileSessionTicketKeySource source =
+                new OpenSslFileSessionTicketKeySource(new File(folder.getRoot(), "keys"), 3);
+        assertEquals(0, source.keys().length);
+    }
+
+    @Test
+    public void testRotateKeepsMaxKeys() throws Exception {
+        File file = new File(folder.getRoot(), "keys");
+        OpenSslFileSessionTicketKeySource source = new OpenSslFileSessionTicketKeySource(file, 3);
+        OpenSslSessionTicketKey[] first = source.rotate();
+        assertEquals(1, first.length);
+        OpenSslSessionTicketKey[] second = source.rotate();
+        assertEquals(2, second.length);
+        assertArrayEquals(first[0].name(), second[1].name());
+        source.rotate();
+        OpenSslSessionTicketKey[] fourth = source.rotate();
+        assertEquals(3, fourth.length);
+        assertEquals(3 * OpenSslSessionTicketKey.TICKET_KEY_SIZE, file.length());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testKeysAreShared() throws Exception {
+        File file = new File(folder.getRoot(), "keys");
+        OpenSslFileSessionTicketKeySource rotating = new OpenSslFileSessionTicketKeySource(file, 2);
+        OpenSslFileSessionTicketKeySource following = new OpenSslFileSessionTicketKeySource(file, 2);
+        OpenSslSessionTicketKey[] rotated = rotating.rotate();
+        OpenSslSessionTicketKey[] read = following.keys();
+        assertEquals(rotated.length, read.length);
+        assertArrayEquals(rotated[0].name(), read[0].name());
+        assertArrayEquals(rotated[0].hmacKey(), read[0].hmacKey());
+        assertArrayEquals(rotated[0].aesKey(), read[0].aesKey());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testInvalidFile() throws Exception {
+        File file = folder.newFile("keys");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[OpenSslSessionTicketKey.TICKET_KEY_SIZE - 1]);
+        } finally {
+            out.close();
+        }
+        new OpenSslFileSessionTicketKeySource(file, 2).keys();
+    }
+
+    @Test
+    public void testRotator() throws Exception {
+        EventExecutor executor = new DefaultEventExecutor();
+        try {
+            File file = new File(folder.getRoot(), "keys");
+            OpenSslSessionTicketKeyRotator rotator = new OpenSslSessionTicketKeyRotator(
+                    new OpenSslFileSessionTicketKeySource(file, 2), executor, 1, 1, TimeUnit.HOURS);
+            // No keys yet, so the first one is created right away.
+            rotator.start();
+            assertEquals(1, rotator.rotations());
+            assertEquals(1, rotator.updates());
+            assertTrue(rotator.refresh());
+            assertEquals(1, rotator.updates());
+
+            OpenSslSessionTicketKeyRotator follower = new OpenSslSessionTicketKeyRotator(
+                    new OpenSslFileSessionTicketKeySource(file, 2), executor, 1, 0, TimeUnit.HOURS);
+            follower.start();
+            assertEquals(0, follower.rotations());
+            assertEquals(1, follower.updates());
+            rotator.stop();
+            follower.stop();
+
+            assertTrue(file.delete());
+            assertTrue(folder.newFolder("keys").isDirectory());
+            assertFalse(follower.refresh());
+            assertEquals(1, follower.failures());
+        } finally {
+            executor.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+        }
+    }
+}
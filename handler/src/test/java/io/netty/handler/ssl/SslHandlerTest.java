@@ -48,6 +48,7 @@ import io.netty.handler.codec.UnsupportedMessageTypeException;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
 import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.CharsetUtil;
 import io.netty.util.IllegalReferenceCountException;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
@@ -59,10 +60,15 @@ import org.junit.Test;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -72,11 +78,14 @@ import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLProtocolException;
 
 import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static io.netty.handler.ssl.SslUtils.getEncryptedPacketLength;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -663,6 +672,359 @@ public class SslHandlerTest {
         }
     }
 
+    @Test(timeout = 10000)
+    public void testHandshakeWithDelegatedTaskExecutor() throws Exception {
+        final SelfSignedCertificate ssc = new SelfSignedCertificate();
+
+        final SslContext sslServerCtx = SslContextBuilder.forServer(ssc.key(), ssc.cert())
+                .sslProvider(SslProvider.JDK).build();
+        final SslContext sslClientCtx = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(SslProvider.JDK).build();
+
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        EventLoopGroup group = new NioEventLoopGroup(1);
+        Channel sc = null;
+        Channel cc = null;
+        try {
+            final BlockingQueue<ByteBuf> received = new LinkedBlockingQueue<ByteBuf>();
+            LocalAddress address = new LocalAddress(
+                    getClass().getSimpleName() + ".testHandshakeWithDelegatedTaskExecutor");
+            ServerBootstrap sb = new ServerBootstrap()
+                    .group(group)
+                    .channel(LocalServerChannel.class)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(sslServerCtx.newHandler(ch.alloc(), executor));
+                            ch.pipeline().addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                                    received.add(msg.retain());
+                                }
+                            });
+                        }
+                    });
+            sc = sb.bind(address).syncUninterruptibly().channel();
+
+            final AtomicReference<SslHandler> sslHandlerRef = new AtomicReference<SslHandler>();
+            Bootstrap b = new Bootstrap()
+                    .group(group)
+                    .channel(LocalChannel.class)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            SslHandler handler = sslClientCtx.newHandler(ch.alloc(), executor);
+                            sslHandlerRef.set(handler);
+                            ch.pipeline().addLast(handler);
+                        }
+                    });
+            cc = b.connect(sc.localAddress()).syncUninterruptibly().channel();
+            // Written before the handshake completed, so it is queued while the tasks run.
+            cc.writeAndFlush(Unpooled.copiedBuffer("hello", CharsetUtil.US_ASCII));
+
+            SslHandler handler = sslHandlerRef.get();
+            assertTrue(handler.handshakeFuture().syncUninterruptibly().isSuccess());
+
+            ByteBuf buf = received.take();
+            try {
+                assertEquals("hello", buf.toString(CharsetUtil.US_ASCII));
+            } finally {
+                buf.release();
+            }
+        } finally {
+            if (cc != null) {
+                cc.close().syncUninterruptibly();
+            }
+            if (sc != null) {
+                sc.close().syncUninterruptibly();
+            }
+            group.shutdownGracefully();
+            executor.shutdown();
+
+            ReferenceCountUtil.release(sslServerCtx);
+            ReferenceCountUtil.release(sslClientCtx);
+        }
+    }
+
+    @Test
+    public void testAdaptiveWrapDataSize() throws Exception {
+        SelfSignedCertificate ssc = new SelfSignedCertificate();
+        SslContext sslServerCtx = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(SslProvider.JDK).build();
+        SslContext sslClientCtx = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(SslProvider.JDK).build();
+        SslHandler clientHandler = sslClientCtx.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        clientHandler.setAdaptiveWrapDataSize(1024, 1, TimeUnit.HOURS);
+        assertTrue(clientHandler.isAdaptiveWrapDataSize());
+        EmbeddedChannel client = new EmbeddedChannel(clientHandler);
+        EmbeddedChannel server = new EmbeddedChannel(sslServerCtx.newHandler(UnpooledByteBufAllocator.DEFAULT));
+        try {
+            while (!clientHandler.handshakeFuture().isDone()) {
+                forwardAll(client, server);
+                forwardAll(server, client);
+            }
+            assertTrue(clientHandler.handshakeFuture().isSuccess());
+
+            client.writeAndFlush(Unpooled.wrappedBuffer(new byte[256 * 1024]));
+            List<Integer> recordLengths = new ArrayList<Integer>();
+            for (;;) {
+                ByteBuf buf = client.readOutbound();
+                if (buf == null) {
+                    break;
+                }
+                while (buf.isReadable()) {
+                    int length = getEncryptedPacketLength(buf, buf.readerIndex());
+                    recordLengths.add(length);
+                    buf.skipBytes(length);
+                }
+                buf.release();
+            }
+            // The first records are small and grow up to the maximum size, only the last one may hold less.
+            assertTrue(recordLengths.toString(), recordLengths.get(0) < 2048);
+            assertTrue(recordLengths.toString(), recordLengths.get(recordLengths.size() - 2) > 16 * 1024);
+            for (int i = 1; i < recordLengths.size() - 1; i++) {
+                assertTrue(recordLengths.toString(), recordLengths.get(i) >= recordLengths.get(i - 1));
+            }
+
+            clientHandler.setWrapDataSize(4096);
+            assertFalse(clientHandler.isAdaptiveWrapDataSize());
+        } finally {
+            client.finishAndReleaseAll();
+            server.finishAndReleaseAll();
+            ReferenceCountUtil.release(sslServerCtx);
+            ReferenceCountUtil.release(sslClientCtx);
+            ssc.delete();
+        }
+    }
+
+    @Test
+    public void testVectoredWrapJdk() throws Exception {
+        testVectoredWrap(SslProvider.JDK);
+    }
+
+    @Test
+    public void testVectoredWrapOpenSsl() throws Exception {
+        assumeTrue(OpenSsl.isAvailable());
+        testVectoredWrap(SslProvider.OPENSSL);
+    }
+
+    private static void testVectoredWrap(SslProvider provider) throws Exception {
+        SelfSignedCertificate ssc = new SelfSignedCertificate();
+        SslContext sslServerCtx = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(provider).build();
+        SslContext sslClientCtx = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(provider).build();
+        SslHandler clientHandler = sslClientCtx.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        clientHandler.setVectoredWrap(true);
+        assertTrue(clientHandler.isVectoredWrap());
+        EmbeddedChannel client = new EmbeddedChannel(clientHandler);
+        EmbeddedChannel server = new EmbeddedChannel(sslServerCtx.newHandler(UnpooledByteBufAllocator.DEFAULT));
+        try {
+            while (!clientHandler.handshakeFuture().isDone()) {
+                forwardAll(client, server);
+                forwardAll(server, client);
+            }
+            assertTrue(clientHandler.handshakeFuture().isSuccess());
+            forwardAll(client, server);
+
+            List<ByteBuf> writes = new ArrayList<ByteBuf>();
+            for (int i = 0; i < 10; i++) {
+                ByteBuf buf = i % 2 == 0 ? Unpooled.buffer(128) : Unpooled.directBuffer(128);
+                buf.writeBytes(new byte[] { (byte) i, (byte) i, (byte) i });
+                writes.add(buf.retain());
+                client.write(buf);
+            }
+            client.flush();
+
+            // All writes were gathered into a single record without touching the written buffers.
+            ByteBuf encrypted = Unpooled.buffer();
+            for (;;) {
+                ByteBuf buf = client.readOutbound();
+                if (buf == null) {
+                    break;
+                }
+                encrypted.writeBytes(buf);
+                buf.release();
+            }
+            assertEquals(encrypted.readableBytes(), getEncryptedPacketLength(encrypted, encrypted.readerIndex()));
+            for (ByteBuf buf: writes) {
+                assertEquals(3, buf.readableBytes());
+                assertEquals(3, buf.writerIndex());
+                buf.release();
+            }
+
+            server.writeInbound(encrypted);
+            ByteBuf received = Unpooled.buffer();
+            for (;;) {
+                ByteBuf buf = server.readInbound();
+                if (buf == null) {
+                    break;
+                }
+                received.writeBytes(buf);
+                buf.release();
+            }
+            assertEquals(30, received.readableBytes());
+            for (int i = 0; i < 30; i++) {
+                assertEquals(i / 3, received.getByte(i));
+            }
+            received.release();
+        } finally {
+            client.finishAndReleaseAll();
+            server.finishAndReleaseAll();
+            ReferenceCountUtil.release(sslServerCtx);
+            ReferenceCountUtil.release(sslClientCtx);
+            ssc.delete();
+        }
+    }
+
+    @Test
+    public void testAggregateDecryptedReadsJdk() throws Exception {
+        testAggregateDecryptedReads(SslProvider.JDK);
+    }
+
+    @Test
+    public void testAggregateDecryptedReadsOpenSsl() throws Exception {
+        assumeTrue(OpenSsl.isAvailable());
+        testAggregateDecryptedReads(SslProvider.OPENSSL);
+    }
+
+    private static void testAggregateDecryptedReads(SslProvider provider) throws Exception {
+        SelfSignedCertificate ssc = new SelfSignedCertificate();
+        SslContext sslServerCtx = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(provider).build();
+        SslContext sslClientCtx = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(provider).build();
+        SslHandler clientHandler = sslClientCtx.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        SslHandler serverHandler = sslServerCtx.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        serverHandler.setAggregateDecryptedReads(true);
+        assertTrue(serverHandler.isAggregateDecryptedReads());
+        EmbeddedChannel client = new EmbeddedChannel(clientHandler);
+        EmbeddedChannel server = new EmbeddedChannel(serverHandler);
+        try {
+            while (!clientHandler.handshakeFuture().isDone() || !serverHandler.handshakeFuture().isDone()) {
+                forwardAll(client, server);
+                forwardAll(server, client);
+            }
+            assertTrue(serverHandler.handshakeFuture().isSuccess());
+            forwardAll(client, server);
+            server.releaseInbound();
+
+            // Every write results in its own record, and every record is read on its own.
+            List<Object> records = new ArrayList<Object>();
+            for (int i = 0; i < 10; i++) {
+                client.writeAndFlush(Unpooled.wrappedBuffer(new byte[] { (byte) i }));
+                for (;;) {
+                    ByteBuf buf = client.readOutbound();
+                    if (buf == null) {
+                        break;
+                    }
+                    if (buf.isReadable()) {
+                        records.add(buf);
+                    } else {
+                        buf.release();
+                    }
+                }
+            }
+            assertEquals(10, records.size());
+            server.writeInbound(records.toArray());
+
+            // All records of the read loop are passed on at once.
+            ByteBuf decrypted = server.readInbound();
+            assertEquals(10, decrypted.readableBytes());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, decrypted.getByte(i));
+            }
+            decrypted.release();
+            assertNull(server.readInbound());
+        } finally {
+            client.finishAndReleaseAll();
+            server.finishAndReleaseAll();
+            ReferenceCountUtil.release(sslServerCtx);
+            ReferenceCountUtil.release(sslClientCtx);
+            ssc.delete();
+        }
+    }
+
+    @Test
+    public void testHandshakeMetricsJdk() throws Exception {
+        testHandshakeMetrics(SslProvider.JDK);
+    }
+
+    @Test
+    public void testHandshakeMetricsOpenSsl() throws Exception {
+        assumeTrue(OpenSsl.isAvailable());
+        testHandshakeMetrics(SslProvider.OPENSSL);
+    }
+
+    private static void testHandshakeMetrics(SslProvider provider) throws Exception {
+        SelfSignedCertificate ssc = new SelfSignedCertificate();
+        SslContext sslServerCtx = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(provider).build();
+        SslContext sslClientCtx = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sslProvider(provider).build();
+        assertNull(sslServerCtx.handshakeMetrics());
+        // Disabled by default, so nothing is measured.
+        SslHandler unmeasured = sslClientCtx.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        assertNull(unmeasured.handshakeMetrics());
+        ReferenceCountUtil.release(unmeasured.engine());
+
+        sslServerCtx.setHandshakeMetricsEnabled(true);
+        sslClientCtx.setHandshakeMetricsEnabled(true);
+        SslHandshakeMetrics serverMetrics = sslServerCtx.handshakeMetrics();
+        SslHandshakeMetrics clientMetrics = sslClientCtx.handshakeMetrics();
+        SslHandler clientHandler = sslClientCtx.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        SslHandler serverHandler = sslServerCtx.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        assertSame(serverMetrics, serverHandler.handshakeMetrics());
+        EmbeddedChannel client = new EmbeddedChannel(clientHandler);
+        EmbeddedChannel server = new EmbeddedChannel(serverHandler);
+        try {
+            while (!clientHandler.handshakeFuture().isDone() || !serverHandler.handshakeFuture().isDone()) {
+                forwardAll(client, server);
+                forwardAll(server, client);
+            }
+            assertTrue(clientHandler.handshakeFuture().isSuccess());
+            assertTrue(serverHandler.handshakeFuture().isSuccess());
+
+            for (SslHandler handler: new SslHandler[] { clientHandler, serverHandler }) {
+                SslHandshakeTimings timings = handler.handshakeTimings();
+                assertTrue(timings.helloReceivedNanos() - timings.startNanos() >= 0);
+                assertTrue(timings.finishedNanos() - timings.helloReceivedNanos() >= 0);
+                assertEquals(timings.finishedNanos() - timings.startNanos(), timings.totalNanos());
+                assertTrue(timings.keyExchangeNanos() > 0);
+                assertTrue(timings.keyExchangeNanos() + timings.certificateVerifyNanos() <= timings.totalNanos());
+            }
+            for (SslHandshakeMetrics metrics: new SslHandshakeMetrics[] { clientMetrics, serverMetrics }) {
+                assertEquals(1, metrics.handshakes());
+                assertEquals(0, metrics.failures());
+                for (SslHandshakeMetrics.Phase phase: SslHandshakeMetrics.Phase.values()) {
+                    assertEquals(1, metrics.histogram(phase).count());
+                }
+                assertTrue(metrics.histogram(SslHandshakeMetrics.Phase.TOTAL).maxNanos() > 0);
+            }
+        } finally {
+            client.finishAndReleaseAll();
+            server.finishAndReleaseAll();
+            ReferenceCountUtil.release(sslServerCtx);
+            ReferenceCountUtil.release(sslClientCtx);
+            ssc.delete();
+        }
+    }
+
+    private static void forwardAll(EmbeddedChannel from, EmbeddedChannel to) {
+        for (;;) {
+            Object msg = from.readOutbound();
+            if (msg == null) {
+                break;
+            }
+            to.writeInbound(msg);
+        }
+    }
+
     @Test
     public void testOutboundClosedAfterChannelInactive() throws Exception {
         SslContext context = SslContextBuilder.forClient().build();
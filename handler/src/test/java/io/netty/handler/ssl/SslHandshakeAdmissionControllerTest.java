@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SslHandshakeAdmissionControllerTest {
+
+    private static SelfSignedCertificate ssc;
+    private static SslContext serverContext;
+    private static EventLoopGroup group;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        ssc = new SelfSignedCertificate();
+        serverContext = SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey())
+                .sslProvider(SslProvider.JDK).build();
+        group = new DefaultEventLoopGroup(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+        ssc.delete();
+    }
+
+    @Test
+    public void testClassify() {
+        assertClassified(SslHandshakeAdmissionController.FULL_HANDSHAKE, clientHello(0, -1));
+        assertClassified(SslHandshakeAdmissionController.FULL_HANDSHAKE, clientHello(0, 0));
+        assertClassified(SslHandshakeAdmissionController.RESUMPTION, clientHello(32, -1));
+        assertClassified(SslHandshakeAdmissionController.RESUMPTION, clientHello(0, 128));
+        assertClassified(SslHandshakeAdmissionController.FULL_HANDSHAKE,
+                Unpooled.wrappedBuffer("GET / HTTP/1.1\r\n".getBytes()));
+
+        ByteBuf hello = clientHello(32, -1);
+        try {
+            assertClassified(SslHandshakeAdmissionController.NEED_MORE_DATA,
+                    hello.retainedSlice(0, hello.readableBytes() - 1));
+        } finally {
+            hello.release();
+        }
+    }
+
+    @Test
+    public void testRejectsWhenBucketEmpty() {
+        SslHandshakeAdmissionController controller = newController(1, 0, 1000);
+        assertEquals(SslHandshakeAdmissionController.ADMITTED, controller.acquire(false, new TestWaiter()));
+        assertEquals(SslHandshakeAdmissionController.REJECTED, controller.acquire(false, new TestWaiter()));
+        assertEquals(SslHandshakeAdmissionController.REJECTED, controller.acquire(true, new TestWaiter()));
+        assertEquals(1, controller.admitted());
+        assertEquals(2, controller.rejected());
+        assertEquals(0, controller.queueDepth());
+    }
+
+    @Test(timeout = 5000)
+    public void testResumptionPreferred() throws Exception {
+        SslHandshakeAdmissionController controller = new SslHandshakeAdmissionController(
+                group, 5, 1, 1, 10, TimeUnit.SECONDS);
+        assertEquals(SslHandshakeAdmissionController.ADMITTED, controller.acquire(false, new TestWaiter()));
+
+        TestWaiter full = new TestWaiter();
+        assertEquals(SslHandshakeAdmissionController.QUEUED, controller.acquire(false, full));
+        assertEquals(1, controller.queueDepth());
+
+        // The queue is full, so the resumption takes the place of the full handshake.
+        TestWaiter resumption = new TestWaiter();
+        assertEquals(SslHandshakeAdmissionController.QUEUED, controller.acquire(true, resumption));
+        full.rejected.await();
+        resumption.admitted.await();
+
+        assertEquals(0, controller.queueDepth());
+        assertEquals(2, controller.admitted());
+        assertEquals(1, controller.admittedResumptions());
+        assertEquals(2, controller.queued());
+        assertEquals(1, controller.rejected());
+        assertTrue(controller.maxWaitTimeNanos() > 0);
+        assertTrue(controller.totalWaitTimeNanos() >= controller.maxWaitTimeNanos());
+    }
+
+    @Test(timeout = 5000)
+    public void testQueuedHandshakeTimesOut() throws Exception {
+        SslHandshakeAdmissionController controller = newController(1, 1, 50);
+        assertEquals(SslHandshakeAdmissionController.ADMITTED, controller.acquire(false, new TestWaiter()));
+
+        TestWaiter waiter = new TestWaiter();
+        assertEquals(SslHandshakeAdmissionController.QUEUED, controller.acquire(false, waiter));
+        waiter.rejected.await();
+        assertEquals(1, controller.timedOut());
+        assertEquals(1, controller.rejected());
+        assertEquals(0, controller.queueDepth());
+    }
+
+    @Test
+    public void testCancel() {
+        SslHandshakeAdmissionController controller = newController(1, 1, 10000);
+        assertEquals(SslHandshakeAdmissionController.ADMITTED, controller.acquire(false, new TestWaiter()));
+        TestWaiter waiter = new TestWaiter();
+        assertEquals(SslHandshakeAdmissionController.QUEUED, controller.acquire(false, waiter));
+        controller.cancel(waiter);
+        assertEquals(0, controller.queueDepth());
+    }
+
+    @Test
+    public void testSslHandlerSendsAlertWhenRejected() throws Exception {
+        SslHandshakeAdmissionController controller = newController(1, 0, 1000);
+
+        EmbeddedChannel admitted = newServerChannel(controller);
+        admitted.writeInbound(jdkClientHello());
+        ByteBuf serverHello = admitted.readOutbound();
+        assertEquals(SslUtils.SSL_CONTENT_TYPE_HANDSHAKE, serverHello.getUnsignedByte(0));
+        serverHello.release();
+        assertTrue(admitted.isActive());
+        admitted.finishAndReleaseAll();
+
+        EmbeddedChannel rejected = newServerChannel(controller);
+        SslHandler handler = rejected.pipeline().get(SslHandler.class);
+        ByteBuf hello = jdkClientHello();
+        int recordVersion = hello.getUnsignedShort(1);
+        rejected.writeInbound(hello);
+        ByteBuf alert = rejected.readOutbound();
+        try {
+            assertEquals(7, alert.readableBytes());
+            assertEquals(SslUtils.SSL_CONTENT_TYPE_ALERT, alert.getUnsignedByte(0));
+            assertEquals(recordVersion, alert.getUnsignedShort(1));
+            assertEquals(2, alert.getUnsignedByte(5));
+            assertEquals(80, alert.getUnsignedByte(6));
+        } finally {
+            alert.release();
+        }
+        assertFalse(rejected.isActive());
+        assertFalse(handler.handshakeFuture().isSuccess());
+        rejected.finishAndReleaseAll();
+        assertEquals(1, controller.rejected());
+    }
+
+    @Test
+    public void testSslHandlerStopsReadingWhileQueued() throws Exception {
+        SslHandshakeAdmissionController controller = newController(1, 1, 10000);
+        assertEquals(SslHandshakeAdmissionController.ADMITTED, controller.acquire(false, new TestWaiter()));
+
+        EmbeddedChannel queued = newServerChannel(controller);
+        queued.writeInbound(jdkClientHello());
+        assertEquals(1, controller.queueDepth());
+        // No more data is read while the handshake waits, so the cumulation can not grow.
+        assertFalse(queued.config().isAutoRead());
+
+        // Cancelling the admission restores autoRead.
+        queued.pipeline().remove(SslHandler.class);
+        assertEquals(0, controller.queueDepth());
+        assertTrue(queued.config().isAutoRead());
+        queued.finishAndReleaseAll();
+    }
+
+    private static SslHandshakeAdmissionController newController(int burst, int maxQueueSize, long maxWaitMillis) {
+        // Practically no tokens are added while the test runs.
+        return new SslHandshakeAdmissionController(group, 0.001, burst, maxQueueSize, maxWaitMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static EmbeddedChannel newServerChannel(SslHandshakeAdmissionController controller) {
+        SslHandler handler = serverContext.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        handler.setHandshakeAdmissionController(controller);
+        return new EmbeddedChannel(handler);
+    }
+
+    private static ByteBuf jdkClientHello() throws Exception {
+        SSLEngine client = SSLContext.getDefault().createSSLEngine();
+        client.setUseClientMode(true);
+        ByteBuffer out = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        client.wrap(ByteBuffer.allocate(0), out);
+        out.flip();
+        return Unpooled.wrappedBuffer(out);
+    }
+
+    private static void assertClassified(int expected, ByteBuf in) {
+        try {
+            int readerIndex = in.readerIndex();
+            assertEquals(expected, SslHandshakeAdmissionController.classify(in));
+            assertEquals(readerIndex, in.readerIndex());
+        } finally {
+            in.release();
+        }
+    }
+
+    /**
+     * @param sessionIdLength the length of the session ID to offer
+     * @param ticketLength the length of the session ticket to offer, or {@code -1} to not send the extension
+     */
+    private static ByteBuf clientHello(int sessionIdLength, int ticketLength) {
+        ByteBuf body = Unpooled.buffer();
+        body.writeShort(0x0303);
+        body.writeZero(32);
+        body.writeByte(sessionIdLength).writeZero(sessionIdLength);
+        body.writeShort(2).writeShort(0xC02F);
+        body.writeByte(1).writeByte(0);
+        ByteBuf extensions = Unpooled.buffer();
+        // server_name
+        extensions.writeShort(0).writeShort(0);
+        if (ticketLength >= 0) {
+            extensions.writeShort(35).writeShort(ticketLength).writeZero(ticketLength);
+        }
+        body.writeShort(extensions.readableBytes()).writeBytes(extensions);
+        extensions.release();
+
+        ByteBuf hello = Unpooled.buffer();
+        hello.writeByte(SslUtils.SSL_CONTENT_TYPE_HANDSHAKE);
+        hello.writeShort(0x0301);
+        hello.writeShort(body.readableBytes() + 4);
+        hello.writeByte(1).writeMedium(body.readableBytes());
+        hello.writeBytes(body);
+        body.release();
+        return hello;
+    }
+
+    private static final class TestWaiter extends SslHandshakeAdmissionController.Waiter {
+        final CountDownLatch admitted = new CountDownLatch(1);
+        final CountDownLatch rejected = new CountDownLatch(1);
+
+        @Override
+        void admitted() {
+            admitted.countDown();
+        }
+
+        @Override
+        void rejected() {
+            rejected.countDown();
+        }
+    }
+}
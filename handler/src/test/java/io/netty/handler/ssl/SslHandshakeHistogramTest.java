@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SslHandshakeHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        int lastIndex = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = SslHandshakeHistogram.index(value);
+            // Buckets are contiguous and every value is at most the highest value of its bucket.
+            assertTrue(index == lastIndex || index == lastIndex + 1);
+            assertTrue(value <= SslHandshakeHistogram.highestValue(index));
+            assertTrue(index == 0 || value > SslHandshakeHistogram.highestValue(index - 1));
+            // Precision is better than 1/16.
+            assertTrue(SslHandshakeHistogram.highestValue(index) - value <= value / 16);
+            lastIndex = index;
+        }
+        assertEquals(Long.MAX_VALUE, SslHandshakeHistogram.highestValue(SslHandshakeHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        SslHandshakeHistogram histogram = new SslHandshakeHistogram();
+        assertEquals(0, histogram.valueAtPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1000000, histogram.maxNanos());
+        assertEquals(500500000, histogram.totalNanos());
+        assertEquals(500500, histogram.meanNanos(), 0.1);
+        assertWithinPrecision(500000, histogram.valueAtPercentile(50));
+        assertWithinPrecision(990000, histogram.valueAtPercentile(99));
+        assertEquals(1000000, histogram.valueAtPercentile(100));
+        assertWithinPrecision(1000, histogram.valueAtPercentile(0));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected: " + expected + ", actual: " + actual,
+                actual >= expected && actual - expected <= expected / 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new SslHandshakeHistogram().valueAtPercentile(101);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl.ocsp;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class OcspStapleManagerTest {
+
+    private SelfSignedCertificate ssc;
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        ssc = new SelfSignedCertificate();
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        ssc.delete();
+    }
+
+    @Test
+    public void testRegisterCachesResponse() throws Exception {
+        Responder responder = new Responder(60000);
+        OcspStapleManager manager = new OcspStapleManager(responder, executor);
+        X509Certificate certificate = ssc.cert();
+        assertNull(manager.response(certificate));
+
+        manager.register(certificate, certificate).get(10, TimeUnit.SECONDS);
+        byte[] response = manager.response(certificate);
+        assertNotNull(response);
+        assertArrayEquals(responder.responses.poll(), response);
+        assertEquals(OCSPResp.SUCCESSFUL, new OCSPResp(response).getStatus());
+
+        assertTrue(manager.unregister(certificate));
+        assertNull(manager.response(certificate));
+        assertFalse(manager.unregister(certificate));
+        assertEquals(1, responder.fetches.get());
+    }
+
+    @Test
+    public void testRefreshBeforeNextUpdate() throws Exception {
+        Responder responder = new Responder(1000);
+        OcspStapleManager manager = new OcspStapleManager(responder, executor, 800, 100);
+        X509Certificate certificate = ssc.cert();
+        try {
+            manager.register(certificate, certificate).get(10, TimeUnit.SECONDS);
+            assertNotNull(responder.responses.take());
+            // The response is valid for less than twice the refresh ahead time, so it is refreshed halfway.
+            assertNotNull(responder.responses.poll(10, TimeUnit.SECONDS));
+            assertTrue(responder.fetches.get() >= 2);
+        } finally {
+            manager.close();
+        }
+        assertNull(manager.response(certificate));
+    }
+
+    @Test
+    public void testRetryAfterFailure() throws Exception {
+        Responder responder = new Responder(60000);
+        responder.failures.set(2);
+        OcspStapleManager manager = new OcspStapleManager(responder, executor, 1000, 50);
+        X509Certificate certificate = ssc.cert();
+        try {
+            manager.register(certificate, certificate).get(10, TimeUnit.SECONDS);
+            assertNull(manager.response(certificate));
+            byte[] response = responder.responses.poll(10, TimeUnit.SECONDS);
+            assertNotNull(response);
+            assertEquals(3, responder.fetches.get());
+            // The response is published right after it was produced by the responder.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (manager.response(certificate) == null && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertArrayEquals(response, manager.response(certificate));
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testExpiredResponseIsNotStapled() throws Exception {
+        Responder responder = new Responder(-1000);
+        OcspStapleManager manager = new OcspStapleManager(responder, executor, 60000, 60000);
+        X509Certificate certificate = ssc.cert();
+        try {
+            manager.register(certificate, certificate).get(10, TimeUnit.SECONDS);
+            assertNotNull(responder.responses.poll());
+            assertNull(manager.response(certificate));
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testRefreshDelay() {
+        OcspStapleManager manager = new OcspStapleManager(new Responder(0), executor, 1000, 10);
+        assertEquals(1000, manager.refreshDelay(0, 5000));
+        assertEquals(9000, manager.refreshDelay(15000, 5000));
+        assertEquals(750, manager.refreshDelay(6500, 5000));
+        assertEquals(10, manager.refreshDelay(5000, 5000));
+    }
+
+    @Test
+    public void testRequestForResponder() throws Exception {
+        X509Certificate certificate = ssc.cert();
+        OCSPReq request = new OCSPReq(HttpOcspResponseSource.newRequest(certificate, certificate));
+        assertEquals(1, request.getRequestList().length);
+        assertEquals(certificate.getSerialNumber(), request.getRequestList()[0].getCertID().getSerialNumber());
+        assertNull(HttpOcspResponseSource.responderUri(certificate));
+    }
+
+    @Test(timeout = 30000)
+    public void testStapledInHandshake() throws Exception {
+        assumeTrue(OpenSsl.isOcspSupported());
+        assumeTrue(OpenSsl.supportsKeyManagerFactory());
+        Responder responder = new Responder(60000);
+        OcspStapleManager manager = new OcspStapleManager(responder, executor);
+        X509Certificate certificate = ssc.cert();
+
+        // Built from a KeyManagerFactory, so the engines do not know their local certificate, just like GM contexts.
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("key", ssc.key(), new char[0], new Certificate[] { certificate });
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, new char[0]);
+        SslContext serverCtx = SslContextBuilder.forServer(kmf)
+                .sslProvider(SslProvider.OPENSSL_REFCNT)
+                .enableOcsp(true)
+                .build();
+        SslContext clientCtx = SslContextBuilder.forClient()
+                .sslProvider(SslProvider.OPENSSL_REFCNT)
+                .enableOcsp(true)
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .build();
+        ReferenceCountedOpenSslEngine client = null;
+        ReferenceCountedOpenSslEngine server = null;
+        try {
+            SslContext staplingCtx = manager.newContext(serverCtx, certificate);
+
+            // Nothing is stapled before the response was fetched.
+            server = (ReferenceCountedOpenSslEngine) staplingCtx.newEngine(UnpooledByteBufAllocator.DEFAULT);
+            assertFalse(manager.attach(server, certificate));
+            server.release();
+
+            manager.register(certificate, certificate).get(10, TimeUnit.SECONDS);
+            byte[] response = manager.response(certificate);
+            assertNotNull(response);
+
+            client = (ReferenceCountedOpenSslEngine) clientCtx.newEngine(UnpooledByteBufAllocator.DEFAULT);
+            server = (ReferenceCountedOpenSslEngine) staplingCtx.newEngine(UnpooledByteBufAllocator.DEFAULT);
+            handshake(client, server);
+            assertArrayEquals(response, client.getOcspResponse());
+        } finally {
+            manager.close();
+            if (client != null) {
+                client.release();
+            }
+            if (server != null) {
+                server.release();
+            }
+            ReferenceCountUtil.release(serverCtx);
+            ReferenceCountUtil.release(clientCtx);
+        }
+    }
+
+    private static void handshake(SSLEngine client, SSLEngine server) throws SSLException {
+        ByteBuffer cTOs = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        ByteBuffer sTOc = ByteBuffer.allocate(server.getSession().getPacketBufferSize());
+        ByteBuffer clientIn = ByteBuffer.allocate(client.getSession().getApplicationBufferSize());
+        ByteBuffer serverIn = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        client.beginHandshake();
+        server.beginHandshake();
+        boolean clientFinished = false;
+        boolean serverFinished = false;
+        while (!clientFinished || !serverFinished) {
+            if (!clientFinished) {
+                clientFinished = isFinished(client, client.wrap(empty, cTOs));
+            }
+            if (!serverFinished) {
+                serverFinished = isFinished(server, server.wrap(empty, sTOc));
+            }
+            cTOs.flip();
+            sTOc.flip();
+            if (!clientFinished) {
+                clientFinished = isFinished(client, client.unwrap(sTOc, clientIn));
+            }
+            if (!serverFinished) {
+                serverFinished = isFinished(server, server.unwrap(cTOs, serverIn));
+            }
+            cTOs.compact();
+            sTOc.compact();
+        }
+    }
+
+    private static boolean isFinished(SSLEngine engine, SSLEngineResult result) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+        return result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    /**
+     * Stand-in for an OCSP responder which signs a new response with the key of the self-signed certificate on each
+     * fetch.
+     */
+    private final class Responder implements OcspResponseSource {
+        final AtomicInteger fetches = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final BlockingQueue<byte[]> responses = new LinkedBlockingQueue<byte[]>();
+        private final long validityMillis;
+
+        Responder(long validityMillis) {
+            this.validityMillis = validityMillis;
+        }
+
+        @Override
+        public byte[] fetch(X509Certificate certificate, X509Certificate issuer) throws Exception {
+            fetches.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("responder unavailable");
+            }
+            X509CertificateHolder issuerHolder = new JcaX509CertificateHolder(issuer);
+            CertificateID id = new CertificateID(new JcaDigestCalculatorProviderBuilder().build()
+                    .get(CertificateID.HASH_SHA1), issuerHolder, certificate.getSerialNumber());
+            long now = System.currentTimeMillis();
+            BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(new RespID(new X500Name(
+                    issuer.getSubjectX500Principal().getName())));
+            builder.addResponse(id, CertificateStatus.GOOD, new Date(now - 1000), new Date(now + validityMillis),
+                                null);
+            byte[] response = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, builder.build(
+                    new JcaContentSignerBuilder("SHA256withRSA").build(ssc.key()),
+                    new X509CertificateHolder[] { issuerHolder }, new Date(now))).getEncoded();
+            responses.add(response);
+            return response;
+        }
+    }
+}
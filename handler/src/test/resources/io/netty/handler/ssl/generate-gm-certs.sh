@@ -0,0 +1,35 @@
+#!/bin/bash
+# Generates the SM2/SM3 (GM) certificates used by the GM tests. OpenSSL 3.x is required. Every signature is made
+# with the default SM2 distinguishing identifier "1234567812345678" of GM/T 0009-2012.
+SIGOPT="-sm3 -sigopt distid:1234567812345678"
+VFYOPT="-vfyopt distid:1234567812345678"
+
+# Generate a self-signed SM2 root CA
+openssl genpkey -algorithm EC -pkeyopt ec_paramgen_curve:SM2 -out gm_ca.key
+openssl req -new -x509 -days 36500 -key gm_ca.key -subj "/C=CN/O=Netty/CN=NettyGMTestRoot" $SIGOPT \
+    -addext "basicConstraints=critical,CA:TRUE" -addext "keyUsage=critical,keyCertSign,cRLSign" -out gm_ca.pem
+
+# Generate the signing and encryption certificate/key pairs for the server and the client
+for name in server_sign server_enc client_sign client_enc; do
+  case $name in
+    *_sign) ku="digitalSignature,nonRepudiation" ;;
+    *) ku="keyEncipherment,dataEncipherment,keyAgreement" ;;
+  esac
+  openssl genpkey -algorithm EC -pkeyopt ec_paramgen_curve:SM2 -out gm_${name}.key
+  openssl req -new -key gm_${name}.key -subj "/C=CN/O=Netty/CN=localhost" $SIGOPT -out gm_${name}.csr
+  printf "keyUsage=critical,$ku\nsubjectKeyIdentifier=hash\nauthorityKeyIdentifier=keyid\n" > gm_ext.cnf
+  openssl x509 -req -in gm_${name}.csr $VFYOPT -CA gm_ca.pem -CAkey gm_ca.key -days 36500 -set_serial $RANDOM \
+      $SIGOPT -extfile gm_ext.cnf -out gm_${name}.pem
+done
+
+# Generate a certificate issued by a CA with the same subject as gm_ca.pem, but a different key
+openssl genpkey -algorithm EC -pkeyopt ec_paramgen_curve:SM2 -out gm_untrusted_ca.key
+openssl req -new -x509 -days 36500 -key gm_untrusted_ca.key -subj "/C=CN/O=Netty/CN=NettyGMTestRoot" $SIGOPT \
+    -addext "basicConstraints=critical,CA:TRUE" -addext "keyUsage=critical,keyCertSign,cRLSign" -out gm_untrusted_ca.pem
+openssl genpkey -algorithm EC -pkeyopt ec_paramgen_curve:SM2 -out gm_untrusted.key
+openssl req -new -key gm_untrusted.key -subj "/C=CN/O=Netty/CN=localhost" $SIGOPT -out gm_untrusted.csr
+openssl x509 -req -in gm_untrusted.csr $VFYOPT -CA gm_untrusted_ca.pem -CAkey gm_untrusted_ca.key -days 36500 \
+    -set_serial $RANDOM $SIGOPT -out gm_untrusted.pem
+
+# Clean up intermediate files
+rm gm_*.csr gm_ext.cnf gm_ca.key gm_untrusted_ca.key gm_untrusted_ca.pem gm_untrusted.key
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.ssl;
+
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of cipher suite names done for every {@link javax.net.ssl.SSLSession#getCipherSuite()} of
+ * an OpenSSL engine and for every context that is built. Run with {@code -prof gc} to see the allocations.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 8)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CipherSuiteConverterBenchmark extends AbstractMicrobenchmark {
+
+    public enum CipherSuites {
+        COMMON("ECDHE-RSA-AES128-GCM-SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+                "ECDHE-ECDSA-CHACHA20-POLY1305", "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+                "AES256-SHA", "TLS_RSA_WITH_AES_256_CBC_SHA"),
+        GM("ECC-SM4-SM3", "TLS_ECC_WITH_SM4_SM3",
+                "ECDHE-SM4-SM3", "TLS_ECDHE_WITH_SM4_SM3");
+
+        final String[] openSsl;
+        final String[] java;
+
+        CipherSuites(String... pairs) {
+            openSsl = new String[pairs.length / 2];
+            java = new String[pairs.length / 2];
+            for (int i = 0; i < openSsl.length; i++) {
+                openSsl[i] = pairs[2 * i];
+                java[i] = pairs[2 * i + 1];
+            }
+        }
+    }
+
+    @Param
+    public CipherSuites cipherSuites;
+
+    private String[] openSsl;
+    private String[] java;
+
+    @Setup
+    public void setup() {
+        // Use copies so lookups can not short circuit on reference equality, the names returned by OpenSSL are new
+        // strings as well.
+        openSsl = copy(cipherSuites.openSsl);
+        java = copy(cipherSuites.java);
+    }
+
+    private static String[] copy(String[] names) {
+        String[] copy = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            copy[i] = new String(names[i].toCharArray());
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public void toJava(Blackhole bh) {
+        for (String name: openSsl) {
+            bh.consume(CipherSuiteConverter.toJava(name, "TLS"));
+        }
+    }
+
+    @Benchmark
+    public void toOpenSsl(Blackhole bh) {
+        for (String name: java) {
+            bh.consume(CipherSuiteConverter.toOpenSsl(name));
+        }
+    }
+
+    @Benchmark
+    public void toJavaUncached(Blackhole bh) {
+        for (String name: openSsl) {
+            bh.consume(CipherSuiteConverter.toJavaUncached(name));
+        }
+    }
+
+    @Benchmark
+    public void toOpenSslUncached(Blackhole bh) {
+        for (String name: java) {
+            bh.consume(CipherSuiteConverter.toOpenSslUncached(name));
+        }
+    }
+}
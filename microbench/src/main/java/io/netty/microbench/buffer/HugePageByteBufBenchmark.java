@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads and writes random locations of pooled direct buffers that span far more memory than the TLB covers with
+ * regular pages, once with chunks from regular direct memory and once with chunks mapped from huge pages.
+ * <p>
+ * The huge page directory is read when {@link PooledByteBufAllocator} is initialized, which works here as every
+ * parameter combination runs in its own fork. It must be a hugetlbfs mount with enough free huge pages for
+ * {@code totalMiB}, for example {@code /dev/hugepages} after {@code sysctl vm.nr_hugepages=160}. Otherwise the arena
+ * falls back to regular direct memory and logs why.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class HugePageByteBufBenchmark extends AbstractMicrobenchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({ "", "/dev/hugepages" })
+    public String hugePageDirectory;
+
+    @Param({ "256" })
+    public int totalMiB;
+
+    private ByteBuf[] buffers;
+    private int bufferMask;
+    private long seed = 0x2545F4914F6CDD1DL;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (!hugePageDirectory.isEmpty()) {
+            System.setProperty("io.netty.allocator.hugePageDirectory", hugePageDirectory);
+        }
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(true, 0, 1, 8192, 11, 0, 0, 0, true);
+        buffers = new ByteBuf[totalMiB * 1024 * 1024 / BUFFER_SIZE];
+        bufferMask = buffers.length - 1;
+        if ((buffers.length & bufferMask) != 0) {
+            throw new IllegalStateException("totalMiB must be a power of two: " + totalMiB);
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = allocator.directBuffer(BUFFER_SIZE, BUFFER_SIZE).writeZero(BUFFER_SIZE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        for (ByteBuf buffer: buffers) {
+            buffer.release();
+        }
+    }
+
+    private long nextRandom() {
+        // xorshift64, cheap enough to not hide the cost of the memory accesses.
+        long x = seed;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        seed = x;
+        return x;
+    }
+
+    @Benchmark
+    public long randomGetLong() {
+        long random = nextRandom();
+        ByteBuf buffer = buffers[(int) random & bufferMask];
+        return buffer.getLong((int) (random >>> 32) & (BUFFER_SIZE - 8));
+    }
+
+    @Benchmark
+    public ByteBuf randomSetLong() {
+        long random = nextRandom();
+        ByteBuf buffer = buffers[(int) random & bufferMask];
+        return buffer.setLong((int) (random >>> 32) & (BUFFER_SIZE - 8), random);
+    }
+}
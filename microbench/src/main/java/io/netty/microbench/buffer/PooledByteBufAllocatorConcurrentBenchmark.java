@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.buffer;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocates from a single arena with many threads and without thread caches, so every allocation contends on the
+ * arena and the effect of {@code arenaLockStripes} can be compared.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(64)
+public class PooledByteBufAllocatorConcurrentBenchmark extends AbstractMicrobenchmark {
+
+    @Param({ "1", "4", "16" })
+    public int arenaLockStripes;
+
+    @Param({ "00256", "08192", "65536" })
+    public int size;
+
+    private ByteBufAllocator allocator;
+
+    @Setup
+    public void setup() {
+        allocator = new PooledByteBufAllocator(true, 0, 1, 8192, 11, 0, 0, 0, true, 0, arenaLockStripes);
+    }
+
+    @Benchmark
+    public boolean allocateRelease() {
+        return allocator.directBuffer(size).release();
+    }
+}
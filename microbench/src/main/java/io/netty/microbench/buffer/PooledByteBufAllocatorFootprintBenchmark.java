@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Keeps a fixed number of buffers of random sizes alive and replaces the oldest one on every operation, to compare
+ * how much of the memory of the arena is actually requested with and without size classes. Besides the throughput
+ * it reports the bytes requested by the live buffers and the bytes of the chunks that are in use for them.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(1)
+public class PooledByteBufAllocatorFootprintBenchmark extends AbstractMicrobenchmark {
+
+    private static final int NUM_LIVE_BUFFERS = 4096;
+
+    @Param({ "false", "true" })
+    public boolean useSizeClasses;
+
+    @Param({ "01024", "16384", "65536" })
+    public int maxSize;
+
+    private PooledByteBufAllocator allocator;
+    private PoolArenaMetric arena;
+    private ByteBuf[] buffers;
+    private int[] sizes;
+    private int next;
+    private long requestedBytes;
+
+    /**
+     * The bytes at the end of the last iteration, which are simply set, so they are reported as is.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long requestedBytes;
+        public long usedBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // No thread caches, so all memory that is not requested by a live buffer is wasted by the arena.
+        allocator = new PooledByteBufAllocator(true, 0, 1, 8192, 11, 0, 0, 0, true, 0, 1, 0, useSizeClasses);
+        arena = allocator.metric().directArenas().get(0);
+        Random random = new Random(42);
+        sizes = new int[NUM_LIVE_BUFFERS * 16];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = 1 + random.nextInt(maxSize);
+        }
+        buffers = new ByteBuf[NUM_LIVE_BUFFERS];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = allocator.directBuffer(sizes[i]);
+            requestedBytes += sizes[i];
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        for (ByteBuf buffer: buffers) {
+            buffer.release();
+        }
+    }
+
+    @Benchmark
+    public ByteBuf replaceOldest(Footprint footprint) {
+        int i = next ++;
+        int idx = i & NUM_LIVE_BUFFERS - 1;
+        ByteBuf buffer = buffers[idx];
+        requestedBytes -= buffer.capacity();
+        buffer.release();
+        int size = sizes[i & sizes.length - 1];
+        buffer = buffers[idx] = allocator.directBuffer(size);
+        requestedBytes += size;
+        if (idx == 0) {
+            footprint.requestedBytes = requestedBytes;
+            footprint.usedBytes = arena.numUsedBytes();
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.buffer;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of allocating and releasing buffers with and without size classes, once served from the
+ * thread cache and once from the arena, for sizes just above a power of two that benefit most from size classes.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PooledByteBufAllocatorSizeClassesBenchmark extends AbstractMicrobenchmark {
+
+    @Param({ "false", "true" })
+    public boolean useSizeClasses;
+
+    @Param({ "00256", "01100", "09216", "17408", "40000" })
+    public int size;
+
+    private ByteBufAllocator cachedAllocator;
+    private ByteBufAllocator uncachedAllocator;
+
+    @Setup
+    public void setup() {
+        cachedAllocator = new PooledByteBufAllocator(true, 0, 1, 8192, 11, 512, 256, 64, true, 0, 1, 0,
+                                                     useSizeClasses);
+        uncachedAllocator = new PooledByteBufAllocator(true, 0, 1, 8192, 11, 0, 0, 0, true, 0, 1, 0,
+                                                       useSizeClasses);
+    }
+
+    @Benchmark
+    public boolean allocateReleaseCached() {
+        return cachedAllocator.directBuffer(size).release();
+    }
+
+    @Benchmark
+    public boolean allocateReleaseUncached() {
+        return uncachedAllocator.directBuffer(size).release();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.SslContext;
+import io.netty.microbench.handler.ssl.AbstractSslEngineBenchmark.BufferType;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Base class for the {@link SSLEngine} level GM benchmarks. The contexts are built through
+ * {@link io.netty.handler.ssl.SslContextGMBuilder} with an encryption and a signing certificate on each side.
+ */
+public abstract class AbstractGMSslEngineBenchmark extends AbstractMicrobenchmark {
+
+    static final String PEER_HOST = "localhost";
+    static final int PEER_PORT = 8443;
+
+    @Param
+    public BufferType bufferType;
+
+    @Param({ GMSslContexts.TLS_ECDHE_WITH_SM4_SM3, GMSslContexts.TLS_ECC_WITH_SM4_SM3 })
+    public String cipher;
+
+    protected SSLEngine clientEngine;
+    protected SSLEngine serverEngine;
+
+    private SslContext clientContext;
+    private SslContext serverContext;
+
+    private ByteBuffer cTOs;
+    private ByteBuffer sTOc;
+    private ByteBuffer serverAppReadBuffer;
+    private ByteBuffer clientAppReadBuffer;
+    private ByteBuffer empty;
+
+    @Setup(Level.Trial)
+    public final void setupContexts() throws Exception {
+        clientContext = GMSslContexts.newClientContext(cipher);
+        serverContext = GMSslContexts.newServerContext(cipher);
+    }
+
+    @TearDown(Level.Trial)
+    public final void tearDownContexts() {
+        ReferenceCountUtil.release(clientContext);
+        ReferenceCountUtil.release(serverContext);
+    }
+
+    protected final void initEngines(ByteBufAllocator allocator) {
+        initEngines(allocator, false);
+    }
+
+    /**
+     * Create a new pair of engines. If {@code resumable} is {@code true} the client engine is created for a fixed
+     * peer so the client context may offer the session of an earlier handshake with the same server.
+     */
+    protected final void initEngines(ByteBufAllocator allocator, boolean resumable) {
+        clientEngine = resumable ? clientContext.newEngine(allocator, PEER_HOST, PEER_PORT)
+                : clientContext.newEngine(allocator);
+        serverEngine = serverContext.newEngine(allocator);
+    }
+
+    protected final void destroyEngines() {
+        ReferenceCountUtil.release(clientEngine);
+        ReferenceCountUtil.release(serverEngine);
+    }
+
+    protected final void initHandshakeBuffers() {
+        cTOs = allocateBuffer(clientEngine.getSession().getPacketBufferSize());
+        sTOc = allocateBuffer(serverEngine.getSession().getPacketBufferSize());
+        serverAppReadBuffer = allocateBuffer(serverEngine.getSession().getApplicationBufferSize());
+        clientAppReadBuffer = allocateBuffer(clientEngine.getSession().getApplicationBufferSize());
+        empty = allocateBuffer(0);
+    }
+
+    protected final void destroyHandshakeBuffers() {
+        freeBuffer(cTOs);
+        freeBuffer(sTOc);
+        freeBuffer(serverAppReadBuffer);
+        freeBuffer(clientAppReadBuffer);
+        freeBuffer(empty);
+    }
+
+    protected final boolean doHandshake() throws SSLException {
+        cTOs.clear();
+        sTOc.clear();
+        clientEngine.beginHandshake();
+        serverEngine.beginHandshake();
+
+        SSLEngineResult clientResult = null;
+        SSLEngineResult serverResult = null;
+
+        boolean clientHandshakeFinished = false;
+        boolean serverHandshakeFinished = false;
+
+        do {
+            if (!clientHandshakeFinished) {
+                clientResult = clientEngine.wrap(empty, cTOs);
+                runDelegatedTasks(clientResult, clientEngine);
+                clientHandshakeFinished = isHandshakeFinished(clientResult);
+            }
+
+            if (!serverHandshakeFinished) {
+                serverResult = serverEngine.wrap(empty, sTOc);
+                runDelegatedTasks(serverResult, serverEngine);
+                serverHandshakeFinished = isHandshakeFinished(serverResult);
+            }
+
+            cTOs.flip();
+            sTOc.flip();
+
+            if (!clientHandshakeFinished) {
+                clientAppReadBuffer.clear();
+                clientResult = clientEngine.unwrap(sTOc, clientAppReadBuffer);
+                runDelegatedTasks(clientResult, clientEngine);
+                clientHandshakeFinished = isHandshakeFinished(clientResult);
+            }
+
+            if (!serverHandshakeFinished) {
+                serverAppReadBuffer.clear();
+                serverResult = serverEngine.unwrap(cTOs, serverAppReadBuffer);
+                runDelegatedTasks(serverResult, serverEngine);
+                serverHandshakeFinished = isHandshakeFinished(serverResult);
+            }
+
+            sTOc.compact();
+            cTOs.compact();
+        } while (!clientHandshakeFinished || !serverHandshakeFinished);
+        return clientResult.getStatus() == SSLEngineResult.Status.OK &&
+                serverResult.getStatus() == SSLEngineResult.Status.OK;
+    }
+
+    protected final ByteBuffer allocateBuffer(int size) {
+        return bufferType.newBuffer(size);
+    }
+
+    protected final void freeBuffer(ByteBuffer buffer) {
+        bufferType.freeBuffer(buffer);
+    }
+
+    private static boolean isHandshakeFinished(SSLEngineResult result) {
+        return result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private static void runDelegatedTasks(SSLEngineResult result, SSLEngine engine) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            for (;;) {
+                Runnable task = engine.getDelegatedTask();
+                if (task == null) {
+                    break;
+                }
+                task.run();
+            }
+        }
+    }
+}
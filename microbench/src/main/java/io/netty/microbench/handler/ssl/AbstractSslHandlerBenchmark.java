@@ -123,6 +123,13 @@ public class AbstractSslHandlerBenchmark extends AbstractMicrobenchmark {
         serverSslHandler = newServerHandler(allocator);
         clientCtx = new SslThroughputBenchmarkHandlerContext(allocator, clientSslHandler, COMPOSITE_CUMULATOR);
         serverCtx = new SslThroughputBenchmarkHandlerContext(allocator, serverSslHandler, COMPOSITE_CUMULATOR);
+        configureSslHandlers();
+    }
+
+    /**
+     * Called once the {@link SslHandler}s were created and before the handshake, override to configure them.
+     */
+    protected void configureSslHandlers() {
     }
 
     protected final void destroySslHandlers() {
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.GMCertEntry;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextGMBuilder;
+import io.netty.util.CharsetUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import javax.net.ssl.SSLException;
+
+/**
+ * Builds the GM {@link SslContext}s used by the GM benchmarks. Every side uses a signing and an encryption
+ * certificate issued by {@code gm_ca.pem}; these are the same files as the handler test resources and are
+ * generated by {@code handler/src/test/resources/io/netty/handler/ssl/generate-gm-certs.sh}.
+ */
+final class GMSslContexts {
+
+    /**
+     * Java names of the GM cipher suites listed in {@code SslUtils}, which map to {@code ECDHE-SM4-SM3} and
+     * {@code ECC-SM4-SM3} in OpenSSL.
+     */
+    static final String TLS_ECDHE_WITH_SM4_SM3 = "TLS_ECDHE_WITH_SM4_SM3";
+    static final String TLS_ECC_WITH_SM4_SM3 = "TLS_ECC_WITH_SM4_SM3";
+
+    private GMSslContexts() { }
+
+    static SslContext newServerContext(String cipher) throws SSLException {
+        return newServerContext(cipher, false);
+    }
+
+    /**
+     * @param offloadPrivateKeyOperations see {@link SslContextGMBuilder#offloadPrivateKeyOperations(boolean)}
+     */
+    static SslContext newServerContext(String cipher, boolean offloadPrivateKeyOperations) throws SSLException {
+        return SslContextGMBuilder.forServer(certEntry("gm_server_enc"), certEntry("gm_server_sign"), null)
+                .trustManager(trustCertificate())
+                .ciphers(Collections.singletonList(cipher))
+                // The ECDHE key exchange of GM/T 0024 needs the encryption certificate of the client as well.
+                .clientAuth(TLS_ECDHE_WITH_SM4_SM3.equals(cipher) ? ClientAuth.REQUIRE : ClientAuth.NONE)
+                .offloadPrivateKeyOperations(offloadPrivateKeyOperations)
+                .build();
+    }
+
+    static SslContext newClientContext(String cipher) throws SSLException {
+        return SslContextGMBuilder.forClient()
+                .keyManager(certEntry("gm_client_enc"), certEntry("gm_client_sign"), null)
+                .trustManager(trustCertificate())
+                .ciphers(Collections.singletonList(cipher))
+                .build();
+    }
+
+    // SslContextGMBuilder.trustManager(String...) takes base64 encoded DER without the PEM armor.
+    private static String trustCertificate() {
+        return readResource("gm_ca.pem")
+                .replace("-----BEGIN CERTIFICATE-----", "")
+                .replace("-----END CERTIFICATE-----", "")
+                .replaceAll("\\s", "");
+    }
+
+    private static GMCertEntry certEntry(String name) {
+        return new GMCertEntry(readResource(name + ".pem"), readResource(name + ".key"));
+    }
+
+    private static String readResource(String name) {
+        InputStream in = GMSslContexts.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IllegalStateException("missing resource: " + name);
+        }
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                for (;;) {
+                    int r = in.read(buf);
+                    if (r < 0) {
+                        break;
+                    }
+                    out.write(buf, 0, r);
+                }
+                return new String(out.toByteArray(), CharsetUtil.US_ASCII);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete GM handshake between a client and a server engine, including the SM2 signature of the
+ * server key exchange and the validation of the peer chain.
+ */
+@State(Scope.Benchmark)
+@Threads(1)
+public class GMSslEngineHandshakeBenchmark extends AbstractGMSslEngineBenchmark {
+
+    public enum HandshakeType {
+        /**
+         * Every handshake starts without any session to resume.
+         */
+        FULL,
+        /**
+         * Every client engine is created for the same peer, so it can resume the session established by the
+         * handshake done in the setup if the client context caches sessions.
+         */
+        RESUMED
+    }
+
+    @Param
+    public HandshakeType handshakeType;
+
+    private ByteBufAllocator allocator;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        allocator = new PooledByteBufAllocator(true);
+        // Init an engine one time and create the buffers needed for an handshake so we can use them in the benchmark.
+        // The handshake also populates the session caches used by the RESUMED handshakes.
+        initEngines(allocator, isResumed());
+        initHandshakeBuffers();
+        if (!doHandshake()) {
+            throw new IllegalStateException();
+        }
+        destroyEngines();
+    }
+
+    @TearDown(Level.Iteration)
+    public void teardown() {
+        destroyHandshakeBuffers();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean handshake() throws Exception {
+        initEngines(allocator, isResumed());
+        boolean ok = doHandshake();
+        destroyEngines();
+        assert ok;
+        return ok;
+    }
+
+    private boolean isResumed() {
+        return handshakeType == HandshakeType.RESUMED;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.ByteBuffer;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Measures the SM4/SM3 record protection of an established GM session. {@code wrap} only encrypts on the client,
+ * {@code wrapUnwrap} also decrypts every record on the server.
+ */
+@State(Scope.Benchmark)
+@Threads(1)
+public class GMSslEngineThroughputBenchmark extends AbstractGMSslEngineBenchmark {
+
+    @Param({ "64", "512", "1024", "4096", "16384" })
+    public int messageSize;
+
+    @Param({ "1", "5" })
+    public int numWraps;
+
+    private ByteBuffer wrapSrcBuffer;
+    private ByteBuffer wrapDstBuffer;
+    private ByteBuffer unwrapDstBuffer;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        initEngines(new PooledByteBufAllocator(true));
+        initHandshakeBuffers();
+
+        wrapSrcBuffer = allocateBuffer(messageSize);
+        byte[] bytes = new byte[messageSize];
+        PlatformDependent.threadLocalRandom().nextBytes(bytes);
+        wrapSrcBuffer.put(bytes);
+        wrapSrcBuffer.flip();
+
+        // Complete the initial GM handshake.
+        if (!doHandshake()) {
+            throw new IllegalStateException();
+        }
+        wrapDstBuffer = allocateBuffer(clientEngine.getSession().getPacketBufferSize() * numWraps);
+        unwrapDstBuffer = allocateBuffer(serverEngine.getSession().getApplicationBufferSize() * numWraps);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        destroyEngines();
+        destroyHandshakeBuffers();
+        freeBuffer(wrapSrcBuffer);
+        freeBuffer(wrapDstBuffer);
+        freeBuffer(unwrapDstBuffer);
+    }
+
+    @Benchmark
+    public ByteBuffer wrap() throws SSLException {
+        return doWrap();
+    }
+
+    @Benchmark
+    public ByteBuffer wrapUnwrap() throws SSLException {
+        ByteBuffer src = doWrap();
+        src.flip();
+
+        unwrapDstBuffer.clear();
+
+        SSLEngineResult unwrapResult;
+        do {
+            unwrapResult = serverEngine.unwrap(src, unwrapDstBuffer);
+        } while (unwrapResult.getStatus() == SSLEngineResult.Status.OK && src.hasRemaining());
+
+        assert unwrapResult.getStatus() == SSLEngineResult.Status.OK && !src.hasRemaining();
+        return unwrapDstBuffer;
+    }
+
+    private ByteBuffer doWrap() throws SSLException {
+        wrapDstBuffer.clear();
+
+        for (int i = 0; i < numWraps; ++i) {
+            wrapSrcBuffer.position(0).limit(messageSize);
+
+            SSLEngineResult wrapResult = clientEngine.wrap(wrapSrcBuffer, wrapDstBuffer);
+
+            assert AbstractSslEngineBenchmark.checkSslEngineResult(wrapResult, wrapSrcBuffer, wrapDstBuffer);
+        }
+        return wrapDstBuffer;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.microbench.channel.EmbeddedChannelWriteAccumulatingHandlerContext;
+import io.netty.microbench.handler.ssl.AbstractSslHandlerThroughputBenchmark.BufferType;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import static io.netty.handler.codec.ByteToMessageDecoder.COMPOSITE_CUMULATOR;
+
+/**
+ * Same as {@link SslHandlerEchoBenchmark} but for a GM session: the client {@link SslHandler} writes and flushes
+ * {@code numWrites} messages and the server {@link SslHandler} decodes the resulting records.
+ */
+@State(Scope.Benchmark)
+@Threads(1)
+public class GMSslHandlerEchoBenchmark extends AbstractMicrobenchmark {
+
+    @Param({ GMSslContexts.TLS_ECDHE_WITH_SM4_SM3, GMSslContexts.TLS_ECC_WITH_SM4_SM3 })
+    public String cipher;
+
+    @Param({ "64", "512", "1024", "4096", "16384" })
+    public int messageSize;
+
+    @Param({ "1", "5" })
+    public int numWrites;
+
+    @Param
+    public BufferType bufferType;
+
+    private SslContext clientContext;
+    private SslContext serverContext;
+    private SslHandler clientSslHandler;
+    private SslHandler serverSslHandler;
+    private EmbeddedChannelWriteAccumulatingHandlerContext clientCtx;
+    private EmbeddedChannelWriteAccumulatingHandlerContext serverCtx;
+    private ByteBuf wrapSrcBuffer;
+
+    @Setup(Level.Trial)
+    public void setupContexts() throws Exception {
+        clientContext = GMSslContexts.newClientContext(cipher);
+        serverContext = GMSslContexts.newServerContext(cipher);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownContexts() {
+        ReferenceCountUtil.release(clientContext);
+        ReferenceCountUtil.release(serverContext);
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        ByteBufAllocator allocator = new PooledByteBufAllocator(true);
+        clientSslHandler = clientContext.newHandler(allocator);
+        serverSslHandler = serverContext.newHandler(allocator);
+        clientCtx = new GMSslHandlerContext(allocator, clientSslHandler);
+        serverCtx = new GMSslHandlerContext(allocator, serverSslHandler);
+
+        wrapSrcBuffer = bufferType.newBuffer(allocator, messageSize);
+        byte[] bytes = new byte[messageSize];
+        PlatformDependent.threadLocalRandom().nextBytes(bytes);
+        wrapSrcBuffer.writeBytes(bytes);
+
+        // Complete the initial GM handshake.
+        serverSslHandler.handlerAdded(serverCtx);
+        clientSslHandler.handlerAdded(clientCtx);
+        do {
+            ByteBuf clientCumulation = clientCtx.cumulation();
+            if (clientCumulation != null) {
+                serverSslHandler.channelRead(serverCtx, clientCumulation.retain());
+                clientCtx.releaseCumulation();
+            }
+            ByteBuf serverCumulation = serverCtx.cumulation();
+            if (serverCumulation != null) {
+                clientSslHandler.channelRead(clientCtx, serverCumulation.retain());
+                serverCtx.releaseCumulation();
+            }
+        } while (!clientSslHandler.handshakeFuture().isDone() || !serverSslHandler.handshakeFuture().isDone());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        try {
+            ReferenceCountUtil.release(clientSslHandler.engine());
+            ReferenceCountUtil.release(serverSslHandler.engine());
+        } finally {
+            wrapSrcBuffer.release();
+            clientCtx.releaseCumulation();
+            serverCtx.releaseCumulation();
+        }
+    }
+
+    @Benchmark
+    public ByteBuf wrapUnwrap() throws Exception {
+        clientCtx.releaseCumulation();
+        for (int i = 0; i < numWrites; ++i) {
+            clientSslHandler.write(clientCtx, wrapSrcBuffer.retainedSlice(), clientCtx.voidPromise());
+        }
+        clientSslHandler.flush(clientCtx);
+        ByteBuf src = clientCtx.cumulation().retainedSlice();
+
+        do {
+            serverSslHandler.channelRead(serverCtx, src);
+        } while (src.isReadable());
+
+        assert !src.isReadable() && src.refCnt() == 1 : "src: " + src + " src.refCnt(): " + src.refCnt();
+
+        return src;
+    }
+
+    private static final class GMSslHandlerContext extends EmbeddedChannelWriteAccumulatingHandlerContext {
+        GMSslHandlerContext(ByteBufAllocator alloc, ChannelHandler handler) {
+            super(alloc, handler, COMPOSITE_CUMULATOR);
+        }
+
+        @Override
+        protected void handleException(Throwable t) {
+            AbstractSslHandlerBenchmark.handleUnexpectedException(t);
+        }
+    }
+}
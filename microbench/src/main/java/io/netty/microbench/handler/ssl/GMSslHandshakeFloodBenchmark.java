@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of an echo over an established GM connection while other clients keep
+ * {@code floodHandshakes} handshakes with the same server event loop in flight. With {@code offload} the SM2
+ * private key operations of the server run on a separate {@link java.util.concurrent.Executor}, so the tail
+ * latency (see the p0.99 percentile of the sample time) of the established connection should no longer grow with
+ * the number of handshakes.
+ */
+@State(Scope.Benchmark)
+@Threads(1)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GMSslHandshakeFloodBenchmark extends AbstractMicrobenchmark {
+
+    @Param({ GMSslContexts.TLS_ECDHE_WITH_SM4_SM3, GMSslContexts.TLS_ECC_WITH_SM4_SM3 })
+    public String cipher;
+
+    @Param({ "false", "true" })
+    public boolean offload;
+
+    @Param({ "0", "16" })
+    public int floodHandshakes;
+
+    @Param({ "256" })
+    public int messageSize;
+
+    private SslContext clientContext;
+    private SslContext serverContext;
+    private EventLoopGroup serverGroup;
+    private EventLoopGroup clientGroup;
+    private ExecutorService offloadExecutor;
+    private Channel serverChannel;
+    private Channel clientChannel;
+    private ByteBuf message;
+    private volatile CountDownLatch echoLatch;
+    private volatile boolean flooding;
+    private Thread floodThread;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        clientContext = GMSslContexts.newClientContext(cipher);
+        serverContext = GMSslContexts.newServerContext(cipher, offload);
+        // All server connections share one event loop, so every handshake that is processed on it delays the echo.
+        serverGroup = new DefaultEventLoopGroup(1);
+        clientGroup = new DefaultEventLoopGroup(2);
+        offloadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        LocalAddress address = new LocalAddress(getClass().getSimpleName());
+        serverChannel = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(offload ? serverContext.newHandler(ch.alloc(), offloadExecutor)
+                                : serverContext.newHandler(ch.alloc()));
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                ctx.writeAndFlush(msg);
+                            }
+                        });
+                    }
+                }).bind(address).sync().channel();
+
+        clientChannel = connect(address, new ChannelInboundHandlerAdapter() {
+            private int received;
+
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                received += ((ByteBuf) msg).readableBytes();
+                ReferenceCountUtil.release(msg);
+                if (received >= messageSize) {
+                    received -= messageSize;
+                    echoLatch.countDown();
+                }
+            }
+        });
+        clientChannel.pipeline().get(SslHandler.class).handshakeFuture().sync();
+
+        message = clientChannel.alloc().directBuffer(messageSize).writeZero(messageSize);
+        startFlood(address);
+    }
+
+    private Channel connect(LocalAddress address, final ChannelInboundHandlerAdapter handler)
+            throws InterruptedException {
+        return new Bootstrap()
+                .group(clientGroup)
+                .channel(LocalChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(clientContext.newHandler(ch.alloc()));
+                        if (handler != null) {
+                            ch.pipeline().addLast(handler);
+                        }
+                    }
+                }).connect(address).sync().channel();
+    }
+
+    private void startFlood(final LocalAddress address) {
+        if (floodHandshakes == 0) {
+            return;
+        }
+        flooding = true;
+        final Semaphore inFlight = new Semaphore(floodHandshakes);
+        floodThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (flooding) {
+                        inFlight.acquire();
+                        Channel ch = connect(address, null);
+                        ch.pipeline().get(SslHandler.class).handshakeFuture().addListener(
+                                new FutureListener<Channel>() {
+                                    @Override
+                                    public void operationComplete(Future<Channel> future) {
+                                        future.getNow().close();
+                                        inFlight.release();
+                                    }
+                                });
+                    }
+                } catch (InterruptedException ignore) {
+                    // Stopped by the tear down.
+                }
+            }
+        }, "handshake-flood");
+        floodThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        flooding = false;
+        if (floodThread != null) {
+            floodThread.interrupt();
+            floodThread.join();
+        }
+        if (clientChannel != null) {
+            clientChannel.close().sync();
+        }
+        if (serverChannel != null) {
+            serverChannel.close().sync();
+        }
+        clientGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        serverGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        offloadExecutor.shutdown();
+        ReferenceCountUtil.release(message);
+        ReferenceCountUtil.release(clientContext);
+        ReferenceCountUtil.release(serverContext);
+    }
+
+    @Benchmark
+    public void echo() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        echoLatch = latch;
+        ChannelFuture future = clientChannel.writeAndFlush(message.retainedDuplicate());
+        future.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        latch.await();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.handler.ssl.GMTrustManager;
+import io.netty.microbench.util.AbstractMicrobenchmark;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of verifying a GM peer certificate chain, which happens once per full handshake.
+ * A cache size of {@code 0} shows the cost of the SM2 path validation itself.
+ */
+@State(Scope.Benchmark)
+public class GMTrustManagerBenchmark extends AbstractMicrobenchmark {
+
+    private static final String AUTH_TYPE = "ECDHE_SM2";
+
+    @Param({ "0", "1024" })
+    public int verifiedChainCacheSize;
+
+    private GMTrustManager trustManager;
+    private X509Certificate[] chain;
+
+    @Setup
+    public void setup() throws Exception {
+        CertificateFactory factory = CertificateFactory.getInstance("X.509", new BouncyCastleProvider());
+        trustManager = new GMTrustManager(verifiedChainCacheSize, loadCertificate(factory, "gm_ca.pem"));
+        chain = new X509Certificate[] { loadCertificate(factory, "gm_server_sign.pem") };
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public X509Certificate[] checkServerTrusted() throws Exception {
+        trustManager.checkServerTrusted(chain, AUTH_TYPE);
+        return chain;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public X509Certificate[] checkClientTrusted() throws Exception {
+        trustManager.checkClientTrusted(chain, AUTH_TYPE);
+        return chain;
+    }
+
+    private static X509Certificate loadCertificate(CertificateFactory factory, String resource) throws Exception {
+        InputStream in = GMTrustManagerBenchmark.class.getResourceAsStream(resource);
+        try {
+            return (X509Certificate) factory.generateCertificate(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures how fast a server side {@link io.netty.handler.ssl.SslHandler} handles a read that contains
+ * {@code recordsPerRead} small records, as is common for RPC traffic. Each operation encrypts the records on the
+ * client side first, as every record can only be decrypted once.
+ */
+public class SslHandlerBatchedUnwrapBenchmark extends AbstractSslHandlerBenchmark {
+
+    @Param({ "1", "8", "32", "128" })
+    public int recordsPerRead;
+
+    @Param({ "64", "512" })
+    public int recordSize;
+
+    @Param({ "false", "true" })
+    public boolean aggregateDecryptedReads;
+
+    private ByteBuf record;
+
+    @Setup(Level.Iteration)
+    public final void setup() throws Exception {
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(true);
+        initSslHandlers(allocator);
+        byte[] bytes = new byte[recordSize];
+        PlatformDependent.threadLocalRandom().nextBytes(bytes);
+        record = allocator.directBuffer(recordSize).writeBytes(bytes);
+        doHandshake();
+        clientCtx.releaseCumulation();
+        serverCtx.releaseCumulation();
+    }
+
+    @Override
+    protected void configureSslHandlers() {
+        serverSslHandler.setAggregateDecryptedReads(aggregateDecryptedReads);
+    }
+
+    @TearDown(Level.Iteration)
+    public final void tearDown() throws Exception {
+        destroySslHandlers();
+        record.release();
+        clientCtx.releaseCumulation();
+        serverCtx.releaseCumulation();
+    }
+
+    @Benchmark
+    public ByteBuf unwrap() throws Exception {
+        clientCtx.releaseCumulation();
+        for (int i = 0; i < recordsPerRead; i++) {
+            // Flush every write so each one results in its own record.
+            clientSslHandler.write(clientCtx, record.retainedSlice(), clientCtx.voidPromise());
+            clientSslHandler.flush(clientCtx);
+        }
+        ByteBuf records = clientCtx.cumulation().retainedSlice();
+
+        serverSslHandler.channelRead(serverCtx, records);
+        serverSslHandler.channelReadComplete(serverCtx);
+
+        assert !records.isReadable() && records.refCnt() == 1 : "records: " + records;
+        return records;
+    }
+}
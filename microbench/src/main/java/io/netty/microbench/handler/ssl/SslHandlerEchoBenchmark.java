@@ -16,13 +16,55 @@
 package io.netty.microbench.handler.ssl;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.ssl.SslHandler;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Param;
 
+import java.util.concurrent.TimeUnit;
+
 public class SslHandlerEchoBenchmark extends AbstractSslHandlerThroughputBenchmark {
     @Param({ "1", "2", "5", "10" })
     public int numWrites;
 
+    @Param
+    public WrapDataSizeMode wrapDataSizeMode;
+
+    public enum WrapDataSizeMode {
+        /**
+         * Always 16 KiB records, the default.
+         */
+        FIXED {
+            @Override
+            void configure(SslHandler handler) {
+            }
+        },
+        /**
+         * Adaptive record sizing where every wrapUnwrap() is part of one long burst, so records grow to 16 KiB.
+         */
+        ADAPTIVE {
+            @Override
+            void configure(SslHandler handler) {
+                handler.setAdaptiveWrapDataSize();
+            }
+        },
+        /**
+         * Adaptive record sizing where every wrapUnwrap() starts a new burst with small records.
+         */
+        ADAPTIVE_IDLE {
+            @Override
+            void configure(SslHandler handler) {
+                handler.setAdaptiveWrapDataSize(1369, 0, TimeUnit.NANOSECONDS);
+            }
+        };
+
+        abstract void configure(SslHandler handler);
+    }
+
+    @Override
+    protected void configureSslHandlers() {
+        wrapDataSizeMode.configure(clientSslHandler);
+    }
+
     @Benchmark
     public ByteBuf wrapUnwrap() throws Exception {
         ByteBuf src = doWrite(numWrites);
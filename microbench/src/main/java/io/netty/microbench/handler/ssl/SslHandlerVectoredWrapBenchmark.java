@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.handler.ssl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.microbench.handler.ssl.AbstractSslHandlerThroughputBenchmark.BufferType;
+import io.netty.util.internal.PlatformDependent;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the default wrap path of {@link io.netty.handler.ssl.SslHandler}, which copies small writes and
+ * {@link CompositeByteBuf}s into one buffer, with {@link io.netty.handler.ssl.SslHandler#setVectoredWrap(boolean)}.
+ * <p>
+ * Besides the throughput the buffers allocated by the client side are reported per operation. Both modes allocate
+ * the buffer for the encrypted records, every other allocation is a copy of the plaintext.
+ */
+public class SslHandlerVectoredWrapBenchmark extends AbstractSslHandlerBenchmark {
+
+    public enum InputType {
+        /**
+         * {@code numBuffers} writes followed by one flush.
+         */
+        WRITES,
+        /**
+         * One write of a {@link CompositeByteBuf} with {@code numBuffers} components.
+         */
+        COMPOSITE
+    }
+
+    @Param({ "16", "128", "1024" })
+    public int bufferSize;
+
+    @Param({ "4", "16" })
+    public int numBuffers;
+
+    @Param
+    public InputType inputType;
+
+    @Param
+    public BufferType bufferType;
+
+    @Param({ "false", "true" })
+    public boolean vectoredWrap;
+
+    private CountingByteBufAllocator allocator;
+    private ByteBuf[] buffers;
+
+    /**
+     * Allocations done on the client side while wrapping.
+     */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class CopyCounters {
+        public long allocations;
+        public long allocatedBytes;
+    }
+
+    @Setup(Level.Iteration)
+    public final void setup() throws Exception {
+        allocator = new CountingByteBufAllocator();
+        initSslHandlers(allocator);
+        buffers = new ByteBuf[numBuffers];
+        byte[] bytes = new byte[bufferSize];
+        for (int i = 0; i < buffers.length; i++) {
+            PlatformDependent.threadLocalRandom().nextBytes(bytes);
+            buffers[i] = bufferType.newBuffer(allocator, bufferSize).writeBytes(bytes);
+        }
+        doHandshake();
+        clientCtx.releaseCumulation();
+        allocator.reset();
+    }
+
+    @Override
+    protected void configureSslHandlers() {
+        clientSslHandler.setVectoredWrap(vectoredWrap);
+    }
+
+    @TearDown(Level.Iteration)
+    public final void tearDown() throws Exception {
+        destroySslHandlers();
+        for (ByteBuf buffer: buffers) {
+            buffer.release();
+        }
+        clientCtx.releaseCumulation();
+        serverCtx.releaseCumulation();
+    }
+
+    @Benchmark
+    public int wrap(CopyCounters counters) throws Exception {
+        if (inputType == InputType.COMPOSITE) {
+            CompositeByteBuf composite = allocator.compositeBuffer(buffers.length);
+            for (ByteBuf buffer: buffers) {
+                composite.addComponent(true, buffer.retainedSlice());
+            }
+            clientSslHandler.write(clientCtx, composite, clientCtx.voidPromise());
+        } else {
+            for (ByteBuf buffer: buffers) {
+                clientSslHandler.write(clientCtx, buffer.retainedSlice(), clientCtx.voidPromise());
+            }
+        }
+        clientSslHandler.flush(clientCtx);
+        int produced = clientCtx.cumulation().readableBytes();
+        clientCtx.releaseCumulation();
+
+        counters.allocations += allocator.allocations;
+        counters.allocatedBytes += allocator.allocatedBytes;
+        allocator.reset();
+        return produced;
+    }
+
+    private static final class CountingByteBufAllocator extends PooledByteBufAllocator {
+        long allocations;
+        long allocatedBytes;
+
+        CountingByteBufAllocator() {
+            super(true);
+        }
+
+        @Override
+        public ByteBuf heapBuffer(int initialCapacity, int maxCapacity) {
+            allocations++;
+            allocatedBytes += initialCapacity;
+            return super.heapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        public ByteBuf directBuffer(int initialCapacity, int maxCapacity) {
+            allocations++;
+            allocatedBytes += initialCapacity;
+            return super.directBuffer(initialCapacity, maxCapacity);
+        }
+
+        void reset() {
+            allocations = 0;
+            allocatedBytes = 0;
+        }
+    }
+}